@@ -20,6 +20,7 @@ export function doChatWithLoveAppSse(message, chatId) {
 
 /**
  * AI超级智能体 SSE 聊天
+ * 后端按首次请求时签发的租户 Cookie（HttpOnly）区分用户并排队，需要带上 Cookie
  * @param {string} message - 用户消息
  * @returns {EventSource} EventSource实例
  */
@@ -28,5 +29,5 @@ export function doChatWithManus(message) {
     message: message
   })
   const url = `${API_BASE}/ai/manus/chat?${params.toString()}`
-  return new EventSource(url)
+  return new EventSource(url, { withCredentials: true })
 }
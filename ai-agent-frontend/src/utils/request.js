@@ -5,7 +5,9 @@ const baseURL = import.meta.env.VITE_API_BASE_URL || '/api'
 
 const request = axios.create({
   baseURL: baseURL,
-  timeout: 30000
+  timeout: 30000,
+  // 携带后端签发的租户 Cookie
+  withCredentials: true
 })
 
 // 请求拦截器
@@ -0,0 +1,93 @@
+package com.xinwei.aiagent.advisor;
+
+import com.xinwei.aiagent.chatmemory.MessageTokenCounter;
+import com.xinwei.aiagent.chatmemory.TokenBudgetChatMemory;
+import org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.MessageAggregator;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按 token 预算注入对话历史的记忆 Advisor
+ * 与 MessageChatMemoryAdvisor 的区别：不按固定条数取历史，而是取总 token 数不超过预算的最长历史后缀，
+ * 长消息多时不会撑爆上下文，短消息多时也能带上更多轮次。
+ * 单次请求可以通过 CHAT_MEMORY_TOKEN_BUDGET_KEY 参数覆盖默认预算。
+ */
+public class TokenBudgetChatMemoryAdvisor extends AbstractChatMemoryAdvisor<ChatMemory> {
+
+    public static final String CHAT_MEMORY_TOKEN_BUDGET_KEY = "chat_memory_token_budget";
+
+    // 默认的历史 token 预算
+    private final int defaultTokenBudget;
+
+    /**
+     * @param chatMemory 对话记忆，实现了 TokenBudgetChatMemory 时直接使用其中保存的 token 数
+     * @param defaultTokenBudget 默认的历史 token 预算
+     */
+    public TokenBudgetChatMemoryAdvisor(ChatMemory chatMemory, int defaultTokenBudget) {
+        super(chatMemory);
+        this.defaultTokenBudget = defaultTokenBudget;
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        advisedRequest = this.before(advisedRequest);
+        AdvisedResponse advisedResponse = chain.nextAroundCall(advisedRequest);
+        this.observeAfter(advisedResponse);
+        return advisedResponse;
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        Flux<AdvisedResponse> advisedResponses = this.doNextWithProtectFromBlockingBefore(advisedRequest, chain,
+                this::before);
+        return new MessageAggregator().aggregateAdvisedResponse(advisedResponses, this::observeAfter);
+    }
+
+    private AdvisedRequest before(AdvisedRequest request) {
+        String conversationId = this.doGetConversationId(request.adviseContext());
+        int tokenBudget = getTokenBudget(request.adviseContext());
+        // 1. 取出预算内的历史
+        List<Message> memoryMessages;
+        if (this.getChatMemoryStore() instanceof TokenBudgetChatMemory budgetMemory) {
+            memoryMessages = budgetMemory.getWithinTokenBudget(conversationId, tokenBudget);
+        } else {
+            // 底层记忆不保存 token 数时，按条数取出后再逐条计数截取
+            List<Message> recent = this.getChatMemoryStore().get(conversationId,
+                    this.doGetChatMemoryRetrieveSize(request.adviseContext()));
+            memoryMessages = MessageTokenCounter.suffixWithinBudget(recent, tokenBudget);
+        }
+        // 2. 把历史拼到请求消息中
+        List<Message> advisedMessages = new ArrayList<>(request.messages());
+        advisedMessages.addAll(memoryMessages);
+        AdvisedRequest advisedRequest = AdvisedRequest.from(request).messages(advisedMessages).build();
+        // 3. 保存本次的用户输入
+        UserMessage userMessage = new UserMessage(request.userText(), request.media());
+        this.getChatMemoryStore().add(conversationId, userMessage);
+        return advisedRequest;
+    }
+
+    private void observeAfter(AdvisedResponse advisedResponse) {
+        List<Message> assistantMessages = advisedResponse.response()
+                .getResults()
+                .stream()
+                .map(g -> (Message) g.getOutput())
+                .toList();
+        this.getChatMemoryStore().add(this.doGetConversationId(advisedResponse.adviseContext()), assistantMessages);
+    }
+
+    private int getTokenBudget(Map<String, Object> context) {
+        Object budget = context.get(CHAT_MEMORY_TOKEN_BUDGET_KEY);
+        return budget == null ? defaultTokenBudget : Integer.parseInt(budget.toString());
+    }
+}
@@ -0,0 +1,11 @@
+package com.xinwei.aiagent.agent.model;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 一次运行最后完成的一步：发起运行的租户（默认租户为 null）、步数、状态和到这一步为止的完整消息上下文
+ */
+public record AgentCheckpoint(String runId, String tenant, int step, AgentState state, List<Message> messages) {
+}
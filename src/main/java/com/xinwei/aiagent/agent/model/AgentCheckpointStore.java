@@ -0,0 +1,186 @@
+package com.xinwei.aiagent.agent.model;
+
+import cn.hutool.core.util.IdUtil;
+import com.xinwei.aiagent.chatmemory.MessageCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 智能体运行的检查点存储
+ *
+ * 每次运行一个只追加的日志文件 {baseDir}/{runId 前两位}/{runId}.ckpt，每完成一步追加一条记录：
+ * [4 字节负载长度][4 字节 CRC32][负载]，负载为 [租户][步数][状态][起始下标][消息数][每条消息：长度 + MessageCodec 编码]。
+ * 记录只包含上次检查点之后新增的消息，写入开销与本步新增的消息量有关，与历史长度无关；
+ * 起始下标小于已记录的消息数时表示消息列表被整体替换过，回放时先截断到该下标再追加。
+ *
+ * 进程在写入途中退出会留下不完整的尾部记录，读取时丢弃并截断文件，之后的追加接在最后一条完整记录之后。
+ * 同一个进程内一个运行同时只能被一个智能体占用（claim / release），防止对正在进行的运行重复恢复。
+ * 检查点记录发起运行的租户，恢复时由调用方校验，一个租户不能恢复其他租户的运行。
+ */
+@Slf4j
+public class AgentCheckpointStore {
+
+    private static final String SUFFIX = ".ckpt";
+    private static final Pattern RUN_ID = Pattern.compile("[0-9A-Za-z_-]{1,64}");
+    private static final int HEADER_BYTES = 8;
+
+    private final Path baseDir;
+    // 追加后是否立即 fsync
+    private final boolean fsync;
+    // 本进程内正在使用的运行
+    private final Set<String> claimedRuns = ConcurrentHashMap.newKeySet();
+
+    public AgentCheckpointStore(Path baseDir, boolean fsync) {
+        this.baseDir = baseDir;
+        this.fsync = fsync;
+    }
+
+    /**
+     * 生成新的运行 ID
+     */
+    public static String newRunId() {
+        return IdUtil.fastSimpleUUID();
+    }
+
+    /**
+     * 占用一个运行，运行 ID 无效或已被占用时返回 false
+     */
+    public boolean claim(String runId) {
+        return runId != null && RUN_ID.matcher(runId).matches() && claimedRuns.add(runId);
+    }
+
+    public void release(String runId) {
+        claimedRuns.remove(runId);
+    }
+
+    /**
+     * 追加一步的检查点
+     *
+     * @param tenant 发起运行的租户，为 null 时表示默认租户
+     * @param baseIndex 新增消息在完整消息列表中的起始下标
+     * @param newMessages 自上次检查点之后新增的消息
+     */
+    public void append(String runId, String tenant, int step, AgentState state, int baseIndex,
+                       List<Message> newMessages) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(256);
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeUTF(tenant == null ? "" : tenant);
+        payload.writeInt(step);
+        payload.writeByte(state.ordinal());
+        payload.writeInt(baseIndex);
+        payload.writeInt(newMessages.size());
+        for (Message message : newMessages) {
+            byte[] encoded = MessageCodec.encode(message);
+            payload.writeInt(encoded.length);
+            payload.write(encoded);
+        }
+        byte[] bytes = payloadBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + bytes.length);
+        record.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+
+        Path file = fileOf(runId);
+        Files.createDirectories(file.getParent());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+        }
+    }
+
+    /**
+     * 回放日志，得到最后一个完整检查点；运行不存在时返回空
+     */
+    public Optional<AgentCheckpoint> load(String runId) throws IOException {
+        Path file = fileOf(runId);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        List<Message> messages = new ArrayList<>();
+        String tenant = null;
+        int step = 0;
+        AgentState state = null;
+        int validLength = 0;
+        while (buffer.remaining() >= HEADER_BYTES) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            byte[] tenantBytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(tenantBytes);
+            tenant = tenantBytes.length == 0 ? null : new String(tenantBytes, StandardCharsets.UTF_8);
+            step = buffer.getInt();
+            state = AgentState.values()[buffer.get()];
+            int baseIndex = buffer.getInt();
+            int count = buffer.getInt();
+            if (baseIndex < messages.size()) {
+                messages.subList(baseIndex, messages.size()).clear();
+            }
+            for (int i = 0; i < count; i++) {
+                int messageLength = buffer.getInt();
+                int end = buffer.position() + messageLength;
+                messages.add(MessageCodec.decode(buffer));
+                buffer.position(end);
+            }
+            validLength = buffer.position();
+        }
+        if (validLength < buffer.capacity()) {
+            log.warn("检查点 {} 的尾部记录不完整，截断 {} 字节", runId, buffer.capacity() - validLength);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        if (state == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new AgentCheckpoint(runId, tenant, step, state, messages));
+    }
+
+    /**
+     * 删除运行的检查点
+     */
+    public void delete(String runId) throws IOException {
+        Files.deleteIfExists(fileOf(runId));
+    }
+
+    private Path fileOf(String runId) {
+        checkRunId(runId);
+        String shard = runId.length() >= 2 ? runId.substring(0, 2) : runId;
+        return baseDir.resolve(shard).resolve(runId + SUFFIX);
+    }
+
+    private static void checkRunId(String runId) {
+        if (runId == null || !RUN_ID.matcher(runId).matches()) {
+            throw new IllegalArgumentException("无效的运行 ID: " + runId);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.xinwei.aiagent.agent.model;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 决定每一步实际发送给大模型的消息
+ *
+ * 智能体的 messageList 保存完整的运行记录，每次 think 前由上下文管理器从中挑选、裁剪出本次请求的消息，
+ * 不修改 messageList 本身。
+ */
+@FunctionalInterface
+public interface AgentContextManager {
+
+    /**
+     * 不做任何处理，每一步都发送完整的消息列表
+     */
+    AgentContextManager FULL_HISTORY = (messages, nextStepPrompt) -> messages;
+
+    /**
+     * @param messages 完整的消息列表，最后一条通常是本步追加的下一步提示词
+     * @param nextStepPrompt 每一步重复追加的提示词，可能为 null
+     * @return 本次发送给模型的消息
+     */
+    List<Message> prepare(List<Message> messages, String nextStepPrompt);
+}
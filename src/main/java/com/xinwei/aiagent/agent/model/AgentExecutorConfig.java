@@ -0,0 +1,175 @@
+package com.xinwei.aiagent.agent.model;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import org.springframework.ai.tool.ToolCallback;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 智能体执行配置
+ * agent.executor.max-concurrent-runs 限制同时运行的智能体数，超出的排队等待；
+ * 排队按用户分开，max-runs-per-tenant / max-queued-per-tenant 限制单个用户，tenant-weights 配置用户的调度权重；
+ * 队列深度、运行数和排队时间注册到 MeterRegistry（没有该 bean 时不注册，例如未引入 actuator）
+ * agent.context.max-tokens 限制每一步发送给模型的消息 token 数，agent.context.enabled=false 时发送完整历史
+ * agent.tracing.enabled 开启后记录每次运行、步骤、思考、行动和工具调用的耗时与大小，可选写出每次运行的 trace JSON
+ * agent.termination.* 配置提前结束运行的策略（连续不调用工具、重复的工具调用），节省的步数记录到 MeterRegistry
+ * agent.tool-routing.enabled 开启后每一步只把和任务相关的工具定义发给模型，省去的 token 数记录在 trace 中
+ * agent.checkpoint.enabled 开启后每一步结束时把新增的消息追加到 agent.checkpoint.dir 下的检查点，中断的运行可以恢复
+ */
+@Slf4j
+@Configuration
+public class AgentExecutorConfig {
+
+    @Value("${agent.executor.max-concurrent-runs:32}")
+    private int maxConcurrentRuns;
+
+    @Value("${agent.executor.max-queued:1000}")
+    private int maxQueued;
+
+    @Value("${agent.executor.virtual-threads:true}")
+    private boolean virtualThreads;
+
+    @Value("${agent.executor.max-runs-per-tenant:4}")
+    private int maxRunsPerTenant;
+
+    @Value("${agent.executor.max-queued-per-tenant:20}")
+    private int maxQueuedPerTenant;
+
+    // 用户的调度权重，格式为 用户=权重，未配置的用户权重为 1
+    @Value("${agent.executor.tenant-weights:}")
+    private String[] tenantWeights;
+
+    @Value("${agent.context.enabled:true}")
+    private boolean contextEnabled;
+
+    @Value("${agent.context.max-tokens:8000}")
+    private int contextMaxTokens;
+
+    @Value("${agent.context.old-tool-response-chars:1000}")
+    private int oldToolResponseChars;
+
+    @Value("${agent.checkpoint.dir:${user.dir}/tmp/agent-checkpoints}")
+    private String checkpointDir;
+
+    @Value("${agent.checkpoint.fsync:false}")
+    private boolean checkpointFsync;
+
+    @Value("${agent.tracing.enabled:false}")
+    private boolean tracingEnabled;
+
+    @Value("${agent.tracing.percentile-histograms:true}")
+    private boolean percentileHistograms;
+
+    @Value("${agent.tracing.trace-json:false}")
+    private boolean traceJson;
+
+    @Value("${agent.tracing.trace-dir:${user.dir}/tmp/agent-traces}")
+    private String traceDir;
+
+    @Value("${agent.termination.max-no-tool-call-steps:2}")
+    private int maxNoToolCallSteps;
+
+    @Value("${agent.termination.max-repeated-tool-calls:3}")
+    private int maxRepeatedToolCalls;
+
+    @Value("${agent.termination.finish-with-other-calls:true}")
+    private boolean finishWithOtherCalls;
+
+    @Value("${agent.tool-routing.max-tools:4}")
+    private int routingMaxTools;
+
+    @Value("${agent.tool-routing.always-include:doTerminate}")
+    private String[] routingAlwaysInclude;
+
+    // 工具的中文关键词，格式为 工具名=关键词1|关键词2；内置工具的描述是英文，中文任务靠这些关键词匹配
+    @Value("${agent.tool-routing.keywords:"
+            + "searchWeb=搜索|查找|查询|搜一下|资料|推荐|攻略|新闻|最新|search,"
+            + "scrapeWebPage=网页|网址|网站|链接|抓取|爬取|url|http,"
+            + "downloadResource=下载|图片|资源|保存到本地,"
+            + "executeTerminalCommand=终端|命令|执行|运行|脚本|shell,"
+            + "readFile=读取|打开文件|文件内容|查看文件,"
+            + "writeFile=写入|保存|文件|记录,"
+            + "generatePDF=pdf|文档|报告|整理成}")
+    private String[] routingKeywords;
+
+    @Bean(destroyMethod = "close")
+    public AgentRunExecutor agentRunExecutor(ObjectProvider<MeterRegistry> meterRegistry) {
+        Map<String, Integer> weights = new HashMap<>();
+        for (String entry : tenantWeights) {
+            String[] parts = entry.split("=", 2);
+            if (parts.length == 2) {
+                weights.put(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+            }
+        }
+        AgentRunExecutor executor = new AgentRunExecutor(maxConcurrentRuns, maxQueued, virtualThreads,
+                maxRunsPerTenant, maxQueuedPerTenant, weights);
+        // 只有存在 MeterRegistry（如引入了 actuator）时才注册指标，空的全局注册表会直接丢弃
+        meterRegistry.ifAvailable(executor::bindTo);
+        return executor;
+    }
+
+    @Bean
+    public AgentContextManager agentContextManager() {
+        if (!contextEnabled) {
+            return AgentContextManager.FULL_HISTORY;
+        }
+        return new TokenBudgetContextManager(contextMaxTokens, oldToolResponseChars);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "agent.tool-routing.enabled", havingValue = "true", matchIfMissing = true)
+    public ToolRouter toolRouter(ToolCallback[] allTools) {
+        Map<String, List<String>> keywords = new HashMap<>();
+        for (String entry : routingKeywords) {
+            String[] parts = entry.split("=", 2);
+            if (parts.length == 2) {
+                keywords.put(parts[0].trim(), Arrays.asList(parts[1].split("\\|")));
+            }
+        }
+        Set<String> alwaysInclude = Set.copyOf(Arrays.stream(routingAlwaysInclude).map(String::trim).toList());
+        return new KeywordToolRouter(List.of(allTools), keywords, alwaysInclude, routingMaxTools);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "agent.checkpoint.enabled", havingValue = "true", matchIfMissing = true)
+    public AgentCheckpointStore agentCheckpointStore() {
+        return new AgentCheckpointStore(Path.of(checkpointDir), checkpointFsync);
+    }
+
+    @Bean
+    public TerminationPolicy terminationPolicy(ObjectProvider<MeterRegistry> meterRegistry) {
+        TerminationPolicy policy = new TerminationPolicy(maxNoToolCallSteps, maxRepeatedToolCalls, finishWithOtherCalls);
+        meterRegistry.ifAvailable(policy::bindTo);
+        return policy;
+    }
+
+    @Bean
+    public AgentTracer agentTracer(ObjectProvider<MeterRegistry> meterRegistry) {
+        if (!tracingEnabled) {
+            return AgentTracer.NOOP;
+        }
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (registry == null) {
+            if (!traceJson) {
+                log.warn("agent.tracing.enabled 已开启但没有 MeterRegistry（未引入 actuator），不记录运行指标");
+                return AgentTracer.NOOP;
+            }
+            // 只写 trace JSON，计时器留在本地注册表中，不会导出
+            registry = new SimpleMeterRegistry();
+        }
+        return new MicrometerAgentTracer(registry, percentileHistograms, traceJson ? Path.of(traceDir) : null);
+    }
+}
@@ -0,0 +1,402 @@
+package com.xinwei.aiagent.agent.model;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 智能体运行的专用执行器
+ *
+ * 智能体一次运行要多次等待大模型和工具的 I/O，放在 ForkJoinPool.commonPool 里会长时间占住公共线程，
+ * 并发一高就会拖慢应用里其他用到公共池的并行流和异步任务。这里默认每次运行一个虚拟线程，
+ * 同时运行的数量限制为 maxConcurrentRuns，超出的运行进入排队，排队时不占线程；排队数超过 maxQueued 时直接拒绝。
+ *
+ * 排队按租户（用户）分开：每个租户一个先进先出队列，同一租户同时运行的数量不超过 maxRunsPerTenant，
+ * 排队数不超过 maxQueuedPerTenant，少数用户大量提交时不会占满所有运行名额和队列。
+ * 有空闲名额时按加权公平排队选择下一个租户：每个租户有一个虚拟时间，每准入一次运行增加 1/权重，
+ * 选择虚拟时间最小且未达上限的租户；租户从空闲变为有排队时虚拟时间至少追到当前的系统虚拟时间，
+ * 空闲期间不会积累额度。权重为 2 的租户在竞争时获得的运行名额约为权重 1 的两倍。
+ *
+ * 排队的运行通过 QueueListener 收到预计的排队位置（按上述规则推演的准入顺序，不考虑各租户的并发上限），
+ * 位置变化时再次通知；每次运行的排队时间记录到 agent.runs.queue.wait 计时器。
+ */
+@Slf4j
+public class AgentRunExecutor implements AutoCloseable {
+
+    /**
+     * 不区分租户时使用的租户
+     */
+    public static final String DEFAULT_TENANT = "default";
+
+    /**
+     * 排队位置的监听器，position 从 1 开始
+     */
+    @FunctionalInterface
+    public interface QueueListener {
+
+        QueueListener NONE = position -> {
+        };
+
+        void onQueued(int position);
+    }
+
+    private final ExecutorService executor;
+    private final int maxConcurrentRuns;
+    private final int maxRunsPerTenant;
+    private final int maxQueued;
+    private final int maxQueuedPerTenant;
+    private final Map<String, Integer> tenantWeights;
+    // 有排队或正在运行的租户，以下状态都由 this 保护
+    private final Map<String, Tenant> tenants = new LinkedHashMap<>();
+    private int queued;
+    private int active;
+    private double virtualClock;
+    private boolean closed;
+    private volatile Timer queueWait;
+
+    /**
+     * 不区分租户的执行器
+     *
+     * @param maxConcurrentRuns 同时运行的智能体数上限
+     * @param maxQueued 等待准入的运行数上限
+     * @param virtualThreads true 时每次运行一个虚拟线程；false 时使用 maxConcurrentRuns 个平台线程
+     */
+    public AgentRunExecutor(int maxConcurrentRuns, int maxQueued, boolean virtualThreads) {
+        this(maxConcurrentRuns, maxQueued, virtualThreads, maxConcurrentRuns, maxQueued, Map.of());
+    }
+
+    /**
+     * @param maxRunsPerTenant 每个租户同时运行的智能体数上限
+     * @param maxQueuedPerTenant 每个租户等待准入的运行数上限
+     * @param tenantWeights 租户的权重，未配置的租户权重为 1
+     */
+    public AgentRunExecutor(int maxConcurrentRuns, int maxQueued, boolean virtualThreads,
+                            int maxRunsPerTenant, int maxQueuedPerTenant, Map<String, Integer> tenantWeights) {
+        this.executor = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("agent-run-", 0).factory())
+                : Executors.newFixedThreadPool(maxConcurrentRuns, Thread.ofPlatform().name("agent-run-", 0).factory());
+        this.maxConcurrentRuns = maxConcurrentRuns;
+        this.maxQueued = maxQueued;
+        this.maxRunsPerTenant = maxRunsPerTenant;
+        this.maxQueuedPerTenant = maxQueuedPerTenant;
+        this.tenantWeights = Map.copyOf(tenantWeights);
+    }
+
+    /**
+     * 以默认租户提交一次运行
+     *
+     * @throws RejectedExecutionException 排队的运行数已达上限或执行器已关闭
+     */
+    public CompletableFuture<Void> submit(Runnable run) {
+        return submit(DEFAULT_TENANT, run, QueueListener.NONE);
+    }
+
+    /**
+     * 提交一次运行，获得准入后执行；运行开始前取消返回的 future 会把它移出队列
+     *
+     * @param tenant 租户（用户）标识，为空时使用默认租户
+     * @param listener 需要排队时接收排队位置，在提交线程或其他运行结束的线程上调用
+     * @throws RejectedExecutionException 排队的运行数（总数或该租户的）已达上限，或执行器已关闭
+     */
+    public CompletableFuture<Void> submit(String tenant, Runnable run, QueueListener listener) {
+        Pending pending = new Pending(tenant == null || tenant.isBlank() ? DEFAULT_TENANT : tenant, run, listener);
+        List<Pending> started;
+        List<Notification> notifications;
+        synchronized (this) {
+            if (closed) {
+                throw new RejectedExecutionException("执行器已关闭");
+            }
+            Tenant owner = tenants.get(pending.tenant);
+            if (queued >= maxQueued) {
+                throw new RejectedExecutionException("排队的智能体运行数已达上限: " + maxQueued);
+            }
+            if (owner != null && owner.queue.size() >= maxQueuedPerTenant) {
+                throw new RejectedExecutionException("该用户排队的智能体运行数已达上限: " + maxQueuedPerTenant);
+            }
+            if (owner == null) {
+                owner = new Tenant(tenantWeights.getOrDefault(pending.tenant, 1));
+                tenants.put(pending.tenant, owner);
+            }
+            if (owner.queue.isEmpty()) {
+                owner.virtualTime = Math.max(owner.virtualTime, virtualClock);
+            }
+            owner.queue.add(pending);
+            queued++;
+            started = dispatch();
+            notifications = positions();
+        }
+        start(started);
+        notify(notifications);
+        pending.future.whenComplete((ignored, error) -> {
+            if (pending.future.isCancelled()) {
+                remove(pending);
+            }
+        });
+        return pending.future;
+    }
+
+    /**
+     * 有空闲名额时按加权公平规则准入排队的运行，返回需要启动的运行
+     */
+    private List<Pending> dispatch() {
+        List<Pending> started = new ArrayList<>();
+        while (active < maxConcurrentRuns) {
+            Tenant next = null;
+            for (Tenant tenant : tenants.values()) {
+                if (!tenant.queue.isEmpty() && tenant.active < maxRunsPerTenant
+                        && (next == null || tenant.virtualTime < next.virtualTime)) {
+                    next = tenant;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            Pending pending = next.queue.poll();
+            queued--;
+            active++;
+            next.active++;
+            virtualClock = next.virtualTime;
+            next.virtualTime += 1.0 / next.weight;
+            pending.dispatched = true;
+            started.add(pending);
+        }
+        return started;
+    }
+
+    /**
+     * 推演准入顺序，返回排队位置有变化且需要通知的运行
+     */
+    private List<Notification> positions() {
+        if (queued == 0) {
+            return List.of();
+        }
+        Map<Tenant, Double> virtualTimes = new HashMap<>();
+        Map<Tenant, Iterator<Pending>> queues = new HashMap<>();
+        tenants.values().stream().filter(tenant -> !tenant.queue.isEmpty()).forEach(tenant -> {
+            virtualTimes.put(tenant, tenant.virtualTime);
+            queues.put(tenant, tenant.queue.iterator());
+        });
+        List<Notification> notifications = new ArrayList<>();
+        for (int position = 1; !queues.isEmpty(); position++) {
+            Tenant next = null;
+            for (Tenant tenant : tenants.values()) {
+                if (queues.containsKey(tenant) && (next == null || virtualTimes.get(tenant) < virtualTimes.get(next))) {
+                    next = tenant;
+                }
+            }
+            Iterator<Pending> queue = queues.get(next);
+            Pending pending = queue.next();
+            if (!queue.hasNext()) {
+                queues.remove(next);
+            }
+            virtualTimes.merge(next, 1.0 / next.weight, Double::sum);
+            if (pending.position != position) {
+                pending.position = position;
+                if (pending.listener != QueueListener.NONE) {
+                    notifications.add(new Notification(pending, position));
+                }
+            }
+        }
+        return notifications;
+    }
+
+    private void start(List<Pending> started) {
+        for (Pending pending : started) {
+            Timer timer = queueWait;
+            if (timer != null) {
+                timer.record(System.nanoTime() - pending.enqueuedAt, TimeUnit.NANOSECONDS);
+            }
+            try {
+                executor.execute(() -> {
+                    Throwable failure = null;
+                    try {
+                        pending.run.run();
+                    } catch (Throwable e) {
+                        failure = e;
+                    } finally {
+                        // 先释放名额再完成 future，等待 future 的一方看到的计数已经更新
+                        finish(pending);
+                    }
+                    if (failure == null) {
+                        pending.future.complete(null);
+                    } else {
+                        pending.future.completeExceptionally(failure);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 执行器已关闭
+                pending.future.completeExceptionally(e);
+                finish(pending);
+            }
+        }
+    }
+
+    private void notify(List<Notification> notifications) {
+        for (Notification notification : notifications) {
+            if (notification.pending.dispatched || notification.pending.position != notification.position) {
+                continue;
+            }
+            try {
+                notification.pending.listener.onQueued(notification.position);
+            } catch (RuntimeException e) {
+                log.warn("排队位置通知失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void finish(Pending pending) {
+        List<Pending> started;
+        List<Notification> notifications;
+        synchronized (this) {
+            Tenant tenant = tenants.get(pending.tenant);
+            active--;
+            tenant.active--;
+            if (tenant.active == 0 && tenant.queue.isEmpty()) {
+                tenants.remove(pending.tenant);
+            }
+            started = closed ? List.of() : dispatch();
+            notifications = positions();
+        }
+        start(started);
+        notify(notifications);
+    }
+
+    private void remove(Pending pending) {
+        List<Notification> notifications;
+        synchronized (this) {
+            Tenant tenant = tenants.get(pending.tenant);
+            if (pending.dispatched || tenant == null || !tenant.queue.remove(pending)) {
+                return;
+            }
+            queued--;
+            if (tenant.active == 0 && tenant.queue.isEmpty()) {
+                tenants.remove(pending.tenant);
+            }
+            notifications = positions();
+        }
+        notify(notifications);
+    }
+
+    /**
+     * 等待准入的运行数
+     */
+    public synchronized int queueDepth() {
+        return queued;
+    }
+
+    /**
+     * 某个租户等待准入的运行数
+     */
+    public synchronized int queueDepth(String tenant) {
+        Tenant state = tenants.get(tenant);
+        return state == null ? 0 : state.queue.size();
+    }
+
+    /**
+     * 正在运行的智能体数
+     */
+    public synchronized int activeRuns() {
+        return active;
+    }
+
+    /**
+     * 某个租户正在运行的智能体数
+     */
+    public synchronized int activeRuns(String tenant) {
+        Tenant state = tenants.get(tenant);
+        return state == null ? 0 : state.active;
+    }
+
+    /**
+     * 执行器是否已关闭，关闭后不再接受提交
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 注册 agent.runs.queued 和 agent.runs.active 两个 gauge，以及排队时间的计时器 agent.runs.queue.wait（带直方图）
+     */
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("agent.runs.queued", this, AgentRunExecutor::queueDepth)
+                .description("等待准入的智能体运行数")
+                .register(registry);
+        Gauge.builder("agent.runs.active", this, AgentRunExecutor::activeRuns)
+                .description("正在运行的智能体数")
+                .register(registry);
+        queueWait = Timer.builder("agent.runs.queue.wait")
+                .description("智能体运行从提交到准入的排队时间")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * 不再接受新的运行，取消仍在排队的运行，等待已开始的运行结束（最多 30 秒）
+     */
+    @Override
+    public void close() {
+        List<Pending> cancelled = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            tenants.values().forEach(tenant -> cancelled.addAll(tenant.queue));
+        }
+        cancelled.forEach(pending -> pending.future.cancel(false));
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("仍有智能体运行未结束，强制中断: active={}, queued={}", activeRuns(), queueDepth());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Tenant {
+
+        private final int weight;
+        private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+        private int active;
+        private double virtualTime;
+
+        private Tenant(int weight) {
+            this.weight = Math.max(1, weight);
+        }
+    }
+
+    private static final class Pending {
+
+        private final String tenant;
+        private final Runnable run;
+        private final QueueListener listener;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+        // 最近一次推演的排队位置
+        private volatile int position;
+        private volatile boolean dispatched;
+
+        private Pending(String tenant, Runnable run, QueueListener listener) {
+            this.tenant = tenant;
+            this.run = run;
+            this.listener = listener;
+        }
+    }
+
+    private record Notification(Pending pending, int position) {
+    }
+}
@@ -0,0 +1,76 @@
+package com.xinwei.aiagent.agent.model;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+
+/**
+ * 一次运行的观测记录
+ *
+ * 计时的用法是先调用 start() 取得起点，结束时把起点传回对应的方法；NOOP 的 start() 返回 0，不读取时钟。
+ * tool 可能在多个工具线程上并发调用，实现需要线程安全。
+ */
+public interface AgentRunTrace {
+
+    AgentRunTrace NOOP = new AgentRunTrace() {
+    };
+
+    /**
+     * 计时起点（纳秒）
+     */
+    default long start() {
+        return 0;
+    }
+
+    default void step(int step, long startNanos) {
+    }
+
+    default void think(int step, long startNanos) {
+    }
+
+    default void act(int step, long startNanos) {
+    }
+
+    /**
+     * 模型返回的 token 用量
+     */
+    default void modelResponse(int step, ChatResponse response) {
+    }
+
+    /**
+     * 一次工具调用结束
+     *
+     * @param outcome success、timeout、error、cancelled 或 not_found
+     */
+    default void tool(int step, AssistantMessage.ToolCall toolCall, String result, String outcome, long durationNanos) {
+    }
+
+    /**
+     * 工具路由选择了本步发送的工具
+     *
+     * @param selectedTools 发送的工具数
+     * @param availableTools 全部工具数
+     * @param savedTokens 没有发送的工具定义的 token 数（估算）
+     */
+    default void toolRouting(int step, int selectedTools, int availableTools, int savedTokens) {
+    }
+
+    /**
+     * 终止策略提前结束了运行
+     *
+     * @param savedSteps 最多还会执行的步数
+     */
+    default void earlyTermination(int step, String reason, int savedSteps) {
+    }
+
+    /**
+     * 一次检查点写入（编码 + 追加到文件）
+     */
+    default void checkpoint(int step, long startNanos) {
+    }
+
+    /**
+     * 运行结束
+     */
+    default void finish(AgentState state, int steps) {
+    }
+}
@@ -0,0 +1,22 @@
+package com.xinwei.aiagent.agent.model;
+
+/**
+ * 智能体运行的观测入口
+ *
+ * 每次运行开始时由 startRun 得到一个 AgentRunTrace，运行期间的步骤、思考、行动、工具调用和检查点都记录到它上面。
+ * 未开启观测时使用 NOOP：返回的 AgentRunTrace 什么也不做，start() 不读取时钟，
+ * 也不计算消息和工具参数的大小，开销只有几次空方法调用。
+ */
+@FunctionalInterface
+public interface AgentTracer {
+
+    AgentTracer NOOP = (agentName, runId) -> AgentRunTrace.NOOP;
+
+    /**
+     * 开始记录一次运行
+     *
+     * @param agentName 智能体名称
+     * @param runId 运行 ID，未开启检查点时为 null
+     */
+    AgentRunTrace startRun(String agentName, String runId);
+}
@@ -2,16 +2,27 @@ package com.xinwei.aiagent.agent.model;
 
 
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 /**
  * 抽象基础代理类，用于管理代理状态和执行流程。  
@@ -42,6 +53,59 @@ public abstract class BaseAgent {
   
     // Memory（需要自主维护会话上下文）  
     private List<Message> messageList = new ArrayList<>();
+
+    // 流式运行使用的执行器，由 ManusFactory 注入；直接创建的智能体需要先设置才能流式运行
+    private AgentRunExecutor runExecutor;
+
+    // 发起运行的租户（用户），执行器按租户排队和限流，为 null 时使用默认租户
+    private String tenant;
+
+    // 取消标记：SSE 连接完成、超时或出错时置位，执行循环和 think / act 在检查点看到后不再继续
+    @Setter(AccessLevel.NONE)
+    private volatile boolean cancelled;
+
+    // 执行循环已正常结束（完成任务或达到最大步数），在结束 SSE 连接之前置位；cancel 不修改它，
+    // 连接结束的回调晚于这里触发时，检查点仍按正常结束删除
+    @Setter(AccessLevel.NONE)
+    private volatile boolean completed;
+
+    // 正在执行循环的线程，取消时中断它，打断阻塞中的模型调用和工具调用
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private Thread runThread;
+
+    // 流式运行时接收模型逐段输出的文本，由 runStream 设置；为 null 时 think 使用同步调用
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private Consumer<String> tokenConsumer;
+
+    // 检查点存储，为 null 时不保存检查点，也不能恢复运行
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private AgentCheckpointStore checkpointStore;
+
+    // 运行 ID，开启检查点后在运行开始时生成，恢复运行时沿用原来的 ID
+    private String runId;
+
+    // 已写入检查点的消息数，下一次检查点只追加之后的消息
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private int checkpointedMessages;
+
+    // 观测入口，默认不记录
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private AgentTracer tracer = AgentTracer.NOOP;
+
+    // 本次运行的观测记录，运行开始时由 tracer 创建
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private AgentRunTrace trace = AgentRunTrace.NOOP;
   
     /**  
      * 运行代理  
@@ -62,24 +126,35 @@ public abstract class BaseAgent {
         state = AgentState.RUNNING;  
         // 记录消息上下文  
         messageList.add(new UserMessage(userPrompt));
+        startCheckpoint();
+        trace = tracer.startRun(name, runId);
         // 保存结果列表  
         List<String> results = new ArrayList<>();
         // 执行循环
+        bindRunThread();
         try {  
-            for (int i = 0; i < maxSteps && state != AgentState.FINISHED; i++) {  
+            for (int i = currentStep; i < maxSteps && state != AgentState.FINISHED && !cancelled; i++) {  
                 int stepNumber = i + 1;  
                 currentStep = stepNumber;  
                 log.info("Executing step " + stepNumber + "/" + maxSteps);  
                 // 单步执行  
+                long stepStart = trace.start();
                 String stepResult = step();  
+                trace.step(stepNumber, stepStart);
+                saveCheckpoint();
                 String result = "Step " + stepNumber + ": " + stepResult;  
                 results.add(result);  
             }  
-            // 检查是否超出步骤限制  
-            if (currentStep >= maxSteps) {  
-                state = AgentState.FINISHED;  
-                results.add("Terminated: Reached max steps (" + maxSteps + ")");  
-            }  
+            if (cancelled) {
+                results.add("Cancelled at step " + currentStep);
+            } else {
+                if (currentStep >= maxSteps) {
+                    // 超出步骤限制
+                    state = AgentState.FINISHED;
+                    results.add("Terminated: Reached max steps (" + maxSteps + ")");
+                }
+                completed = true;
+            }
             return String.join("\n", results);  
         } catch (Exception e) {  
             state = AgentState.ERROR;  
@@ -87,6 +162,9 @@ public abstract class BaseAgent {
             return "执行错误" + e.getMessage();  
         } finally {  
             // 3. 清理资源
+            unbindRunThread();
+            finishCheckpoint();
+            finishTrace();
             this.cleanup();  
         }  
     }
@@ -97,52 +175,148 @@ public abstract class BaseAgent {
      * @return SseEmitter实例
      */
     public SseEmitter runStream(String userPrompt) {
+        return stream(emitter -> {
+            // 检查状态
+            if (this.state != AgentState.IDLE) {
+                emitter.send("错误：无法从状态运行代理: " + this.state);
+                return false;
+            }
+            // 用户提示词不能为空
+            if (StrUtil.isBlank(userPrompt)) {
+                emitter.send("错误：不能使用空提示词运行代理");
+                return false;
+            }
+
+            // 更改状态
+            state = AgentState.RUNNING;
+            // 记录消息上下文
+            messageList.add(new UserMessage(userPrompt));
+            startCheckpoint();
+            return true;
+        });
+    }
+
+    /**
+     * 从检查点恢复一次中断的运行（流式输出），从最后完成的一步之后继续，已完成的步骤不再调用模型和工具
+     *
+     * @param runId 运行 ID，由 runStream 以 run 事件发给客户端
+     * @return SseEmitter实例
+     */
+    public SseEmitter resumeStream(String runId) {
+        return stream(emitter -> {
+            if (this.state != AgentState.IDLE) {
+                emitter.send("错误：无法从状态运行代理: " + this.state);
+                return false;
+            }
+            if (checkpointStore == null) {
+                emitter.send("错误：未开启检查点，无法恢复运行");
+                return false;
+            }
+            if (!checkpointStore.claim(runId)) {
+                emitter.send("错误：运行 ID 无效或该运行正在进行中: " + runId);
+                return false;
+            }
+            Optional<AgentCheckpoint> checkpoint;
+            try {
+                checkpoint = checkpointStore.load(runId);
+            } catch (IOException | RuntimeException e) {
+                checkpointStore.release(runId);
+                throw e;
+            }
+            // 其他租户的运行按不存在处理，不暴露运行 ID 是否有效
+            if (checkpoint.isEmpty() || checkpoint.get().state() == AgentState.FINISHED
+                    || !Objects.equals(checkpoint.get().tenant(), tenant)) {
+                checkpointStore.release(runId);
+                emitter.send("错误：未找到可恢复的运行: " + runId);
+                return false;
+            }
+            restore(checkpoint.get());
+            return true;
+        });
+    }
+
+    /**
+     * 恢复检查点中的消息上下文和步数，之后的执行循环从下一步开始
+     */
+    void restore(AgentCheckpoint checkpoint) {
+        this.runId = checkpoint.runId();
+        this.messageList = new ArrayList<>(checkpoint.messages());
+        this.currentStep = checkpoint.step();
+        this.checkpointedMessages = messageList.size();
+        this.state = AgentState.RUNNING;
+        log.info("从检查点恢复运行 {}，已完成 {} 步", runId, currentStep);
+    }
+
+    private SseEmitter stream(StreamStart start) {
+        AgentRunExecutor executor = runExecutor;
+        if (executor == null) {
+            throw new IllegalStateException("未设置 AgentRunExecutor，无法流式运行智能体");
+        }
         // 创建SseEmitter，设置较长的超时时间
         SseEmitter emitter = new SseEmitter(300000L); // 5分钟超时
 
         // 使用线程异步处理，避免阻塞主线程
     // step() 每次都可能几百 ms 到几秒,多步循环会占住请求线程很久并发高时线程很容易耗尽
-    // 用了 CompletableFuture.runAsync 后：请求线程很快释放，能继续接新请求长任务在后台线程跑,前端通过 SSE 持续收到增量结果
-        CompletableFuture.runAsync(() -> {
+    // 异步执行后：请求线程很快释放，能继续接新请求长任务在后台线程跑,前端通过 SSE 持续收到增量结果
+    // 不使用 ForkJoinPool.commonPool，而是交给专用的 AgentRunExecutor（虚拟线程 + 准入限流）
+        Runnable task = () -> {
             try {
-                // 检查状态
-                if (this.state != AgentState.IDLE) {
-                    emitter.send("错误：无法从状态运行代理: " + this.state);
-                    emitter.complete();
+                if (cancelled) {
+                    // 排队期间连接已经结束
                     return;
                 }
-                // 用户提示词不能为空
-                if (StrUtil.isBlank(userPrompt)) {
-                    emitter.send("错误：不能使用空提示词运行代理");
+                if (!start.prepare(emitter)) {
                     emitter.complete();
                     return;
                 }
+                trace = tracer.startRun(name, runId);
 
-                // 更改状态
-                state = AgentState.RUNNING;
-                // 记录消息上下文
-                messageList.add(new UserMessage(userPrompt));
-
-    
+                bindRunThread();
+                // 模型的输出片段以 token 事件实时推送，数据是 JSON 字符串（保留首尾空格和换行）；
+                // 每一步结束后仍发送一条默认事件的步骤结果
+                tokenConsumer = token -> {
+                    try {
+                        emitter.send(SseEmitter.event().name("token").data(JSONUtil.quote(token)));
+                    } catch (IOException | IllegalStateException e) {
+                        // 连接已断开
+                        cancel();
+                    }
+                };
                 try {
-                    for (int i = 0; i < maxSteps && state != AgentState.FINISHED; i++) {
+                    if (runId != null) {
+                        // 连接中断后客户端凭运行 ID 恢复
+                        emitter.send(SseEmitter.event().name("run").data(runId));
+                    }
+                    for (int i = currentStep; i < maxSteps && state != AgentState.FINISHED && !cancelled; i++) {
                         int stepNumber = i + 1;
                         currentStep = stepNumber;
                         log.info("Executing step " + stepNumber + "/" + maxSteps);
 
                         // 单步执行
+                        long stepStart = trace.start();
                         String stepResult = step();
+                        trace.step(stepNumber, stepStart);
                         String result = "Step " + stepNumber + ": " + stepResult;
+                        if (cancelled) {
+                            break;
+                        }
+                        saveCheckpoint();
 
                         // 发送每一步的结果
                         emitter.send(result);
                     }
+                    if (cancelled) {
+                        // 连接已经结束，不再发送
+                        log.info("智能体运行已取消，停止于第 {} 步", currentStep);
+                        return;
+                    }
                     // 检查是否超出步骤限制
                     if (currentStep >= maxSteps) {
                         state = AgentState.FINISHED;
                         emitter.send("执行结束: 达到最大步骤 (" + maxSteps + ")");
                     }
-                    // 正常完成
+                    // 正常完成：complete 会触发连接结束的回调（其中调用 cancel），先记下正常结束
+                    completed = true;
                     emitter.complete();
                 } catch (Exception e) {
                     state = AgentState.ERROR;
@@ -155,21 +329,56 @@ public abstract class BaseAgent {
                     }
                 } finally {
                     // 清理资源
+                    tokenConsumer = null;
+                    unbindRunThread();
+                    finishCheckpoint();
+                    finishTrace();
                     this.cleanup();
                 }
             } catch (Exception e) {
                 emitter.completeWithError(e);
             }
-        });
+        };
+        CompletableFuture<Void> submitted;
+        try {
+            // 需要排队时以 queued 事件告知排队位置，位置变化时再次发送
+            submitted = executor.submit(tenant, task, position -> {
+                try {
+                    emitter.send(SseEmitter.event().name("queued").data(position));
+                } catch (IOException | IllegalStateException e) {
+                    cancel();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("智能体运行被拒绝: {}", e.getMessage());
+            try {
+                emitter.send("错误：当前排队的任务过多，请稍后重试");
+                emitter.complete();
+            } catch (IOException ex) {
+                emitter.completeWithError(ex);
+            }
+            return emitter;
+        }
 
-        // 设置超时和完成回调
+        // 设置超时和完成回调，连接结束后取消仍在进行的运行，不再调用模型和工具
+        // 还在排队的运行直接移出队列
         emitter.onTimeout(() -> {
+            submitted.cancel(false);
+            this.cancel();
             this.state = AgentState.ERROR;
             this.cleanup();
             log.warn("SSE connection timed out");
         });
+        // 客户端断开等错误
+        emitter.onError(error -> {
+            submitted.cancel(false);
+            this.cancel();
+            log.warn("SSE connection error: {}", error.getMessage());
+        });
         // 设置完成回调，确保在连接完成时正确清理资源和更新状态
         emitter.onCompletion(() -> {
+            submitted.cancel(false);
+            this.cancel();
             if (this.state == AgentState.RUNNING) {
                 this.state = AgentState.FINISHED;
             }
@@ -180,6 +389,84 @@ public abstract class BaseAgent {
         return emitter;
     }
 
+    /**
+     * 取消运行：执行循环在当前步骤结束后退出，正在进行的模型调用和工具调用会被中断
+     */
+    public void cancel() {
+        cancelled = true;
+        synchronized (this) {
+            if (runThread != null) {
+                runThread.interrupt();
+            }
+        }
+    }
+
+    private synchronized void bindRunThread() {
+        runThread = Thread.currentThread();
+    }
+
+    /**
+     * 解除绑定并清除可能残留的中断标记（平台线程池中的线程会被复用）
+     */
+    private synchronized void unbindRunThread() {
+        runThread = null;
+        Thread.interrupted();
+    }
+
+    /**
+     * 开始一次新的运行时分配运行 ID 并写入第一个检查点（用户提示词）
+     */
+    private void startCheckpoint() {
+        if (checkpointStore == null) {
+            return;
+        }
+        runId = AgentCheckpointStore.newRunId();
+        checkpointStore.claim(runId);
+        saveCheckpoint();
+    }
+
+    /**
+     * 追加一个检查点，只写入上次检查点之后新增的消息；运行已取消时本步可能不完整，不写入
+     */
+    private void saveCheckpoint() {
+        if (checkpointStore == null || runId == null || cancelled) {
+            return;
+        }
+        int size = messageList.size();
+        int baseIndex = Math.min(checkpointedMessages, size);
+        long start = trace.start();
+        try {
+            checkpointStore.append(runId, tenant, currentStep, state, baseIndex, messageList.subList(baseIndex, size));
+            checkpointedMessages = size;
+            trace.checkpoint(currentStep, start);
+        } catch (IOException e) {
+            // 检查点只用于恢复，写入失败不影响本次运行
+            log.warn("保存检查点失败: runId={}, step={}", runId, currentStep, e);
+        }
+    }
+
+    /**
+     * 运行结束：正常完成（包括达到最大步数）的运行不再需要恢复，删除检查点；出错或取消的运行保留检查点
+     */
+    private void finishCheckpoint() {
+        if (checkpointStore == null || runId == null) {
+            return;
+        }
+        if (completed && state == AgentState.FINISHED) {
+            try {
+                checkpointStore.delete(runId);
+            } catch (IOException e) {
+                log.warn("删除检查点失败: runId={}", runId, e);
+            }
+        }
+        checkpointStore.release(runId);
+    }
+
+    private void finishTrace() {
+        trace.finish(state, currentStep);
+        trace = AgentRunTrace.NOOP;
+    }
+
     /**  
      * 执行单个步骤  
      *  
@@ -193,4 +480,12 @@ public abstract class BaseAgent {
     protected void cleanup() {  
         // 子类可以重写此方法来清理资源  
     }  
+
+    @FunctionalInterface
+    private interface StreamStart {
+        /**
+         * 校验并准备本次运行，返回 false 时已向客户端发送错误信息
+         */
+        boolean prepare(SseEmitter emitter) throws IOException;
+    }
 }
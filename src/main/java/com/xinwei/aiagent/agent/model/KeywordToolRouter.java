@@ -0,0 +1,232 @@
+package com.xinwei.aiagent.agent.model;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 按关键词相关度选择工具
+ *
+ * 构造时为每个工具建立一个词集合：工具名（按驼峰拆开）、描述和参数描述中的英文单词，加上为该工具配置的关键词
+ * （内置工具的描述是英文，中文任务靠这些关键词匹配，如 searchWeb 配置“搜索”“查询”）。
+ * 每个词按出现在多少个工具里计算 IDF，工具的向量按 IDF 加权并归一化，相当于一个很小的本地 TF-IDF 嵌入。
+ *
+ * 每一步用任务（第一条用户消息）加上模型最近一次的回复作为查询，英文按单词、关键词按子串与各工具的词集合匹配，
+ * 取得分最高的 maxTools 个工具，再加上 alwaysInclude 中的工具（如 doTerminate）和上一步刚调用过的工具；
+ * 选出的工具保持原来的顺序。没有任何工具匹配时不做选择，发送全部工具。
+ * 每个工具定义的 token 数在构造时估算一次，没有发送的工具的 token 数之和作为本步省去的 token 数。
+ */
+@Slf4j
+public class KeywordToolRouter implements ToolRouter {
+
+    private static final Pattern WORD = Pattern.compile("[a-z0-9]+");
+    private static final Pattern CAMEL_CASE = Pattern.compile("(?<=[a-z0-9])(?=[A-Z])");
+    private static final Set<String> STOP_WORDS = Set.of("a", "an", "the", "of", "to", "from", "for", "in", "on",
+            "with", "and", "or", "by", "is", "are", "be", "it", "this", "that", "given", "use", "when", "you", "your",
+            "do", "can", "not", "all", "any", "at", "as", "if", "into", "its", "will");
+
+    private final int maxTools;
+    private final Set<String> alwaysInclude;
+    private final Map<String, ToolIndex> index = new HashMap<>();
+
+    /**
+     * 一个工具的加权词集合和定义的 token 数
+     */
+    private record ToolIndex(Map<String, Double> weights, Set<String> keywords, int definitionTokens) {
+    }
+
+    /**
+     * @param tools 要建立索引的工具，不在索引中的工具总是发送
+     * @param keywords 按工具名配置的关键词（小写匹配，中文按子串匹配）
+     * @param alwaysInclude 每一步都发送的工具
+     * @param maxTools 每一步按相关度最多选择的工具数，不含 alwaysInclude 和上一步调用过的工具
+     */
+    public KeywordToolRouter(List<ToolCallback> tools, Map<String, List<String>> keywords, Set<String> alwaysInclude,
+                             int maxTools) {
+        this.maxTools = maxTools;
+        this.alwaysInclude = Set.copyOf(alwaysInclude);
+        TokenCountEstimator estimator = new JTokkitTokenCountEstimator();
+        Map<String, Set<String>> terms = new HashMap<>();
+        Map<String, Set<String>> toolKeywords = new HashMap<>();
+        Map<String, Integer> documentFrequency = new HashMap<>();
+        for (ToolCallback tool : tools) {
+            ToolDefinition definition = tool.getToolDefinition();
+            Set<String> words = new HashSet<>(words(CAMEL_CASE.matcher(definition.name()).replaceAll(" ")));
+            words.addAll(words(definition.description()));
+            words.addAll(words(parameterDescriptions(definition.inputSchema())));
+            Set<String> phrases = new HashSet<>();
+            for (String keyword : keywords.getOrDefault(definition.name(), List.of())) {
+                String normalized = keyword.trim().toLowerCase(Locale.ROOT);
+                if (normalized.isEmpty()) {
+                    continue;
+                }
+                // 纯英文的关键词按单词匹配，其余按子串匹配
+                if (WORD.matcher(normalized).matches()) {
+                    words.add(stem(normalized));
+                } else {
+                    phrases.add(normalized);
+                }
+            }
+            terms.put(definition.name(), words);
+            toolKeywords.put(definition.name(), phrases);
+            words.forEach(word -> documentFrequency.merge(word, 1, Integer::sum));
+            phrases.forEach(phrase -> documentFrequency.merge("#" + phrase, 1, Integer::sum));
+        }
+        int toolCount = Math.max(1, tools.size());
+        for (ToolCallback tool : tools) {
+            ToolDefinition definition = tool.getToolDefinition();
+            Map<String, Double> weights = new HashMap<>();
+            terms.get(definition.name()).forEach(word ->
+                    weights.put(word, Math.log(1.0 + (double) toolCount / documentFrequency.get(word))));
+            toolKeywords.get(definition.name()).forEach(phrase ->
+                    weights.put("#" + phrase, Math.log(1.0 + (double) toolCount / documentFrequency.get("#" + phrase))));
+            double norm = Math.sqrt(weights.values().stream().mapToDouble(weight -> weight * weight).sum());
+            if (norm > 0) {
+                weights.replaceAll((term, weight) -> weight / norm);
+            }
+            int definitionTokens = estimator.estimate(definition.name() + " " + definition.description() + " "
+                    + definition.inputSchema());
+            index.put(definition.name(), new ToolIndex(Map.copyOf(weights), Set.copyOf(toolKeywords.get(definition.name())),
+                    definitionTokens));
+        }
+    }
+
+    @Override
+    public Selection select(List<Message> messages, List<ToolCallback> tools) {
+        String query = query(messages).toLowerCase(Locale.ROOT);
+        Set<String> queryWords = new HashSet<>(words(query));
+        Set<String> recentlyUsed = recentlyUsedTools(messages);
+        Map<String, Double> scores = new HashMap<>();
+        for (ToolCallback tool : tools) {
+            String name = tool.getToolDefinition().name();
+            ToolIndex toolIndex = index.get(name);
+            if (toolIndex == null) {
+                continue;
+            }
+            double score = 0;
+            for (Map.Entry<String, Double> term : toolIndex.weights().entrySet()) {
+                String key = term.getKey();
+                boolean matched = key.startsWith("#") ? query.contains(key.substring(1)) : queryWords.contains(key);
+                if (matched) {
+                    score += term.getValue();
+                }
+            }
+            if (score > 0) {
+                scores.put(name, score);
+            }
+        }
+        if (scores.isEmpty()) {
+            return new Selection(tools, 0);
+        }
+        Set<String> selected = new HashSet<>();
+        scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()))
+                .limit(maxTools)
+                .forEach(entry -> selected.add(entry.getKey()));
+        List<ToolCallback> result = new ArrayList<>(tools.size());
+        int savedTokens = 0;
+        for (ToolCallback tool : tools) {
+            String name = tool.getToolDefinition().name();
+            ToolIndex toolIndex = index.get(name);
+            if (toolIndex == null || selected.contains(name) || alwaysInclude.contains(name) || recentlyUsed.contains(name)) {
+                result.add(tool);
+            } else {
+                savedTokens += toolIndex.definitionTokens();
+            }
+        }
+        return new Selection(List.copyOf(result), savedTokens);
+    }
+
+    /**
+     * 任务和模型最近一次的回复
+     */
+    private static String query(List<Message> messages) {
+        StringBuilder query = new StringBuilder();
+        messages.stream()
+                .filter(UserMessage.class::isInstance)
+                .findFirst()
+                .ifPresent(message -> query.append(message.getText()));
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof AssistantMessage assistantMessage
+                    && StrUtil.isNotBlank(assistantMessage.getText())) {
+                query.append('\n').append(assistantMessage.getText());
+                break;
+            }
+        }
+        return query.toString();
+    }
+
+    /**
+     * 最近一次助手消息中调用的工具，模型可能接着使用
+     */
+    private static Set<String> recentlyUsedTools(List<Message> messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof AssistantMessage assistantMessage) {
+                Set<String> names = new HashSet<>();
+                assistantMessage.getToolCalls().forEach(toolCall -> names.add(toolCall.name()));
+                return names;
+            }
+        }
+        return Set.of();
+    }
+
+    private static String parameterDescriptions(String inputSchema) {
+        if (!JSONUtil.isTypeJSONObject(inputSchema)) {
+            return "";
+        }
+        JSONObject properties = JSONUtil.parseObj(inputSchema).getJSONObject("properties");
+        if (properties == null) {
+            return "";
+        }
+        StringBuilder descriptions = new StringBuilder();
+        for (String name : properties.keySet()) {
+            JSONObject property = properties.getJSONObject(name);
+            descriptions.append(CAMEL_CASE.matcher(name).replaceAll(" ")).append(' ');
+            if (property != null && property.getStr("description") != null) {
+                descriptions.append(property.getStr("description")).append(' ');
+            }
+        }
+        return descriptions.toString();
+    }
+
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        Matcher matcher = WORD.matcher(text.toLowerCase(Locale.ROOT));
+        while (matcher.find()) {
+            String word = matcher.group();
+            if (!STOP_WORDS.contains(word)) {
+                words.add(stem(word));
+            }
+        }
+        return words;
+    }
+
+    /**
+     * 去掉复数的 s，让 pages / page、results / result 匹配
+     */
+    private static String stem(String word) {
+        return word.length() > 3 && word.endsWith("s") && !word.endsWith("ss") ? word.substring(0, word.length() - 1) : word;
+    }
+}
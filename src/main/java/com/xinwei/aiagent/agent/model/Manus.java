@@ -3,35 +3,58 @@ package com.xinwei.aiagent.agent.model;
 import com.xinwei.aiagent.advisor.MyLoggerAdvisor;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
 import org.springframework.ai.tool.ToolCallback;
-import org.springframework.stereotype.Component;
+
+import java.util.Map;
 
 /**
  * AI 超级智能体（拥有自主规划能力，可以直接使用）
+ *
+ * 每次运行都有自己的消息上下文和状态，不能在多个请求间复用；
+ * 通过 ManusFactory 创建时，客户端、工具等不可变部分在所有实例间共享。
  */
-@Component
 public class Manus extends ToolCallAgent {
 
+    static final String SYSTEM_PROMPT = """  
+            You are Manus, an all-capable AI assistant, aimed at solving any task presented by the user.  
+            You have various tools at your disposal that you can call upon to efficiently complete complex requests.  
+            """;
+
+    static final String NEXT_STEP_PROMPT = """  
+            Based on user needs, proactively select the most appropriate tool or combination of tools.  
+            For complex tasks, you can break down the problem and use different tools step by step to solve it.  
+            After using each tool, clearly explain the execution results and suggest the next steps.  
+            If you want to stop the interaction at any point, use the `terminate` tool/function call.  
+            """;
+
+    static final int MAX_STEPS = 20;
+
     public Manus(ToolCallback[] allTools, ChatModel dashscopeChatModel) {
-        super(allTools);
+        this(allTools, buildChatClient(dashscopeChatModel), ToolCallingManager.builder().build(), proxyToolCallOptions(),
+                new ParallelToolExecutor(allTools, DEFAULT_TOOL_CONCURRENCY, DEFAULT_TOOL_TIMEOUT, Map.of()));
+    }
+
+    /**
+     * 使用共享的客户端和工具相关对象创建，只分配本次运行的状态
+     */
+    Manus(ToolCallback[] allTools, ChatClient chatClient, ToolCallingManager toolCallingManager,
+          ChatOptions chatOptions, ParallelToolExecutor toolExecutor) {
+        super(allTools, toolCallingManager, chatOptions, toolExecutor);
         this.setName("Manus");
-        String SYSTEM_PROMPT = """  
-                You are Manus, an all-capable AI assistant, aimed at solving any task presented by the user.  
-                You have various tools at your disposal that you can call upon to efficiently complete complex requests.  
-                """;
         this.setSystemPrompt(SYSTEM_PROMPT);
-        String NEXT_STEP_PROMPT = """  
-                Based on user needs, proactively select the most appropriate tool or combination of tools.  
-                For complex tasks, you can break down the problem and use different tools step by step to solve it.  
-                After using each tool, clearly explain the execution results and suggest the next steps.  
-                If you want to stop the interaction at any point, use the `terminate` tool/function call.  
-                """;
         this.setNextStepPrompt(NEXT_STEP_PROMPT);
-        this.setMaxSteps(20);
-        // 初始化客户端
-        ChatClient chatClient = ChatClient.builder(dashscopeChatModel)
+        this.setMaxSteps(MAX_STEPS);
+        this.setChatClient(chatClient);
+    }
+
+    /**
+     * 初始化客户端
+     */
+    static ChatClient buildChatClient(ChatModel chatModel) {
+        return ChatClient.builder(chatModel)
                 .defaultAdvisors(new MyLoggerAdvisor())
                 .build();
-        this.setChatClient(chatClient);
     }
 }
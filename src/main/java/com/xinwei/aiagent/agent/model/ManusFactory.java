@@ -0,0 +1,118 @@
+package com.xinwei.aiagent.agent.model;
+
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Manus 工厂
+ *
+ * 智能体带有消息上下文、状态和步数等可变数据，不能做成单例在请求间共享；
+ * 而 ChatClient、工具列表、工具调用管理器、聊天选项、工具表和上下文管理器都是不可变的，构建一次后在这里复用。
+ * create() 只分配每次运行自己的状态，开销接近于零。
+ * 配置了检查点存储时，创建的智能体每一步结束后保存检查点，也可以用 resumeStream 恢复中断的运行。
+ * createPlanner() 创建先规划再执行的智能体，子任务的工作者和失败时的回退智能体也都从这里创建。
+ */
+@Component
+public class ManusFactory {
+
+    // 工作者只负责一个子任务，给出一次不调用工具的回答即视为完成
+    static final TerminationPolicy WORKER_TERMINATION = new TerminationPolicy(1, 3, true);
+    static final int WORKER_MAX_STEPS = 8;
+
+    private final ToolCallback[] allTools;
+    private final ChatClient chatClient;
+    private final ToolCallingManager toolCallingManager;
+    private final ChatOptions chatOptions;
+    private final ParallelToolExecutor toolExecutor;
+    private final AgentRunExecutor agentRunExecutor;
+    private final AgentContextManager contextManager;
+    private AgentCheckpointStore checkpointStore;
+    private AgentTracer tracer = AgentTracer.NOOP;
+    private TerminationPolicy terminationPolicy = TerminationPolicy.DEFAULT;
+    private ToolRouter toolRouter = ToolRouter.ALL_TOOLS;
+
+    public ManusFactory(ToolCallback[] allTools, ChatModel dashscopeChatModel, AgentRunExecutor agentRunExecutor,
+                        AgentContextManager agentContextManager) {
+        this.allTools = allTools;
+        this.chatClient = Manus.buildChatClient(dashscopeChatModel);
+        this.toolCallingManager = ToolCallingManager.builder().build();
+        this.chatOptions = ToolCallAgent.proxyToolCallOptions();
+        this.toolExecutor = new ParallelToolExecutor(allTools, ToolCallAgent.DEFAULT_TOOL_CONCURRENCY,
+                ToolCallAgent.DEFAULT_TOOL_TIMEOUT, Map.of());
+        this.agentRunExecutor = Objects.requireNonNull(agentRunExecutor, "agentRunExecutor");
+        this.contextManager = agentContextManager;
+    }
+
+    /**
+     * 检查点存储，agent.checkpoint.enabled=false 时没有该 bean，智能体不保存检查点
+     */
+    @Autowired(required = false)
+    public void setCheckpointStore(AgentCheckpointStore checkpointStore) {
+        this.checkpointStore = checkpointStore;
+    }
+
+    @Autowired(required = false)
+    public void setTracer(AgentTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Autowired(required = false)
+    public void setTerminationPolicy(TerminationPolicy terminationPolicy) {
+        this.terminationPolicy = terminationPolicy;
+    }
+
+    /**
+     * 工具路由，agent.tool-routing.enabled=false 时没有该 bean，每一步发送全部工具
+     */
+    @Autowired(required = false)
+    public void setToolRouter(ToolRouter toolRouter) {
+        this.toolRouter = toolRouter;
+    }
+
+    /**
+     * 创建一个新的智能体，用于一次运行
+     */
+    public Manus create() {
+        Manus manus = new Manus(allTools, chatClient, toolCallingManager, chatOptions, toolExecutor.forNewAgent());
+        manus.setRunExecutor(agentRunExecutor);
+        manus.setContextManager(contextManager);
+        manus.setCheckpointStore(checkpointStore);
+        manus.setTracer(tracer);
+        manus.setTerminationPolicy(terminationPolicy);
+        manus.setToolRouter(toolRouter);
+        return manus;
+    }
+
+    /**
+     * 创建一个先规划再执行的智能体，用于一次运行
+     */
+    public PlanExecuteAgent createPlanner() {
+        PlanExecuteAgent planner = new PlanExecuteAgent(this::createWorker, this::create);
+        planner.setChatClient(chatClient);
+        planner.setRunExecutor(agentRunExecutor);
+        planner.setTracer(tracer);
+        return planner;
+    }
+
+    /**
+     * 子任务的工作者：不保存检查点，步数更少，回答后即结束
+     */
+    private Manus createWorker() {
+        Manus worker = new Manus(allTools, chatClient, toolCallingManager, chatOptions, toolExecutor.forNewAgent());
+        worker.setName("ManusWorker");
+        worker.setMaxSteps(WORKER_MAX_STEPS);
+        worker.setContextManager(contextManager);
+        worker.setTracer(tracer);
+        worker.setTerminationPolicy(WORKER_TERMINATION);
+        worker.setToolRouter(toolRouter);
+        return worker;
+    }
+}
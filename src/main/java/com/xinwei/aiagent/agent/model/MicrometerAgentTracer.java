@@ -0,0 +1,245 @@
+package com.xinwei.aiagent.agent.model;
+
+import cn.hutool.core.date.DatePattern;
+import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.json.JSONUtil;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把智能体运行记录到 Micrometer，并可选地为每次运行写一份 trace JSON
+ *
+ * 计时器：agent.run（agent、state）、agent.step、agent.think、agent.act、agent.checkpoint（agent）、
+ * agent.tool（agent、tool、outcome）；分布：agent.model.tokens（agent、type=prompt/completion）、
+ * agent.tool.argument.size 和 agent.tool.result.size（agent、tool，单位为字符）；
+ * agent.tool.routing.saved.tokens（agent）为工具路由每一步省去的工具定义 token 数。
+ * percentileHistograms 开启时计时器发布直方图桶，可在监控端按任意分位聚合。
+ *
+ * traceDir 不为 null 时，每次运行的所有事件按发生顺序写入 {traceDir}/{yyyyMMdd}/{runId}.json，
+ * 每个事件带相对运行开始的时间、耗时和大小，用于分析单次慢运行的时间花在模型、哪个工具还是检查点上。
+ */
+@Slf4j
+public class MicrometerAgentTracer implements AgentTracer {
+
+    private final MeterRegistry registry;
+    private final boolean percentileHistograms;
+    private final Path traceDir;
+    // 带工具名等标签的计量器按标签缓存，避免每次调用都走注册表查找
+    private final Map<List<String>, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<List<String>, DistributionSummary> summaries = new ConcurrentHashMap<>();
+
+    /**
+     * @param percentileHistograms 计时器是否发布直方图桶
+     * @param traceDir trace JSON 的目录，为 null 时不写 trace
+     */
+    public MicrometerAgentTracer(MeterRegistry registry, boolean percentileHistograms, Path traceDir) {
+        this.registry = registry;
+        this.percentileHistograms = percentileHistograms;
+        this.traceDir = traceDir;
+    }
+
+    @Override
+    public AgentRunTrace startRun(String agentName, String runId) {
+        return new RunTrace(agentName == null ? "agent" : agentName, runId);
+    }
+
+    private Timer timer(String name, String... tags) {
+        List<String> key = key(name, tags);
+        return timers.computeIfAbsent(key, k -> Timer.builder(name)
+                .tags(tags)
+                .publishPercentileHistogram(percentileHistograms)
+                .register(registry));
+    }
+
+    private DistributionSummary summary(String name, String baseUnit, String... tags) {
+        List<String> key = key(name, tags);
+        return summaries.computeIfAbsent(key, k -> DistributionSummary.builder(name)
+                .tags(tags)
+                .baseUnit(baseUnit)
+                .publishPercentileHistogram(percentileHistograms)
+                .register(registry));
+    }
+
+    private static List<String> key(String name, String... tags) {
+        List<String> key = new ArrayList<>(tags.length + 1);
+        key.add(name);
+        key.addAll(List.of(tags));
+        return key;
+    }
+
+    private final class RunTrace implements AgentRunTrace {
+
+        private final String agentName;
+        private final String runId;
+        private final long runStart = System.nanoTime();
+        private final long startedAt = System.currentTimeMillis();
+        // 只有写 trace 时才收集事件
+        private final List<Map<String, Object>> events;
+
+        private RunTrace(String agentName, String runId) {
+            this.agentName = agentName;
+            this.runId = runId != null ? runId : IdUtil.fastSimpleUUID();
+            this.events = traceDir != null ? new ArrayList<>() : null;
+        }
+
+        @Override
+        public long start() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void step(int step, long startNanos) {
+            record("agent.step", "step", step, startNanos);
+        }
+
+        @Override
+        public void think(int step, long startNanos) {
+            record("agent.think", "think", step, startNanos);
+        }
+
+        @Override
+        public void act(int step, long startNanos) {
+            record("agent.act", "act", step, startNanos);
+        }
+
+        @Override
+        public void checkpoint(int step, long startNanos) {
+            record("agent.checkpoint", "checkpoint", step, startNanos);
+        }
+
+        @Override
+        public void modelResponse(int step, ChatResponse response) {
+            if (response == null || response.getMetadata() == null) {
+                return;
+            }
+            Usage usage = response.getMetadata().getUsage();
+            if (usage == null) {
+                return;
+            }
+            Integer promptTokens = usage.getPromptTokens();
+            Integer completionTokens = usage.getCompletionTokens();
+            if (promptTokens != null) {
+                summary("agent.model.tokens", "tokens", "agent", agentName, "type", "prompt").record(promptTokens);
+            }
+            if (completionTokens != null) {
+                summary("agent.model.tokens", "tokens", "agent", agentName, "type", "completion").record(completionTokens);
+            }
+            if (events != null) {
+                Map<String, Object> event = event("usage", step, System.nanoTime());
+                event.put("promptTokens", promptTokens);
+                event.put("completionTokens", completionTokens);
+                add(event);
+            }
+        }
+
+        @Override
+        public void tool(int step, AssistantMessage.ToolCall toolCall, String result, String outcome, long durationNanos) {
+            String tool = toolCall.name();
+            int argumentChars = toolCall.arguments() == null ? 0 : toolCall.arguments().length();
+            int resultChars = result == null ? 0 : result.length();
+            timer("agent.tool", "agent", agentName, "tool", tool, "outcome", outcome)
+                    .record(durationNanos, TimeUnit.NANOSECONDS);
+            summary("agent.tool.argument.size", "chars", "agent", agentName, "tool", tool).record(argumentChars);
+            summary("agent.tool.result.size", "chars", "agent", agentName, "tool", tool).record(resultChars);
+            if (events != null) {
+                Map<String, Object> event = event("tool", step, System.nanoTime() - durationNanos);
+                event.put("durationMs", durationNanos / 1_000_000.0);
+                event.put("tool", tool);
+                event.put("outcome", outcome);
+                event.put("argumentChars", argumentChars);
+                event.put("resultChars", resultChars);
+                add(event);
+            }
+        }
+
+        @Override
+        public void toolRouting(int step, int selectedTools, int availableTools, int savedTokens) {
+            summary("agent.tool.routing.saved.tokens", "tokens", "agent", agentName).record(savedTokens);
+            if (events != null) {
+                Map<String, Object> event = event("tool_routing", step, System.nanoTime());
+                event.put("selectedTools", selectedTools);
+                event.put("availableTools", availableTools);
+                event.put("savedTokens", savedTokens);
+                add(event);
+            }
+        }
+
+        @Override
+        public void earlyTermination(int step, String reason, int savedSteps) {
+            if (events != null) {
+                Map<String, Object> event = event("early_termination", step, System.nanoTime());
+                event.put("reason", reason);
+                event.put("savedSteps", savedSteps);
+                add(event);
+            }
+        }
+
+        @Override
+        public void finish(AgentState state, int steps) {
+            long durationNanos = System.nanoTime() - runStart;
+            timer("agent.run", "agent", agentName, "state", state.name()).record(durationNanos, TimeUnit.NANOSECONDS);
+            if (events == null) {
+                return;
+            }
+            Map<String, Object> trace = new LinkedHashMap<>();
+            trace.put("runId", runId);
+            trace.put("agent", agentName);
+            trace.put("startedAt", DateUtil.formatDateTime(DateUtil.date(startedAt)));
+            trace.put("state", state.name());
+            trace.put("steps", steps);
+            trace.put("durationMs", durationNanos / 1_000_000.0);
+            synchronized (events) {
+                trace.put("events", new ArrayList<>(events));
+            }
+            Path file = traceDir.resolve(DateUtil.format(DateUtil.date(startedAt), DatePattern.PURE_DATE_PATTERN))
+                    .resolve(runId + ".json");
+            try {
+                Files.createDirectories(file.getParent());
+                Files.writeString(file, JSONUtil.toJsonPrettyStr(trace), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                log.warn("写入运行 trace 失败: {}", file, e);
+            }
+        }
+
+        private void record(String meter, String type, int step, long startNanos) {
+            long end = System.nanoTime();
+            timer(meter, "agent", agentName).record(end - startNanos, TimeUnit.NANOSECONDS);
+            if (events != null) {
+                Map<String, Object> event = event(type, step, startNanos);
+                event.put("durationMs", (end - startNanos) / 1_000_000.0);
+                add(event);
+            }
+        }
+
+        private Map<String, Object> event(String type, int step, long startNanos) {
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("type", type);
+            event.put("step", step);
+            event.put("offsetMs", (startNanos - runStart) / 1_000_000.0);
+            return event;
+        }
+
+        private void add(Map<String, Object> event) {
+            synchronized (events) {
+                events.add(event);
+            }
+        }
+    }
+}
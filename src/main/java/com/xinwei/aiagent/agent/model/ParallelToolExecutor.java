@@ -0,0 +1,170 @@
+package com.xinwei.aiagent.agent.model;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 并发执行一轮中的多个工具调用
+ *
+ * ToolCallingManager 按顺序逐个执行工具，一轮的耗时是各工具耗时之和；这里每个工具调用跑在独立的虚拟线程上，
+ * 耗时接近其中最慢的一个。同一个执行器（即同一个智能体）同时运行的工具数不超过 maxConcurrency，
+ * 每个工具从开始执行起计时，超时后中断并返回超时提示，不影响其他工具。
+ * 返回的 ToolResponseMessage 中响应顺序与模型给出的工具调用顺序一致。
+ */
+@Slf4j
+public class ParallelToolExecutor {
+
+    // 虚拟线程不需要池化，所有实例共用一个按任务建线程的执行器
+    private static final ExecutorService TOOL_THREADS = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("agent-tool-", 0).factory());
+
+    private final Map<String, ToolCallback> toolsByName;
+    private final Semaphore permits;
+    private final int maxConcurrency;
+    private final Duration defaultTimeout;
+    private final Map<String, Duration> toolTimeouts;
+
+    /**
+     * @param tools 可用的工具
+     * @param maxConcurrency 同时执行的工具数上限，为 1 时等同于顺序执行
+     * @param defaultTimeout 单个工具的默认超时时间
+     * @param toolTimeouts 按工具名单独指定的超时时间
+     */
+    public ParallelToolExecutor(ToolCallback[] tools, int maxConcurrency, Duration defaultTimeout,
+                                Map<String, Duration> toolTimeouts) {
+        this(indexByName(tools), maxConcurrency, defaultTimeout, Map.copyOf(toolTimeouts));
+    }
+
+    private ParallelToolExecutor(Map<String, ToolCallback> toolsByName, int maxConcurrency, Duration defaultTimeout,
+                                 Map<String, Duration> toolTimeouts) {
+        this.toolsByName = toolsByName;
+        this.permits = new Semaphore(maxConcurrency);
+        this.maxConcurrency = maxConcurrency;
+        this.defaultTimeout = defaultTimeout;
+        this.toolTimeouts = toolTimeouts;
+    }
+
+    /**
+     * 给另一个智能体用的执行器：共享工具表和超时配置，并发上限单独计算
+     */
+    public ParallelToolExecutor forNewAgent() {
+        return new ParallelToolExecutor(toolsByName, maxConcurrency, defaultTimeout, toolTimeouts);
+    }
+
+    /**
+     * 执行全部工具调用，等待所有调用结束（完成、失败或超时）后返回
+     */
+    public ToolResponseMessage execute(List<AssistantMessage.ToolCall> toolCalls) {
+        return execute(toolCalls, ToolListener.NONE);
+    }
+
+    /**
+     * 执行全部工具调用，每个调用结束时通知 listener（在工具线程上调用）
+     */
+    public ToolResponseMessage execute(List<AssistantMessage.ToolCall> toolCalls, ToolListener listener) {
+        List<Future<ToolResponseMessage.ToolResponse>> futures = new ArrayList<>(toolCalls.size());
+        for (AssistantMessage.ToolCall toolCall : toolCalls) {
+            futures.add(TOOL_THREADS.submit(() -> executeWithPermit(toolCall, listener)));
+        }
+        List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(toolCalls.size());
+        for (int i = 0; i < futures.size(); i++) {
+            AssistantMessage.ToolCall toolCall = toolCalls.get(i);
+            try {
+                responses.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                // 当前线程被中断：取消尚未结束的工具，剩余调用都记为已取消
+                Thread.currentThread().interrupt();
+                futures.forEach(future -> future.cancel(true));
+                for (int j = i; j < toolCalls.size(); j++) {
+                    responses.add(errorResponse(toolCalls.get(j), "工具执行被取消"));
+                }
+                break;
+            } catch (ExecutionException e) {
+                responses.add(errorResponse(toolCall, "工具执行失败: " + e.getCause().getMessage()));
+            }
+        }
+        return new ToolResponseMessage(responses, Map.of());
+    }
+
+    private ToolResponseMessage.ToolResponse executeWithPermit(AssistantMessage.ToolCall toolCall, ToolListener listener)
+            throws InterruptedException {
+        ToolCallback tool = toolsByName.get(toolCall.name());
+        if (tool == null) {
+            ToolResponseMessage.ToolResponse response = errorResponse(toolCall, "未找到工具: " + toolCall.name());
+            listener.onCompleted(toolCall, response.responseData(), "not_found", 0);
+            return response;
+        }
+        permits.acquire();
+        // 从拿到许可开始计时，不含排队等待的时间
+        long start = System.nanoTime();
+        // 工具本身再跑在一个虚拟线程上，这样超时后可以中断它并立即返回
+        Future<String> result = TOOL_THREADS.submit(() -> tool.call(toolCall.arguments()));
+        Duration timeout = toolTimeouts.getOrDefault(toolCall.name(), defaultTimeout);
+        ToolResponseMessage.ToolResponse response;
+        String outcome;
+        try {
+            response = new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(),
+                    result.get(timeout.toMillis(), TimeUnit.MILLISECONDS));
+            outcome = "success";
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            log.warn("工具 {} 执行超时（{} ms）", toolCall.name(), timeout.toMillis());
+            response = errorResponse(toolCall, "工具执行超时（" + timeout.toMillis() + " ms）");
+            outcome = "timeout";
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            listener.onCompleted(toolCall, "", "cancelled", System.nanoTime() - start);
+            throw e;
+        } catch (ExecutionException e) {
+            log.warn("工具 {} 执行失败", toolCall.name(), e.getCause());
+            response = errorResponse(toolCall, "工具执行失败: " + e.getCause().getMessage());
+            outcome = "error";
+        } finally {
+            permits.release();
+        }
+        listener.onCompleted(toolCall, response.responseData(), outcome, System.nanoTime() - start);
+        return response;
+    }
+
+    private static Map<String, ToolCallback> indexByName(ToolCallback[] tools) {
+        Map<String, ToolCallback> toolsByName = new HashMap<>();
+        for (ToolCallback tool : tools) {
+            toolsByName.put(tool.getToolDefinition().name(), tool);
+        }
+        return Map.copyOf(toolsByName);
+    }
+
+    private static ToolResponseMessage.ToolResponse errorResponse(AssistantMessage.ToolCall toolCall, String message) {
+        return new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(), message);
+    }
+
+    /**
+     * 工具调用结束的通知，用于记录耗时和大小
+     */
+    @FunctionalInterface
+    public interface ToolListener {
+
+        ToolListener NONE = (toolCall, result, outcome, durationNanos) -> {
+        };
+
+        /**
+         * @param outcome success、timeout、error、cancelled 或 not_found
+         */
+        void onCompleted(AssistantMessage.ToolCall toolCall, String result, String outcome, long durationNanos);
+    }
+}
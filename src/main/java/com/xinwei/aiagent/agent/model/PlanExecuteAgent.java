@@ -0,0 +1,356 @@
+package com.xinwei.aiagent.agent.model;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 先规划再执行的智能体
+ *
+ * ReAct 循环每一步只能做一件事，彼此独立的子任务（比如分别搜索三个主题）也要一步一步地串行调用模型。
+ * 这里先调用一次模型，让它把任务拆成子任务的依赖图（DAG），然后按依赖关系执行：
+ * 依赖都已完成的子任务立即开始，各自交给一个 ToolCallAgent 工作者（带工具的小型 ReAct 循环）并发执行，
+ * 前置子任务的结果作为上下文传给后续子任务，最后汇总没有后继的子任务的结果作为最终回答。
+ *
+ * 执行循环中的步骤：第 1 步规划，第 2 步执行整个依赖图；规划结果无效（不是 JSON、有环、依赖不存在等）
+ * 或者有子任务失败时，第 3 步改用完整的 ReAct 智能体从头执行，已完成的子任务结果作为参考一并提供。
+ */
+@EqualsAndHashCode(callSuper = true)
+@Data
+@Slf4j
+public class PlanExecuteAgent extends BaseAgent {
+
+    static final String PLAN_SYSTEM_PROMPT = """
+            You are a planner. Break the user's task into sub-tasks and reply with ONLY a JSON object:
+            {"tasks":[{"id":"t1","task":"what to do","dependsOn":[]}]}
+            Each sub-task will be carried out by an assistant with tools, given the results of the sub-tasks it depends on.
+            Sub-tasks that do not need each other's results must not depend on each other, so that they can run in parallel.
+            Use at most %d sub-tasks.
+            """;
+
+    static final String TASK_PROMPT = """
+            You are completing one sub-task of a larger task.
+            Overall task: %s
+            Sub-task: %s
+            %s
+            Complete only this sub-task and reply with its result.
+            """;
+
+    // 子任务在虚拟线程上执行，同时执行的数量由 maxParallelTasks 限制
+    private static final ExecutorService TASK_THREADS = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("agent-task-", 0).factory());
+
+    enum Phase {
+        PLAN, EXECUTE, FALLBACK
+    }
+
+    /**
+     * 依赖图中的一个子任务
+     */
+    record PlanTask(String id, String task, List<String> dependsOn) {
+    }
+
+    // 为每个子任务创建一个工作者
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final Supplier<? extends ToolCallAgent> workerFactory;
+
+    // 规划或执行失败时使用的 ReAct 智能体
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final Supplier<? extends ToolCallAgent> fallbackFactory;
+
+    // 同时执行的子任务数上限
+    private int maxParallelTasks = 4;
+
+    // 规划中允许的子任务数上限
+    private int maxTasks = 8;
+
+    private Phase phase = Phase.PLAN;
+
+    // 按拓扑顺序排列的子任务
+    private List<PlanTask> tasks = List.of();
+
+    // 已完成的子任务结果
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final Map<String, String> taskResults = new ConcurrentHashMap<>();
+
+    // 正在运行的工作者和回退智能体，取消时一并取消
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final Set<BaseAgent> activeAgents = ConcurrentHashMap.newKeySet();
+
+    public PlanExecuteAgent(Supplier<? extends ToolCallAgent> workerFactory, Supplier<? extends ToolCallAgent> fallbackFactory) {
+        this.workerFactory = workerFactory;
+        this.fallbackFactory = fallbackFactory;
+        this.setName("PlanExecute");
+        this.setMaxSteps(3);
+    }
+
+    @Override
+    public String step() {
+        return switch (phase) {
+            case PLAN -> plan();
+            case EXECUTE -> execute();
+            case FALLBACK -> fallback();
+        };
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        activeAgents.forEach(BaseAgent::cancel);
+    }
+
+    /**
+     * 调用一次模型得到子任务的依赖图
+     */
+    private String plan() {
+        try {
+            String content = getChatClient().prompt()
+                    .system(PLAN_SYSTEM_PROMPT.formatted(maxTasks))
+                    .user(goal())
+                    .call()
+                    .content();
+            if (isCancelled()) {
+                return "运行已取消";
+            }
+            tasks = parsePlan(content, maxTasks);
+            getMessageList().add(new AssistantMessage(content));
+            phase = Phase.EXECUTE;
+            String plan = tasks.stream()
+                    .map(task -> "[" + task.id() + "] " + task.task()
+                            + (task.dependsOn().isEmpty() ? "" : "（依赖 " + String.join("、", task.dependsOn()) + "）"))
+                    .collect(Collectors.joining("\n"));
+            return "规划完成，共 " + tasks.size() + " 个子任务：\n" + plan;
+        } catch (Exception e) {
+            if (isCancelled()) {
+                return "运行已取消";
+            }
+            log.warn("规划失败，改用 ReAct 执行: {}", e.getMessage());
+            phase = Phase.FALLBACK;
+            return "规划失败（" + e.getMessage() + "），改为逐步执行";
+        }
+    }
+
+    /**
+     * 按依赖关系并发执行所有子任务，全部成功时汇总结果并结束
+     */
+    private String execute() {
+        String goal = goal();
+        Semaphore permits = new Semaphore(maxParallelTasks);
+        Map<String, CompletableFuture<String>> futures = new LinkedHashMap<>();
+        for (PlanTask task : tasks) {
+            CompletableFuture<?>[] dependencies = task.dependsOn().stream()
+                    .map(futures::get)
+                    .toArray(CompletableFuture[]::new);
+            // 依赖失败时该子任务不会执行，直接以失败结束
+            futures.put(task.id(), CompletableFuture.allOf(dependencies)
+                    .thenApplyAsync(ignored -> runTask(goal, task, permits), TASK_THREADS));
+        }
+        try {
+            CompletableFuture.allOf(futures.values().toArray(CompletableFuture[]::new)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.values().forEach(future -> future.cancel(true));
+            return "运行已取消";
+        } catch (ExecutionException e) {
+            if (isCancelled()) {
+                return "运行已取消";
+            }
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            log.warn("子任务执行失败，改用 ReAct 执行: {}", cause.getMessage());
+            phase = Phase.FALLBACK;
+            return "子任务执行失败（" + cause.getMessage() + "），已完成 " + taskResults.size() + "/" + tasks.size()
+                    + " 个子任务，改为逐步执行";
+        }
+        // 汇总没有后继的子任务（通常是最后的整理任务）的结果
+        Set<String> dependedOn = tasks.stream().flatMap(task -> task.dependsOn().stream()).collect(Collectors.toSet());
+        List<PlanTask> sinks = tasks.stream().filter(task -> !dependedOn.contains(task.id())).toList();
+        String answer = sinks.size() == 1
+                ? taskResults.get(sinks.get(0).id())
+                : sinks.stream()
+                .map(task -> "[" + task.id() + "] " + task.task() + "\n" + taskResults.get(task.id()))
+                .collect(Collectors.joining("\n\n"));
+        getMessageList().add(new AssistantMessage(answer));
+        setState(AgentState.FINISHED);
+        return "所有子任务已完成：\n" + answer;
+    }
+
+    private String runTask(String goal, PlanTask task, Semaphore permits) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("子任务 " + task.id() + " 被取消");
+        }
+        ToolCallAgent worker = workerFactory.get();
+        activeAgents.add(worker);
+        try {
+            // 先登记再检查，保证取消时要么这里看到取消标记，要么 cancel() 看到这个工作者
+            if (isCancelled()) {
+                throw new CancellationException("子任务 " + task.id() + " 被取消");
+            }
+            String dependencies = task.dependsOn().stream()
+                    .map(id -> "Result of " + id + ":\n" + taskResults.get(id))
+                    .collect(Collectors.joining("\n\n"));
+            worker.run(TASK_PROMPT.formatted(goal, task.task(), dependencies));
+            if (worker.getState() == AgentState.ERROR || worker.isCancelled()) {
+                throw new IllegalStateException("子任务 " + task.id() + " 执行失败");
+            }
+            String result = lastAnswer(worker.getMessageList());
+            taskResults.put(task.id(), result);
+            log.info("子任务 {} 完成", task.id());
+            return result;
+        } finally {
+            activeAgents.remove(worker);
+            permits.release();
+        }
+    }
+
+    /**
+     * 交给完整的 ReAct 智能体执行，已完成的子任务结果作为参考
+     */
+    private String fallback() {
+        ToolCallAgent agent = fallbackFactory.get();
+        agent.setTokenConsumer(getTokenConsumer());
+        activeAgents.add(agent);
+        try {
+            if (isCancelled()) {
+                return "运行已取消";
+            }
+            String prompt = goal();
+            if (!taskResults.isEmpty()) {
+                prompt += "\n\nResults of sub-tasks that are already done (use them instead of redoing the work):\n"
+                        + tasks.stream()
+                        .filter(task -> taskResults.containsKey(task.id()))
+                        .map(task -> "- " + task.task() + ":\n" + taskResults.get(task.id()))
+                        .collect(Collectors.joining("\n"));
+            }
+            String result = agent.run(prompt);
+            getMessageList().add(new AssistantMessage(lastAnswer(agent.getMessageList())));
+            setState(AgentState.FINISHED);
+            return result;
+        } finally {
+            activeAgents.remove(agent);
+        }
+    }
+
+    private String goal() {
+        return getMessageList().stream()
+                .filter(UserMessage.class::isInstance)
+                .findFirst()
+                .map(Message::getText)
+                .orElse("");
+    }
+
+    /**
+     * 工作者最后一条有文本的助手消息；没有时取最后一次工具调用的结果
+     */
+    private static String lastAnswer(List<Message> messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            Message message = messages.get(i);
+            if (message instanceof AssistantMessage && StrUtil.isNotBlank(message.getText())) {
+                return message.getText();
+            }
+            if (message instanceof ToolResponseMessage toolResponseMessage) {
+                return toolResponseMessage.getResponses().stream()
+                        .map(ToolResponseMessage.ToolResponse::responseData)
+                        .collect(Collectors.joining("\n"));
+            }
+        }
+        return "";
+    }
+
+    /**
+     * 解析并校验模型给出的依赖图，按拓扑顺序返回子任务（同一层保持原来的顺序）
+     *
+     * @throws IllegalArgumentException 不是 JSON、没有子任务、子任务过多、ID 重复、依赖不存在或有环
+     */
+    static List<PlanTask> parsePlan(String content, int maxTasks) {
+        int start = content == null ? -1 : content.indexOf('{');
+        int end = content == null ? -1 : content.lastIndexOf('}');
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("规划结果不是 JSON");
+        }
+        JSONArray array = JSONUtil.parseObj(content.substring(start, end + 1)).getJSONArray("tasks");
+        if (array == null || array.isEmpty()) {
+            throw new IllegalArgumentException("规划结果中没有子任务");
+        }
+        if (array.size() > maxTasks) {
+            throw new IllegalArgumentException("子任务过多: " + array.size());
+        }
+        Map<String, PlanTask> byId = new LinkedHashMap<>();
+        for (Object item : array) {
+            JSONObject object = (JSONObject) item;
+            String id = object.getStr("id");
+            String task = object.getStr("task");
+            if (StrUtil.isBlank(id) || StrUtil.isBlank(task)) {
+                throw new IllegalArgumentException("子任务缺少 id 或 task");
+            }
+            JSONArray dependsOn = object.getJSONArray("dependsOn");
+            List<String> dependencies = dependsOn == null ? List.of() : List.copyOf(dependsOn.toList(String.class));
+            if (byId.put(id, new PlanTask(id, task, dependencies)) != null) {
+                throw new IllegalArgumentException("子任务 ID 重复: " + id);
+            }
+        }
+        // Kahn 拓扑排序，排不完说明有环
+        Map<String, Integer> inDegree = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (PlanTask task : byId.values()) {
+            inDegree.put(task.id(), new HashSet<>(task.dependsOn()).size());
+            for (String dependency : new HashSet<>(task.dependsOn())) {
+                if (!byId.containsKey(dependency) || dependency.equals(task.id())) {
+                    throw new IllegalArgumentException("子任务 " + task.id() + " 的依赖无效: " + dependency);
+                }
+                dependents.computeIfAbsent(dependency, key -> new ArrayList<>()).add(task.id());
+            }
+        }
+        Deque<String> ready = new ArrayDeque<>();
+        byId.keySet().stream().filter(id -> inDegree.get(id) == 0).forEach(ready::add);
+        List<PlanTask> sorted = new ArrayList<>(byId.size());
+        while (!ready.isEmpty()) {
+            String id = ready.poll();
+            sorted.add(byId.get(id));
+            for (String dependent : dependents.getOrDefault(id, List.of())) {
+                if (inDegree.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (sorted.size() < byId.size()) {
+            throw new IllegalArgumentException("子任务之间存在循环依赖");
+        }
+        return sorted;
+    }
+}
@@ -34,11 +34,22 @@ public abstract class ReActAgent extends BaseAgent {
     public String step() {  
         try {
             // 先思考，决定是否需要行动
+            long thinkStart = getTrace().start();
             boolean shouldAct = think();  
+            getTrace().think(getCurrentStep(), thinkStart);
             if (!shouldAct) {  
-                return "思考完成 - 无需行动";  
+                // 终止策略可能在思考后直接结束运行
+                return getState() == AgentState.FINISHED ? "思考完成 - 任务结束" : "思考完成 - 无需行动";
             }  
-            return act();  
+            // 思考期间运行被取消，不再执行工具
+            if (isCancelled()) {
+                return "运行已取消";
+            }
+
+            long actStart = getTrace().start();
+            String result = act();
+            getTrace().act(getCurrentStep(), actStart);
+            return result;
         } catch (Exception e) {  
             // 记录异常日志  
             e.printStackTrace();  
@@ -0,0 +1,104 @@
+package com.xinwei.aiagent.agent.model;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把流式返回的多个 ChatResponse 片段拼成一个完整的响应
+ *
+ * 文本按顺序拼接；工具调用可能被拆成多个片段：带 id 的片段开始一个新的工具调用，
+ * 不带 id 的片段（只有参数的后续部分）追加到上一个工具调用上，同一 id 再次出现时也追加到该调用。
+ * 元数据（用量、结束原因等）取最后一个片段的。
+ */
+class StreamingResponseAssembler {
+
+    private final StringBuilder text = new StringBuilder();
+    private final Map<String, ToolCallBuilder> toolCalls = new LinkedHashMap<>();
+    private final Map<String, Object> messageMetadata = new HashMap<>();
+    private ToolCallBuilder lastToolCall;
+    private ChatGenerationMetadata generationMetadata = ChatGenerationMetadata.NULL;
+    private ChatResponseMetadata responseMetadata;
+
+    /**
+     * 合并一个片段
+     *
+     * @return 片段中新增的文本，没有时为空字符串
+     */
+    String accept(ChatResponse chunk) {
+        if (chunk.getMetadata() != null) {
+            responseMetadata = chunk.getMetadata();
+        }
+        Generation generation = chunk.getResult();
+        if (generation == null || generation.getOutput() == null) {
+            return "";
+        }
+        if (generation.getMetadata() != null) {
+            generationMetadata = generation.getMetadata();
+        }
+        AssistantMessage output = generation.getOutput();
+        messageMetadata.putAll(output.getMetadata());
+        for (AssistantMessage.ToolCall toolCall : output.getToolCalls()) {
+            ToolCallBuilder builder = StrUtil.isEmpty(toolCall.id()) ? lastToolCall : toolCalls.get(toolCall.id());
+            if (builder == null) {
+                builder = new ToolCallBuilder(StrUtil.nullToEmpty(toolCall.id()), toolCall.type());
+                toolCalls.put(builder.id, builder);
+            }
+            builder.append(toolCall);
+            lastToolCall = builder;
+        }
+        String delta = StrUtil.nullToEmpty(output.getText());
+        text.append(delta);
+        return delta;
+    }
+
+    ChatResponse toChatResponse() {
+        List<AssistantMessage.ToolCall> assembled = new ArrayList<>(toolCalls.size());
+        for (ToolCallBuilder builder : toolCalls.values()) {
+            assembled.add(builder.build());
+        }
+        AssistantMessage message = new AssistantMessage(text.toString(), messageMetadata, assembled);
+        Generation generation = new Generation(message, generationMetadata);
+        return responseMetadata != null
+                ? new ChatResponse(List.of(generation), responseMetadata)
+                : new ChatResponse(List.of(generation));
+    }
+
+    private static final class ToolCallBuilder {
+
+        private final String id;
+        private String type;
+        private final StringBuilder name = new StringBuilder();
+        private final StringBuilder arguments = new StringBuilder();
+
+        private ToolCallBuilder(String id, String type) {
+            this.id = id;
+            this.type = type;
+        }
+
+        private void append(AssistantMessage.ToolCall fragment) {
+            if (StrUtil.isEmpty(type)) {
+                type = fragment.type();
+            }
+            // 名称只在第一个片段出现，后续片段重复给出时不再拼接
+            if (name.isEmpty()) {
+                name.append(StrUtil.nullToEmpty(fragment.name()));
+            }
+            arguments.append(StrUtil.nullToEmpty(fragment.arguments()));
+        }
+
+        private AssistantMessage.ToolCall build() {
+            return new AssistantMessage.ToolCall(id, StrUtil.isEmpty(type) ? "function" : type, name.toString(),
+                    arguments.isEmpty() ? "{}" : arguments.toString());
+        }
+    }
+}
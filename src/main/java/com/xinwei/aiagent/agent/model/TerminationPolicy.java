@@ -0,0 +1,130 @@
+package com.xinwei.aiagent.agent.model;
+
+import com.xinwei.aiagent.tools.ToolResultCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.messages.AssistantMessage;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 提前结束运行的策略
+ *
+ * 模型经常在某一步已经给出了完整回答（不调用工具），智能体却继续拼接下一步提示词再调用模型，
+ * 直到模型想起调用 doTerminate 或达到最大步数；或者反复用相同参数调用同一个工具，陷入没有进展的循环。
+ * 这里按三条规则提前结束：
+ * 1. 连续 maxNoToolCallSteps 步没有调用工具时结束（为 0 时不启用）；
+ * 2. 同一次运行中同一个工具以相同参数（规范化后）被调用到第 maxRepeatedToolCalls 次时，不再执行并结束（为 0 时不启用）；
+ * 3. doTerminate 和其他工具在同一步返回时，finishWithOtherCalls 为 true 则执行完其他工具后结束，
+ *    为 false 则只执行其他工具、让模型看到结果后再决定。
+ *
+ * 提前结束的运行按原因计数，并记录节省的步数（最大步数减去结束时的步数，即最多还会执行的步数）。
+ */
+public class TerminationPolicy {
+
+    // 连续两步不调用工具、同一调用第三次出现时结束
+    public static final TerminationPolicy DEFAULT = new TerminationPolicy(2, 3, true);
+
+    // 不提前结束，只在 doTerminate 或达到最大步数时结束
+    public static final TerminationPolicy NEVER = new TerminationPolicy(0, 0, true);
+
+    public static final String NO_TOOL_CALLS = "no_tool_calls";
+    public static final String NO_PROGRESS = "no_progress";
+
+    private final int maxNoToolCallSteps;
+    private final int maxRepeatedToolCalls;
+    private final boolean finishWithOtherCalls;
+    private volatile MeterRegistry registry;
+    private final Map<String, Counter> terminations = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> savedSteps = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxNoToolCallSteps 连续多少步不调用工具时结束，0 表示不启用
+     * @param maxRepeatedToolCalls 相同的工具调用出现多少次时结束，0 表示不启用
+     * @param finishWithOtherCalls doTerminate 和其他工具一起返回时是否在本步结束
+     */
+    public TerminationPolicy(int maxNoToolCallSteps, int maxRepeatedToolCalls, boolean finishWithOtherCalls) {
+        this.maxNoToolCallSteps = maxNoToolCallSteps;
+        this.maxRepeatedToolCalls = maxRepeatedToolCalls;
+        this.finishWithOtherCalls = finishWithOtherCalls;
+    }
+
+    public boolean finishWithOtherCalls() {
+        return finishWithOtherCalls;
+    }
+
+    /**
+     * 每次运行一个监视器，记录连续无工具调用的步数和出现过的工具调用
+     */
+    public Monitor newMonitor() {
+        return new Monitor();
+    }
+
+    /**
+     * 注册 agent.termination.early（reason）计数和 agent.termination.saved.steps（reason）分布
+     */
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 记录一次提前结束
+     */
+    void recordEarlyTermination(String reason, int savedStepCount) {
+        MeterRegistry current = registry;
+        if (current == null) {
+            return;
+        }
+        terminations.computeIfAbsent(reason, key -> Counter.builder("agent.termination.early")
+                .tag("reason", key)
+                .description("提前结束的运行数")
+                .register(current)).increment();
+        savedSteps.computeIfAbsent(reason, key -> DistributionSummary.builder("agent.termination.saved.steps")
+                .tag("reason", key)
+                .description("提前结束节省的步数（最多还会执行的步数）")
+                .baseUnit("steps")
+                .register(current)).record(savedStepCount);
+    }
+
+    public class Monitor {
+
+        private int noToolCallSteps;
+        private final Map<String, Integer> toolCallCounts = new HashMap<>();
+
+        private Monitor() {
+        }
+
+        /**
+         * 本步没有调用工具
+         *
+         * @return 是否应该结束运行
+         */
+        public boolean onNoToolCalls() {
+            noToolCallSteps++;
+            return maxNoToolCallSteps > 0 && noToolCallSteps >= maxNoToolCallSteps;
+        }
+
+        /**
+         * 本步要调用的工具；相同的工具调用出现次数达到上限时返回该调用，否则返回 null
+         */
+        public AssistantMessage.ToolCall onToolCalls(List<AssistantMessage.ToolCall> toolCalls) {
+            noToolCallSteps = 0;
+            if (maxRepeatedToolCalls <= 0) {
+                return null;
+            }
+            AssistantMessage.ToolCall repeated = null;
+            for (AssistantMessage.ToolCall toolCall : toolCalls) {
+                String key = toolCall.name() + ":" + ToolResultCache.normalizeArguments(toolCall.arguments());
+                int count = toolCallCounts.merge(key, 1, Integer::sum);
+                if (count >= maxRepeatedToolCalls && repeated == null) {
+                    repeated = toolCall;
+                }
+            }
+            return repeated;
+        }
+    }
+}
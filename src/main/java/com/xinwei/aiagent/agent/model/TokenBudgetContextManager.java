@@ -0,0 +1,176 @@
+package com.xinwei.aiagent.agent.model;
+
+import com.xinwei.aiagent.chatmemory.MessageTokenCounter;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 按 token 预算裁剪每一步的上下文
+ *
+ * 依次做三件事：
+ * 1. 每一步都会追加一次相同的下一步提示词，只保留最后一次；
+ * 2. 最近一次工具调用之前的工具返回（比如整页抓取的 HTML）截断到 oldToolResponseChars 个字符；
+ * 3. 仍超过 maxTokens 时，从最早的消息开始整轮丢弃（带工具调用的助手消息和对应的工具返回一起丢，
+ *    保证发送给模型的工具调用总有结果），直到放得下。
+ * 固定消息不会被删改：第一条用户消息（用户的原始任务），以及元数据中 PINNED_METADATA_KEY 为 true 的消息。
+ * 最近一次工具调用及其后的消息总会原样保留，所以它们本身超出预算时结果仍可能超出 maxTokens。
+ */
+public class TokenBudgetContextManager implements AgentContextManager {
+
+    public static final String PINNED_METADATA_KEY = "agent_context_pinned";
+
+    private final int maxTokens;
+    private final int oldToolResponseChars;
+
+    /**
+     * @param maxTokens 每一步消息列表的 token 预算（不含系统提示词和工具定义）
+     * @param oldToolResponseChars 较早的工具返回保留的字符数
+     */
+    public TokenBudgetContextManager(int maxTokens, int oldToolResponseChars) {
+        this.maxTokens = maxTokens;
+        this.oldToolResponseChars = oldToolResponseChars;
+    }
+
+    /**
+     * 创建一条固定在上下文中的用户消息
+     */
+    public static UserMessage pinned(String text) {
+        return new UserMessage(text, List.of(), Map.of(PINNED_METADATA_KEY, true));
+    }
+
+    @Override
+    public List<Message> prepare(List<Message> messages, String nextStepPrompt) {
+        List<Message> deduplicated = dropRepeatedPrompts(messages, nextStepPrompt);
+        List<List<Message>> rounds = groupRounds(deduplicated);
+        int recentFrom = indexOfLastToolRound(rounds);
+        int firstUserMessage = indexOfFirstUserMessage(rounds);
+
+        List<List<Message>> compacted = new ArrayList<>(rounds.size());
+        int[] tokens = new int[rounds.size()];
+        boolean[] pinned = new boolean[rounds.size()];
+        long total = 0;
+        for (int i = 0; i < rounds.size(); i++) {
+            pinned[i] = i >= recentFrom || i == firstUserMessage || rounds.get(i).stream().anyMatch(this::isPinned);
+            List<Message> round = pinned[i] ? rounds.get(i) : truncateToolResponses(rounds.get(i));
+            compacted.add(round);
+            for (Message message : round) {
+                tokens[i] += MessageTokenCounter.count(message);
+            }
+            total += tokens[i];
+        }
+        // 从最早的一轮开始丢弃，直到满足预算
+        boolean[] dropped = new boolean[rounds.size()];
+        for (int i = 0; i < rounds.size() && total > maxTokens; i++) {
+            if (!pinned[i]) {
+                dropped[i] = true;
+                total -= tokens[i];
+            }
+        }
+        List<Message> result = new ArrayList<>(deduplicated.size());
+        for (int i = 0; i < compacted.size(); i++) {
+            if (!dropped[i]) {
+                result.addAll(compacted.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 去掉重复的下一步提示词，只保留最后一次出现的
+     */
+    private static List<Message> dropRepeatedPrompts(List<Message> messages, String nextStepPrompt) {
+        if (nextStepPrompt == null) {
+            return messages;
+        }
+        int last = -1;
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (isPrompt(messages.get(i), nextStepPrompt)) {
+                last = i;
+                break;
+            }
+        }
+        List<Message> result = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            if (i == last || !isPrompt(messages.get(i), nextStepPrompt)) {
+                result.add(messages.get(i));
+            }
+        }
+        return result;
+    }
+
+    private static boolean isPrompt(Message message, String nextStepPrompt) {
+        return message instanceof UserMessage && nextStepPrompt.equals(message.getText());
+    }
+
+    /**
+     * 把带工具调用的助手消息和紧随其后的工具返回归为一轮，其余消息各自成一轮
+     */
+    private static List<List<Message>> groupRounds(List<Message> messages) {
+        List<List<Message>> rounds = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            if (message instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()
+                    && i + 1 < messages.size() && messages.get(i + 1) instanceof ToolResponseMessage) {
+                rounds.add(List.of(message, messages.get(i + 1)));
+                i++;
+            } else {
+                rounds.add(List.of(message));
+            }
+        }
+        return rounds;
+    }
+
+    /**
+     * 最近一次工具调用所在的轮次，从它开始的消息都原样保留；没有工具调用时只保留最后一条
+     */
+    private static int indexOfLastToolRound(List<List<Message>> rounds) {
+        for (int i = rounds.size() - 1; i >= 0; i--) {
+            if (rounds.get(i).size() == 2) {
+                return i;
+            }
+        }
+        return rounds.size() - 1;
+    }
+
+    private static int indexOfFirstUserMessage(List<List<Message>> rounds) {
+        for (int i = 0; i < rounds.size(); i++) {
+            if (rounds.get(i).get(0) instanceof UserMessage) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isPinned(Message message) {
+        return Objects.equals(message.getMetadata().get(PINNED_METADATA_KEY), true);
+    }
+
+    private List<Message> truncateToolResponses(List<Message> round) {
+        if (!(round.get(round.size() - 1) instanceof ToolResponseMessage toolResponseMessage)) {
+            return round;
+        }
+        boolean truncated = false;
+        List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>();
+        for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+            String data = response.responseData();
+            if (data != null && data.length() > oldToolResponseChars) {
+                data = data.substring(0, oldToolResponseChars) + "\n……（已截断，原长度 " + response.responseData().length() + " 字符）";
+                truncated = true;
+            }
+            responses.add(new ToolResponseMessage.ToolResponse(response.id(), response.name(), data));
+        }
+        if (!truncated) {
+            return round;
+        }
+        List<Message> result = new ArrayList<>(round.subList(0, round.size() - 1));
+        result.add(new ToolResponseMessage(responses, toolResponseMessage.getMetadata()));
+        return result;
+    }
+}
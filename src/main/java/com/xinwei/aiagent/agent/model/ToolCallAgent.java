@@ -5,6 +5,7 @@ import cn.hutool.core.util.StrUtil;
 import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
@@ -13,11 +14,17 @@ import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.function.FunctionCallback;
+import org.springframework.ai.model.function.FunctionCallingOptions;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
 import org.springframework.ai.model.tool.ToolCallingManager;
 import org.springframework.ai.model.tool.ToolExecutionResult;
 import org.springframework.ai.tool.ToolCallback;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -27,9 +34,15 @@ import java.util.stream.Collectors;
 @Data
 @Slf4j
 public class ToolCallAgent extends ReActAgent {
+
+    // 每个智能体同时执行的工具数上限
+    public static final int DEFAULT_TOOL_CONCURRENCY = 4;
+
+    // 单个工具的默认超时时间
+    public static final Duration DEFAULT_TOOL_TIMEOUT = Duration.ofSeconds(60);
   
-    // 可用的工具  
-    private final ToolCallback[] availableTools;
+    // 可用的工具，构造时转成不可变列表，每一步直接交给 ChatClient，不再复制数组
+    private final List<ToolCallback> availableTools;
   
     // 保存了工具调用信息的响应， 储存要调用的工具和参数等信息，供后续执行工具调用时使用
     private ChatResponse toolCallChatResponse;
@@ -40,16 +53,52 @@ public class ToolCallAgent extends ReActAgent {
     // 禁用内置的工具调用机制，自己维护上下文  
     private final ChatOptions chatOptions;
 
+    // 并发执行同一轮中的多个工具调用，为 null 时退回 toolCallingManager 顺序执行
+    private ParallelToolExecutor toolExecutor;
+
+    // 决定每一步发送给模型的消息，默认发送完整的消息列表
+    private AgentContextManager contextManager = AgentContextManager.FULL_HISTORY;
+
+    // 提前结束运行的策略
+    private TerminationPolicy terminationPolicy = TerminationPolicy.DEFAULT;
+
+    // 每一步选择发送给模型的工具，默认发送全部工具
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private ToolRouter toolRouter = ToolRouter.ALL_TOOLS;
+
+    // 本次运行的终止策略状态，第一次思考时创建
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private TerminationPolicy.Monitor terminationMonitor;
+
     // ToolCallAgent 不是spring托管的bean，无法通过构造函数注入可用工具，
     // 因此手动在构造函数中传入工具列表，并初始化工具调用管理器和聊天选项
     public ToolCallAgent(ToolCallback[] availableTools) {  
+        this(availableTools, ToolCallingManager.builder().build(), proxyToolCallOptions(),
+                new ParallelToolExecutor(availableTools, DEFAULT_TOOL_CONCURRENCY, DEFAULT_TOOL_TIMEOUT, Map.of()));
+    }
+
+    /**
+     * 使用调用方共享的工具调用管理器、聊天选项和工具执行器创建智能体（见 ManusFactory），
+     * 这些对象在运行中不会被修改，多个智能体可以同时使用
+     */
+    public ToolCallAgent(ToolCallback[] availableTools, ToolCallingManager toolCallingManager, ChatOptions chatOptions,
+                         ParallelToolExecutor toolExecutor) {
         super();
-        this.availableTools = availableTools;  
-        this.toolCallingManager = ToolCallingManager.builder().build();  
-        // 禁用 Spring AI 内置的工具调用机制，自己维护选项和消息上下文  
-        this.chatOptions = DashScopeChatOptions.builder()
-                .withProxyToolCalls(true)  
-                .build();  
+        this.availableTools = List.of(availableTools);
+        this.toolCallingManager = toolCallingManager;
+        this.chatOptions = chatOptions;
+        this.toolExecutor = toolExecutor;
+    }
+
+    /**
+     * 禁用 Spring AI 内置的工具调用机制，自己维护选项和消息上下文
+     */
+    public static ChatOptions proxyToolCallOptions() {
+        return DashScopeChatOptions.builder()
+                .withProxyToolCalls(true)
+                .build();
     }
 
     /**
@@ -65,14 +114,28 @@ public class ToolCallAgent extends ReActAgent {
             getMessageList().add(userMessage); // 添加到上下文列表中
         }
         // 2、调用 AI 大模型，获取工具调用结果
-        List<Message> messageList = getMessageList(); // 抽象出来获取消息上下文的方法，方便后续维护和扩展
-        Prompt prompt = new Prompt(messageList, this.chatOptions); // 构建 Prompt 对象，包含消息上下文和聊天选项
+        // 由上下文管理器从完整的消息列表中挑选本次发送的消息，控制每一步的 token 数
+        List<Message> messageList = contextManager.prepare(getMessageList(), getNextStepPrompt());
+        // 构建 Prompt 对象，包含消息上下文和聊天选项。ChatClient 会把工具回调写进选项对象，
+        // 而选项可能由多个智能体共享，所以每次使用副本
+        Prompt prompt = new Prompt(messageList, this.chatOptions.copy());
         try {
-            ChatResponse chatResponse = getChatClient().prompt(prompt)
-                    .system(getSystemPrompt())
-                    .tools(availableTools)
-                    .call()
-                    .chatResponse();
+            // 只发送本步可能用到的工具定义
+            ToolRouter.Selection selection = toolRouter.select(getMessageList(), availableTools);
+            if (selection.tools().size() < availableTools.size()) {
+                log.info("{} 第 {} 步发送 {}/{} 个工具，省去约 {} token", getName(), getCurrentStep(),
+                        selection.tools().size(), availableTools.size(), selection.savedTokens());
+            }
+            getTrace().toolRouting(getCurrentStep(), selection.tools().size(), availableTools.size(),
+                    selection.savedTokens());
+            ChatResponse chatResponse = getTokenConsumer() != null
+                    ? streamModel(prompt, selection.tools())
+                    : callModel(prompt, selection.tools());
+            // 等待模型返回期间运行被取消，丢弃结果
+            if (isCancelled()) {
+                return false;
+            }
+            getTrace().modelResponse(getCurrentStep(), chatResponse);
             // 记录响应，用于等下 Act
             this.toolCallChatResponse = chatResponse;
             // 3、解析工具调用结果，获取要调用的工具
@@ -93,18 +156,96 @@ public class ToolCallAgent extends ReActAgent {
                 // 只有不调用工具时，才需要手动记录助手消息。 因为是手动调用工具，所以每次需要自己维护上下文，（ai 调用结果和工具回复）
                 // 调用工具时会自动记录助手消息和工具调用结果到上下文中
                 getMessageList().add(assistantMessage);
+                if (terminationMonitor().onNoToolCalls()) {
+                    // 连续几步只回复文本，视为已经给出最终回答
+                    terminateEarly(TerminationPolicy.NO_TOOL_CALLS, "连续多步没有调用工具");
+                }
                 return false;
-            } else {
-                // 需要调用工具时，无需记录助手消息，因为调用工具时会自动记录
-                return true;
             }
+            AssistantMessage.ToolCall repeated = terminationMonitor().onToolCalls(toolCallList);
+            if (repeated != null) {
+                // 不再执行重复的调用；这些工具调用没有对应的返回，只把文本写入上下文
+                if (StrUtil.isNotBlank(result)) {
+                    getMessageList().add(new AssistantMessage(result));
+                }
+                terminateEarly(TerminationPolicy.NO_PROGRESS,
+                        "重复调用工具 " + repeated.name() + "，参数：" + repeated.arguments());
+                return false;
+            }
+            // 需要调用工具时，无需记录助手消息，因为调用工具时会自动记录
+            return true;
         } catch (Exception e) {
+            if (isCancelled()) {
+                // 取消时中断了模型调用，不算错误
+                return false;
+            }
             log.error(getName() + "的思考过程遇到了问题：" + e.getMessage());
             getMessageList().add(new AssistantMessage("处理时遇到了错误：" + e.getMessage()));
             return false;
         }
     }
 
+    private TerminationPolicy.Monitor terminationMonitor() {
+        if (terminationMonitor == null) {
+            terminationMonitor = terminationPolicy.newMonitor();
+        }
+        return terminationMonitor;
+    }
+
+    /**
+     * 终止策略提前结束运行，记录节省的步数（最多还会执行的步数）
+     */
+    private void terminateEarly(String reason, String detail) {
+        int savedSteps = Math.max(0, getMaxSteps() - getCurrentStep());
+        log.info("{} 提前结束运行（{}），最多节省 {} 步：{}", getName(), reason, savedSteps, detail);
+        setState(AgentState.FINISHED);
+        terminationPolicy.recordEarlyTermination(reason, savedSteps);
+        getTrace().earlyTermination(getCurrentStep(), reason, savedSteps);
+    }
+
+    private ChatResponse callModel(Prompt prompt, List<ToolCallback> tools) {
+        return getChatClient().prompt(prompt)
+                .system(getSystemPrompt())
+                .tools(tools)
+                .call()
+                .chatResponse();
+    }
+
+    /**
+     * 流式调用模型：文本片段一到就交给 tokenConsumer 推送给前端，工具调用从片段中拼出，
+     * 流结束后得到与同步调用相同形式的完整响应
+     */
+    private ChatResponse streamModel(Prompt prompt, List<ToolCallback> tools) {
+        StreamingResponseAssembler assembler = new StreamingResponseAssembler();
+        getChatClient().prompt(prompt)
+                .system(getSystemPrompt())
+                .tools(tools)
+                .stream()
+                .chatResponse()
+                .doOnNext(chunk -> {
+                    String delta = assembler.accept(chunk);
+                    if (!delta.isEmpty()) {
+                        getTokenConsumer().accept(delta);
+                    }
+                })
+                .blockLast();
+        return assembler.toChatResponse();
+    }
+
+
+    /**
+     * 聊天选项的副本，带上全部可用工具的回调
+     */
+    private ChatOptions optionsWithTools() {
+        ChatOptions options = chatOptions.copy();
+        List<FunctionCallback> callbacks = new ArrayList<>(availableTools);
+        if (options instanceof ToolCallingChatOptions toolCallingOptions) {
+            toolCallingOptions.setToolCallbacks(callbacks);
+        } else if (options instanceof FunctionCallingOptions functionCallingOptions) {
+            functionCallingOptions.setFunctionCallbacks(callbacks);
+        }
+        return options;
+    }
 
     /**
      * 执行工具调用并处理结果
@@ -116,21 +257,39 @@ public class ToolCallAgent extends ReActAgent {
         if (!toolCallChatResponse.hasToolCalls()) {
             return "没有工具调用";
         }
-        // 调用工具
-        Prompt prompt = new Prompt(getMessageList(), chatOptions);
-        // 根据对话上下文和要调用工具的相应对象 解析出要调用的工具并执行工具调用，得到工具调用结果
-        ToolExecutionResult toolExecutionResult = toolCallingManager.executeToolCalls(prompt, toolCallChatResponse);
-        // 记录消息上下文，conversationHistory 已经包含了助手消息和工具调用返回的结果。 自动拼接到历史上下文中
-        setMessageList(toolExecutionResult.conversationHistory());
-        // 当前工具调用的结果
-        ToolResponseMessage toolResponseMessage = (ToolResponseMessage) CollUtil.getLast(toolExecutionResult.conversationHistory());
+        ToolResponseMessage toolResponseMessage;
+        if (toolExecutor != null) {
+            // 并发执行工具，响应顺序与工具调用顺序一致，自己把助手消息和工具结果拼接到上下文中
+            AssistantMessage assistantMessage = toolCallChatResponse.getResult().getOutput();
+            AgentRunTrace trace = getTrace();
+            int step = getCurrentStep();
+            toolResponseMessage = toolExecutor.execute(assistantMessage.getToolCalls(),
+                    (toolCall, result, outcome, durationNanos) -> trace.tool(step, toolCall, result, outcome, durationNanos));
+            getMessageList().add(assistantMessage);
+            getMessageList().add(toolResponseMessage);
+        } else {
+            // 调用工具。think 只把工具回调交给 ChatClient，共享的选项里没有工具，
+            // toolCallingManager 从选项中查找要执行的工具，所以用带全部工具的副本
+            Prompt prompt = new Prompt(getMessageList(), optionsWithTools());
+            // 根据对话上下文和要调用工具的相应对象 解析出要调用的工具并执行工具调用，得到工具调用结果
+            ToolExecutionResult toolExecutionResult = toolCallingManager.executeToolCalls(prompt, toolCallChatResponse);
+            // 记录消息上下文，conversationHistory 已经包含了助手消息和工具调用返回的结果。 自动拼接到历史上下文中
+            setMessageList(toolExecutionResult.conversationHistory());
+            // 当前工具调用的结果
+            toolResponseMessage = (ToolResponseMessage) CollUtil.getLast(toolExecutionResult.conversationHistory());
+        }
 
         // 判断是否调用了终止工具
         boolean terminateToolCalled = toolResponseMessage.getResponses().stream()
                 .anyMatch(response -> response.name().equals("doTerminate"));
         if (terminateToolCalled) {
-            // 任务结束，更改状态
-            setState(AgentState.FINISHED);
+            boolean onlyTerminate = toolResponseMessage.getResponses().stream()
+                    .allMatch(response -> response.name().equals("doTerminate"));
+            // 和其他工具一起返回时，按策略在本步结束，或者让模型看到其他工具的结果后再决定
+            if (onlyTerminate || terminationPolicy.finishWithOtherCalls()) {
+                // 任务结束，更改状态
+                setState(AgentState.FINISHED);
+            }
         }
 
         String results = toolResponseMessage.getResponses().stream()
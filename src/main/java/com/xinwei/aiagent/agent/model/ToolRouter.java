@@ -0,0 +1,31 @@
+package com.xinwei.aiagent.agent.model;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.util.List;
+
+/**
+ * 决定每一步发送给大模型的工具
+ *
+ * 每个工具定义（名称、描述、参数的 JSON Schema）在每一步的请求中都要占用 token，而多数步骤只会用到其中一两个。
+ * 每次 think 前由工具路由从全部工具中选出本步可能用到的工具，只把它们的定义发给模型；工具的执行不受影响。
+ */
+@FunctionalInterface
+public interface ToolRouter {
+
+    /**
+     * 不做选择，每一步都发送全部工具
+     */
+    ToolRouter ALL_TOOLS = (messages, tools) -> new Selection(tools, 0);
+
+    /**
+     * @param messages 完整的消息列表
+     * @param tools 智能体的全部工具
+     * @return 本步发送的工具，以及因此省去的工具定义 token 数（估算）
+     */
+    Selection select(List<Message> messages, List<ToolCallback> tools);
+
+    record Selection(List<ToolCallback> tools, int savedTokens) {
+    }
+}
@@ -2,21 +2,21 @@ package com.xinwei.aiagent.app;
 
 import com.xinwei.aiagent.advisor.MyLoggerAdvisor;
 import com.xinwei.aiagent.advisor.ReReadingAdvisor;
-import com.xinwei.aiagent.chatmemory.FileBasedChatMemory;
+import com.xinwei.aiagent.advisor.TokenBudgetChatMemoryAdvisor;
 import com.xinwei.aiagent.rag.LoveAppRagCustomAdvisorFactory;
 import com.xinwei.aiagent.rag.QueryRewriter;
+import com.xinwei.aiagent.tools.ToolSchemas;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.QuestionAnswerAdvisor;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.memory.InMemoryChatMemory;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
-import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.tool.ToolCallbackProvider;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.context.annotation.Primary;
@@ -26,7 +26,6 @@ import reactor.core.publisher.Flux;
 import java.util.List;
 
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
-import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_RETRIEVE_SIZE_KEY;
 
 @Component
 @Slf4j
@@ -45,19 +44,22 @@ public class LoveApp {
     /**
      * 初始化ChatClient
      * @param dashscopeChatModel
+     * @param loveAppChatMemory 基于文件的对话记忆（带写回缓存），见 ChatMemoryConfig
+     * @param memoryTokenBudget 每次请求注入的历史消息 token 预算
      */
-    public LoveApp(ChatModel dashscopeChatModel) {
+    public LoveApp(ChatModel dashscopeChatModel, ChatMemory loveAppChatMemory,
+                   @Value("${chat-memory.token-budget:3000}") int memoryTokenBudget) {
 
         // 1.  初始化基于文件的对话记忆
-        String fileDir = System.getProperty("user.dir")+"/tmp/chat-memories";
-        ChatMemory chatMemory = new FileBasedChatMemory(fileDir);
+        ChatMemory chatMemory = loveAppChatMemory;
 
         // 2. 初始化基于内存的对话记忆
         //ChatMemory chatMemory = new InMemoryChatMemory();
         chatClient = ChatClient.builder(dashscopeChatModel)
                 .defaultSystem(SYSTEM_PROMPT)
                 .defaultAdvisors(
-                        new MessageChatMemoryAdvisor(chatMemory),
+                        // 按 token 预算取历史，代替固定的最后 10 条
+                        new TokenBudgetChatMemoryAdvisor(chatMemory, memoryTokenBudget),
                         // 添加自定义日志 Advisor，可按需开启
                         new MyLoggerAdvisor()
                         // 添加自定义 Re2 Advisor，可按需开启,增强推理能力
@@ -76,8 +78,7 @@ public class LoveApp {
         ChatResponse response = chatClient
                 .prompt()
                 .user(message)
-                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId))
                 .call()
                 .chatResponse();
         String content = response.getResult().getOutput().getText();
@@ -96,8 +97,7 @@ public class LoveApp {
         return chatClient
                 .prompt()
                 .user(message)
-                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId))
                 .stream()
                 .content();
     }
@@ -118,8 +118,7 @@ public class LoveApp {
                 .prompt()
                 .system(SYSTEM_PROMPT + "每次对话后都要生成健康结果，标题为{用户名}的健康报告，内容为建议列表")
                 .user(message)
-                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId))
                 .call()
                 .entity(LoveReport.class);
         log.info("loveReport: {}", loveReport);
@@ -154,9 +153,8 @@ public class LoveApp {
                 .prompt()
                 //.user(message)
                 .user(rewrittenMessage) //使用改写后的
-                // 设置对话记忆 最后10条
-                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                // 设置对话记忆（按 token 预算取历史）
+                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId))
                 // 开启日志，便于观察效果
                 .advisors(new MyLoggerAdvisor())
                 // 1.应用 RAG 问答（基于本地知识库）similaritySearch 向量相似度检索
@@ -182,19 +180,18 @@ public class LoveApp {
         return content;
     }
 
-    // AI 工具调用功能
+    // AI 工具调用功能，工具定义在启动时解析好，每次对话直接使用共享的工具列表
     @Resource
-    private ToolCallback[] allTools;
+    private ToolSchemas toolSchemas;
 
     public String doChatWithTools(String message, String chatId) {
         ChatResponse response = chatClient
                 .prompt()
                 .user(message)
-                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId))
                 // 开启日志，便于观察效果
                 .advisors(new MyLoggerAdvisor())
-                .tools(allTools)
+                .tools(toolSchemas.callbacks())
                 .call()
                 .chatResponse();
         String content = response.getResult().getOutput().getText();
@@ -221,8 +218,7 @@ public class LoveApp {
         ChatResponse response = chatClient
                 .prompt()
                 .user(message)
-                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId))
                 // 开启日志，便于观察效果
                 .advisors(new MyLoggerAdvisor())
                 .tools(toolCallbackProvider)
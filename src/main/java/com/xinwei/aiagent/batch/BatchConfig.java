@@ -0,0 +1,76 @@
+package com.xinwei.aiagent.batch;
+
+import cn.hutool.core.util.StrUtil;
+import com.xinwei.aiagent.agent.model.AgentRunExecutor;
+import com.xinwei.aiagent.agent.model.AgentState;
+import com.xinwei.aiagent.agent.model.Manus;
+import com.xinwei.aiagent.agent.model.ManusFactory;
+import com.xinwei.aiagent.app.LoveApp;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * 批量执行配置
+ * 执行方式：manus（每行一个新的 Manus 智能体）和 love_app（LoveApp.doChat，chatId 缺省时每行一个会话）。
+ * 批量任务的行以 batch.tenant 租户提交给共享的智能体执行器，和在线请求一起按 agent.executor.tenant-weights 公平调度，
+ * 同时运行的行数还受 agent.executor.max-runs-per-tenant 限制。
+ * batch.resume-on-startup 开启时，启动后自动续跑上次没有正常结束的任务。
+ */
+@Configuration
+@Slf4j
+public class BatchConfig {
+
+    @Value("${batch.dir:${user.dir}/tmp/batch-jobs}")
+    private String dir;
+
+    @Value("${batch.parallelism:4}")
+    private int parallelism;
+
+    @Value("${batch.tenant:batch}")
+    private String tenant;
+
+    @Value("${batch.fsync:false}")
+    private boolean fsync;
+
+    @Value("${batch.resume-on-startup:true}")
+    private boolean resumeOnStartup;
+
+    @Bean(destroyMethod = "close")
+    public BatchJobService batchJobService(AgentRunExecutor agentRunExecutor, ManusFactory manusFactory,
+                                           LoveApp loveApp) {
+        Map<String, BatchTarget> targets = Map.of(
+                "manus", item -> {
+                    Manus manus = manusFactory.create();
+                    String result = manus.run(item.prompt());
+                    if (manus.getState() == AgentState.ERROR) {
+                        throw new IllegalStateException(result);
+                    }
+                    return result;
+                },
+                "love_app", item -> loveApp.doChat(item.prompt(),
+                        StrUtil.blankToDefault(item.chatId(), "batch-" + item.jobId() + "-" + item.line())));
+        return new BatchJobService(Path.of(dir), agentRunExecutor, tenant, parallelism, fsync, targets);
+    }
+
+    @Bean
+    public ApplicationListener<ApplicationReadyEvent> batchJobResumer(BatchJobService batchJobService) {
+        return event -> {
+            if (!resumeOnStartup) {
+                return;
+            }
+            try {
+                batchJobService.resumeInterrupted();
+            } catch (IOException e) {
+                log.warn("续跑批量任务失败", e);
+            }
+        };
+    }
+}
@@ -0,0 +1,14 @@
+package com.xinwei.aiagent.batch;
+
+/**
+ * 任务文件中的一行
+ *
+ * @param jobId 所属的批量任务
+ * @param line 行号（从 1 开始，不含空行），输出和断点续跑都按行号对应
+ * @param id 调用方给的 ID，没有时为行号
+ * @param target 执行方式，如 manus、love_app
+ * @param prompt 提示词
+ * @param chatId LoveApp 的会话 ID，没有时每行一个独立会话
+ */
+public record BatchItem(String jobId, long line, String id, String target, String prompt, String chatId) {
+}
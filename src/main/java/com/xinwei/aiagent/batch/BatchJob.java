@@ -0,0 +1,149 @@
+package com.xinwei.aiagent.batch;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个正在运行（或本进程内运行过）的批量任务的进度
+ *
+ * 计数只在内存中，进程重启后由 BatchJobService 从输出文件重新统计已完成的行。
+ */
+public class BatchJob {
+
+    public enum State {
+        RUNNING,
+        COMPLETED,
+        CANCELLED,
+        // 进程关闭或崩溃时未完成，可以续跑
+        INTERRUPTED,
+        FAILED
+    }
+
+    /**
+     * 进度快照
+     *
+     * @param total 任务文件的行数
+     * @param completed 已写入输出的行数，含续跑前已完成的
+     * @param resumed 续跑前已完成、本次跳过的行数
+     * @param running 正在执行的行数
+     * @param itemsPerMinute 本次运行的吞吐量（每分钟完成的行数）
+     * @param averageMillis 本次运行每行的平均耗时
+     */
+    public record Progress(String jobId, State state, long total, long completed, long succeeded, long failed,
+                           long resumed, int running, long elapsedMillis, double itemsPerMinute, long averageMillis,
+                           String error) {
+    }
+
+    private final String jobId;
+    private final long total;
+    private final long resumed;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalMillis = new LongAdder();
+    private final AtomicInteger running = new AtomicInteger();
+    // 已提交给执行器、尚未结束的行，停止时取消其中还在排队的
+    private final Set<CompletableFuture<Void>> submitted = ConcurrentHashMap.newKeySet();
+    private final CompletableFuture<Progress> completion = new CompletableFuture<>();
+    private volatile State state = State.RUNNING;
+    // 请求停止时的目标状态（CANCELLED 或 INTERRUPTED）
+    private volatile State stopping;
+    private volatile String error;
+    private volatile long finishNanos;
+
+    BatchJob(String jobId, long total, long resumed) {
+        this.jobId = jobId;
+        this.total = total;
+        this.resumed = resumed;
+    }
+
+    /**
+     * 只从磁盘统计出的进度，任务不在本进程内运行
+     */
+    static Progress onDisk(String jobId, State state, long total, long completed) {
+        return new Progress(jobId, state, total, completed, 0, 0, completed, 0, 0, 0, 0, null);
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * 任务结束（完成、取消、中断或失败）时完成，值为最终进度
+     */
+    public CompletableFuture<Progress> completion() {
+        return completion;
+    }
+
+    public Progress progress() {
+        long done = succeeded.sum() + failed.sum();
+        long elapsedNanos = (state == State.RUNNING ? System.nanoTime() : finishNanos) - startNanos;
+        long elapsedMillis = elapsedNanos / 1_000_000;
+        double itemsPerMinute = elapsedNanos > 0 ? done * 60_000_000_000.0 / elapsedNanos : 0;
+        return new Progress(jobId, state, total, resumed + done, succeeded.sum(), failed.sum(), resumed,
+                running.get(), elapsedMillis, itemsPerMinute, done > 0 ? totalMillis.sum() / done : 0, error);
+    }
+
+    boolean isStopping() {
+        return stopping != null;
+    }
+
+    /**
+     * 停止分发新的行并取消还在排队的行；正在执行的行会执行完并写入输出
+     */
+    void stop(State target) {
+        if (stopping == null) {
+            stopping = target;
+        }
+        submitted.forEach(future -> future.cancel(false));
+    }
+
+    void track(CompletableFuture<Void> future) {
+        submitted.add(future);
+    }
+
+    void untrack(CompletableFuture<Void> future) {
+        submitted.remove(future);
+    }
+
+    void started() {
+        running.incrementAndGet();
+    }
+
+    void finished(boolean success, long millis) {
+        running.decrementAndGet();
+        (success ? succeeded : failed).increment();
+        totalMillis.add(millis);
+    }
+
+    /**
+     * 不经过执行器直接记录为失败的行（如无法解析）
+     */
+    void rejected() {
+        failed.increment();
+    }
+
+    void finish(Throwable failure) {
+        finishNanos = System.nanoTime();
+        if (failure != null) {
+            error = failure.getMessage();
+            state = State.FAILED;
+        } else {
+            state = stopping != null ? stopping : State.COMPLETED;
+        }
+    }
+
+    /**
+     * 最终状态保存后通知等待的调用方
+     */
+    void completed() {
+        completion.complete(progress());
+    }
+}
@@ -0,0 +1,434 @@
+package com.xinwei.aiagent.batch;
+
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONConfig;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.xinwei.aiagent.agent.model.AgentRunExecutor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 离线批量执行提示词
+ *
+ * 每个任务一个目录 {baseDir}/{jobId}：input.jsonl 是提交的任务文件，output.jsonl 是结果，job.json 记录默认执行方式和状态。
+ * 任务文件每行一个提示词，可以是纯文本，也可以是 {"id", "prompt", "target", "chatId"}，target 缺省时用提交时指定的执行方式。
+ *
+ * 分发线程逐行读取任务文件，每行作为一次运行以 tenant 租户提交给共享的 AgentRunExecutor，
+ * 与在线请求一起按租户公平调度；每个任务同时提交的行数不超过 parallelism，执行器排满时等待而不是丢弃。
+ * 每行执行完立即追加一行 JSON 到 output.jsonl（line、id、target、status、output 或 error、durationMs），结果不在内存中保留。
+ *
+ * 续跑：按行号对应，output.jsonl 中已有的行（成功或失败）不再执行；进程在写入途中退出留下的不完整的最后一行先被截断。
+ * 进程关闭时运行中的任务记为 INTERRUPTED，启动后可以自动续跑。
+ */
+@Slf4j
+public class BatchJobService implements AutoCloseable {
+
+    static final String INPUT_FILE = "input.jsonl";
+    static final String OUTPUT_FILE = "output.jsonl";
+    static final String JOB_FILE = "job.json";
+    private static final Pattern JOB_ID = Pattern.compile("[0-9A-Za-z_-]{1,64}");
+    // 执行器排满时重试提交的间隔
+    private static final long RETRY_MILLIS = 200;
+    private static final int BLOCK_BYTES = 8192;
+
+    private final Path baseDir;
+    private final AgentRunExecutor executor;
+    private final String tenant;
+    private final int parallelism;
+    // 每写一行结果是否立即 fsync
+    private final boolean fsync;
+    private final Map<String, BatchTarget> targets;
+    // 本进程内启动过的任务
+    private final Map<String, BatchJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * @param tenant 批量任务在执行器中的租户，权重和并发上限见 agent.executor.*
+     * @param parallelism 每个任务同时提交给执行器的行数
+     * @param targets 按名称的执行方式
+     */
+    public BatchJobService(Path baseDir, AgentRunExecutor executor, String tenant, int parallelism, boolean fsync,
+                           Map<String, BatchTarget> targets) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism 必须大于 0");
+        }
+        this.baseDir = baseDir;
+        this.executor = executor;
+        this.tenant = tenant;
+        this.parallelism = parallelism;
+        this.fsync = fsync;
+        this.targets = Map.copyOf(targets);
+    }
+
+    /**
+     * 保存任务文件并开始执行
+     *
+     * @param defaultTarget 任务文件中没有指定 target 的行使用的执行方式
+     * @throws IllegalArgumentException 执行方式不存在
+     */
+    public BatchJob submit(InputStream input, String defaultTarget) throws IOException {
+        if (!targets.containsKey(defaultTarget)) {
+            throw new IllegalArgumentException("未知的执行方式: " + defaultTarget + "，可选 " + targets.keySet());
+        }
+        String jobId = IdUtil.fastSimpleUUID();
+        Path dir = baseDir.resolve(jobId);
+        Files.createDirectories(dir);
+        Files.copy(input, dir.resolve(INPUT_FILE));
+        writeJobFile(dir, new JSONObject().set("target", defaultTarget).set("createdAt", System.currentTimeMillis()));
+        return start(jobId);
+    }
+
+    /**
+     * 续跑一个中断、取消或失败的任务，输出中已有的行不再执行
+     *
+     * @throws IllegalArgumentException 任务不存在
+     * @throws IllegalStateException 任务正在运行
+     */
+    public BatchJob resume(String jobId) throws IOException {
+        return start(jobId);
+    }
+
+    /**
+     * 任务进度；不在本进程内运行的任务从磁盘统计，任务不存在时返回空
+     */
+    public Optional<BatchJob.Progress> progress(String jobId) throws IOException {
+        BatchJob job = jobs.get(jobId);
+        if (job != null) {
+            return Optional.of(job.progress());
+        }
+        Path dir = dirOf(jobId);
+        if (!Files.exists(dir.resolve(INPUT_FILE))) {
+            return Optional.empty();
+        }
+        BatchJob.State state = storedState(dir);
+        return Optional.of(BatchJob.onDisk(jobId, state == BatchJob.State.RUNNING ? BatchJob.State.INTERRUPTED : state,
+                countLines(dir.resolve(INPUT_FILE)), recordedLines(dir.resolve(OUTPUT_FILE), false).cardinality()));
+    }
+
+    /**
+     * 取消任务：不再分发新的行，排队中的行被取消，正在执行的行执行完后写入输出
+     *
+     * @return 任务是否正在运行
+     */
+    public boolean cancel(String jobId) {
+        BatchJob job = jobs.get(jobId);
+        if (job == null || job.getState() != BatchJob.State.RUNNING) {
+            return false;
+        }
+        job.stop(BatchJob.State.CANCELLED);
+        return true;
+    }
+
+    /**
+     * 任务的输出文件，任务不存在时返回空
+     */
+    public Optional<Path> output(String jobId) {
+        Path dir = dirOf(jobId);
+        return Files.exists(dir.resolve(INPUT_FILE)) ? Optional.of(dir.resolve(OUTPUT_FILE)) : Optional.empty();
+    }
+
+    /**
+     * 续跑所有上次没有正常结束（运行中崩溃或进程关闭时中断）的任务
+     */
+    public List<BatchJob> resumeInterrupted() throws IOException {
+        List<BatchJob> resumed = new ArrayList<>();
+        if (!Files.isDirectory(baseDir)) {
+            return resumed;
+        }
+        List<Path> dirs;
+        try (Stream<Path> list = Files.list(baseDir)) {
+            dirs = list.filter(dir -> Files.exists(dir.resolve(JOB_FILE))).toList();
+        }
+        for (Path dir : dirs) {
+            String jobId = dir.getFileName().toString();
+            BatchJob.State state = storedState(dir);
+            if ((state == BatchJob.State.RUNNING || state == BatchJob.State.INTERRUPTED) && !jobs.containsKey(jobId)) {
+                log.info("续跑批量任务 {}", jobId);
+                resumed.add(start(jobId));
+            }
+        }
+        return resumed;
+    }
+
+    /**
+     * 停止所有运行中的任务并等待正在执行的行写完，任务记为 INTERRUPTED
+     */
+    @Override
+    public void close() {
+        List<CompletableFuture<BatchJob.Progress>> running = new ArrayList<>();
+        for (BatchJob job : jobs.values()) {
+            if (job.getState() == BatchJob.State.RUNNING) {
+                job.stop(BatchJob.State.INTERRUPTED);
+                running.add(job.completion());
+            }
+        }
+        CompletableFuture.allOf(running.toArray(CompletableFuture[]::new)).join();
+    }
+
+    private synchronized BatchJob start(String jobId) throws IOException {
+        Path dir = dirOf(jobId);
+        if (!Files.exists(dir.resolve(INPUT_FILE))) {
+            throw new IllegalArgumentException("批量任务不存在: " + jobId);
+        }
+        BatchJob existing = jobs.get(jobId);
+        if (existing != null && existing.getState() == BatchJob.State.RUNNING) {
+            throw new IllegalStateException("批量任务正在运行: " + jobId);
+        }
+        JSONObject jobFile = JSONUtil.parseObj(Files.readString(dir.resolve(JOB_FILE)));
+        String defaultTarget = jobFile.getStr("target");
+        BitSet recorded = recordedLines(dir.resolve(OUTPUT_FILE), true);
+        BatchJob job = new BatchJob(jobId, countLines(dir.resolve(INPUT_FILE)), recorded.cardinality());
+        writeJobFile(dir, jobFile.set("state", BatchJob.State.RUNNING));
+        jobs.put(jobId, job);
+        Thread.ofVirtual().name("batch-" + jobId).start(() -> dispatch(job, dir, defaultTarget, recorded));
+        return job;
+    }
+
+    /**
+     * 逐行读取任务文件并提交，等所有提交的行结束后记录任务的最终状态
+     */
+    private void dispatch(BatchJob job, Path dir, String defaultTarget, BitSet recorded) {
+        Semaphore permits = new Semaphore(parallelism);
+        Throwable failure = null;
+        try (BufferedReader reader = Files.newBufferedReader(dir.resolve(INPUT_FILE), StandardCharsets.UTF_8);
+             FileChannel output = FileChannel.open(dir.resolve(OUTPUT_FILE), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            try {
+                int line = 0;
+                String text;
+                while (!job.isStopping() && (text = reader.readLine()) != null) {
+                    if (text.isBlank()) {
+                        continue;
+                    }
+                    line++;
+                    if (recorded.get(line)) {
+                        continue;
+                    }
+                    BatchItem item;
+                    try {
+                        item = parse(job.getJobId(), line, text, defaultTarget);
+                    } catch (RuntimeException e) {
+                        write(output, record(line, String.valueOf(line), defaultTarget)
+                                .set("status", "error").set("error", "无法解析: " + e.getMessage()).set("durationMs", 0));
+                        job.rejected();
+                        continue;
+                    }
+                    permits.acquire();
+                    submit(job, item, output, permits);
+                }
+            } catch (Exception e) {
+                failure = e;
+                log.error("批量任务 {} 失败", job.getJobId(), e);
+                job.stop(BatchJob.State.FAILED);
+            } finally {
+                // 等正在执行的行写完再关闭输出
+                permits.acquireUninterruptibly(parallelism);
+            }
+        } catch (IOException e) {
+            failure = e;
+            log.error("批量任务 {} 失败", job.getJobId(), e);
+        }
+        job.finish(failure);
+        try {
+            JSONObject jobFile = JSONUtil.parseObj(Files.readString(dir.resolve(JOB_FILE)));
+            writeJobFile(dir, jobFile.set("state", job.getState()));
+        } catch (IOException e) {
+            log.warn("批量任务 {} 的状态保存失败", job.getJobId(), e);
+        }
+        job.completed();
+        BatchJob.Progress progress = job.progress();
+        log.info("批量任务 {} 结束: {}，完成 {}/{}，失败 {}，{} 行/分钟", job.getJobId(), progress.state(),
+                progress.completed(), progress.total(), progress.failed(), String.format("%.1f", progress.itemsPerMinute()));
+    }
+
+    private void submit(BatchJob job, BatchItem item, FileChannel output, Semaphore permits)
+            throws InterruptedException {
+        BatchTarget target = targets.get(item.target());
+        while (true) {
+            try {
+                CompletableFuture<Void> future = executor.submit(tenant, () -> execute(job, item, target, output),
+                        AgentRunExecutor.QueueListener.NONE);
+                job.track(future);
+                future.whenComplete((ignored, error) -> {
+                    job.untrack(future);
+                    permits.release();
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                // 执行器排满时等待，已关闭时停止分发
+                if (job.isStopping() || executor.isClosed()) {
+                    permits.release();
+                    job.stop(BatchJob.State.INTERRUPTED);
+                    return;
+                }
+                Thread.sleep(RETRY_MILLIS);
+            }
+        }
+    }
+
+    private void execute(BatchJob job, BatchItem item, BatchTarget target, FileChannel output) {
+        if (job.isStopping()) {
+            return;
+        }
+        job.started();
+        long start = System.nanoTime();
+        JSONObject record = record(item.line(), item.id(), item.target());
+        boolean success = false;
+        try {
+            record.set("status", "ok").set("output", target.run(item));
+            success = true;
+        } catch (Exception e) {
+            log.warn("批量任务 {} 第 {} 行执行失败", item.jobId(), item.line(), e);
+            record.set("status", "error").set("error", StrUtil.blankToDefault(e.getMessage(), e.getClass().getName()));
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        record.set("durationMs", millis);
+        try {
+            write(output, record);
+        } catch (IOException e) {
+            // 没有写入的行在续跑时重新执行
+            log.error("批量任务 {} 第 {} 行的结果写入失败", item.jobId(), item.line(), e);
+            success = false;
+        }
+        job.finished(success, millis);
+    }
+
+    private BatchItem parse(String jobId, int line, String text, String defaultTarget) {
+        String trimmed = text.trim();
+        if (!trimmed.startsWith("{")) {
+            return new BatchItem(jobId, line, String.valueOf(line), defaultTarget, trimmed, null);
+        }
+        JSONObject json = JSONUtil.parseObj(trimmed);
+        String prompt = json.getStr("prompt");
+        if (StrUtil.isBlank(prompt)) {
+            throw new IllegalArgumentException("缺少 prompt");
+        }
+        String target = json.getStr("target", defaultTarget);
+        if (!targets.containsKey(target)) {
+            throw new IllegalArgumentException("未知的执行方式: " + target);
+        }
+        return new BatchItem(jobId, line, json.getStr("id", String.valueOf(line)), target, prompt,
+                json.getStr("chatId"));
+    }
+
+    private static JSONObject record(long line, String id, String target) {
+        return new JSONObject(JSONConfig.create().setOrder(true))
+                .set("line", line).set("id", id).set("target", target);
+    }
+
+    private void write(FileChannel output, JSONObject record) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((record.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        synchronized (output) {
+            while (bytes.hasRemaining()) {
+                output.write(bytes);
+            }
+            if (fsync) {
+                output.force(false);
+            }
+        }
+    }
+
+    /**
+     * 输出文件中已记录的行号
+     *
+     * @param truncate 是否截断没有写完的最后一行
+     */
+    private static BitSet recordedLines(Path output, boolean truncate) throws IOException {
+        BitSet recorded = new BitSet();
+        if (!Files.exists(output)) {
+            return recorded;
+        }
+        if (truncate) {
+            truncateIncompleteLine(output);
+        }
+        try (BufferedReader reader = Files.newBufferedReader(output, StandardCharsets.UTF_8)) {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                if (!JSONUtil.isTypeJSONObject(text)) {
+                    continue;
+                }
+                Integer line = JSONUtil.parseObj(text).getInt("line");
+                if (line != null && line > 0) {
+                    recorded.set(line);
+                }
+            }
+        }
+        return recorded;
+    }
+
+    /**
+     * 每行结果以换行结尾一次写入，文件不以换行结尾说明最后一行没有写完
+     */
+    private static void truncateIncompleteLine(Path output) throws IOException {
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long end = size;
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_BYTES);
+            search:
+            while (end > 0) {
+                int length = (int) Math.min(BLOCK_BYTES, end);
+                long position = end - length;
+                block.clear().limit(length);
+                while (block.hasRemaining() && channel.read(block, position + block.position()) > 0) {
+                }
+                for (int i = length - 1; i >= 0; i--) {
+                    if (block.get(i) == '\n') {
+                        end = position + i + 1;
+                        break search;
+                    }
+                }
+                end = position;
+            }
+            if (end < size) {
+                log.warn("批量任务输出 {} 的最后一行不完整，截断 {} 字节", output, size - end);
+                channel.truncate(end);
+            }
+        }
+    }
+
+    private static long countLines(Path input) throws IOException {
+        try (Stream<String> lines = Files.lines(input, StandardCharsets.UTF_8)) {
+            return lines.filter(line -> !line.isBlank()).count();
+        }
+    }
+
+    private static BatchJob.State storedState(Path dir) throws IOException {
+        String state = JSONUtil.parseObj(Files.readString(dir.resolve(JOB_FILE))).getStr("state");
+        return state == null ? BatchJob.State.INTERRUPTED : BatchJob.State.valueOf(state);
+    }
+
+    private static void writeJobFile(Path dir, JSONObject jobFile) throws IOException {
+        Path temp = dir.resolve(JOB_FILE + ".tmp");
+        Files.writeString(temp, jobFile.toString());
+        Files.move(temp, dir.resolve(JOB_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path dirOf(String jobId) {
+        if (jobId == null || !JOB_ID.matcher(jobId).matches()) {
+            throw new IllegalArgumentException("无效的批量任务 ID: " + jobId);
+        }
+        return baseDir.resolve(jobId);
+    }
+}
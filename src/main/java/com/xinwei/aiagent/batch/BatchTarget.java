@@ -0,0 +1,14 @@
+package com.xinwei.aiagent.batch;
+
+/**
+ * 批量任务中一行的执行方式，在执行器的线程上同步调用
+ */
+@FunctionalInterface
+public interface BatchTarget {
+
+    /**
+     * @return 输出内容
+     * @throws Exception 执行失败，记录为该行的错误
+     */
+    String run(BatchItem item) throws Exception;
+}
@@ -0,0 +1,529 @@
+package com.xinwei.aiagent.chatmemory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 带写回缓存的对话记忆
+ *
+ * 在内存中缓存热点会话最近的若干条消息，get 命中时不再访问磁盘；add 只写内存，
+ * 由后台线程在不超过 maxStaleness 的时间内把新消息批量写入底层 ChatMemory。
+ * 会话数超过上限或空闲超时时按 LRU 淘汰，淘汰前会先把未写入的消息刷到底层存储。
+ *
+ * 消息在 add 时计算一次 token 数，缓存窗口和写入底层存储时都带着计数，按 token 预算读取时不再分词。
+ * 命中、未命中、淘汰、写盘次数和写盘延迟可以通过 bindTo 注册到 MeterRegistry，运行中随时查看。
+ */
+@Slf4j
+public class CachedChatMemory implements TokenBudgetChatMemory, AutoCloseable {
+
+    // 底层持久化的对话记忆
+    private final ChatMemory delegate;
+    // 最多缓存的会话数
+    private final int maxConversations;
+    // 每个会话在内存中保留的最近消息条数
+    private final int windowSize;
+    // 未写入消息允许在内存中停留的最长时间
+    private final long maxStalenessMillis;
+    // 会话空闲多久后被淘汰
+    private final long idleTimeoutMillis;
+
+    // accessOrder = true，迭代顺序即 LRU 顺序
+    private final LinkedHashMap<String, ConversationEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ScheduledExecutorService flusher;
+    // 后台检查周期
+    private final long tickPeriodMillis;
+    // 每次读写前回调，参数为会话 ID；缓存命中时不访问底层存储，由它通知底层存储刷新访问时间
+    private volatile Consumer<String> accessListener = conversationId -> { };
+
+    // 统计信息
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong pendingMessages = new AtomicLong();
+    private final AtomicLong lastFlushLagMillis = new AtomicLong();
+    private final AtomicLong maxFlushLagMillis = new AtomicLong();
+
+    /**
+     * @param delegate 底层持久化的对话记忆
+     * @param maxConversations 最多缓存的会话数
+     * @param windowSize 每个会话在内存中保留的最近消息条数
+     * @param maxStalenessMillis 未写入消息允许在内存中停留的最长时间
+     * @param idleTimeoutMillis 会话空闲多久后被淘汰
+     */
+    public CachedChatMemory(ChatMemory delegate, int maxConversations, int windowSize,
+                            long maxStalenessMillis, long idleTimeoutMillis) {
+        this.delegate = delegate;
+        this.maxConversations = maxConversations;
+        this.windowSize = windowSize;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-memory-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.tickPeriodMillis = Math.max(10, maxStalenessMillis / 4);
+        flusher.scheduleWithFixedDelay(this::tick, tickPeriodMillis, tickPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        // 分词放在锁外进行
+        addWithTokenCounts(conversationId, messages.stream()
+                .map(message -> new TokenCountedMessage(message, MessageTokenCounter.count(message)))
+                .toList());
+    }
+
+    @Override
+    public void addWithTokenCounts(String conversationId, List<TokenCountedMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        accessListener.accept(conversationId);
+        while (true) {
+            ConversationEntry entry = lookup(conversationId);
+            synchronized (entry) {
+                if (entry.evicted) {
+                    continue;
+                }
+                load(conversationId, entry);
+                for (TokenCountedMessage message : messages) {
+                    entry.window.addLast(message);
+                    if (entry.window.size() > windowSize) {
+                        entry.window.removeFirst();
+                        entry.complete = false;
+                    }
+                }
+                if (entry.pending.isEmpty()) {
+                    entry.firstPendingAt = System.currentTimeMillis();
+                }
+                entry.pending.addAll(messages);
+                pendingMessages.addAndGet(messages.size());
+                entry.lastAccessAt = System.currentTimeMillis();
+                break;
+            }
+        }
+        evictIfNeeded();
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        return getWithTokenCounts(conversationId, lastN).stream()
+                .map(TokenCountedMessage::message)
+                .toList();
+    }
+
+    @Override
+    public List<TokenCountedMessage> getWithTokenCounts(String conversationId, int lastN) {
+        List<TokenCountedMessage> result;
+        accessListener.accept(conversationId);
+        while (true) {
+            ConversationEntry entry = lookup(conversationId);
+            synchronized (entry) {
+                if (entry.evicted) {
+                    continue;
+                }
+                entry.lastAccessAt = System.currentTimeMillis();
+                if (entry.loaded && (lastN <= entry.window.size() || entry.complete)) {
+                    hits.incrementAndGet();
+                    result = tail(entry.window, lastN);
+                } else if (!entry.loaded && lastN <= windowSize) {
+                    misses.incrementAndGet();
+                    load(conversationId, entry);
+                    result = tail(entry.window, lastN);
+                } else {
+                    // 请求的条数超出缓存窗口，先把未写入的消息落盘再读底层存储
+                    misses.incrementAndGet();
+                    flushLocked(conversationId, entry);
+                    result = readThrough(conversationId, lastN);
+                }
+                break;
+            }
+        }
+        evictIfNeeded();
+        return result;
+    }
+
+    /**
+     * 窗口内的消息已经超出预算、或窗口包含全部历史时直接从内存返回，否则落盘后交给底层存储按预算读取
+     */
+    @Override
+    public List<Message> getWithinTokenBudget(String conversationId, int maxTokens) {
+        List<Message> result;
+        accessListener.accept(conversationId);
+        while (true) {
+            ConversationEntry entry = lookup(conversationId);
+            synchronized (entry) {
+                if (entry.evicted) {
+                    continue;
+                }
+                entry.lastAccessAt = System.currentTimeMillis();
+                boolean wasLoaded = entry.loaded;
+                load(conversationId, entry);
+                List<TokenCountedMessage> window = new ArrayList<>(entry.window);
+                int from = window.size();
+                long used = 0;
+                while (from > 0 && used + window.get(from - 1).tokens() <= maxTokens) {
+                    used += window.get(--from).tokens();
+                }
+                if (from > 0 || entry.complete) {
+                    if (wasLoaded) {
+                        hits.incrementAndGet();
+                    } else {
+                        misses.incrementAndGet();
+                    }
+                    result = window.subList(from, window.size()).stream().map(TokenCountedMessage::message).toList();
+                } else {
+                    misses.incrementAndGet();
+                    flushLocked(conversationId, entry);
+                    result = delegate instanceof TokenBudgetChatMemory budgetMemory
+                            ? budgetMemory.getWithinTokenBudget(conversationId, maxTokens)
+                            : MessageTokenCounter.suffixWithinBudget(delegate.get(conversationId, Integer.MAX_VALUE), maxTokens);
+                }
+                break;
+            }
+        }
+        evictIfNeeded();
+        return result;
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        ConversationEntry entry;
+        synchronized (entries) {
+            entry = entries.remove(conversationId);
+        }
+        if (entry != null) {
+            synchronized (entry) {
+                pendingMessages.addAndGet(-entry.pending.size());
+                entry.pending.clear();
+                entry.evicted = true;
+            }
+        }
+        delegate.clear(conversationId);
+    }
+
+    /**
+     * 把会话移出缓存（先把未写入的消息落盘），下次访问时从底层存储重新加载
+     * 底层存储改写了历史（例如生成摘要）后调用
+     */
+    public void invalidate(String conversationId) {
+        ConversationEntry entry;
+        synchronized (entries) {
+            entry = entries.get(conversationId);
+        }
+        if (entry != null) {
+            evict(conversationId, entry);
+        }
+    }
+
+    /**
+     * 底层存储删除过期会话后调用：丢弃缓存窗口和未写入的消息，不再写回，以免重新生成已删除的文件
+     * @param accessedAfterExpiry 在 entry 锁内判断会话删除之后是否又被访问过；访问过时未写入的消息是删除之后写入的，照常落盘
+     */
+    public void discardExpired(String conversationId, Predicate<String> accessedAfterExpiry) {
+        ConversationEntry entry;
+        synchronized (entries) {
+            entry = entries.get(conversationId);
+        }
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.evicted) {
+                return;
+            }
+            if (accessedAfterExpiry.test(conversationId)) {
+                flushLocked(conversationId, entry);
+            } else {
+                pendingMessages.addAndGet(-entry.pending.size());
+                entry.pending.clear();
+            }
+            entry.evicted = true;
+        }
+        synchronized (entries) {
+            entries.remove(conversationId, entry);
+        }
+    }
+
+    /**
+     * 注册访问监听者，在每次 add、get 之前回调，参数为会话 ID
+     * 底层存储按访问时间清理过期会话时，用它让缓存命中也算作一次访问
+     */
+    public void onAccess(Consumer<String> listener) {
+        this.accessListener = listener;
+    }
+
+    /**
+     * 把所有未写入的消息刷到底层存储；某个会话写盘失败时继续刷写其他会话，最后抛出第一个异常
+     */
+    public void flushAll() {
+        RuntimeException failure = null;
+        for (Map.Entry<String, ConversationEntry> e : snapshotEntries()) {
+            try {
+                synchronized (e.getValue()) {
+                    flushLocked(e.getKey(), e.getValue());
+                }
+            } catch (RuntimeException ex) {
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 停止后台刷写线程并把剩余消息全部落盘，然后关闭底层存储，应用关闭时调用
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flushAll();
+        } catch (RuntimeException e) {
+            log.error("关闭对话记忆缓存时有消息未能写盘", e);
+        }
+        log.info("对话记忆缓存已关闭: {}", getStats());
+        if (delegate instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                log.warn("关闭底层对话记忆失败", e);
+            }
+        }
+    }
+
+    /**
+     * 注册缓存指标：chat.memory.cache.requests（result=hit/miss）、chat.memory.cache.evictions、
+     * chat.memory.cache.flushes 三个计数器，以及缓存会话数、未写盘消息数和写盘延迟的 gauge
+     */
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("chat.memory.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit")
+                .description("读取对话记忆命中缓存的次数")
+                .register(registry);
+        FunctionCounter.builder("chat.memory.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss")
+                .description("读取对话记忆未命中缓存的次数")
+                .register(registry);
+        FunctionCounter.builder("chat.memory.cache.evictions", evictions, AtomicLong::get)
+                .description("淘汰的缓存会话数")
+                .register(registry);
+        FunctionCounter.builder("chat.memory.cache.flushes", flushes, AtomicLong::get)
+                .description("批量写盘次数")
+                .register(registry);
+        Gauge.builder("chat.memory.cache.conversations", this, cache -> cache.getStats().conversations())
+                .description("当前缓存的会话数")
+                .register(registry);
+        Gauge.builder("chat.memory.cache.pending.messages", pendingMessages, AtomicLong::get)
+                .description("尚未写盘的消息数")
+                .register(registry);
+        Gauge.builder("chat.memory.cache.flush.lag", lastFlushLagMillis, AtomicLong::get)
+                .baseUnit("milliseconds")
+                .description("最近一次写盘时最早一条消息已等待的时间")
+                .register(registry);
+        Gauge.builder("chat.memory.cache.flush.lag.max", maxFlushLagMillis, AtomicLong::get)
+                .baseUnit("milliseconds")
+                .description("历史最大写盘延迟")
+                .register(registry);
+    }
+
+    public Stats getStats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new Stats(size, hits.get(), misses.get(), evictions.get(), flushes.get(),
+                pendingMessages.get(), lastFlushLagMillis.get(), maxFlushLagMillis.get());
+    }
+
+    /**
+     * 缓存统计信息
+     * @param conversations 当前缓存的会话数
+     * @param hits 命中次数
+     * @param misses 未命中次数
+     * @param evictions 淘汰次数
+     * @param flushes 批量写盘次数
+     * @param pendingMessages 尚未写盘的消息数
+     * @param lastFlushLagMillis 最近一次写盘时最早一条消息已等待的时间
+     * @param maxFlushLagMillis 历史最大写盘延迟
+     */
+    public record Stats(int conversations, long hits, long misses, long evictions, long flushes,
+                        long pendingMessages, long lastFlushLagMillis, long maxFlushLagMillis) {
+    }
+
+    /**
+     * 后台任务：刷写超过最大延迟的消息，淘汰空闲会话
+     * 单个会话写盘失败时保留它的未写入消息，下次再试，不影响其他会话
+     */
+    private void tick() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, ConversationEntry> e : snapshotEntries()) {
+            ConversationEntry entry = e.getValue();
+            try {
+                boolean idle;
+                synchronized (entry) {
+                    // 提前一个检查周期刷写，保证消息在内存中停留的时间不超过 maxStaleness
+                    if (!entry.pending.isEmpty() && now - entry.firstPendingAt >= maxStalenessMillis - tickPeriodMillis) {
+                        flushLocked(e.getKey(), entry);
+                    }
+                    idle = now - entry.lastAccessAt >= idleTimeoutMillis;
+                }
+                if (idle) {
+                    evict(e.getKey(), entry);
+                }
+            } catch (Exception ex) {
+                log.error("对话记忆后台刷写失败: {}", e.getKey(), ex);
+            }
+        }
+    }
+
+    private ConversationEntry lookup(String conversationId) {
+        synchronized (entries) {
+            return entries.computeIfAbsent(conversationId, id -> new ConversationEntry());
+        }
+    }
+
+    /**
+     * 首次访问时从底层存储加载最近 windowSize 条消息，调用方需持有 entry 锁
+     */
+    private void load(String conversationId, ConversationEntry entry) {
+        if (entry.loaded) {
+            return;
+        }
+        List<TokenCountedMessage> recent = readThrough(conversationId, windowSize);
+        entry.window.addAll(recent);
+        entry.complete = recent.size() < windowSize;
+        entry.loaded = true;
+    }
+
+    /**
+     * 把会话未写入的消息批量写到底层存储，调用方需持有 entry 锁，保证同一会话的写入顺序
+     * 底层存储抛出异常时消息仍留在 pending 中，下次刷写时重试
+     */
+    private void flushLocked(String conversationId, ConversationEntry entry) {
+        if (entry.pending.isEmpty()) {
+            return;
+        }
+        long lag = System.currentTimeMillis() - entry.firstPendingAt;
+        if (delegate instanceof TokenBudgetChatMemory budgetMemory) {
+            budgetMemory.addWithTokenCounts(conversationId, new ArrayList<>(entry.pending));
+        } else {
+            delegate.add(conversationId, entry.pending.stream().map(TokenCountedMessage::message).toList());
+        }
+        pendingMessages.addAndGet(-entry.pending.size());
+        entry.pending.clear();
+        flushes.incrementAndGet();
+        lastFlushLagMillis.set(lag);
+        maxFlushLagMillis.accumulateAndGet(lag, Math::max);
+    }
+
+    /**
+     * 会话数超过上限时淘汰最久未访问的会话
+     * 淘汰前写盘失败时暂时超出上限，由后台任务和之后的请求重试，不影响本次请求
+     */
+    private void evictIfNeeded() {
+        while (true) {
+            Map.Entry<String, ConversationEntry> eldest;
+            synchronized (entries) {
+                if (entries.size() <= maxConversations) {
+                    return;
+                }
+                eldest = entries.entrySet().iterator().next();
+            }
+            try {
+                evict(eldest.getKey(), eldest.getValue());
+            } catch (RuntimeException e) {
+                log.error("淘汰会话前写盘失败: {}", eldest.getKey(), e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 先刷写再从缓存中移除；移除之后再来的请求会从底层存储重新加载，因此不会读到旧数据
+     */
+    private void evict(String conversationId, ConversationEntry entry) {
+        synchronized (entry) {
+            if (entry.evicted) {
+                return;
+            }
+            flushLocked(conversationId, entry);
+            entry.evicted = true;
+        }
+        synchronized (entries) {
+            entries.remove(conversationId, entry);
+        }
+        evictions.incrementAndGet();
+    }
+
+    private List<Map.Entry<String, ConversationEntry>> snapshotEntries() {
+        synchronized (entries) {
+            return entries.entrySet().stream().map(e -> Map.entry(e.getKey(), e.getValue())).toList();
+        }
+    }
+
+    /**
+     * 从底层存储读取最后 lastN 条消息，底层存储不保存 token 数时在这里计数
+     */
+    private List<TokenCountedMessage> readThrough(String conversationId, int lastN) {
+        if (delegate instanceof TokenBudgetChatMemory budgetMemory) {
+            return budgetMemory.getWithTokenCounts(conversationId, lastN);
+        }
+        return delegate.get(conversationId, lastN).stream()
+                .map(message -> new TokenCountedMessage(message, MessageTokenCounter.count(message)))
+                .toList();
+    }
+
+    private static List<TokenCountedMessage> tail(Deque<TokenCountedMessage> window, int lastN) {
+        List<TokenCountedMessage> messages = new ArrayList<>(window);
+        return messages.subList(Math.max(0, messages.size() - lastN), messages.size());
+    }
+
+    /**
+     * 单个会话的缓存项，所有字段都在 entry 锁内访问
+     */
+    private static class ConversationEntry {
+        // 最近的消息（最多 windowSize 条）
+        final Deque<TokenCountedMessage> window = new ArrayDeque<>();
+        // 尚未写入底层存储的消息
+        final List<TokenCountedMessage> pending = new ArrayList<>();
+        // 是否已从底层存储加载
+        boolean loaded;
+        // window 是否已包含该会话的全部历史
+        boolean complete;
+        // 是否已被淘汰，被淘汰的 entry 不能再使用
+        boolean evicted;
+        long firstPendingAt;
+        long lastAccessAt = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,145 @@
+package com.xinwei.aiagent.chatmemory;
+
+import org.springframework.ai.chat.memory.ChatMemory;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话记忆配置：文件持久化 + 内存写回缓存
+ * chat-memory.store 选择底层存储：file（Kryo 段文件，默认）、mapped（内存映射 + 紧凑编码）或 jdbc（数据库，多实例共享）
+ * chat-memory.summary.enabled 开启后，file 存储的长会话会在后台滚动压缩成摘要
+ * chat-memory.expiry.ttl-minutes 大于 0 时，file 存储中超过该时长未访问的会话由后台任务删除
+ * 写回缓存的命中、淘汰、写盘次数和写盘延迟注册到 MeterRegistry（chat.memory.cache.*）
+ * 应用关闭时 Spring 会调用 close，把缓存中尚未写盘的消息全部刷到磁盘
+ */
+@Configuration
+public class ChatMemoryConfig {
+
+    @Value("${chat-memory.store:file}")
+    private String store;
+
+    @Value("${chat-memory.dir:${user.dir}/tmp/chat-memories}")
+    private String dir;
+
+    @Value("${chat-memory.compact-threshold-bytes:262144}")
+    private long compactThresholdBytes;
+
+    @Value("${chat-memory.fsync:false}")
+    private boolean fsync;
+
+    @Value("${chat-memory.max-open-files:256}")
+    private int maxOpenFiles;
+
+    @Value("${chat-memory.cache.max-conversations:1000}")
+    private int maxConversations;
+
+    @Value("${chat-memory.cache.window-size:50}")
+    private int windowSize;
+
+    @Value("${chat-memory.cache.max-staleness-ms:1000}")
+    private long maxStalenessMillis;
+
+    @Value("${chat-memory.cache.idle-timeout-ms:600000}")
+    private long idleTimeoutMillis;
+
+    @Value("${chat-memory.summary.enabled:false}")
+    private boolean summaryEnabled;
+
+    @Value("${chat-memory.summary.threshold-tokens:6000}")
+    private int summaryThresholdTokens;
+
+    @Value("${chat-memory.summary.keep-recent-tokens:2000}")
+    private int summaryKeepRecentTokens;
+
+    @Value("${chat-memory.summary.threads:1}")
+    private int summaryThreads;
+
+    @Value("${chat-memory.expiry.ttl-minutes:0}")
+    private long expiryTtlMinutes;
+
+    @Value("${chat-memory.expiry.tick-ms:1000}")
+    private long expiryTickMillis;
+
+    @Value("${chat-memory.expiry.batch-size:200}")
+    private int expiryBatchSize;
+
+    @Value("${chat-memory.jdbc.group-commit:true}")
+    private boolean jdbcGroupCommit;
+
+    @Value("${chat-memory.jdbc.initialize-schema:true}")
+    private boolean jdbcInitializeSchema;
+
+    /**
+     * 项目排除了 DataSourceAutoConfiguration，使用 jdbc 存储时按 spring.datasource.* 创建连接池
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "chat-memory.store", havingValue = "jdbc")
+    @ConditionalOnMissingBean(DataSource.class)
+    public HikariDataSource chatMemoryDataSource(@Value("${spring.datasource.url}") String url,
+                                                 @Value("${spring.datasource.username:}") String username,
+                                                 @Value("${spring.datasource.password:}") String password) {
+        return DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(url)
+                .username(username)
+                .password(password)
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public ChatMemory loveAppChatMemory(ChatModel dashscopeChatModel, ObjectProvider<DataSource> dataSource,
+                                        ObjectProvider<MeterRegistry> meterRegistry) {
+        if ("jdbc".equals(store)) {
+            // 多个实例共享数据库时不经过本地写回缓存，否则其他实例写入的消息对本实例不可见
+            return new JdbcChatMemory(new JdbcTemplate(dataSource.getObject()), jdbcGroupCommit, jdbcInitializeSchema);
+        }
+        SummarizingChatMemory summarizingChatMemory = null;
+        FileBasedChatMemory fileMemory = null;
+        ChatMemoryJanitor janitor = null;
+        ChatMemory chatMemory = switch (store) {
+            case "mapped" -> new MappedChatMemory(dir, maxOpenFiles, fsync);
+            default -> {
+                fileMemory = new FileBasedChatMemory(dir, compactThresholdBytes, fsync, maxOpenFiles);
+                if (expiryTtlMinutes > 0) {
+                    janitor = fileMemory.startJanitor(TimeUnit.MINUTES.toMillis(expiryTtlMinutes),
+                            expiryTickMillis, expiryBatchSize);
+                }
+                if (!summaryEnabled) {
+                    yield fileMemory;
+                }
+                summarizingChatMemory = new SummarizingChatMemory(fileMemory,
+                        new ChatModelConversationSummarizer(dashscopeChatModel),
+                        summaryThresholdTokens, summaryKeepRecentTokens, summaryThreads);
+                yield summarizingChatMemory;
+            }
+        };
+        CachedChatMemory cachedChatMemory = new CachedChatMemory(chatMemory, maxConversations, windowSize,
+                maxStalenessMillis, idleTimeoutMillis);
+        // 只有存在 MeterRegistry（如引入了 actuator）时才注册指标，空的全局注册表会直接丢弃
+        meterRegistry.ifAvailable(cachedChatMemory::bindTo);
+        if (summarizingChatMemory != null) {
+            // 摘要改写了历史，缓存窗口中的旧消息需要丢弃
+            summarizingChatMemory.onSummarized(cachedChatMemory::invalidate);
+        }
+        if (janitor != null) {
+            FileBasedChatMemory expiringMemory = fileMemory;
+            // 缓存命中不经过文件存储，由缓存刷新访问时间，避免活跃会话被当作空闲删除
+            cachedChatMemory.onAccess(expiringMemory::touch);
+            // 过期会话已从磁盘删除，缓存中的窗口和未写入的消息一并丢弃，不再写回
+            janitor.onExpired(conversationId -> cachedChatMemory.discardExpired(conversationId, expiringMemory::wasAccessedAfterExpiry));
+        }
+        return cachedChatMemory;
+    }
+}
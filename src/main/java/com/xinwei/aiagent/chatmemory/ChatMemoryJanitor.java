@@ -0,0 +1,162 @@
+package com.xinwei.aiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 会话记忆的过期清理任务
+ *
+ * 按编号依次检查 {BASE_DIR}/xx/yy 这 65536 个分级目录，每次只处理有限的会话数，记住游标下次接着扫，
+ * 扫完一轮再从头开始；请求路径上不做任何目录遍历。
+ * 最后一次读写距今超过 TTL 的会话在该会话的锁内删除，删除前会再次确认期间没有被访问。
+ * 尚未迁移到分级目录的平铺文件不在清理范围内，由迁移线程先处理。
+ */
+@Slf4j
+public class ChatMemoryJanitor implements AutoCloseable {
+
+    // 两级目录各 256 个
+    private static final int SHARD_DIRS = 256 * 256;
+    // 每次最多检查的目录数，空目录也要一次 stat
+    private static final int MAX_DIRS_PER_TICK = 4096;
+    // 与 md5Hex 一致的小写十六进制
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final FileBasedChatMemory chatMemory;
+    private final File baseDir;
+    private final long ttlMillis;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler;
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    // 下一个要检查的目录编号，只在清理线程中访问
+    private int cursor;
+    // 本轮释放的字节数，只在清理线程中访问
+    private long sweepReclaimedBytes;
+    private long sweepExpired;
+
+    // 统计信息
+    private final AtomicLong sweeps = new AtomicLong();
+    private final AtomicLong scannedConversations = new AtomicLong();
+    private final AtomicLong expiredConversations = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    ChatMemoryJanitor(FileBasedChatMemory chatMemory, File baseDir, long ttlMillis, long tickMillis, int batchSize) {
+        this.chatMemory = chatMemory;
+        this.baseDir = baseDir;
+        this.ttlMillis = ttlMillis;
+        this.batchSize = batchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-memory-janitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 注册会话过期的监听者，参数为会话 ID，在清理线程中回调
+     */
+    public void onExpired(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    public Stats getStats() {
+        return new Stats(sweeps.get(), scannedConversations.get(), expiredConversations.get(), reclaimedBytes.get());
+    }
+
+    /**
+     * 清理统计信息
+     * @param sweeps 完整扫描的轮数
+     * @param scannedConversations 检查过的会话数
+     * @param expiredConversations 删除的过期会话数
+     * @param reclaimedBytes 释放的磁盘字节数
+     */
+    public record Stats(long sweeps, long scannedConversations, long expiredConversations, long reclaimedBytes) {
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 从游标处继续检查，检查的会话数达到 batchSize 或目录数达到上限后停下
+     */
+    void tick() {
+        try {
+            long idleBefore = System.currentTimeMillis() - ttlMillis;
+            int scanned = 0;
+            int dirs = 0;
+            while (scanned < batchSize && dirs < MAX_DIRS_PER_TICK && !Thread.currentThread().isInterrupted()) {
+                scanned += sweepDir(shardDir(cursor), idleBefore);
+                dirs++;
+                if (++cursor == SHARD_DIRS) {
+                    finishSweep();
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("会话记忆过期清理失败", e);
+        }
+    }
+
+    /**
+     * 检查一个分级目录下的全部会话
+     * @return 检查的会话数
+     */
+    private int sweepDir(File dir, long idleBefore) {
+        String[] names = dir.list();
+        if (names == null) {
+            return 0;
+        }
+        Set<String> conversationIds = new LinkedHashSet<>();
+        for (String name : names) {
+            String conversationId = FileBasedChatMemory.toConversationId(name);
+            if (conversationId != null) {
+                conversationIds.add(conversationId);
+            }
+        }
+        for (String conversationId : conversationIds) {
+            long bytes = chatMemory.expireIfIdle(conversationId, idleBefore);
+            if (bytes >= 0) {
+                sweepExpired++;
+                sweepReclaimedBytes += bytes;
+                expiredConversations.incrementAndGet();
+                reclaimedBytes.addAndGet(bytes);
+                listeners.forEach(listener -> listener.accept(conversationId));
+            }
+        }
+        scannedConversations.addAndGet(conversationIds.size());
+        return conversationIds.size();
+    }
+
+    private void finishSweep() {
+        cursor = 0;
+        sweeps.incrementAndGet();
+        if (sweepExpired > 0) {
+            log.info("会话记忆过期清理完成一轮：删除 {} 个会话，释放 {} 字节", sweepExpired, sweepReclaimedBytes);
+        }
+        sweepExpired = 0;
+        sweepReclaimedBytes = 0;
+    }
+
+    private File shardDir(int index) {
+        return new File(new File(baseDir, HEX.toHexDigits((byte) (index >>> 8))), HEX.toHexDigits((byte) index));
+    }
+}
@@ -0,0 +1,447 @@
+package com.xinwei.aiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * 会话记忆的记录段文件
+ *
+ * 文件由若干条记录顺序拼接而成，每条记录格式为 [4 字节长度][4 字节 CRC32][消息字节]。
+ * 段文件只追加、不改写；读取时遇到不完整或校验失败的记录（例如进程在写入中途崩溃）即停止。
+ *
+ * 每个段文件配有一个偏移索引文件 {段文件名}.idx：文件头为 [魔数][版本]，
+ * 之后第 i 个 12 字节条目记录第 i 条记录的 [结束偏移][token 数]，因此可以直接定位到任意区间的记录而无需从头扫描，
+ * 按 token 预算截取历史时也只需读取索引。
+ * 索引只是数据的派生，缺失、版本不符或与数据不一致时会根据段文件重建（重建时才需要对消息重新计数）。
+ *
+ * 快照段在记录之前带有文件头 [魔数][版本][已合并的日志段字节数]：压缩时记下新快照已包含日志段的前多少字节，
+ * 日志段删除后再清零。删除日志段之前崩溃时，下次访问据此跳过已合并的日志记录，避免消息重复。
+ *
+ * 文件通道从 FileChannelPool 借用；调用方需持有该会话的锁。
+ */
+@Slf4j
+class ChatMemorySegment {
+
+    // 记录头：长度 + CRC32
+    static final int HEADER_SIZE = 8;
+
+    // 索引文件头：魔数 "CMIX" + 版本号
+    private static final int INDEX_MAGIC = 0x434D4958;
+    private static final int INDEX_VERSION = 2;
+    private static final int INDEX_HEADER_SIZE = 8;
+    // 索引条目：8 字节结束偏移 + 4 字节 token 数
+    private static final int INDEX_ENTRY_SIZE = 12;
+
+    // 快照段文件头：魔数 "CMSS" + 版本号 + 8 字节已合并的日志段字节数
+    private static final int SEGMENT_MAGIC = 0x434D5353;
+    private static final int SEGMENT_VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 16;
+
+    private final File file;
+    private final File indexFile;
+    private final FileChannelPool channelPool;
+    // 重建索引时根据记录字节计算 token 数
+    private final ToIntFunction<byte[]> tokenCounter;
+    // 第一条记录的起始偏移：带文件头的段为 SEGMENT_HEADER_SIZE，否则为 0
+    private final long dataStart;
+
+    ChatMemorySegment(File file, FileChannelPool channelPool, ToIntFunction<byte[]> tokenCounter) {
+        this(file, channelPool, tokenCounter, false);
+    }
+
+    /**
+     * @param withHeader 段文件是否带文件头，快照段带文件头，日志段不带
+     */
+    ChatMemorySegment(File file, FileChannelPool channelPool, ToIntFunction<byte[]> tokenCounter, boolean withHeader) {
+        this.file = file;
+        this.indexFile = new File(file.getParentFile(), file.getName() + ".idx");
+        this.channelPool = channelPool;
+        this.tokenCounter = tokenCounter;
+        this.dataStart = withHeader ? SEGMENT_HEADER_SIZE : 0;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    boolean exists() {
+        return file.exists();
+    }
+
+    long size() {
+        return file.length();
+    }
+
+    /**
+     * 段中完整记录的条数
+     */
+    int count() throws IOException {
+        if (!ensureIndexed()) {
+            return 0;
+        }
+        return (int) ((indexFile.length() - INDEX_HEADER_SIZE) / INDEX_ENTRY_SIZE);
+    }
+
+    /**
+     * 把若干条记录一次性追加到段文件末尾，并同步追加索引条目
+     * @param records 已序列化的消息
+     * @param tokens 每条消息的 token 数
+     * @param fsync 是否在返回前把数据刷到磁盘
+     */
+    void append(List<byte[]> records, int[] tokens, boolean fsync) throws IOException {
+        ensureIndexed();
+        long start;
+        try (FileChannelPool.Lease lease = channelPool.lease(file.toPath())) {
+            FileChannel channel = lease.channel();
+            start = channel.size();
+            writeFully(channel, encode(records), start);
+            if (fsync) {
+                channel.force(false);
+            }
+        }
+        // 数据先落地再写索引：崩溃时最多出现“有数据无索引”，下次访问时补齐
+        appendIndex(recordEnds(start, records), tokens);
+    }
+
+    /**
+     * 读取第 [from, to) 条记录，只读取这一段区间的字节
+     */
+    List<byte[]> read(int from, int to) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        if (from >= to) {
+            return records;
+        }
+        // 读取 from-1 .. to-1 号索引条目，得到区间起点和每条记录的结束偏移
+        long[] ends = new long[to - from + 1];
+        try (FileChannelPool.Lease lease = channelPool.lease(indexFile.toPath())) {
+            int firstEntry = Math.max(0, from - 1);
+            ByteBuffer entries = ByteBuffer.allocate((to - firstEntry) * INDEX_ENTRY_SIZE);
+            readFully(lease.channel(), entries, INDEX_HEADER_SIZE + (long) firstEntry * INDEX_ENTRY_SIZE);
+            entries.flip();
+            ends[0] = from == 0 ? dataStart : readEntryEnd(entries);
+            for (int i = 1; i < ends.length; i++) {
+                ends[i] = readEntryEnd(entries);
+            }
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) (ends[ends.length - 1] - ends[0]));
+        try (FileChannelPool.Lease lease = channelPool.lease(file.toPath())) {
+            readFully(lease.channel(), data, ends[0]);
+        }
+        data.flip();
+        for (int i = 1; i < ends.length; i++) {
+            int length = data.getInt();
+            int checksum = data.getInt();
+            byte[] record = new byte[length];
+            data.get(record);
+            if (crc32(record) != checksum) {
+                throw new IOException("会话记忆段 " + file.getName() + " 在偏移 " + ends[i - 1] + " 处记录校验失败");
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * 读取第 [from, to) 条记录的 token 数，只读索引
+     */
+    int[] tokenCounts(int from, int to) throws IOException {
+        int[] tokens = new int[Math.max(0, to - from)];
+        if (tokens.length == 0) {
+            return tokens;
+        }
+        ByteBuffer entries = ByteBuffer.allocate(tokens.length * INDEX_ENTRY_SIZE);
+        try (FileChannelPool.Lease lease = channelPool.lease(indexFile.toPath())) {
+            readFully(lease.channel(), entries, INDEX_HEADER_SIZE + (long) from * INDEX_ENTRY_SIZE);
+        }
+        entries.flip();
+        for (int i = 0; i < tokens.length; i++) {
+            entries.getLong();
+            tokens[i] = entries.getInt();
+        }
+        return tokens;
+    }
+
+    /**
+     * 结束偏移不超过 offset 的记录条数，只读索引
+     */
+    int countEndingWithin(long offset) throws IOException {
+        int count = count();
+        if (count == 0) {
+            return 0;
+        }
+        ByteBuffer entries = ByteBuffer.allocate(count * INDEX_ENTRY_SIZE);
+        try (FileChannelPool.Lease lease = channelPool.lease(indexFile.toPath())) {
+            readFully(lease.channel(), entries, INDEX_HEADER_SIZE);
+        }
+        entries.flip();
+        int within = 0;
+        while (within < count && readEntryEnd(entries) <= offset) {
+            within++;
+        }
+        return within;
+    }
+
+    /**
+     * 读取文件头中记录的已合并日志段字节数，段不带文件头时为 0
+     */
+    long coveredLogBytes() throws IOException {
+        if (dataStart == 0) {
+            return 0;
+        }
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        try (FileChannelPool.Lease lease = channelPool.lease(file.toPath())) {
+            readFully(lease.channel(), header, 0);
+        }
+        header.flip();
+        if (header.getInt() != SEGMENT_MAGIC || header.getInt() != SEGMENT_VERSION) {
+            throw new IOException("会话记忆段 " + file.getName() + " 的文件头无法识别");
+        }
+        return header.getLong();
+    }
+
+    /**
+     * 原地改写文件头中的已合并日志段字节数
+     */
+    void setCoveredLogBytes(long coveredLogBytes, boolean fsync) throws IOException {
+        ByteBuffer covered = ByteBuffer.allocate(8);
+        covered.putLong(coveredLogBytes).flip();
+        try (FileChannelPool.Lease lease = channelPool.lease(file.toPath())) {
+            writeFully(lease.channel(), covered, SEGMENT_HEADER_SIZE - 8);
+            if (fsync) {
+                lease.channel().force(false);
+            }
+        }
+    }
+
+    /**
+     * 用给定的记录整体替换段文件：先写临时文件，再原子重命名，保证任何时刻读到的都是完整的段
+     * @param coveredLogBytes 写入文件头的已合并日志段字节数，段不带文件头时忽略
+     */
+    void replaceWith(List<byte[]> records, int[] tokens, long coveredLogBytes, boolean fsync) throws IOException {
+        Path target = file.toPath();
+        Path tmp = target.resolveSibling(file.getName() + ".tmp");
+        ByteBuffer buffer = encode(records);
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (dataStart > 0) {
+                ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+                header.putInt(SEGMENT_MAGIC).putInt(SEGMENT_VERSION).putLong(coveredLogBytes).flip();
+                writeFully(channel, header, 0);
+            }
+            writeFully(channel, buffer, dataStart);
+            if (fsync) {
+                channel.force(false);
+            }
+        }
+        // 先删除旧索引，重命名后再写新索引；中途崩溃时索引缺失，下次访问会重建
+        channelPool.invalidate(indexFile.toPath());
+        Files.deleteIfExists(indexFile.toPath());
+        channelPool.invalidate(target);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writeIndexHeader();
+        appendIndex(recordEnds(dataStart, records), tokens);
+    }
+
+    void delete() {
+        channelPool.invalidate(file.toPath());
+        channelPool.invalidate(indexFile.toPath());
+        if (file.exists()) {
+            file.delete();
+        }
+        if (indexFile.exists()) {
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * 保证索引覆盖段文件中的全部完整记录：
+     * 索引缺失或损坏时整体重建；索引落后于数据时只扫描未索引的尾部，并截掉不完整的尾部记录
+     * @return 段文件是否存在
+     */
+    private boolean ensureIndexed() throws IOException {
+        if (!file.exists()) {
+            if (indexFile.exists()) {
+                channelPool.invalidate(indexFile.toPath());
+                indexFile.delete();
+            }
+            return false;
+        }
+        long dataSize = file.length();
+        if (dataSize < dataStart) {
+            throw new IOException("会话记忆段 " + file.getName() + " 的文件头不完整");
+        }
+        long indexedEnd = readIndexedEnd();
+        if (indexedEnd == dataSize) {
+            return true;
+        }
+        if (indexedEnd < dataStart || indexedEnd > dataSize) {
+            // 索引不可用，从头重建
+            writeIndexHeader();
+            indexedEnd = dataStart;
+        }
+        List<Long> ends = new ArrayList<>();
+        List<Integer> tokens = new ArrayList<>();
+        long validEnd = scan(indexedEnd, dataSize, ends, tokens);
+        appendIndex(ends.stream().mapToLong(Long::longValue).toArray(), tokens.stream().mapToInt(Integer::intValue).toArray());
+        if (validEnd < dataSize) {
+            log.warn("会话记忆段 {} 在偏移 {} 之后存在不完整的记录，已截断", file.getName(), validEnd);
+            try (FileChannelPool.Lease lease = channelPool.lease(file.toPath())) {
+                lease.channel().truncate(validEnd);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读取索引中最后一条记录的结束偏移，索引不存在或格式不对时返回 -1
+     */
+    private long readIndexedEnd() throws IOException {
+        if (!indexFile.exists()) {
+            return -1;
+        }
+        try (FileChannelPool.Lease lease = channelPool.lease(indexFile.toPath())) {
+            FileChannel index = lease.channel();
+            long size = index.size();
+            if (size < INDEX_HEADER_SIZE || (size - INDEX_HEADER_SIZE) % INDEX_ENTRY_SIZE != 0) {
+                return -1;
+            }
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+            readFully(index, header, 0);
+            header.flip();
+            if (header.getInt() != INDEX_MAGIC || header.getInt() != INDEX_VERSION) {
+                return -1;
+            }
+            if (size == INDEX_HEADER_SIZE) {
+                return dataStart;
+            }
+            ByteBuffer last = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            readFully(index, last, size - INDEX_ENTRY_SIZE);
+            last.flip();
+            return readEntryEnd(last);
+        }
+    }
+
+    /**
+     * 从 start 开始扫描记录头和校验和，把每条完整记录的结束偏移和 token 数加入 ends、tokens
+     * @return 最后一条完整记录的结束偏移
+     */
+    private long scan(long start, long end, List<Long> ends, List<Integer> tokens) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate((int) (end - start));
+        try (FileChannelPool.Lease lease = channelPool.lease(file.toPath())) {
+            readFully(lease.channel(), data, start);
+        }
+        data.flip();
+        long validEnd = start;
+        while (data.remaining() >= HEADER_SIZE) {
+            int length = data.getInt();
+            int checksum = data.getInt();
+            if (length < 0 || length > data.remaining()) {
+                break;
+            }
+            byte[] record = new byte[length];
+            data.get(record);
+            if (crc32(record) != checksum) {
+                break;
+            }
+            validEnd += HEADER_SIZE + length;
+            ends.add(validEnd);
+            tokens.add(tokenCounter.applyAsInt(record));
+        }
+        return validEnd;
+    }
+
+    private void writeIndexHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+        header.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).flip();
+        try (FileChannelPool.Lease lease = channelPool.lease(indexFile.toPath())) {
+            FileChannel index = lease.channel();
+            index.truncate(0);
+            writeFully(index, header, 0);
+        }
+    }
+
+    private void appendIndex(long[] ends, int[] tokens) throws IOException {
+        if (!indexFile.exists()) {
+            writeIndexHeader();
+        }
+        if (ends.length == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(ends.length * INDEX_ENTRY_SIZE);
+        for (int i = 0; i < ends.length; i++) {
+            buffer.putLong(ends[i]).putInt(tokens[i]);
+        }
+        buffer.flip();
+        try (FileChannelPool.Lease lease = channelPool.lease(indexFile.toPath())) {
+            FileChannel index = lease.channel();
+            writeFully(index, buffer, index.size());
+        }
+    }
+
+    private static long[] recordEnds(long start, List<byte[]> records) {
+        long[] ends = new long[records.size()];
+        long end = start;
+        for (int i = 0; i < ends.length; i++) {
+            end += HEADER_SIZE + records.get(i).length;
+            ends[i] = end;
+        }
+        return ends;
+    }
+
+    /**
+     * 读取一个索引条目中的结束偏移，跳过 token 数
+     */
+    private static long readEntryEnd(ByteBuffer entries) {
+        long end = entries.getLong();
+        entries.getInt();
+        return end;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("读取会话记忆文件时遇到意外的文件结尾");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static ByteBuffer encode(List<byte[]> records) {
+        int total = 0;
+        for (byte[] record : records) {
+            total += HEADER_SIZE + record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        for (byte[] record : records) {
+            buffer.putInt(record.length);
+            buffer.putInt(crc32(record));
+            buffer.put(record);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    static int crc32(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,41 @@
+package com.xinwei.aiagent.chatmemory;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.util.List;
+
+/**
+ * 调用大模型生成对话摘要
+ */
+public class ChatModelConversationSummarizer implements ConversationSummarizer {
+
+    private static final String SYSTEM_PROMPT = "你负责压缩对话历史。请把下面的对话整理成一段简洁的中文摘要，" +
+            "保留用户的基本情况、提到的症状和健康目标、已经给出的主要建议以及尚未解决的问题，不要编造对话中没有的信息。" +
+            "如果对话开头已有之前的摘要，请把它与后续内容合并成一份新的摘要。只输出摘要正文。";
+
+    private final ChatModel chatModel;
+
+    public ChatModelConversationSummarizer(ChatModel chatModel) {
+        this.chatModel = chatModel;
+    }
+
+    @Override
+    public String summarize(List<Message> messages) {
+        StringBuilder transcript = new StringBuilder();
+        for (Message message : messages) {
+            String role = switch (message.getMessageType()) {
+                case USER -> "用户";
+                case ASSISTANT -> SummarizingChatMemory.isSummary(message) ? "之前的摘要" : "助手";
+                case SYSTEM -> "系统";
+                case TOOL -> "工具";
+            };
+            transcript.append(role).append("：").append(message.getText()).append('\n');
+        }
+        Prompt prompt = new Prompt(List.of(new SystemMessage(SYSTEM_PROMPT), new UserMessage(transcript.toString())));
+        return chatModel.call(prompt).getResult().getOutput().getText();
+    }
+}
@@ -0,0 +1,18 @@
+package com.xinwei.aiagent.chatmemory;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 对话摘要生成器，把较早的消息压缩成一段摘要
+ */
+@FunctionalInterface
+public interface ConversationSummarizer {
+
+    /**
+     * @param messages 按时间顺序的较早消息，第一条可能是上一次生成的摘要
+     * @return 摘要文本
+     */
+    String summarize(List<Message> messages);
+}
@@ -1,109 +1,709 @@
 package com.xinwei.aiagent.chatmemory;
 
+import cn.hutool.crypto.digest.DigestUtil;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.Pool;
+import lombok.extern.slf4j.Slf4j;
 import org.objenesis.strategy.StdInstantiatorStrategy;
-import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.Message;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 基于文件持久化的对话记忆
+ *
+ * 每个会话由两个段文件组成，按会话 ID 的 MD5 分两级目录存放（{BASE_DIR}/ab/cd/），避免单个目录下文件过多：
+ * 快照段 {conversationId}.snapshot 保存压缩后的历史消息，
+ * 日志段 {conversationId}.log 只追加新消息，add 的开销只与新消息数量有关。
+ * 日志段超过阈值时会合并进快照段（压缩），旧版整体序列化的 {conversationId}.kryo 文件也在压缩时迁移。
+ * 快照段文件头记录它已合并的日志段长度，压缩在删除日志段前中断时，下次访问会丢弃已合并的日志记录，不会重复。
+ * 两个段文件都带有偏移索引，get 只读取并反序列化最后 N 条消息。
+ * 索引中同时保存每条消息写入时计算的 token 数，按 token 预算读取历史时只读索引、不重新分词。
+ *
+ * 线程安全：Kryo 实例从池中借用，对同一会话的读写通过分段锁串行化，不同会话之间互不阻塞。
+ * 热点会话的文件通道保存在有上限的 FileChannelPool 中，不必每次重新打开。
+ *
+ * 旧版平铺在 {BASE_DIR} 下的会话文件会被后台线程逐步迁移到分级目录，迁移完成前访问到的会话会当场迁移。
+ *
+ * 调用 startJanitor 后，超过 TTL 未访问的会话由 ChatMemoryJanitor 在后台逐步删除。
  */
-public class FileBasedChatMemory implements ChatMemory {
+@Slf4j
+public class FileBasedChatMemory implements TokenBudgetChatMemory, AutoCloseable {
+
+    // 按 token 预算截取历史时每次读取的索引条目数
+    private static final int TOKEN_SCAN_BLOCK = 64;
+    // 日志段默认超过 256KB 时触发压缩
+    private static final long DEFAULT_COMPACT_THRESHOLD_BYTES = 256 * 1024;
+    // 默认最多保持打开的文件数
+    private static final int DEFAULT_MAX_OPEN_FILES = 256;
+    // 平铺目录迁移完成的标记文件
+    private static final String SHARDED_MARKER = ".sharded";
+    // 会话文件的后缀，较长的后缀在前，便于从文件名还原会话 ID
+    private static final String[] FILE_SUFFIXES = {".snapshot.idx", ".log.idx", ".snapshot.tmp", ".snapshot", ".log", ".kryo"};
 
     private final String BASE_DIR;
+    // 日志段压缩阈值（字节）
+    private final long compactThresholdBytes;
+    // 追加后是否立即 fsync
+    private final boolean fsync;
+    // 打开的文件通道池
+    private final FileChannelPool channelPool;
+    // 平铺目录是否已全部迁移到分级目录
+    private volatile boolean flatLayoutMigrated;
+    private final ExecutorService migrator;
+    // 过期清理，未开启时为 null
+    private volatile ChatMemoryJanitor janitor;
+    // 会话最近一次读写的时间，开启过期清理后才记录；进程重启后以文件修改时间为准
+    private final ConcurrentHashMap<String, Long> lastAccessTimes = new ConcurrentHashMap<>();
+    // 本进程内已检查过未完成压缩的会话，每个会话只需在首次访问时检查一次
+    private final Set<String> recoveredConversations = ConcurrentHashMap.newKeySet();
+    // 分段锁，同一会话的读写互斥
+    private final StripedLock locks = new StripedLock(256);
     // Kryo 是一个高性能的序列化库，用于将对象序列化为字节流，或者将字节流反序列化为对象。
-    private static final Kryo kryo = new Kryo();
-
-    static {
-        kryo.setRegistrationRequired(false);
-        // 设置实例化策略。
-        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
-    }
+    // Kryo 实例不是线程安全的，每次使用时从池中借用
+    private static final Pool<Kryo> kryoPool = new Pool<>(true, false, 64) {
+        @Override
+        protected Kryo create() {
+            Kryo kryo = new Kryo();
+            kryo.setRegistrationRequired(false);
+            // 设置实例化策略。
+            kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+            return kryo;
+        }
+    };
 
     // 构造对象时，指定文件保存目录
     public FileBasedChatMemory(String dir) {
+        this(dir, DEFAULT_COMPACT_THRESHOLD_BYTES, false);
+    }
+
+    public FileBasedChatMemory(String dir, long compactThresholdBytes, boolean fsync) {
+        this(dir, compactThresholdBytes, fsync, DEFAULT_MAX_OPEN_FILES);
+    }
+
+    /**
+     * @param dir 文件保存目录
+     * @param compactThresholdBytes 日志段超过该大小时合并进快照段
+     * @param fsync 每次追加后是否强制刷盘
+     * @param maxOpenFiles 最多保持打开的文件数
+     */
+    public FileBasedChatMemory(String dir, long compactThresholdBytes, boolean fsync, int maxOpenFiles) {
         this.BASE_DIR = dir;
+        this.compactThresholdBytes = compactThresholdBytes;
+        this.fsync = fsync;
+        this.channelPool = new FileChannelPool(maxOpenFiles);
         File baseDir = new File(dir);
         if (!baseDir.exists()) {
             baseDir.mkdirs();
         }
+        this.flatLayoutMigrated = new File(baseDir, SHARDED_MARKER).exists();
+        this.migrator = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-memory-migrator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!flatLayoutMigrated) {
+            migrator.execute(this::migrateFlatLayout);
+        }
     }
 
-    // 添加消息到会话
+    // 添加消息到会话：只把新消息追加到日志段
     @Override
     public void add(String conversationId, List<Message> messages) {
-        List<Message> conversationMessages = getOrCreateConversation(conversationId);
-        conversationMessages.addAll(messages);
-        saveConversation(conversationId, conversationMessages);
+        addWithTokenCounts(conversationId, messages.stream()
+                .map(message -> new TokenCountedMessage(message, MessageTokenCounter.count(message)))
+                .toList());
     }
-    // 获取会话的最后 N 条消息
+
+    @Override
+    public void addWithTokenCounts(String conversationId, List<TokenCountedMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<byte[]> records = new ArrayList<>(messages.size());
+        int[] tokens = new int[messages.size()];
+        for (int i = 0; i < messages.size(); i++) {
+            records.add(serialize(messages.get(i).message()));
+            tokens[i] = messages.get(i).tokens();
+        }
+        ChatMemorySegment logSegment = getLogSegment(conversationId);
+        ReentrantLock lock = locks.get(conversationId);
+        lock.lock();
+        try {
+            recordAccess(conversationId);
+            migrateFlatFiles(conversationId);
+            recoverCompaction(conversationId);
+            File conversationDir = getConversationDir(conversationId);
+            if (!conversationDir.exists()) {
+                conversationDir.mkdirs();
+            }
+            logSegment.append(records, tokens, fsync);
+            if (logSegment.size() >= compactThresholdBytes || getLegacyFile(conversationId).exists()) {
+                compact(conversationId);
+            }
+        } catch (IOException e) {
+            // 抛给调用方：上层的写回缓存据此保留未写入的消息，稍后重试
+            throw new UncheckedIOException("追加会话记忆失败: " + conversationId, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+    // 获取会话的最后 N 条消息：借助偏移索引从日志段和快照段尾部直接读取，只反序列化这 N 条
     @Override
     public List<Message> get(String conversationId, int lastN) {
-        List<Message> allMessages = getOrCreateConversation(conversationId);
-        return allMessages.stream()
-                .skip(Math.max(0, allMessages.size() - lastN)) // 跳过前面的消息，只保留最后 N 条
+        return readTail(conversationId, lastN, Integer.MAX_VALUE, false).stream()
+                .map(TokenCountedMessage::message)
+                .toList();
+    }
+
+    // 按 token 预算获取历史：从尾部向前累加索引中保存的 token 数，直到放不下下一条
+    @Override
+    public List<Message> getWithinTokenBudget(String conversationId, int maxTokens) {
+        return readTail(conversationId, Integer.MAX_VALUE, maxTokens, false).stream()
+                .map(TokenCountedMessage::message)
                 .toList();
     }
+
+    @Override
+    public List<TokenCountedMessage> getWithTokenCounts(String conversationId, int lastN) {
+        return readTail(conversationId, lastN, Integer.MAX_VALUE, true);
+    }
+
+    /**
+     * 读取同时满足条数上限和 token 预算的最长历史后缀
+     * @param withTokens 是否同时返回每条消息的 token 数，不需要时为 0
+     */
+    private List<TokenCountedMessage> readTail(String conversationId, int lastN, int maxTokens, boolean withTokens) {
+        if (lastN <= 0 || maxTokens <= 0) {
+            return List.of();
+        }
+        List<byte[]> records = new ArrayList<>();
+        int[] tokens;
+        ReentrantLock lock = locks.get(conversationId);
+        lock.lock();
+        try {
+            recordAccess(conversationId);
+            prepareSegments(conversationId);
+            ChatMemorySegment snapshot = getSnapshotSegment(conversationId);
+            ChatMemorySegment logSegment = getLogSegment(conversationId);
+            int[] budget = {maxTokens};
+            int logCount = logSegment.count();
+            int fromLog = takeTail(logSegment, logCount, lastN, budget);
+            // 日志段全部放得下且条数还不够时，才继续读快照段
+            int snapshotCount = fromLog == logCount && fromLog < lastN ? snapshot.count() : 0;
+            int fromSnapshot = takeTail(snapshot, snapshotCount, lastN - fromLog, budget);
+            records.addAll(snapshot.read(snapshotCount - fromSnapshot, snapshotCount));
+            records.addAll(logSegment.read(logCount - fromLog, logCount));
+            tokens = new int[records.size()];
+            if (withTokens) {
+                System.arraycopy(snapshot.tokenCounts(snapshotCount - fromSnapshot, snapshotCount), 0, tokens, 0, fromSnapshot);
+                System.arraycopy(logSegment.tokenCounts(logCount - fromLog, logCount), 0, tokens, fromSnapshot, fromLog);
+            }
+        } catch (IOException e) {
+            log.error("读取会话记忆失败: {}", conversationId, e);
+            return List.of();
+        } finally {
+            lock.unlock();
+        }
+        // 反序列化不涉及文件，放在锁外进行
+        List<TokenCountedMessage> messages = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            messages.add(new TokenCountedMessage(deserialize(records.get(i)), tokens[i]));
+        }
+        return messages;
+    }
+
+    /**
+     * 计算段尾部能取多少条记录：不超过 limit 条，且 token 数之和不超过 budget[0]
+     * 按块从后向前读取索引中的 token 数，取到的记录会从 budget[0] 中扣除
+     * @param count 段中的记录数
+     */
+    private static int takeTail(ChatMemorySegment segment, int count, int limit, int[] budget) throws IOException {
+        limit = Math.min(limit, count);
+        if (budget[0] == Integer.MAX_VALUE) {
+            return limit;
+        }
+        int taken = 0;
+        while (taken < limit) {
+            int to = count - taken;
+            int from = Math.max(count - limit, to - TOKEN_SCAN_BLOCK);
+            int[] tokens = segment.tokenCounts(from, to);
+            for (int i = tokens.length - 1; i >= 0; i--) {
+                if (tokens[i] > budget[0]) {
+                    return taken;
+                }
+                budget[0] -= tokens[i];
+                taken++;
+            }
+        }
+        return taken;
+    }
     // 清除会话消息
     @Override
     public void clear(String conversationId) {
-        File file = getConversationFile(conversationId);
-        if (file.exists()) {
-            file.delete();
+        ReentrantLock lock = locks.get(conversationId);
+        lock.lock();
+        try {
+            migrateFlatFiles(conversationId);
+            deleteConversationFiles(conversationId);
+        } catch (IOException e) {
+            throw new UncheckedIOException("清除会话记忆失败: " + conversationId, e);
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
-     * 创建或获取会话消息的列表
+     * 压缩会话：把旧版文件、快照段和日志段中的全部记录写成新的快照段，然后删除日志段
+     * 调用方需持有该会话的锁
      * @param conversationId
-     * @return
      */
-    private List<Message> getOrCreateConversation(String conversationId) {
-        File file = getConversationFile(conversationId);
-        List<Message> messages = new ArrayList<>();
-        // 读取已有会话
-        if (file.exists()) {
-            // 读取文件内容, 
-            try (Input input = new Input(new FileInputStream(file))) {
-                // 通过 Kryo 转化为对象.用 Kryo.readObject 把文件内容反序列化成 ArrayList<Message>
-                messages = kryo.readObject(input, ArrayList.class);
-            } catch (IOException e) {
-                e.printStackTrace();
+    void compact(String conversationId) throws IOException {
+        File legacyFile = getLegacyFile(conversationId);
+        List<byte[]> records = new ArrayList<>();
+        List<Integer> tokens = new ArrayList<>();
+        for (Message message : readLegacyConversation(legacyFile)) {
+            records.add(serialize(message));
+            tokens.add(MessageTokenCounter.count(message));
+        }
+        readSegments(conversationId, records, tokens);
+        rewriteSnapshot(conversationId, records, tokens);
+        legacyFile.delete();
+        log.debug("会话 {} 压缩完成，共 {} 条消息", conversationId, records.size());
+    }
+
+    /**
+     * 读取会话全部消息的 token 数（按时间顺序，先快照段后日志段），只读索引
+     */
+    int[] tokenCounts(String conversationId) throws IOException {
+        ReentrantLock lock = locks.get(conversationId);
+        lock.lock();
+        try {
+            prepareSegments(conversationId);
+            ChatMemorySegment snapshot = getSnapshotSegment(conversationId);
+            ChatMemorySegment logSegment = getLogSegment(conversationId);
+            int[] snapshotTokens = snapshot.tokenCounts(0, snapshot.count());
+            int[] logTokens = logSegment.tokenCounts(0, logSegment.count());
+            int[] tokens = Arrays.copyOf(snapshotTokens, snapshotTokens.length + logTokens.length);
+            System.arraycopy(logTokens, 0, tokens, snapshotTokens.length, logTokens.length);
+            return tokens;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 读取会话最早的 count 条消息的原始记录
+     */
+    List<byte[]> readFirstRecords(String conversationId, int count) throws IOException {
+        ReentrantLock lock = locks.get(conversationId);
+        lock.lock();
+        try {
+            prepareSegments(conversationId);
+            ChatMemorySegment snapshot = getSnapshotSegment(conversationId);
+            ChatMemorySegment logSegment = getLogSegment(conversationId);
+            int fromSnapshot = Math.min(count, snapshot.count());
+            List<byte[]> records = new ArrayList<>(snapshot.read(0, fromSnapshot));
+            if (fromSnapshot < count) {
+                records.addAll(logSegment.read(0, Math.min(count - fromSnapshot, logSegment.count())));
             }
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 用一条消息替换会话最早的若干条消息，结果写成新的快照段
+     * 只有这些消息的原始记录与 expectedPrefix 逐字节相同时才替换；不同说明会话在此期间被清除或改写，返回 false
+     */
+    boolean replacePrefix(String conversationId, List<byte[]> expectedPrefix, Message replacement) throws IOException {
+        ReentrantLock lock = locks.get(conversationId);
+        lock.lock();
+        try {
+            prepareSegments(conversationId);
+            List<byte[]> records = new ArrayList<>();
+            List<Integer> tokens = new ArrayList<>();
+            readSegments(conversationId, records, tokens);
+            if (records.size() < expectedPrefix.size()) {
+                return false;
+            }
+            for (int i = 0; i < expectedPrefix.size(); i++) {
+                if (!Arrays.equals(records.get(i), expectedPrefix.get(i))) {
+                    return false;
+                }
+            }
+            List<byte[]> newRecords = new ArrayList<>(records.size() - expectedPrefix.size() + 1);
+            List<Integer> newTokens = new ArrayList<>(newRecords.size());
+            newRecords.add(serialize(replacement));
+            newTokens.add(MessageTokenCounter.count(replacement));
+            newRecords.addAll(records.subList(expectedPrefix.size(), records.size()));
+            newTokens.addAll(tokens.subList(expectedPrefix.size(), tokens.size()));
+            rewriteSnapshot(conversationId, newRecords, newTokens);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 开启过期清理：后台逐步扫描分级目录，删除超过 ttlMillis 未访问的会话
+     * @param ttlMillis 会话最后一次读写之后保留的时长
+     * @param tickMillis 清理任务的执行间隔
+     * @param batchSize 每次最多检查的会话数
+     * @return 清理任务，可用于注册过期监听和查看统计
+     */
+    public synchronized ChatMemoryJanitor startJanitor(long ttlMillis, long tickMillis, int batchSize) {
+        if (janitor == null) {
+            janitor = new ChatMemoryJanitor(this, new File(BASE_DIR), ttlMillis, tickMillis, batchSize);
+        }
+        return janitor;
+    }
+
+    /**
+     * 会话最后一次访问早于 idleBefore 时删除它的全部文件
+     * 最后访问时间取内存中记录的读写时间与文件修改时间中较晚的一个
+     * @return 释放的字节数，未过期时返回 -1
+     */
+    long expireIfIdle(String conversationId, long idleBefore) {
+        ReentrantLock lock = locks.get(conversationId);
+        lock.lock();
+        try {
+            File conversationDir = getConversationDir(conversationId);
+            long lastAccess = lastAccessTimes.getOrDefault(conversationId, 0L);
+            long bytes = 0;
+            for (String suffix : FILE_SUFFIXES) {
+                File file = new File(conversationDir, conversationId + suffix);
+                lastAccess = Math.max(lastAccess, file.lastModified());
+                bytes += file.length();
+            }
+            if (lastAccess >= idleBefore) {
+                return -1;
+            }
+            deleteConversationFiles(conversationId);
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除会话在分级目录下的全部文件，调用方需持有该会话的锁
+     */
+    private void deleteConversationFiles(String conversationId) {
+        getLegacyFile(conversationId).delete();
+        getSnapshotSegment(conversationId).delete();
+        getLogSegment(conversationId).delete();
+        new File(getConversationDir(conversationId), conversationId + ".snapshot.tmp").delete();
+        lastAccessTimes.remove(conversationId);
+        recoveredConversations.remove(conversationId);
+    }
+
+    /**
+     * 刷新会话的访问时间，供不经过本类读写会话的上层缓存在命中时调用，避免活跃会话被当作空闲删除
+     * 在该会话的锁内记录，与过期判定互斥
+     */
+    public void touch(String conversationId) {
+        ReentrantLock lock = locks.get(conversationId);
+        lock.lock();
+        try {
+            recordAccess(conversationId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 会话被过期删除之后是否又被访问过：删除时会清掉访问记录，之后的读写会重新记录
+     */
+    public boolean wasAccessedAfterExpiry(String conversationId) {
+        return lastAccessTimes.containsKey(conversationId);
+    }
+
+    /**
+     * 记录会话的访问时间，只在开启过期清理时记录，调用方需持有该会话的锁
+     */
+    private void recordAccess(String conversationId) {
+        if (janitor != null) {
+            lastAccessTimes.put(conversationId, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 访问会话的段文件之前调用：迁移平铺目录下的文件，旧版文件无法按条定位，先压缩成段文件
+     * 调用方需持有该会话的锁
+     */
+    private void prepareSegments(String conversationId) throws IOException {
+        migrateFlatFiles(conversationId);
+        recoverCompaction(conversationId);
+        if (getLegacyFile(conversationId).exists()) {
+            compact(conversationId);
+        }
+    }
+
+    /**
+     * 按时间顺序读取快照段和日志段中的全部记录及 token 数
+     */
+    private void readSegments(String conversationId, List<byte[]> records, List<Integer> tokens) throws IOException {
+        for (ChatMemorySegment segment : List.of(getSnapshotSegment(conversationId), getLogSegment(conversationId))) {
+            int count = segment.count();
+            records.addAll(segment.read(0, count));
+            for (int token : segment.tokenCounts(0, count)) {
+                tokens.add(token);
+            }
+        }
+    }
+
+    /**
+     * 用给定记录重写快照段并删除日志段
+     * 新快照的文件头记下它已合并的日志段长度，日志段删除后再清零；
+     * 两步之间崩溃时由 recoverCompaction 丢弃已合并的日志记录，既不丢消息也不会重复
+     */
+    private void rewriteSnapshot(String conversationId, List<byte[]> records, List<Integer> tokens) throws IOException {
+        ChatMemorySegment snapshot = getSnapshotSegment(conversationId);
+        ChatMemorySegment logSegment = getLogSegment(conversationId);
+        try {
+            snapshot.replaceWith(records, tokens.stream().mapToInt(Integer::intValue).toArray(), logSegment.size(), fsync);
+            logSegment.delete();
+            snapshot.setCoveredLogBytes(0, fsync);
+        } catch (IOException e) {
+            // 文件头可能没有清零，下次访问时重新检查
+            recoveredConversations.remove(conversationId);
+            throw e;
+        }
+    }
+
+    /**
+     * 完成上次中断的压缩：快照段文件头中已合并的日志段字节数不为 0 时，
+     * 日志段中在该偏移之内结束的记录已经在快照里，丢弃它们后把剩余记录合并进快照
+     * 调用方需持有该会话的锁
+     */
+    private void recoverCompaction(String conversationId) throws IOException {
+        if (!recoveredConversations.add(conversationId)) {
+            return;
+        }
+        try {
+            ChatMemorySegment snapshot = getSnapshotSegment(conversationId);
+            long coveredLogBytes = snapshot.exists() ? snapshot.coveredLogBytes() : 0;
+            if (coveredLogBytes == 0) {
+                return;
+            }
+            ChatMemorySegment logSegment = getLogSegment(conversationId);
+            int logCount = logSegment.count();
+            int covered = logSegment.countEndingWithin(coveredLogBytes);
+            List<byte[]> records = new ArrayList<>(snapshot.read(0, snapshot.count()));
+            List<Integer> tokens = new ArrayList<>();
+            for (int token : snapshot.tokenCounts(0, snapshot.count())) {
+                tokens.add(token);
+            }
+            records.addAll(logSegment.read(covered, logCount));
+            for (int token : logSegment.tokenCounts(covered, logCount)) {
+                tokens.add(token);
+            }
+            rewriteSnapshot(conversationId, records, tokens);
+            log.warn("会话 {} 上次压缩未完成，已丢弃日志段中已合并进快照的 {} 条记录", conversationId, covered);
+        } catch (IOException e) {
+            recoveredConversations.remove(conversationId);
+            throw e;
         }
-        return messages;
     }
+
     /**
-     * 保存会话消息到文件
+     * 停止后台迁移并关闭所有打开的文件通道
+     */
+    @Override
+    public void close() {
+        if (janitor != null) {
+            janitor.close();
+        }
+        migrator.shutdownNow();
+        try {
+            migrator.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channelPool.close();
+    }
+
+    /**
+     * 后台迁移：把平铺在根目录下的会话文件逐个移动到分级目录，全部完成后写入标记文件
+     */
+    private void migrateFlatLayout() {
+        Path baseDir = new File(BASE_DIR).toPath();
+        try {
+            int migrated;
+            do {
+                // 遍历过程中会移动文件，一轮结束后再检查一遍，直到没有可迁移的文件
+                migrated = 0;
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(baseDir, Files::isRegularFile)) {
+                    for (Path path : stream) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            return;
+                        }
+                        String conversationId = toConversationId(path.getFileName().toString());
+                        if (conversationId == null) {
+                            continue;
+                        }
+                        ReentrantLock lock = locks.get(conversationId);
+                        lock.lock();
+                        try {
+                            migrated += migrateFlatFiles(conversationId);
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+            } while (migrated > 0);
+            Files.createFile(baseDir.resolve(SHARDED_MARKER));
+            flatLayoutMigrated = true;
+            log.info("会话记忆目录 {} 已迁移为分级目录", BASE_DIR);
+        } catch (IOException e) {
+            log.error("迁移会话记忆目录失败: {}", BASE_DIR, e);
+        }
+    }
+
+    /**
+     * 把单个会话平铺在根目录下的文件移动到分级目录，调用方需持有该会话的锁
      * @param conversationId
-     * @param messages
+     * @return 移动或清理的文件数
+     */
+    private int migrateFlatFiles(String conversationId) throws IOException {
+        if (flatLayoutMigrated) {
+            return 0;
+        }
+        int migrated = 0;
+        File conversationDir = getConversationDir(conversationId);
+        for (String suffix : FILE_SUFFIXES) {
+            File flatFile = new File(BASE_DIR, conversationId + suffix);
+            if (!flatFile.exists()) {
+                continue;
+            }
+            if (suffix.endsWith(".tmp")) {
+                // 压缩中途留下的临时文件，直接丢弃
+                flatFile.delete();
+                migrated++;
+                continue;
+            }
+            File target = new File(conversationDir, flatFile.getName());
+            if (target.exists()) {
+                log.warn("会话文件 {} 在分级目录中已存在，跳过迁移", flatFile.getName());
+                continue;
+            }
+            conversationDir.mkdirs();
+            Files.move(flatFile.toPath(), target.toPath());
+            migrated++;
+        }
+        return migrated;
+    }
+
+    /**
+     * 从平铺目录下的文件名还原会话 ID，不是会话文件时返回 null
      */
-    private void saveConversation(String conversationId, List<Message> messages) {
-        File file = getConversationFile(conversationId);
-        try (Output output = new Output(new FileOutputStream(file))) {
-            //Kryo.writeObject 把 List<Message> 序列化写入文件
-            kryo.writeObject(output, messages);
+    static String toConversationId(String fileName) {
+        for (String suffix : FILE_SUFFIXES) {
+            if (fileName.endsWith(suffix) && fileName.length() > suffix.length()) {
+                return fileName.substring(0, fileName.length() - suffix.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 读取旧版格式（整个 List 序列化为一个对象）的会话文件
+     * @param file
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private List<Message> readLegacyConversation(File file) {
+        if (!file.exists()) {
+            return List.of();
+        }
+        Kryo kryo = kryoPool.obtain();
+        try (Input input = new Input(new FileInputStream(file))) {
+            return kryo.readObject(input, ArrayList.class);
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("读取旧版会话文件失败: {}", file.getName(), e);
+            return List.of();
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    private byte[] serialize(Message message) {
+        Kryo kryo = kryoPool.obtain();
+        try {
+            Output output = new Output(256, -1);
+            kryo.writeClassAndObject(output, message);
+            return output.toBytes();
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    Message deserialize(byte[] record) {
+        Kryo kryo = kryoPool.obtain();
+        try {
+            return (Message) kryo.readClassAndObject(new Input(record));
+        } finally {
+            kryoPool.free(kryo);
         }
     }
 
     /**
-     * 每个会话文件单独保存
+     * 重建索引时对已序列化的消息计数
+     */
+    private int countTokens(byte[] record) {
+        return MessageTokenCounter.count(deserialize(record));
+    }
+
+    /**
+     * 会话所在的分级目录：{BASE_DIR}/{md5 前两位}/{md5 第三、四位}
      * @param conversationId
      * @return
      */
-    private File getConversationFile(String conversationId) {
-        // 返回会话文件路径  {BASE_DIR}/{conversationId}.kryo
-        return new File(BASE_DIR, conversationId + ".kryo");
+    private File getConversationDir(String conversationId) {
+        return shardDir(BASE_DIR, conversationId);
+    }
+
+    static File shardDir(String baseDir, String conversationId) {
+        String hash = DigestUtil.md5Hex(conversationId);
+        return new File(new File(baseDir, hash.substring(0, 2)), hash.substring(2, 4));
+    }
+
+    /**
+     * 每个会话的文件单独保存
+     * @param conversationId
+     * @return
+     */
+    private ChatMemorySegment getSnapshotSegment(String conversationId) {
+        // {会话目录}/{conversationId}.snapshot
+        return new ChatMemorySegment(new File(getConversationDir(conversationId), conversationId + ".snapshot"), channelPool, this::countTokens, true);
+    }
+
+    private ChatMemorySegment getLogSegment(String conversationId) {
+        // {会话目录}/{conversationId}.log
+        return new ChatMemorySegment(new File(getConversationDir(conversationId), conversationId + ".log"), channelPool, this::countTokens);
+    }
+
+    private File getLegacyFile(String conversationId) {
+        // 旧版会话文件路径  {会话目录}/{conversationId}.kryo
+        return new File(getConversationDir(conversationId), conversationId + ".kryo");
     }
 }
@@ -0,0 +1,145 @@
+package com.xinwei.aiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 有上限的 FileChannel 池
+ *
+ * 热点会话的段文件和索引文件保持打开状态，避免每次读写都重新 open/close。
+ * 打开的文件数超过上限时关闭最久未使用且没有被借用的通道；正在被借用的通道不会被关闭。
+ */
+@Slf4j
+class FileChannelPool implements AutoCloseable {
+
+    private final int maxOpenFiles;
+
+    // accessOrder = true，迭代顺序即 LRU 顺序
+    private final LinkedHashMap<Path, PooledChannel> channels = new LinkedHashMap<>(16, 0.75f, true);
+
+    FileChannelPool(int maxOpenFiles) {
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * 借用指定文件的通道（不存在时创建文件），用完后必须关闭返回的 Lease
+     */
+    synchronized Lease lease(Path path) throws IOException {
+        PooledChannel pooled = channels.get(path);
+        if (pooled == null) {
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            pooled = new PooledChannel(path, channel);
+            channels.put(path, pooled);
+        }
+        pooled.leases++;
+        // 先登记借用再淘汰，新打开的通道不会被立即关闭
+        evictIdle();
+        return new Lease(pooled);
+    }
+
+    /**
+     * 关闭并移除指定文件的通道，在删除或重命名文件前调用
+     */
+    synchronized void invalidate(Path path) {
+        PooledChannel pooled = channels.remove(path);
+        if (pooled != null) {
+            pooled.retired = true;
+            closeIfUnused(pooled);
+        }
+    }
+
+    synchronized int openFiles() {
+        return channels.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (PooledChannel pooled : channels.values()) {
+            pooled.retired = true;
+            closeIfUnused(pooled);
+        }
+        channels.clear();
+    }
+
+    private synchronized void release(PooledChannel pooled) {
+        pooled.leases--;
+        closeIfUnused(pooled);
+    }
+
+    /**
+     * 超过上限时从最久未使用的一端开始关闭空闲通道
+     */
+    private void evictIdle() {
+        if (channels.size() <= maxOpenFiles) {
+            return;
+        }
+        List<PooledChannel> evicted = new ArrayList<>();
+        Iterator<Map.Entry<Path, PooledChannel>> iterator = channels.entrySet().iterator();
+        while (channels.size() > maxOpenFiles && iterator.hasNext()) {
+            PooledChannel pooled = iterator.next().getValue();
+            if (pooled.leases == 0) {
+                evicted.add(pooled);
+                iterator.remove();
+            }
+        }
+        for (PooledChannel pooled : evicted) {
+            pooled.retired = true;
+            closeIfUnused(pooled);
+        }
+    }
+
+    private static void closeIfUnused(PooledChannel pooled) {
+        if (pooled.retired && pooled.leases == 0) {
+            try {
+                pooled.channel.close();
+            } catch (IOException e) {
+                log.warn("关闭文件通道失败: {}", pooled.path, e);
+            }
+        }
+    }
+
+    private static class PooledChannel {
+        final Path path;
+        final FileChannel channel;
+        // 当前借用次数
+        int leases;
+        // 已移出池，归还后关闭
+        boolean retired;
+
+        PooledChannel(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * 一次借用，关闭时归还通道
+     */
+    class Lease implements AutoCloseable {
+
+        private final PooledChannel pooled;
+
+        private Lease(PooledChannel pooled) {
+            this.pooled = pooled;
+        }
+
+        FileChannel channel() {
+            return pooled.channel;
+        }
+
+        @Override
+        public void close() {
+            release(pooled);
+        }
+    }
+}
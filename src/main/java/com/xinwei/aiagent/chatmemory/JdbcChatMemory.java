@@ -0,0 +1,338 @@
+package com.xinwei.aiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于数据库（JdbcTemplate）的对话记忆，多个实例共享同一份历史
+ *
+ * 每条消息一行：seq 为全局自增序号，content 为 MessageCodec 编码，tokens 为写入时计算的 token 数。
+ * (conversation_id, seq) 上建有索引，“最后 N 条”按 seq 倒序走索引取 N 行；
+ * 按 token 预算读取时以 seq 为游标分页向前取（keyset 分页），不用 OFFSET。
+ *
+ * 写入使用多行 INSERT（每条语句最多 MAX_ROWS_PER_INSERT 行）。
+ * 开启组提交后，并发的 add 先进入队列，由提交线程把当时排队的全部写入合并成一个事务提交，
+ * add 在自己的数据提交后才返回，持久化语义与逐条提交相同，但数据库往返和事务数随并发度下降。
+ * 合并的事务失败时逐个重新提交组内的写入，一个写入出错（如会话 ID 过长）不会连带同组其他会话的写入；
+ * 写入失败时 add 抛出异常，不会静默丢失消息。
+ */
+@Slf4j
+public class JdbcChatMemory implements TokenBudgetChatMemory, AutoCloseable {
+
+    private static final String TABLE = "chat_memory_message";
+    // 单条多行 INSERT 的最大行数，避免超出驱动的参数个数上限（每行 3 个参数）
+    private static final int MAX_ROWS_PER_INSERT = 500;
+    // 组提交一次最多合并的 add 调用数
+    private static final int MAX_GROUP_SIZE = 256;
+    // 按 token 预算读取时每页的行数
+    private static final int BUDGET_PAGE_SIZE = 64;
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+                    + "seq BIGSERIAL PRIMARY KEY, "
+                    + "conversation_id VARCHAR(255) NOT NULL, "
+                    + "content BYTEA NOT NULL, "
+                    + "tokens INT NOT NULL, "
+                    + "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)",
+            "CREATE INDEX IF NOT EXISTS idx_" + TABLE + "_conversation_seq ON " + TABLE + " (conversation_id, seq)"
+    };
+
+    private static final RowMapper<StoredMessage> ROW_MAPPER = (rs, rowNum) -> new StoredMessage(
+            rs.getLong("seq"), rs.getBytes("content"), rs.getInt("tokens"));
+
+    private final JdbcTemplate jdbcTemplate;
+    // 组提交队列，未开启组提交时为 null
+    private final BlockingQueue<PendingWrite> queue;
+    private final Thread committer;
+    private volatile boolean closed;
+
+    // 统计信息
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+
+    /**
+     * @param jdbcTemplate 数据源
+     * @param groupCommit 是否合并并发的写入
+     * @param initializeSchema 启动时是否建表（已存在时跳过）
+     */
+    public JdbcChatMemory(JdbcTemplate jdbcTemplate, boolean groupCommit, boolean initializeSchema) {
+        this.jdbcTemplate = jdbcTemplate;
+        if (initializeSchema) {
+            for (String ddl : SCHEMA) {
+                jdbcTemplate.execute(ddl);
+            }
+        }
+        if (groupCommit) {
+            this.queue = new LinkedBlockingQueue<>();
+            this.committer = new Thread(this::commitLoop, "chat-memory-group-commit");
+            committer.setDaemon(true);
+            committer.start();
+        } else {
+            this.queue = null;
+            this.committer = null;
+        }
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        addWithTokenCounts(conversationId, messages.stream()
+                .map(message -> new TokenCountedMessage(message, MessageTokenCounter.count(message)))
+                .toList());
+    }
+
+    /**
+     * @throws org.springframework.dao.DataAccessException 写入失败
+     */
+    @Override
+    public void addWithTokenCounts(String conversationId, List<TokenCountedMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        // 编码在调用线程中完成，提交线程只负责写库
+        List<byte[]> contents = new ArrayList<>(messages.size());
+        for (TokenCountedMessage message : messages) {
+            contents.add(MessageCodec.encode(message.message()));
+        }
+        PendingWrite write = new PendingWrite(conversationId, contents,
+                messages.stream().mapToInt(TokenCountedMessage::tokens).toArray(), new CompletableFuture<>());
+        try {
+            if (queue == null) {
+                insert(List.of(write));
+            } else {
+                queue.add(write);
+                // 入队后才发现已关闭：若还没被取走，就自己提交
+                if (closed && queue.remove(write)) {
+                    insert(List.of(write));
+                } else {
+                    write.done().get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("追加会话记忆时被中断: " + conversationId, e);
+        } catch (ExecutionException e) {
+            log.error("追加会话记忆失败: {}", conversationId, e.getCause());
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("追加会话记忆失败: " + conversationId, e.getCause());
+        } catch (RuntimeException e) {
+            log.error("追加会话记忆失败: {}", conversationId, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        return getWithTokenCounts(conversationId, lastN).stream()
+                .map(TokenCountedMessage::message)
+                .toList();
+    }
+
+    @Override
+    public List<TokenCountedMessage> getWithTokenCounts(String conversationId, int lastN) {
+        if (lastN <= 0) {
+            return List.of();
+        }
+        List<StoredMessage> rows = jdbcTemplate.query(
+                "SELECT seq, content, tokens FROM " + TABLE + " WHERE conversation_id = ? ORDER BY seq DESC LIMIT ?",
+                ROW_MAPPER, conversationId, lastN);
+        return decodeInOrder(rows);
+    }
+
+    /**
+     * 以 seq 为游标从最新的消息开始逐页向前取，累加 token 数直到放不下下一条
+     */
+    @Override
+    public List<Message> getWithinTokenBudget(String conversationId, int maxTokens) {
+        List<StoredMessage> selected = new ArrayList<>();
+        long used = 0;
+        long beforeSeq = Long.MAX_VALUE;
+        while (true) {
+            List<StoredMessage> page = jdbcTemplate.query(
+                    "SELECT seq, content, tokens FROM " + TABLE
+                            + " WHERE conversation_id = ? AND seq < ? ORDER BY seq DESC LIMIT ?",
+                    ROW_MAPPER, conversationId, beforeSeq, BUDGET_PAGE_SIZE);
+            for (StoredMessage row : page) {
+                if (used + row.tokens() > maxTokens) {
+                    return decodeInOrder(selected).stream().map(TokenCountedMessage::message).toList();
+                }
+                used += row.tokens();
+                selected.add(row);
+            }
+            if (page.size() < BUDGET_PAGE_SIZE) {
+                return decodeInOrder(selected).stream().map(TokenCountedMessage::message).toList();
+            }
+            beforeSeq = page.get(page.size() - 1).seq();
+        }
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE conversation_id = ?", conversationId);
+    }
+
+    /**
+     * 停止组提交线程，已排队的写入会先提交完；不关闭数据源
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (committer != null) {
+            try {
+                committer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // 提交线程退出前后入队的写入
+            List<PendingWrite> remaining = new ArrayList<>();
+            queue.drainTo(remaining);
+            if (!remaining.isEmpty()) {
+                commit(remaining);
+            }
+        }
+        log.info("数据库对话记忆已关闭: {}", getStats());
+    }
+
+    public Stats getStats() {
+        return new Stats(writes.get(), transactions.get(), rows.get());
+    }
+
+    /**
+     * 写入统计信息
+     * @param writes add 调用次数
+     * @param transactions 提交的事务数，开启组提交后小于 writes
+     * @param rows 写入的消息行数
+     */
+    public record Stats(long writes, long transactions, long rows) {
+    }
+
+    /**
+     * 组提交线程：取出当时排队的全部写入，合并成一个事务
+     */
+    private void commitLoop() {
+        List<PendingWrite> group = new ArrayList<>();
+        while (true) {
+            PendingWrite first;
+            try {
+                // 不用中断停止线程，避免打断进行中的数据库调用
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (first == null) {
+                if (closed) {
+                    return;
+                }
+                continue;
+            }
+            group.add(first);
+            queue.drainTo(group, MAX_GROUP_SIZE - 1);
+            commit(group);
+            group.clear();
+        }
+    }
+
+    private void commit(List<PendingWrite> group) {
+        try {
+            insert(group);
+            group.forEach(write -> write.done().complete(null));
+        } catch (RuntimeException e) {
+            if (group.size() == 1) {
+                group.get(0).done().completeExceptionally(e);
+                return;
+            }
+            // 整组已回滚，逐个重新提交，只有出错的写入失败
+            log.warn("组提交失败，逐个重试 {} 个写入", group.size(), e);
+            for (PendingWrite write : group) {
+                try {
+                    insert(List.of(write));
+                    write.done().complete(null);
+                } catch (RuntimeException single) {
+                    write.done().completeExceptionally(single);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在一个事务中用多行 INSERT 写入一组 add 的全部消息，保持组内顺序
+     */
+    private void insert(List<PendingWrite> group) {
+        List<Object[]> values = new ArrayList<>();
+        for (PendingWrite write : group) {
+            for (int i = 0; i < write.contents().size(); i++) {
+                values.add(new Object[]{write.conversationId(), write.contents().get(i), write.tokens()[i]});
+            }
+        }
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                for (int from = 0; from < values.size(); from += MAX_ROWS_PER_INSERT) {
+                    insertRows(connection, values.subList(from, Math.min(values.size(), from + MAX_ROWS_PER_INSERT)));
+                }
+                connection.commit();
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+        writes.addAndGet(group.size());
+        transactions.incrementAndGet();
+        rows.addAndGet(values.size());
+    }
+
+    private static void insertRows(Connection connection, List<Object[]> values) throws SQLException {
+        StringBuilder sql = new StringBuilder("INSERT INTO " + TABLE + " (conversation_id, content, tokens) VALUES ");
+        sql.append(String.join(", ", Collections.nCopies(values.size(), "(?, ?, ?)")));
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (Object[] row : values) {
+                statement.setString(index++, (String) row[0]);
+                statement.setBytes(index++, (byte[]) row[1]);
+                statement.setInt(index++, (Integer) row[2]);
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * 把按 seq 倒序查出的行解码并恢复成时间顺序
+     */
+    private static List<TokenCountedMessage> decodeInOrder(List<StoredMessage> rows) {
+        List<TokenCountedMessage> messages = new ArrayList<>(rows.size());
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            StoredMessage row = rows.get(i);
+            messages.add(new TokenCountedMessage(MessageCodec.decode(row.content()), row.tokens()));
+        }
+        return messages;
+    }
+
+    private record StoredMessage(long seq, byte[] content, int tokens) {
+    }
+
+    private record PendingWrite(String conversationId, List<byte[]> contents, int[] tokens,
+                                CompletableFuture<Void> done) {
+    }
+}
@@ -0,0 +1,372 @@
+package com.xinwei.aiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于内存映射文件的对话记忆
+ *
+ * 每个会话一个段文件 {conversationId}.msg（与 FileBasedChatMemory 相同的分级目录），
+ * 文件头为 [魔数][版本][已提交的写入位置]，之后是 [4 字节长度][4 字节 token 数][MessageCodec 编码] 形式的记录。
+ * 写入先写记录、再更新文件头中的写入位置，崩溃时未提交的半条记录会被忽略。
+ *
+ * 打开的会话把整个段文件映射到内存并在内存中维护记录偏移和 token 数，get(lastN) 直接在映射区域上解码最后 N 条，
+ * 不经过 read 系统调用和中间缓冲区；按 token 预算读取时只累加内存中的计数。
+ * 同时映射的会话数有上限，超出时关闭最久未使用的会话。
+ */
+@Slf4j
+public class MappedChatMemory implements TokenBudgetChatMemory, AutoCloseable {
+
+    // 魔数 "CMMP"
+    private static final int MAGIC = 0x434D4D50;
+    private static final int VERSION = 1;
+    // 文件头：魔数 + 版本 + 已提交的写入位置
+    private static final int HEADER_SIZE = 16;
+    private static final int COMMITTED_END_OFFSET = 8;
+    // 记录头：长度 + token 数
+    private static final int RECORD_HEADER_SIZE = 8;
+    // 新会话初始映射 64KB，之后按两倍扩容
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private final String baseDir;
+    // 同时保持映射的会话数上限
+    private final int maxOpenConversations;
+    // 追加后是否立即刷盘
+    private final boolean fsync;
+
+    private final StripedLock locks = new StripedLock(256);
+    // accessOrder = true，迭代顺序即 LRU 顺序
+    private final LinkedHashMap<String, MappedConversation> openConversations = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param dir 文件保存目录
+     * @param maxOpenConversations 同时保持映射的会话数上限
+     * @param fsync 每次追加后是否强制刷盘
+     */
+    public MappedChatMemory(String dir, int maxOpenConversations, boolean fsync) {
+        this.baseDir = dir;
+        this.maxOpenConversations = maxOpenConversations;
+        this.fsync = fsync;
+        File base = new File(dir);
+        if (!base.exists()) {
+            base.mkdirs();
+        }
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        addWithTokenCounts(conversationId, messages.stream()
+                .map(message -> new TokenCountedMessage(message, MessageTokenCounter.count(message)))
+                .toList());
+    }
+
+    @Override
+    public void addWithTokenCounts(String conversationId, List<TokenCountedMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<byte[]> records = new ArrayList<>(messages.size());
+        int[] tokens = new int[messages.size()];
+        for (int i = 0; i < messages.size(); i++) {
+            records.add(MessageCodec.encode(messages.get(i).message()));
+            tokens[i] = messages.get(i).tokens();
+        }
+        ReentrantLock lock = locks.get(conversationId);
+        lock.lock();
+        try {
+            openConversation(conversationId, true).append(records, tokens, fsync);
+        } catch (IOException e) {
+            log.error("追加会话记忆失败: {}", conversationId, e);
+        } finally {
+            lock.unlock();
+        }
+        evictIfNeeded();
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        if (lastN <= 0) {
+            return List.of();
+        }
+        return readTail(conversationId, lastN, Integer.MAX_VALUE).stream()
+                .map(TokenCountedMessage::message)
+                .toList();
+    }
+
+    @Override
+    public List<Message> getWithinTokenBudget(String conversationId, int maxTokens) {
+        if (maxTokens <= 0) {
+            return List.of();
+        }
+        return readTail(conversationId, Integer.MAX_VALUE, maxTokens).stream()
+                .map(TokenCountedMessage::message)
+                .toList();
+    }
+
+    @Override
+    public List<TokenCountedMessage> getWithTokenCounts(String conversationId, int lastN) {
+        if (lastN <= 0) {
+            return List.of();
+        }
+        return readTail(conversationId, lastN, Integer.MAX_VALUE);
+    }
+
+    private List<TokenCountedMessage> readTail(String conversationId, int lastN, int maxTokens) {
+        List<TokenCountedMessage> messages;
+        ReentrantLock lock = locks.get(conversationId);
+        lock.lock();
+        try {
+            MappedConversation conversation = openConversation(conversationId, false);
+            messages = conversation == null ? List.of() : conversation.tail(lastN, maxTokens);
+        } catch (IOException e) {
+            log.error("读取会话记忆失败: {}", conversationId, e);
+            return List.of();
+        } finally {
+            lock.unlock();
+        }
+        evictIfNeeded();
+        return messages;
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        ReentrantLock lock = locks.get(conversationId);
+        lock.lock();
+        try {
+            MappedConversation conversation;
+            synchronized (openConversations) {
+                conversation = openConversations.remove(conversationId);
+            }
+            if (conversation != null) {
+                conversation.close();
+            }
+            File file = getConversationFile(conversationId);
+            if (file.exists()) {
+                file.delete();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (openConversations) {
+            openConversations.values().forEach(MappedConversation::close);
+            openConversations.clear();
+        }
+    }
+
+    /**
+     * 获取已映射的会话，未映射时打开文件，调用方需持有该会话的锁
+     * @param create 文件不存在时是否创建
+     * @return 文件不存在且不创建时返回 null
+     */
+    private MappedConversation openConversation(String conversationId, boolean create) throws IOException {
+        MappedConversation conversation;
+        synchronized (openConversations) {
+            conversation = openConversations.get(conversationId);
+        }
+        if (conversation != null) {
+            return conversation;
+        }
+        File file = getConversationFile(conversationId);
+        if (!file.exists()) {
+            if (!create) {
+                return null;
+            }
+            file.getParentFile().mkdirs();
+        }
+        conversation = MappedConversation.open(file);
+        synchronized (openConversations) {
+            openConversations.put(conversationId, conversation);
+        }
+        return conversation;
+    }
+
+    /**
+     * 关闭超出上限的最久未使用的会话；正在被其他线程使用（拿不到锁）的会话跳过
+     */
+    private void evictIfNeeded() {
+        List<Map.Entry<String, MappedConversation>> candidates = new ArrayList<>();
+        synchronized (openConversations) {
+            int excess = openConversations.size() - maxOpenConversations;
+            for (Map.Entry<String, MappedConversation> entry : openConversations.entrySet()) {
+                if (candidates.size() >= excess) {
+                    break;
+                }
+                candidates.add(Map.entry(entry.getKey(), entry.getValue()));
+            }
+        }
+        for (Map.Entry<String, MappedConversation> candidate : candidates) {
+            ReentrantLock lock = locks.get(candidate.getKey());
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                boolean removed;
+                synchronized (openConversations) {
+                    removed = openConversations.remove(candidate.getKey(), candidate.getValue());
+                }
+                if (removed) {
+                    candidate.getValue().close();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private File getConversationFile(String conversationId) {
+        // {会话目录}/{conversationId}.msg
+        return new File(FileBasedChatMemory.shardDir(baseDir, conversationId), conversationId + ".msg");
+    }
+
+    /**
+     * 一个已映射到内存的会话段文件，所有方法都在该会话的锁内调用
+     */
+    private static class MappedConversation {
+
+        private final File file;
+        private final FileChannel channel;
+        private MappedByteBuffer buffer;
+        // 每条记录的起始偏移和 token 数
+        private int[] offsets = new int[16];
+        private int[] tokens = new int[16];
+        private int count;
+        // 已提交的写入位置
+        private int end;
+
+        private MappedConversation(File file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+
+        static MappedConversation open(File file) throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedConversation conversation = new MappedConversation(file, channel);
+            try {
+                long size = channel.size();
+                if (size < HEADER_SIZE) {
+                    conversation.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_CAPACITY);
+                    conversation.buffer.putInt(0, MAGIC);
+                    conversation.buffer.putInt(4, VERSION);
+                    conversation.buffer.putLong(COMMITTED_END_OFFSET, HEADER_SIZE);
+                    conversation.end = HEADER_SIZE;
+                    return conversation;
+                }
+                conversation.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                if (conversation.buffer.getInt(0) != MAGIC || conversation.buffer.getInt(4) != VERSION) {
+                    throw new IOException("不是有效的会话记忆文件: " + file.getName());
+                }
+                conversation.end = (int) conversation.buffer.getLong(COMMITTED_END_OFFSET);
+                // 只遍历记录头重建偏移表，不解码消息
+                int position = HEADER_SIZE;
+                while (position < conversation.end) {
+                    conversation.addRecord(position, conversation.buffer.getInt(position + 4));
+                    position += RECORD_HEADER_SIZE + conversation.buffer.getInt(position);
+                }
+                return conversation;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        void append(List<byte[]> records, int[] recordTokens, boolean fsync) throws IOException {
+            int total = 0;
+            for (byte[] record : records) {
+                total += RECORD_HEADER_SIZE + record.length;
+            }
+            ensureCapacity((long) end + total);
+            int position = end;
+            for (int i = 0; i < records.size(); i++) {
+                byte[] record = records.get(i);
+                buffer.putInt(position, record.length);
+                buffer.putInt(position + 4, recordTokens[i]);
+                buffer.put(position + RECORD_HEADER_SIZE, record);
+                addRecord(position, recordTokens[i]);
+                position += RECORD_HEADER_SIZE + record.length;
+            }
+            // 记录写完后再提交写入位置
+            buffer.putLong(COMMITTED_END_OFFSET, position);
+            end = position;
+            if (fsync) {
+                buffer.force();
+            }
+        }
+
+        /**
+         * 直接在映射区域上解码最长的历史后缀：不超过 lastN 条，且 token 数之和不超过 maxTokens
+         */
+        List<TokenCountedMessage> tail(int lastN, int maxTokens) {
+            int from = Math.max(0, count - lastN);
+            if (maxTokens != Integer.MAX_VALUE) {
+                int first = count;
+                long used = 0;
+                while (first > from && used + tokens[first - 1] <= maxTokens) {
+                    used += tokens[--first];
+                }
+                from = first;
+            }
+            List<TokenCountedMessage> messages = new ArrayList<>(count - from);
+            for (int i = from; i < count; i++) {
+                int offset = offsets[i];
+                int length = buffer.getInt(offset);
+                messages.add(new TokenCountedMessage(
+                        MessageCodec.decode(buffer.slice(offset + RECORD_HEADER_SIZE, length)), tokens[i]));
+            }
+            return messages;
+        }
+
+        /**
+         * 空间不足时按两倍扩大映射；旧的映射区域在 GC 时释放
+         */
+        private void ensureCapacity(long required) throws IOException {
+            if (required <= buffer.capacity()) {
+                return;
+            }
+            long capacity = buffer.capacity();
+            while (capacity < required) {
+                capacity *= 2;
+            }
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IOException("会话记忆文件超过 2GB 上限: " + file.getName());
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        private void addRecord(int offset, int recordTokens) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                tokens = Arrays.copyOf(tokens, count * 2);
+            }
+            offsets[count] = offset;
+            tokens[count++] = recordTokens;
+        }
+
+        /**
+         * 关闭文件通道；映射区域中已写入的数据由操作系统负责写回，需要持久化保证时使用 fsync 选项
+         */
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("关闭会话记忆文件失败: {}", file.getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.xinwei.aiagent.chatmemory;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 消息的紧凑二进制编码
+ *
+ * 与 Kryo 不同，不写入任何类名，只保存恢复消息所需的字段：
+ * [1 字节类型标签（同时表示角色）][文本][元数据][工具调用 / 工具返回]
+ * 字符串以 varint 长度 + UTF-8 字节表示，长度写 0 表示 null；元数据只保留字符串、整数、浮点数和布尔值，
+ * 媒体附件不参与编码。
+ */
+public final class MessageCodec {
+
+    private static final byte USER = 0;
+    private static final byte ASSISTANT = 1;
+    private static final byte SYSTEM = 2;
+    private static final byte TOOL = 3;
+
+    private static final byte VALUE_STRING = 0;
+    private static final byte VALUE_LONG = 1;
+    private static final byte VALUE_DOUBLE = 2;
+    private static final byte VALUE_BOOLEAN = 3;
+
+    private MessageCodec() {
+    }
+
+    public static byte[] encode(Message message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        switch (message) {
+            case UserMessage userMessage -> {
+                out.write(USER);
+                writeString(out, userMessage.getText());
+                writeMetadata(out, userMessage.getMetadata());
+            }
+            case AssistantMessage assistantMessage -> {
+                out.write(ASSISTANT);
+                writeString(out, assistantMessage.getText());
+                writeMetadata(out, assistantMessage.getMetadata());
+                List<AssistantMessage.ToolCall> toolCalls = assistantMessage.getToolCalls();
+                writeVarInt(out, toolCalls.size());
+                for (AssistantMessage.ToolCall toolCall : toolCalls) {
+                    writeString(out, toolCall.id());
+                    writeString(out, toolCall.type());
+                    writeString(out, toolCall.name());
+                    writeString(out, toolCall.arguments());
+                }
+            }
+            case SystemMessage systemMessage -> {
+                out.write(SYSTEM);
+                writeString(out, systemMessage.getText());
+                writeMetadata(out, Map.of());
+            }
+            case ToolResponseMessage toolResponseMessage -> {
+                out.write(TOOL);
+                writeString(out, toolResponseMessage.getText());
+                writeMetadata(out, toolResponseMessage.getMetadata());
+                List<ToolResponseMessage.ToolResponse> responses = toolResponseMessage.getResponses();
+                writeVarInt(out, responses.size());
+                for (ToolResponseMessage.ToolResponse response : responses) {
+                    writeString(out, response.id());
+                    writeString(out, response.name());
+                    writeString(out, response.responseData());
+                }
+            }
+            default -> throw new IllegalArgumentException("不支持的消息类型: " + message.getClass().getName());
+        }
+        return out.toByteArray();
+    }
+
+    public static Message decode(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * 从 buffer 的当前位置解码一条消息，buffer 可以直接是内存映射区域
+     */
+    public static Message decode(ByteBuffer buffer) {
+        byte type = buffer.get();
+        String text = readString(buffer);
+        Map<String, Object> metadata = readMetadata(buffer);
+        return switch (type) {
+            case USER -> new UserMessage(text, List.of(), metadata);
+            case ASSISTANT -> {
+                int count = readVarInt(buffer);
+                List<AssistantMessage.ToolCall> toolCalls = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    toolCalls.add(new AssistantMessage.ToolCall(readString(buffer), readString(buffer),
+                            readString(buffer), readString(buffer)));
+                }
+                yield new AssistantMessage(text, metadata, toolCalls);
+            }
+            case SYSTEM -> new SystemMessage(text);
+            case TOOL -> {
+                int count = readVarInt(buffer);
+                List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    responses.add(new ToolResponseMessage.ToolResponse(readString(buffer), readString(buffer),
+                            readString(buffer)));
+                }
+                yield new ToolResponseMessage(responses, metadata);
+            }
+            default -> throw new IllegalArgumentException("未知的消息类型标签: " + type);
+        };
+    }
+
+    private static void writeMetadata(ByteArrayOutputStream out, Map<String, Object> metadata) {
+        List<Map.Entry<String, Object>> entries = metadata.entrySet().stream()
+                .filter(entry -> entry.getValue() instanceof String || entry.getValue() instanceof Number
+                        || entry.getValue() instanceof Boolean)
+                .toList();
+        writeVarInt(out, entries.size());
+        for (Map.Entry<String, Object> entry : entries) {
+            writeString(out, entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof String string) {
+                out.write(VALUE_STRING);
+                writeString(out, string);
+            } else if (value instanceof Boolean bool) {
+                out.write(VALUE_BOOLEAN);
+                out.write(bool ? 1 : 0);
+            } else if (value instanceof Double || value instanceof Float) {
+                out.write(VALUE_DOUBLE);
+                writeLong(out, Double.doubleToLongBits(((Number) value).doubleValue()));
+            } else {
+                out.write(VALUE_LONG);
+                writeLong(out, ((Number) value).longValue());
+            }
+        }
+    }
+
+    private static Map<String, Object> readMetadata(ByteBuffer buffer) {
+        int count = readVarInt(buffer);
+        Map<String, Object> metadata = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String key = readString(buffer);
+            byte valueType = buffer.get();
+            Object value = switch (valueType) {
+                case VALUE_STRING -> readString(buffer);
+                case VALUE_BOOLEAN -> buffer.get() != 0;
+                case VALUE_DOUBLE -> Double.longBitsToDouble(buffer.getLong());
+                case VALUE_LONG -> buffer.getLong();
+                default -> throw new IllegalArgumentException("未知的元数据类型标签: " + valueType);
+            };
+            metadata.put(key, value);
+        }
+        return metadata;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = readVarInt(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(buffer.position(), bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
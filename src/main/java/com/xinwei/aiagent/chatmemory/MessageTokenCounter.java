@@ -0,0 +1,59 @@
+package com.xinwei.aiagent.chatmemory;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.List;
+
+/**
+ * 估算单条消息占用的 token 数
+ *
+ * 使用 cl100k 编码估算，与通义千问的实际分词不完全一致，只用于控制上下文预算。
+ * 除文本外还计入工具调用的名称和参数、工具返回的数据，并为每条消息加上固定的格式开销。
+ * 计数结果随消息一起保存在对话记忆中，读取历史时不再重新分词。
+ */
+public final class MessageTokenCounter {
+
+    // 每条消息的角色、分隔符等格式开销
+    static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    // JTokkit 的编码器是线程安全的，全局共享一个
+    private static final TokenCountEstimator estimator = new JTokkitTokenCountEstimator();
+
+    private MessageTokenCounter() {
+    }
+
+    public static int count(Message message) {
+        int tokens = MESSAGE_OVERHEAD_TOKENS + estimator.estimate(message.getText());
+        if (message instanceof AssistantMessage assistantMessage) {
+            for (AssistantMessage.ToolCall toolCall : assistantMessage.getToolCalls()) {
+                tokens += estimator.estimate(toolCall.name()) + estimator.estimate(toolCall.arguments());
+            }
+        } else if (message instanceof ToolResponseMessage toolResponseMessage) {
+            for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+                tokens += estimator.estimate(response.name()) + estimator.estimate(response.responseData());
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 对没有保存 token 数的消息列表逐条计数，返回总 token 数不超过 maxTokens 的最长后缀
+     */
+    public static List<Message> suffixWithinBudget(List<Message> messages, int maxTokens) {
+        int from = messages.size();
+        long used = 0;
+        while (from > 0) {
+            int tokens = count(messages.get(from - 1));
+            if (used + tokens > maxTokens) {
+                break;
+            }
+            used += tokens;
+            from--;
+        }
+        return messages.subList(from, messages.size());
+    }
+}
@@ -0,0 +1,32 @@
+package com.xinwei.aiagent.chatmemory;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按会话 ID 分段的锁
+ *
+ * 同一会话总是映射到同一把锁，保证其读写互斥；不同会话大概率落在不同的锁上，可以完全并行。
+ * 锁的数量固定，不会随会话数增长。
+ */
+class StripedLock {
+
+    private final ReentrantLock[] locks;
+
+    /**
+     * @param stripes 锁的数量，会向上取整为 2 的幂
+     */
+    StripedLock(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    ReentrantLock get(String conversationId) {
+        int hash = conversationId.hashCode();
+        // 高位参与运算，减少只有低位不同的 ID 挤到同一把锁上
+        hash ^= (hash >>> 16);
+        return locks[hash & (locks.length - 1)];
+    }
+}
@@ -0,0 +1,215 @@
+package com.xinwei.aiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 滚动摘要压缩的对话记忆
+ *
+ * 会话的总 token 数超过阈值后，后台线程把较早的消息（包括上一次的摘要）交给 ConversationSummarizer 合并成一条摘要消息，
+ * 只保留 keepRecentTokens 以内的最近消息原文，磁盘占用和注入提示词的历史都保持有界。
+ *
+ * 摘要在后台线程中生成，add/get 只多做一次入队，不会等待模型调用。生成摘要期间会话仍可正常读写：
+ * 替换前会逐字节核对被压缩的那部分历史，期间会话被清除或改写时放弃本次结果，新追加的消息不受影响。
+ * 替换完成后通知监听者（例如让 CachedChatMemory 丢弃旧的缓存窗口）。
+ */
+@Slf4j
+public class SummarizingChatMemory implements TokenBudgetChatMemory, AutoCloseable {
+
+    // 摘要消息的元数据标记
+    public static final String SUMMARY_METADATA_KEY = "chat_memory_summary";
+    private static final String SUMMARY_PREFIX = "【之前对话的摘要】\n";
+
+    private final FileBasedChatMemory delegate;
+    private final ConversationSummarizer summarizer;
+    // 会话总 token 数超过该值时触发摘要
+    private final int thresholdTokens;
+    // 摘要后保留原文的最近消息 token 数
+    private final int keepRecentTokens;
+    private final ExecutorService summarizerPool;
+    // 已排队等待检查的会话，同一会话最多排队一次
+    private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    // 统计信息
+    private final AtomicLong summaries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong foldedMessages = new AtomicLong();
+    private final AtomicLong foldedTokens = new AtomicLong();
+    private final AtomicLong summaryTokens = new AtomicLong();
+
+    /**
+     * @param delegate 底层的文件对话记忆
+     * @param summarizer 摘要生成器
+     * @param thresholdTokens 会话总 token 数超过该值时触发摘要
+     * @param keepRecentTokens 摘要后保留原文的最近消息 token 数，应明显小于 thresholdTokens
+     * @param threads 生成摘要的后台线程数
+     */
+    public SummarizingChatMemory(FileBasedChatMemory delegate, ConversationSummarizer summarizer,
+                                 int thresholdTokens, int keepRecentTokens, int threads) {
+        this.delegate = delegate;
+        this.summarizer = summarizer;
+        this.thresholdTokens = thresholdTokens;
+        this.keepRecentTokens = keepRecentTokens;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.summarizerPool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "chat-memory-summarizer-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        delegate.add(conversationId, messages);
+        schedule(conversationId);
+    }
+
+    @Override
+    public void addWithTokenCounts(String conversationId, List<TokenCountedMessage> messages) {
+        delegate.addWithTokenCounts(conversationId, messages);
+        schedule(conversationId);
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        return delegate.get(conversationId, lastN);
+    }
+
+    @Override
+    public List<Message> getWithinTokenBudget(String conversationId, int maxTokens) {
+        return delegate.getWithinTokenBudget(conversationId, maxTokens);
+    }
+
+    @Override
+    public List<TokenCountedMessage> getWithTokenCounts(String conversationId, int lastN) {
+        return delegate.getWithTokenCounts(conversationId, lastN);
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        delegate.clear(conversationId);
+    }
+
+    /**
+     * 注册摘要完成的监听者，参数为会话 ID，在后台线程中回调
+     */
+    public void onSummarized(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 停止后台摘要（正在进行的模型调用会被中断，结果丢弃），然后关闭底层存储
+     */
+    @Override
+    public void close() {
+        summarizerPool.shutdownNow();
+        try {
+            summarizerPool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("对话摘要已停止: {}", getStats());
+        delegate.close();
+    }
+
+    public Stats getStats() {
+        return new Stats(summaries.get(), failures.get(), foldedMessages.get(), foldedTokens.get(), summaryTokens.get());
+    }
+
+    /**
+     * 摘要统计信息
+     * @param summaries 完成的摘要次数
+     * @param failures 失败次数
+     * @param foldedMessages 被压缩进摘要的消息数
+     * @param foldedTokens 被压缩的消息的 token 数
+     * @param summaryTokens 生成的摘要的 token 数
+     */
+    public record Stats(long summaries, long failures, long foldedMessages, long foldedTokens, long summaryTokens) {
+    }
+
+    public static boolean isSummary(Message message) {
+        return Boolean.TRUE.equals(message.getMetadata().get(SUMMARY_METADATA_KEY));
+    }
+
+    private void schedule(String conversationId) {
+        if (!scheduled.add(conversationId)) {
+            return;
+        }
+        try {
+            summarizerPool.execute(() -> {
+                // 先出队再检查，检查期间追加的消息会再次排队
+                scheduled.remove(conversationId);
+                summarizeIfNeeded(conversationId);
+            });
+        } catch (RejectedExecutionException e) {
+            // 已关闭
+            scheduled.remove(conversationId);
+        }
+    }
+
+    /**
+     * 会话超过阈值时把较早的消息压缩成摘要
+     * @return 是否完成了一次摘要
+     */
+    boolean summarizeIfNeeded(String conversationId) {
+        try {
+            int[] tokens = delegate.tokenCounts(conversationId);
+            long total = 0;
+            for (int token : tokens) {
+                total += token;
+            }
+            if (total <= thresholdTokens) {
+                return false;
+            }
+            // 从尾部保留 keepRecentTokens 以内的消息原文，其余的压缩
+            int keep = 0;
+            long kept = 0;
+            while (keep < tokens.length && kept + tokens[tokens.length - 1 - keep] <= keepRecentTokens) {
+                kept += tokens[tokens.length - 1 - keep];
+                keep++;
+            }
+            int fold = tokens.length - keep;
+            if (fold < 2) {
+                // 只剩一条（通常就是上一次的摘要）时不值得再压缩
+                return false;
+            }
+            List<byte[]> records = delegate.readFirstRecords(conversationId, fold);
+            List<Message> messages = records.stream().map(delegate::deserialize).toList();
+            String summary = summarizer.summarize(messages);
+            Message summaryMessage = new AssistantMessage(SUMMARY_PREFIX + summary, Map.of(SUMMARY_METADATA_KEY, true));
+            if (!delegate.replacePrefix(conversationId, records, summaryMessage)) {
+                log.debug("会话 {} 在生成摘要期间发生变化，放弃本次摘要", conversationId);
+                return false;
+            }
+            long folded = total - kept;
+            int summarized = MessageTokenCounter.count(summaryMessage);
+            summaries.incrementAndGet();
+            foldedMessages.addAndGet(fold);
+            foldedTokens.addAndGet(folded);
+            summaryTokens.addAndGet(summarized);
+            log.info("会话 {} 的 {} 条较早消息（{} tokens）已压缩为摘要（{} tokens）",
+                    conversationId, fold, folded, summarized);
+            listeners.forEach(listener -> listener.accept(conversationId));
+            return true;
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.warn("生成会话摘要失败: {}", conversationId, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.xinwei.aiagent.chatmemory;
+
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 支持按 token 预算读取历史的对话记忆
+ *
+ * 实现类在写入消息时计算一次 token 数并与消息一起保存，按预算读取时只累加保存好的计数。
+ */
+public interface TokenBudgetChatMemory extends ChatMemory {
+
+    /**
+     * 写入已经计算好 token 数的消息，不再重复计数
+     */
+    void addWithTokenCounts(String conversationId, List<TokenCountedMessage> messages);
+
+    /**
+     * 返回总 token 数不超过 maxTokens 的最长历史后缀（按时间顺序）
+     * @param conversationId 会话 ID
+     * @param maxTokens token 预算
+     */
+    List<Message> getWithinTokenBudget(String conversationId, int maxTokens);
+
+    /**
+     * 返回最后 lastN 条消息及其保存的 token 数
+     */
+    List<TokenCountedMessage> getWithTokenCounts(String conversationId, int lastN);
+}
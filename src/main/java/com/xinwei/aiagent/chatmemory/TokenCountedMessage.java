@@ -0,0 +1,11 @@
+package com.xinwei.aiagent.chatmemory;
+
+import org.springframework.ai.chat.messages.Message;
+
+/**
+ * 消息及其写入时计算好的 token 数
+ * @param message 消息
+ * @param tokens MessageTokenCounter 估算的 token 数
+ */
+public record TokenCountedMessage(Message message, int tokens) {
+}
@@ -0,0 +1,125 @@
+package com.xinwei.aiagent.config;
+
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+
+/**
+ * 识别发起智能体运行的租户（用户），智能体执行器按租户排队和限流
+ *
+ * 应用没有登录，租户由服务端签发：请求没有有效的租户 Cookie 时生成一个随机 ID，连同 HMAC 签名写入 HttpOnly Cookie，
+ * 之后带回该 Cookie 的请求属于同一租户。签名保证客户端不能自己编造或猜测别人的租户 ID 去占用别人的排队名额；
+ * 信任边界是 Cookie 本身——拿到别人 Cookie 的客户端可以冒用，丢弃 Cookie 的客户端会得到一个新租户，
+ * 所以单个租户的上限只约束正常使用的浏览器，全站的上限仍由 agent.executor.max-concurrent-runs 保证。
+ * 不使用客户端地址：服务部署在 CloudBase 云托管和前端 nginx 的代理之后，所有用户的地址相同。
+ *
+ * 部署在已认证的网关之后时可以配置 agent.tenant.trusted-header，直接使用网关写入的用户标识。
+ * 网关必须覆盖该请求头，否则客户端可以自带任意值；未配置时忽略所有请求头。
+ * 多个实例之间需要配置相同的 agent.tenant.secret，未配置时每次启动随机生成，重启后已签发的 Cookie 失效（重新签发）。
+ */
+@Component
+@Slf4j
+public class TenantResolver {
+
+    static final String COOKIE = "agent_tenant";
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Duration MAX_AGE = Duration.ofDays(365);
+
+    private final SecretKeySpec key;
+    private final String trustedHeader;
+    private final boolean secureCookie;
+
+    /**
+     * @param secret 签名密钥，为空时随机生成
+     * @param trustedHeader 由网关写入的用户标识请求头，为空时不读取请求头
+     * @param secureCookie Cookie 是否只通过 HTTPS 发送；前端与后端跨站部署时需要开启（同时设置 SameSite=None）
+     */
+    public TenantResolver(@Value("${agent.tenant.secret:}") String secret,
+                          @Value("${agent.tenant.trusted-header:}") String trustedHeader,
+                          @Value("${agent.tenant.secure-cookie:false}") boolean secureCookie) {
+        byte[] keyBytes;
+        if (StrUtil.isBlank(secret)) {
+            log.info("未配置 agent.tenant.secret，使用随机密钥签发租户 Cookie");
+            keyBytes = RandomUtil.randomBytes(32);
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.trustedHeader = trustedHeader;
+        this.secureCookie = secureCookie;
+    }
+
+    /**
+     * 请求所属的租户；没有有效的租户 Cookie 时签发一个新的，写入响应
+     */
+    public String resolve(HttpServletRequest request, HttpServletResponse response) {
+        if (StrUtil.isNotBlank(trustedHeader)) {
+            String user = request.getHeader(trustedHeader);
+            if (StrUtil.isNotBlank(user)) {
+                return "user:" + user;
+            }
+        }
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (COOKIE.equals(cookie.getName())) {
+                    String tenant = verify(cookie.getValue());
+                    if (tenant != null) {
+                        return tenant;
+                    }
+                }
+            }
+        }
+        String tenant = IdUtil.fastSimpleUUID();
+        ResponseCookie cookie = ResponseCookie.from(COOKIE, tenant + "." + sign(tenant))
+                .httpOnly(true)
+                .secure(secureCookie)
+                .sameSite(secureCookie ? "None" : "Lax")
+                .path("/")
+                .maxAge(MAX_AGE)
+                .build();
+        response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+        return tenant;
+    }
+
+    /**
+     * 校验 Cookie 的签名，返回其中的租户 ID，无效时返回 null
+     */
+    private String verify(String value) {
+        int separator = value == null ? -1 : value.lastIndexOf('.');
+        if (separator <= 0) {
+            return null;
+        }
+        String tenant = value.substring(0, separator);
+        byte[] expected = sign(tenant).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = value.substring(separator + 1).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, actual) ? tenant : null;
+    }
+
+    private String sign(String tenant) {
+        try {
+            // Mac 不是线程安全的，每次新建
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return HexUtil.encodeHexStr(mac.doFinal(tenant.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("租户签名失败", e);
+        }
+    }
+}
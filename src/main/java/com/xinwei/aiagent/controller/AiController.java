@@ -1,10 +1,14 @@
 package com.xinwei.aiagent.controller;
 
 import com.xinwei.aiagent.agent.model.Manus;
+import com.xinwei.aiagent.agent.model.ManusFactory;
+import com.xinwei.aiagent.agent.model.PlanExecuteAgent;
 import com.xinwei.aiagent.app.LoveApp;
+import com.xinwei.aiagent.config.TenantResolver;
+import com.xinwei.aiagent.tools.ToolResultCache;
 import jakarta.annotation.Resource;
-import org.springframework.ai.chat.model.ChatModel;
-import org.springframework.ai.tool.ToolCallback;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -14,6 +18,7 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import reactor.core.publisher.Flux;
 
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * AI 相关接口控制器，提供与 AI 应用交互的 REST API。
@@ -28,10 +33,13 @@ public class AiController {
     private LoveApp loveApp;
 
     @Resource
-    private ToolCallback[] allTools;
+    private ManusFactory manusFactory;
 
     @Resource
-    private ChatModel dashscopeChatModel;
+    private ToolResultCache toolResultCache;
+
+    @Resource
+    private TenantResolver tenantResolver;
 
     /**
      * 同步调用 AI 应用
@@ -97,15 +105,55 @@ public class AiController {
 
     /**
      * 流式调用 Manus 超级智能体
+     * 运行按用户排队：用户由服务端签发的租户 Cookie 标识（见 TenantResolver）；需要排队时先收到 queued 事件（排队位置）
      *
      * @param message
      * @return
      */
     @GetMapping("/manus/chat")
-    public SseEmitter doChatWithManus(String message) {
-        Manus Manus = new Manus(allTools, dashscopeChatModel);
+    public SseEmitter doChatWithManus(String message,
+                                      HttpServletRequest request, HttpServletResponse response) {
+        // 每次请求一个新的智能体，客户端和工具等不可变部分由工厂共享
+        Manus Manus = manusFactory.create();
+        Manus.setTenant(tenantResolver.resolve(request, response));
         return Manus.runStream(message);
     }
 
+    /**
+     * 从检查点恢复中断的 Manus 运行，从最后完成的一步之后继续
+     *
+     * @param runId 运行 ID，来自 /manus/chat 返回的 run 事件
+     * @return
+     */
+    @GetMapping("/manus/resume")
+    public SseEmitter resumeManus(String runId,
+                                  HttpServletRequest request, HttpServletResponse response) {
+        Manus manus = manusFactory.create();
+        manus.setTenant(tenantResolver.resolve(request, response));
+        return manus.resumeStream(runId);
+    }
+
+    /**
+     * 先规划再执行：把任务拆成子任务的依赖图，相互独立的子任务并发执行
+     *
+     * @param message
+     * @return
+     */
+    @GetMapping("/manus/plan_chat")
+    public SseEmitter doPlanChatWithManus(String message,
+                                          HttpServletRequest request, HttpServletResponse response) {
+        PlanExecuteAgent planner = manusFactory.createPlanner();
+        planner.setTenant(tenantResolver.resolve(request, response));
+        return planner.runStream(message);
+    }
+
+    /**
+     * 各工具调用结果缓存的命中次数、未命中次数和命中率
+     */
+    @GetMapping("/tools/cache_stats")
+    public Map<String, ToolResultCache.Stats> toolCacheStats() {
+        return toolResultCache.stats();
+    }
+
 
 }
@@ -0,0 +1,105 @@
+package com.xinwei.aiagent.controller;
+
+import com.xinwei.aiagent.batch.BatchJob;
+import com.xinwei.aiagent.batch.BatchJobService;
+import jakarta.annotation.Resource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 批量执行接口：提交任务文件（JSONL，每行一个提示词），查询进度和吞吐量，取消、续跑，下载结果
+ */
+@RestController
+@RequestMapping("/ai/batch")
+public class BatchController {
+
+    @Resource
+    private BatchJobService batchJobService;
+
+    /**
+     * 提交批量任务
+     *
+     * @param file 任务文件，每行为纯文本提示词或 {"id", "prompt", "target", "chatId"}
+     * @param target 没有指定 target 的行的执行方式：manus 或 love_app
+     * @return 任务进度，jobId 用于后续查询
+     */
+    @PostMapping(value = "/jobs", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public BatchJob.Progress submit(@RequestParam("file") MultipartFile file,
+                                    @RequestParam(defaultValue = "manus") String target) throws IOException {
+        try (InputStream input = file.getInputStream()) {
+            return batchJobService.submit(input, target).progress();
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * 任务进度：已完成、失败、正在执行的行数，本次运行的吞吐量（行/分钟）和平均耗时
+     */
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<BatchJob.Progress> progress(@PathVariable String jobId) throws IOException {
+        try {
+            return ResponseEntity.of(batchJobService.progress(jobId));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * 续跑中断、取消或失败的任务，已写入结果的行不再执行
+     */
+    @PostMapping("/jobs/{jobId}/resume")
+    public BatchJob.Progress resume(@PathVariable String jobId) throws IOException {
+        try {
+            return batchJobService.resume(jobId).progress();
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+
+    /**
+     * 取消任务，正在执行的行执行完后停止
+     *
+     * @return 任务是否正在运行
+     */
+    @PostMapping("/jobs/{jobId}/cancel")
+    public boolean cancel(@PathVariable String jobId) {
+        return batchJobService.cancel(jobId);
+    }
+
+    /**
+     * 下载结果（JSONL），任务运行中也可以下载已完成的部分
+     */
+    @GetMapping("/jobs/{jobId}/output")
+    public ResponseEntity<FileSystemResource> output(@PathVariable String jobId) {
+        Path output;
+        try {
+            output = batchJobService.output(jobId).orElse(null);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        if (output == null || !Files.exists(output)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(new FileSystemResource(output));
+    }
+}
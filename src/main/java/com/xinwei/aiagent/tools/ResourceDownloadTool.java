@@ -1,6 +1,8 @@
 package com.xinwei.aiagent.tools;
 
 import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.io.StreamProgress;
 import cn.hutool.http.HttpUtil;
 import com.xinwei.aiagent.constant.FileConstant;
 import org.springframework.ai.tool.annotation.Tool;
@@ -20,10 +22,29 @@ public class ResourceDownloadTool {
         try {
             // 创建目录
             FileUtil.mkdir(fileDir);
-            // 使用 Hutool 的 downloadFile 方法下载资源
-            HttpUtil.downloadFile(url, new File(filePath));
+            // 使用 Hutool 的 downloadFile 方法下载资源，每写入一块检查一次中断，智能体取消运行时停止下载
+            HttpUtil.downloadFile(url, new File(filePath), new StreamProgress() {
+                @Override
+                public void start() {
+                }
+
+                @Override
+                public void progress(long total, long progressSize) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new IORuntimeException("download cancelled");
+                    }
+                }
+
+                @Override
+                public void finish() {
+                }
+            });
             return "Resource downloaded successfully to: " + filePath;
         } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // 取消时删除下载了一半的文件
+                FileUtil.del(filePath);
+            }
             return "Error downloading resource: " + e.getMessage();
         }
     }
@@ -20,18 +20,34 @@ public class TerminalOperationTool {
             ProcessBuilder builder = new ProcessBuilder("cmd.exe", "/c", command);
 //            Process process = Runtime.getRuntime().exec(command);
             Process process = builder.start(); // 启动进程
-            // 读取进程输出
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
+            // 在单独的虚拟线程中读取进程输出，当前线程等待进程结束，这样智能体取消运行时可以通过中断及时结束进程
+            Thread reader = Thread.ofVirtual().start(() -> {
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        synchronized (output) {
+                            output.append(line).append("\n");
+                        }
+                    }
+                } catch (IOException e) {
+                    // 进程被强制结束时管道关闭，忽略
+                }
+            });
+            int exitCode;
+            try {
+                exitCode = process.waitFor();
+                reader.join();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+                synchronized (output) {
+                    return output.append("Command cancelled").toString();
                 }
             }
-            int exitCode = process.waitFor();
             if (exitCode != 0) {
                 output.append("Command execution failed with exit code: ").append(exitCode);
             }
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
             output.append("Error executing command: ").append(e.getMessage());
         }
         return output.toString();
@@ -1,12 +1,24 @@
 package com.xinwei.aiagent.tools;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.tool.ToolCallbacks;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * 工具注册类，负责将所有工具注册到Spring容器中，以便AI Agent能够使用这些工具。
+ * tool-cache.enabled 开启时，除 tool-cache.excluded-tools 以外的工具由 ToolResultCache 缓存调用结果。
+ * 工具定义在这里由 ToolSchemas 解析一次，allTools 中的工具直接返回解析好的定义，智能体和 LoveApp 共享。
  */
 @Configuration
 public class ToolRegistration {
@@ -14,8 +26,48 @@ public class ToolRegistration {
     @Value("${search-api.api-key}")
     private String searchApiKey;
 
+    @Value("${tool-cache.enabled:true}")
+    private boolean toolCacheEnabled;
+
+    @Value("${tool-cache.default-ttl:5m}")
+    private Duration toolCacheDefaultTtl;
+
+    // 按工具指定的 TTL，格式为 工具名=时长
+    @Value("${tool-cache.ttls:searchWeb=10m,scrapeWebPage=30m}")
+    private String[] toolCacheTtls;
+
+    // 有副作用或结果依赖本地状态的工具不缓存；downloadResource 的结果指向本地文件，文件可能已被删除
+    @Value("${tool-cache.excluded-tools:executeTerminalCommand,writeFile,readFile,generatePDF,downloadResource,doTerminate}")
+    private String[] toolCacheExcludedTools;
+
+    @Value("${tool-cache.max-entries-per-tool:500}")
+    private int toolCacheMaxEntries;
+
+    @Value("${tool-cache.max-result-chars:200000}")
+    private int toolCacheMaxResultChars;
+
+    @Bean
+    public ToolResultCache toolResultCache(ObjectProvider<MeterRegistry> meterRegistry) {
+        Map<String, Duration> ttls = new HashMap<>();
+        for (String entry : toolCacheTtls) {
+            String[] parts = entry.split("=", 2);
+            if (parts.length == 2) {
+                ttls.put(parts[0].trim(), DurationStyle.detectAndParse(parts[1].trim()));
+            }
+        }
+        ToolResultCache cache = new ToolResultCache(toolCacheDefaultTtl, ttls, Set.copyOf(Arrays.asList(toolCacheExcludedTools)),
+                toolCacheMaxEntries, toolCacheMaxResultChars);
+        meterRegistry.ifAvailable(cache::bindTo);
+        return cache;
+    }
+
+    @Bean
+    public ToolCallback[] allTools(ToolSchemas toolSchemas) {
+        return toolSchemas.toArray();
+    }
+
     @Bean
-    public ToolCallback[] allTools() {
+    public ToolSchemas toolSchemas(ToolResultCache toolResultCache) {
         FileOperationTool fileOperationTool = new FileOperationTool();
         WebSearchTool webSearchTool = new WebSearchTool(searchApiKey);
         WebScrapingTool webScrapingTool = new WebScrapingTool();
@@ -23,7 +75,7 @@ public class ToolRegistration {
         TerminalOperationTool terminalOperationTool = new TerminalOperationTool();
         PDFGenerationTool pdfGenerationTool = new PDFGenerationTool();
         TerminateTool terminateTool = new TerminateTool();
-        return ToolCallbacks.from(
+        ToolCallback[] tools = ToolCallbacks.from(
             fileOperationTool,
             webSearchTool,
             webScrapingTool,
@@ -32,5 +84,6 @@ public class ToolRegistration {
             pdfGenerationTool,
             terminateTool
         );
+        return ToolSchemas.of(toolCacheEnabled ? toolResultCache.wrap(tools) : tools);
     }
 }
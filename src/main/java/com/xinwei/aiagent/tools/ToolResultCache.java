@@ -0,0 +1,288 @@
+package com.xinwei.aiagent.tools;
+
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONNull;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 工具调用结果缓存
+ *
+ * 智能体在一次运行内、以及不同运行之间经常用相同的参数调用搜索、网页抓取和下载工具。
+ * wrap 把可缓存的工具包装一层：以工具名 + 规范化后的参数（JSON 键排序、字符串去掉首尾空白）为键，
+ * 在 TTL 内直接返回上次的结果；每个工具一个有上限的 LRU 缓存，TTL 从写入时开始计算，读取不续期。
+ * 同一参数的并发调用只执行一次，其余调用等待并共享结果，这类调用单独计为 coalesced，不算作命中。
+ *
+ * 有副作用或结果依赖外部状态的工具（执行命令、写文件等）通过 excludedTools 排除，不做包装；
+ * 工具返回的错误（以 "Error" 开头，包括 MethodToolCallback 转成 JSON 字符串后带引号的形式）和超过 maxResultChars 的结果不缓存。
+ */
+public class ToolResultCache {
+
+    private final Duration defaultTtl;
+    private final Map<String, Duration> toolTtls;
+    private final Set<String> excludedTools;
+    private final int maxEntriesPerTool;
+    private final int maxResultChars;
+    private final Map<String, ToolCache> caches = new ConcurrentHashMap<>();
+    private volatile MeterRegistry registry;
+
+    /**
+     * @param defaultTtl 未单独配置的工具使用的 TTL
+     * @param toolTtls 按工具名指定的 TTL，为 0 时该工具不缓存
+     * @param excludedTools 不缓存的工具
+     * @param maxEntriesPerTool 每个工具最多缓存的结果数，超出时淘汰最久未使用的
+     * @param maxResultChars 超过该长度的结果不缓存
+     */
+    public ToolResultCache(Duration defaultTtl, Map<String, Duration> toolTtls, Set<String> excludedTools,
+                           int maxEntriesPerTool, int maxResultChars) {
+        this.defaultTtl = defaultTtl;
+        this.toolTtls = Map.copyOf(toolTtls);
+        this.excludedTools = Set.copyOf(excludedTools);
+        this.maxEntriesPerTool = maxEntriesPerTool;
+        this.maxResultChars = maxResultChars;
+    }
+
+    /**
+     * 包装可缓存的工具，被排除的工具原样返回
+     */
+    public ToolCallback[] wrap(ToolCallback[] tools) {
+        ToolCallback[] wrapped = new ToolCallback[tools.length];
+        for (int i = 0; i < tools.length; i++) {
+            String name = tools[i].getToolDefinition().name();
+            Duration ttl = toolTtls.getOrDefault(name, defaultTtl);
+            if (excludedTools.contains(name) || ttl.isZero() || ttl.isNegative()) {
+                wrapped[i] = tools[i];
+            } else {
+                wrapped[i] = new CachingToolCallback(tools[i], caches.computeIfAbsent(name, key -> newCache(key, ttl)));
+            }
+        }
+        return wrapped;
+    }
+
+    /**
+     * 各工具的命中情况，键为工具名
+     */
+    public Map<String, Stats> stats() {
+        Map<String, Stats> stats = new TreeMap<>();
+        caches.forEach((name, cache) -> stats.put(name, cache.stats()));
+        return stats;
+    }
+
+    /**
+     * 注册每个工具的 agent.tool.cache.requests 计数（result=hit/coalesced/miss）和 agent.tool.cache.hit.ratio
+     */
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        caches.forEach((name, cache) -> register(registry, name, cache));
+    }
+
+    private ToolCache newCache(String name, Duration ttl) {
+        ToolCache cache = new ToolCache(new LRUCache<>(maxEntriesPerTool, ttl.toMillis()));
+        MeterRegistry current = registry;
+        if (current != null) {
+            register(current, name, cache);
+        }
+        return cache;
+    }
+
+    private static void register(MeterRegistry registry, String name, ToolCache cache) {
+        FunctionCounter.builder("agent.tool.cache.requests", cache.hits, LongAdder::sum)
+                .tags("tool", name, "result", "hit")
+                .description("工具调用命中缓存的次数")
+                .register(registry);
+        FunctionCounter.builder("agent.tool.cache.requests", cache.coalesced, LongAdder::sum)
+                .tags("tool", name, "result", "coalesced")
+                .description("工具调用等待相同参数的进行中调用并共享结果的次数")
+                .register(registry);
+        FunctionCounter.builder("agent.tool.cache.requests", cache.misses, LongAdder::sum)
+                .tags("tool", name, "result", "miss")
+                .description("工具调用未命中缓存的次数")
+                .register(registry);
+        Gauge.builder("agent.tool.cache.hit.ratio", cache, c -> c.stats().hitRatio())
+                .tag("tool", name)
+                .description("工具调用的缓存命中率")
+                .register(registry);
+    }
+
+    /**
+     * 参数规范化：能解析为 JSON 时按键排序、去掉字符串首尾空白后输出紧凑 JSON，否则只去掉首尾空白
+     */
+    public static String normalizeArguments(String arguments) {
+        if (arguments == null) {
+            return "";
+        }
+        String trimmed = arguments.trim();
+        if (!JSONUtil.isTypeJSON(trimmed)) {
+            return trimmed;
+        }
+        try {
+            StringBuilder builder = new StringBuilder(trimmed.length());
+            appendCanonical(builder, JSONUtil.parse(trimmed));
+            return builder.toString();
+        } catch (RuntimeException e) {
+            return trimmed;
+        }
+    }
+
+    private static void appendCanonical(StringBuilder builder, Object value) {
+        if (value instanceof JSONObject object) {
+            builder.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Object> entry : new TreeMap<>(object).entrySet()) {
+                if (!first) {
+                    builder.append(',');
+                }
+                first = false;
+                builder.append(JSONUtil.quote(entry.getKey())).append(':');
+                appendCanonical(builder, entry.getValue());
+            }
+            builder.append('}');
+        } else if (value instanceof JSONArray array) {
+            builder.append('[');
+            for (int i = 0; i < array.size(); i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                appendCanonical(builder, array.get(i));
+            }
+            builder.append(']');
+        } else if (value instanceof CharSequence text) {
+            builder.append(JSONUtil.quote(text.toString().trim()));
+        } else if (value == null || value instanceof JSONNull) {
+            builder.append("null");
+        } else {
+            builder.append(value);
+        }
+    }
+
+    /**
+     * 工具是否返回了错误：工具方法以 "Error" 开头的字符串报告失败，
+     * 经 ToolCallbacks.from 包装的工具会把返回值序列化为 JSON，字符串结果带有引号
+     */
+    static boolean isError(String result) {
+        return result.startsWith("Error") || result.startsWith("\"Error");
+    }
+
+    /**
+     * 一个工具的命中统计
+     * @param coalesced 等待相同参数的进行中调用、共享其结果的次数
+     * @param hitRatio 命中缓存的调用占全部调用的比例
+     */
+    public record Stats(long hits, long coalesced, long misses, int size, double hitRatio) {
+
+        static Stats of(long hits, long coalesced, long misses, int size) {
+            long total = hits + coalesced + misses;
+            return new Stats(hits, coalesced, misses, size, total == 0 ? 0 : (double) hits / total);
+        }
+    }
+
+    private static final class ToolCache {
+
+        private final LRUCache<String, String> entries;
+        // 正在执行的调用，相同参数的并发调用等待它的结果
+        private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder coalesced = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        private ToolCache(LRUCache<String, String> entries) {
+            this.entries = entries;
+        }
+
+        private Stats stats() {
+            return Stats.of(hits.sum(), coalesced.sum(), misses.sum(), entries.size());
+        }
+    }
+
+    private final class CachingToolCallback implements ToolCallback {
+
+        private final ToolCallback delegate;
+        private final ToolCache cache;
+
+        private CachingToolCallback(ToolCallback delegate, ToolCache cache) {
+            this.delegate = delegate;
+            this.cache = cache;
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return delegate.getToolDefinition();
+        }
+
+        @Override
+        public ToolMetadata getToolMetadata() {
+            return delegate.getToolMetadata();
+        }
+
+        @Override
+        public String call(String toolInput, ToolContext toolContext) {
+            if (toolContext != null && !toolContext.getContext().isEmpty()) {
+                // 结果可能依赖上下文，不走缓存
+                return delegate.call(toolInput, toolContext);
+            }
+            return call(toolInput);
+        }
+
+        @Override
+        public String call(String toolInput) {
+            String key = normalizeArguments(toolInput);
+            // 读取不刷新访问时间，TTL 从写入时计算
+            String cached = cache.entries.get(key, false);
+            if (cached != null) {
+                cache.hits.increment();
+                return cached;
+            }
+            CompletableFuture<String> pending = new CompletableFuture<>();
+            CompletableFuture<String> running = cache.inFlight.putIfAbsent(key, pending);
+            if (running != null) {
+                cache.coalesced.increment();
+                return await(running);
+            }
+            cache.misses.increment();
+            try {
+                String result = delegate.call(toolInput);
+                if (result != null && !isError(result) && result.length() <= maxResultChars) {
+                    cache.entries.put(key, result);
+                }
+                pending.complete(result);
+                return result;
+            } catch (RuntimeException e) {
+                pending.completeExceptionally(e);
+                throw e;
+            } finally {
+                cache.inFlight.remove(key, pending);
+            }
+        }
+
+        private String await(CompletableFuture<String> running) {
+            try {
+                return running.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待相同参数的工具调用时被中断", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.xinwei.aiagent.tools;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONConfig;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+import org.springframework.ai.tool.util.ToolUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 启动时解析好的工具定义
+ *
+ * 智能体每一步、LoveApp 每次带工具的对话都要把全部工具交给 ChatClient，模型实现再逐个读取名称、描述和 JSON Schema 组装请求；
+ * 工具经过结果缓存等包装后，每次读取都要逐层转发到原工具。这里在启动时把每个工具的定义解析一次：
+ * 校验 Schema 是合法的 JSON、工具名不重复，把名称、描述和 Schema 字符串固定为不可变的 ToolDefinition，
+ * 工具包装为直接返回这些值的 ToolCallback（调用仍交给原工具）。所有智能体和 LoveApp 共享同一份不可变列表，
+ * 传给 ChatClient 时也不再需要每次复制数组。
+ *
+ * 全部工具定义拼成的 JSON（[{name, description, parameters}]，UTF-8）也只生成一次，
+ * 用于查看和估算工具定义在每次请求中占用的大小。
+ */
+public final class ToolSchemas {
+
+    private final List<ToolCallback> callbacks;
+    private final Map<String, ToolCallback> byName;
+    private final byte[] definitionsJson;
+
+    private ToolSchemas(List<ToolCallback> callbacks, byte[] definitionsJson) {
+        this.callbacks = callbacks;
+        Map<String, ToolCallback> names = new LinkedHashMap<>();
+        callbacks.forEach(callback -> names.put(callback.getName(), callback));
+        this.byName = Map.copyOf(names);
+        this.definitionsJson = definitionsJson;
+    }
+
+    /**
+     * 解析工具定义
+     *
+     * @throws IllegalStateException 工具名重复或 Schema 不是合法的 JSON 对象
+     */
+    public static ToolSchemas of(ToolCallback... tools) {
+        List<String> duplicates = ToolUtils.getDuplicateToolNames(tools);
+        if (!duplicates.isEmpty()) {
+            throw new IllegalStateException("工具名重复: " + duplicates);
+        }
+        JSONConfig ordered = JSONConfig.create().setOrder(true);
+        JSONArray definitions = new JSONArray(ordered);
+        ToolCallback[] precomputed = new ToolCallback[tools.length];
+        for (int i = 0; i < tools.length; i++) {
+            ToolDefinition definition = tools[i].getToolDefinition();
+            JSONObject schema;
+            try {
+                schema = JSONUtil.parseObj(definition.inputSchema(), ordered);
+            } catch (RuntimeException e) {
+                throw new IllegalStateException("工具 " + definition.name() + " 的 JSON Schema 无效", e);
+            }
+            precomputed[i] = new PrecomputedToolCallback(tools[i], ToolDefinition.builder()
+                    .name(definition.name())
+                    .description(definition.description())
+                    .inputSchema(definition.inputSchema())
+                    .build(), tools[i].getToolMetadata());
+            definitions.add(new JSONObject(ordered)
+                    .set("name", definition.name())
+                    .set("description", definition.description())
+                    .set("parameters", schema));
+        }
+        return new ToolSchemas(List.of(precomputed), definitions.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 共享的不可变工具列表
+     */
+    public List<ToolCallback> callbacks() {
+        return callbacks;
+    }
+
+    /**
+     * 工具数组，每次返回新数组，元素是共享的
+     */
+    public ToolCallback[] toArray() {
+        return callbacks.toArray(ToolCallback[]::new);
+    }
+
+    /**
+     * 工具的 JSON Schema，工具不存在时返回 null
+     */
+    public String schema(String toolName) {
+        ToolCallback callback = byName.get(toolName);
+        return callback == null ? null : callback.getToolDefinition().inputSchema();
+    }
+
+    /**
+     * 全部工具定义的 JSON（UTF-8），只读
+     */
+    public ByteBuffer definitionsJson() {
+        return ByteBuffer.wrap(definitionsJson).asReadOnlyBuffer();
+    }
+
+    @Override
+    public String toString() {
+        return "ToolSchemas" + Arrays.toString(byName.keySet().toArray()) + " (" + definitionsJson.length + " bytes)";
+    }
+
+    private static final class PrecomputedToolCallback implements ToolCallback {
+
+        private final ToolCallback delegate;
+        private final ToolDefinition toolDefinition;
+        private final ToolMetadata toolMetadata;
+
+        private PrecomputedToolCallback(ToolCallback delegate, ToolDefinition toolDefinition, ToolMetadata toolMetadata) {
+            this.delegate = delegate;
+            this.toolDefinition = toolDefinition;
+            this.toolMetadata = toolMetadata;
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return toolDefinition;
+        }
+
+        @Override
+        public ToolMetadata getToolMetadata() {
+            return toolMetadata;
+        }
+
+        @Override
+        public String getName() {
+            return toolDefinition.name();
+        }
+
+        @Override
+        public String getDescription() {
+            return toolDefinition.description();
+        }
+
+        @Override
+        public String getInputTypeSchema() {
+            return toolDefinition.inputSchema();
+        }
+
+        @Override
+        public String call(String toolInput) {
+            return delegate.call(toolInput);
+        }
+
+        @Override
+        public String call(String toolInput, ToolContext toolContext) {
+            return delegate.call(toolInput, toolContext);
+        }
+    }
+}
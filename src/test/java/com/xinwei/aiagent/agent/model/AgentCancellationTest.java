@@ -0,0 +1,73 @@
+package com.xinwei.aiagent.agent.model;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.tool.ToolCallback;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AgentCancellationTest {
+
+    @Test
+    void noModelCallsAfterCancelAndRunningToolIsInterrupted() throws Exception {
+        // 模型每一步都要求调用一个耗时 10 秒的工具
+        AtomicInteger modelCalls = new AtomicInteger();
+        // runStream 使用流式调用
+        ChatModel chatModel = new ChatModel() {
+            @Override
+            public ChatResponse call(Prompt prompt) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Flux<ChatResponse> stream(Prompt prompt) {
+                modelCalls.incrementAndGet();
+                return Flux.just(new ChatResponse(List.of(new Generation(new AssistantMessage("", Map.of(),
+                        List.of(new AssistantMessage.ToolCall("call-" + modelCalls.get(), "function", "slowTool", "{}")))))));
+            }
+        };
+        StubToolCallback slowTool = new StubToolCallback("slowTool", 10_000, "done");
+        CountDownLatch finished = new CountDownLatch(1);
+        ToolCallAgent agent = new ToolCallAgent(new ToolCallback[]{slowTool}) {
+            @Override
+            protected void cleanup() {
+                finished.countDown();
+            }
+        };
+        agent.setName("test");
+        agent.setSystemPrompt("你是一个测试智能体");
+        agent.setMaxSteps(20);
+        agent.setChatClient(ChatClient.builder(chatModel).build());
+
+        try (AgentRunExecutor executor = new AgentRunExecutor(1, 1, true)) {
+            agent.setRunExecutor(executor);
+            agent.runStream("帮我下载一个文件");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (slowTool.maxRunning() == 0) {
+                assertTrue(System.nanoTime() < deadline, "tool not started");
+                Thread.sleep(10);
+            }
+
+            // SSE 连接完成、超时或出错时的回调都会调用 cancel
+            agent.cancel();
+
+            // 工具被中断，运行在远小于 10 秒内结束
+            assertTrue(finished.await(2, TimeUnit.SECONDS));
+            Thread.sleep(200);
+            assertEquals(1, modelCalls.get());
+            assertEquals(1, agent.getCurrentStep());
+        }
+    }
+}
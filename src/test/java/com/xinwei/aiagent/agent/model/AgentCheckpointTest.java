@@ -0,0 +1,307 @@
+package com.xinwei.aiagent.agent.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+class AgentCheckpointTest {
+
+    @TempDir
+    Path dir;
+
+    private static AssistantMessage toolCall(String id, String name) {
+        return new AssistantMessage("", Map.of(), List.of(new AssistantMessage.ToolCall(id, "function", name, "{}")));
+    }
+
+    private static ToolResponseMessage toolResponse(String id, String name, String data) {
+        return new ToolResponseMessage(List.of(new ToolResponseMessage.ToolResponse(id, name, data)), Map.of());
+    }
+
+    private long fileSize() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    @Test
+    void appendsOnlyTheStepDeltaAndReplays() throws IOException {
+        AgentCheckpointStore store = new AgentCheckpointStore(dir, false);
+        String runId = AgentCheckpointStore.newRunId();
+        String bigResult = "网页内容".repeat(2000);
+        store.append(runId, null, 0, AgentState.RUNNING, 0, List.of(new UserMessage("帮我找约会地点")));
+        long previous = fileSize();
+        List<Long> stepBytes = new ArrayList<>();
+        for (int step = 1; step <= 5; step++) {
+            // 每一步新增一条工具调用和一条工具返回
+            store.append(runId, null, step, AgentState.RUNNING, 2 * step - 1,
+                    List.of(toolCall("call-" + step, "scrapeWebPage"), toolResponse("call-" + step, "scrapeWebPage", bigResult)));
+            long size = fileSize();
+            stepBytes.add(size - previous);
+            previous = size;
+        }
+        // 每一步写入的字节数与历史长度无关
+        assertEquals(1, stepBytes.stream().distinct().count(), stepBytes.toString());
+
+        AgentCheckpoint checkpoint = store.load(runId).orElseThrow();
+        assertEquals(5, checkpoint.step());
+        assertEquals(AgentState.RUNNING, checkpoint.state());
+        assertEquals(11, checkpoint.messages().size());
+        assertEquals("帮我找约会地点", checkpoint.messages().get(0).getText());
+        assertEquals(bigResult, ((ToolResponseMessage) checkpoint.messages().get(10)).getResponses().get(0).responseData());
+
+        // 起始下标小于已有消息数：之后的消息被替换
+        store.append(runId, null, 6, AgentState.FINISHED, 1, List.of(new AssistantMessage("重新规划")));
+        checkpoint = store.load(runId).orElseThrow();
+        assertEquals(AgentState.FINISHED, checkpoint.state());
+        assertEquals(List.of("帮我找约会地点", "重新规划"), checkpoint.messages().stream().map(Message::getText).toList());
+
+        store.delete(runId);
+        assertTrue(store.load(runId).isEmpty());
+    }
+
+    @Test
+    void dropsTornTailRecord() throws IOException {
+        AgentCheckpointStore store = new AgentCheckpointStore(dir, false);
+        String runId = AgentCheckpointStore.newRunId();
+        store.append(runId, null, 1, AgentState.RUNNING, 0, List.of(new UserMessage("你好")));
+        store.append(runId, null, 2, AgentState.RUNNING, 1, List.of(new AssistantMessage("第二步")));
+        Path file;
+        try (Stream<Path> files = Files.walk(dir)) {
+            file = files.filter(Files::isRegularFile).findFirst().orElseThrow();
+        }
+        // 模拟写到一半时进程退出
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        AgentCheckpoint checkpoint = store.load(runId).orElseThrow();
+        assertEquals(1, checkpoint.step());
+        assertEquals(1, checkpoint.messages().size());
+        // 截断后的追加接在最后一条完整记录之后
+        store.append(runId, null, 2, AgentState.RUNNING, 1, List.of(new AssistantMessage("重做第二步")));
+        assertEquals("重做第二步", store.load(runId).orElseThrow().messages().get(1).getText());
+
+        assertFalse(store.claim("../etc/passwd"));
+        assertTrue(store.claim(runId));
+        assertFalse(store.claim(runId));
+        store.release(runId);
+    }
+
+    /**
+     * 第 3 步调用模型时运行中断（模拟 Pod 重启），从检查点恢复后从第 3 步继续：
+     * 前两步的模型调用和工具调用不再重复，恢复后的第一次请求带着前两步的完整上下文
+     */
+    @Test
+    void resumesFromLastCompletedStep() throws IOException {
+        AtomicInteger modelCalls = new AtomicInteger();
+        AtomicReference<BaseAgent> running = new AtomicReference<>();
+        AtomicReference<Prompt> firstResumedPrompt = new AtomicReference<>();
+        ChatModel chatModel = new ChatModel() {
+            @Override
+            public ChatResponse call(Prompt prompt) {
+                int call = modelCalls.incrementAndGet();
+                if (call == 3 && running.get() != null) {
+                    // 第一次运行死在第 3 步
+                    running.get().cancel();
+                } else if (call == 4) {
+                    firstResumedPrompt.set(prompt);
+                }
+                AssistantMessage message = call < 5
+                        ? toolCall("call-" + call, "searchWeb")
+                        : toolCall("call-" + call, "doTerminate");
+                return new ChatResponse(List.of(new Generation(message)));
+            }
+
+            @Override
+            public Flux<ChatResponse> stream(Prompt prompt) {
+                return Flux.just(call(prompt));
+            }
+        };
+        StubToolCallback search = new StubToolCallback("searchWeb", 0, "搜索结果");
+        ToolCallback[] tools = {search, new StubToolCallback("doTerminate", 0, "任务结束")};
+        AgentCheckpointStore store = new AgentCheckpointStore(dir, false);
+
+        String runId;
+        try (AgentRunExecutor runExecutor = new AgentRunExecutor(2, 10, true)) {
+            ManusFactory factory = new ManusFactory(tools, chatModel, runExecutor, AgentContextManager.FULL_HISTORY);
+            factory.setCheckpointStore(store);
+
+            Manus first = factory.create();
+            running.set(first);
+            first.run("帮我找约会地点");
+            runId = first.getRunId();
+            assertNotNull(runId);
+            assertEquals(3, modelCalls.get());
+            assertEquals(2, search.calls());
+            running.set(null);
+
+            AgentCheckpoint checkpoint = store.load(runId).orElseThrow();
+            assertEquals(2, checkpoint.step());
+            // 用户消息 + 两步各自的下一步提示词、工具调用和工具返回
+            assertEquals(7, checkpoint.messages().size());
+
+            Manus resumed = factory.create();
+            resumed.resumeStream(runId);
+            // close 等待已提交的运行结束
+            runExecutor.close();
+
+            assertEquals(AgentState.FINISHED, resumed.getState());
+            assertEquals(4, resumed.getCurrentStep());
+            assertEquals(runId, resumed.getRunId());
+        }
+        // 第 3、4 步各一次模型调用，只有第 3 步再调用一次搜索
+        assertEquals(5, modelCalls.get());
+        assertEquals(3, search.calls());
+        List<Message> resumedPrompt = firstResumedPrompt.get().getInstructions();
+        assertTrue(resumedPrompt.stream().anyMatch(message -> "帮我找约会地点".equals(message.getText())));
+        assertEquals(2, resumedPrompt.stream().filter(ToolResponseMessage.class::isInstance).count());
+        // 正常结束的运行删除检查点，不能再次恢复
+        assertTrue(store.load(runId).isEmpty());
+    }
+
+    @Test
+    void doesNotResumeRunOfAnotherTenant() throws IOException {
+        AgentCheckpointStore store = new AgentCheckpointStore(dir, false);
+        String runId = AgentCheckpointStore.newRunId();
+        store.append(runId, "alice", 1, AgentState.RUNNING, 0, List.of(new UserMessage("帮我找约会地点")));
+        assertEquals("alice", store.load(runId).orElseThrow().tenant());
+
+        ChatModel chatModel = prompt -> {
+            throw new UnsupportedOperationException();
+        };
+        ToolCallback[] tools = {new StubToolCallback("doTerminate", 0, "任务结束")};
+        Manus resumed;
+        try (AgentRunExecutor runExecutor = new AgentRunExecutor(2, 10, true)) {
+            ManusFactory factory = new ManusFactory(tools, chatModel, runExecutor, AgentContextManager.FULL_HISTORY);
+            factory.setCheckpointStore(store);
+            resumed = factory.create();
+            resumed.setTenant("bob");
+            resumed.resumeStream(runId);
+        }
+
+        assertEquals(AgentState.IDLE, resumed.getState());
+        assertEquals(0, resumed.getMessageList().size());
+        // 拒绝后释放占用，检查点保持不变，所属租户仍然可以恢复
+        assertTrue(store.claim(runId));
+        store.release(runId);
+        assertEquals(1, store.load(runId).orElseThrow().step());
+    }
+
+    @RestController
+    static class StreamController {
+
+        private final BaseAgent agent;
+
+        StreamController(BaseAgent agent) {
+            this.agent = agent;
+        }
+
+        @GetMapping("/run")
+        SseEmitter run() {
+            return agent.runStream("帮我找约会地点");
+        }
+    }
+
+    /**
+     * 通过 MVC 的异步请求流式运行：连接结束的回调（调用 cancel）在 emitter.complete() 内同步触发，
+     * 与容器在运行线程收尾之前完成请求的情况相同
+     *
+     * @param lastCall 第几次模型调用返回 doTerminate，0 表示一直调用搜索直到达到最大步数
+     */
+    private Manus streamToEnd(AgentCheckpointStore store, int lastCall) throws Exception {
+        CountDownLatch connected = new CountDownLatch(1);
+        AtomicInteger modelCalls = new AtomicInteger();
+        ChatModel chatModel = new ChatModel() {
+            @Override
+            public ChatResponse call(Prompt prompt) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Flux<ChatResponse> stream(Prompt prompt) {
+                try {
+                    connected.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                int call = modelCalls.incrementAndGet();
+                String tool = call == lastCall ? "doTerminate" : "searchWeb";
+                AssistantMessage message = new AssistantMessage("", Map.of(), List.of(
+                        new AssistantMessage.ToolCall("call-" + call, "function", tool, "{\"page\":" + call + "}")));
+                return Flux.just(new ChatResponse(List.of(new Generation(message))));
+            }
+        };
+        ToolCallback[] tools = {new StubToolCallback("searchWeb", 0, "搜索结果"),
+                new StubToolCallback("doTerminate", 0, "任务结束")};
+        Manus manus;
+        try (AgentRunExecutor runExecutor = new AgentRunExecutor(2, 10, true)) {
+            ManusFactory factory = new ManusFactory(tools, chatModel, runExecutor, AgentContextManager.FULL_HISTORY);
+            factory.setCheckpointStore(store);
+            manus = factory.create();
+            manus.setMaxSteps(3);
+            MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new StreamController(manus)).build();
+            MvcResult result = mockMvc.perform(get("/run")).andExpect(request().asyncStarted()).andReturn();
+            MockAsyncContext asyncContext = (MockAsyncContext) result.getRequest().getAsyncContext();
+            asyncContext.addDispatchHandler(asyncContext::complete);
+            connected.countDown();
+        }
+        // 连接结束的回调已经取消了智能体
+        assertTrue(manus.isCancelled());
+        assertTrue(manus.isCompleted());
+        return manus;
+    }
+
+    @Test
+    void streamedRunDeletesCheckpointWhenConnectionClosesFirst() throws Exception {
+        AgentCheckpointStore store = new AgentCheckpointStore(dir, false);
+        Manus manus = streamToEnd(store, 2);
+
+        assertEquals(AgentState.FINISHED, manus.getState());
+        assertEquals(2, manus.getCurrentStep());
+        assertTrue(store.load(manus.getRunId()).isEmpty());
+    }
+
+    @Test
+    void streamedRunReachingMaxStepsIsNotResumable() throws Exception {
+        AgentCheckpointStore store = new AgentCheckpointStore(dir, false);
+        Manus manus = streamToEnd(store, 0);
+
+        assertEquals(3, manus.getCurrentStep());
+        assertTrue(store.load(manus.getRunId()).isEmpty());
+    }
+}
@@ -0,0 +1,142 @@
+package com.xinwei.aiagent.agent.model;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AgentRunExecutorTest {
+
+    @Test
+    void admissionLimitsActiveRunsAndQueuesTheRest() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        try (AgentRunExecutor executor = new AgentRunExecutor(2, 3, true)) {
+            executor.bindTo(registry);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger maxActive = new AtomicInteger();
+            List<String> threadNames = new ArrayList<>();
+            List<CompletableFuture<Void>> runs = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                runs.add(executor.submit(() -> {
+                    maxActive.accumulateAndGet(executor.activeRuns(), Math::max);
+                    synchronized (threadNames) {
+                        threadNames.add(Thread.currentThread().getName());
+                    }
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+            }
+            waitUntil(() -> executor.activeRuns() == 2 && executor.queueDepth() == 3);
+            assertEquals(2.0, registry.get("agent.runs.active").gauge().value());
+            assertEquals(3.0, registry.get("agent.runs.queued").gauge().value());
+            // 排队已满，再提交直接拒绝
+            assertThrows(RejectedExecutionException.class, () -> executor.submit(() -> {
+            }));
+
+            release.countDown();
+            CompletableFuture.allOf(runs.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+            assertEquals(2, maxActive.get());
+            assertEquals(0, executor.queueDepth());
+            assertEquals(0, executor.activeRuns());
+            assertTrue(threadNames.stream().allMatch(name -> name.startsWith("agent-run-")));
+        }
+    }
+
+    @Test
+    void schedulesTenantsByWeightAndReportsPositions() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        try (AgentRunExecutor executor = new AgentRunExecutor(1, 100, true, 1, 50, Map.of("vip", 2))) {
+            executor.bindTo(registry);
+            CountDownLatch release = new CountDownLatch(1);
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            List<CompletableFuture<Void>> runs = new ArrayList<>();
+            runs.add(executor.submit("other", () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, AgentRunExecutor.QueueListener.NONE));
+            Map<String, List<Integer>> positions = new ConcurrentHashMap<>();
+            // 一个用户先提交大量运行，其他用户之后提交
+            for (String tenant : List.of("heavy", "heavy", "heavy", "heavy", "heavy", "heavy",
+                    "light", "light", "vip", "vip", "vip", "vip")) {
+                String name = tenant + runs.size();
+                runs.add(executor.submit(tenant, () -> order.add(tenant),
+                        position -> positions.computeIfAbsent(name, key -> new CopyOnWriteArrayList<>()).add(position)));
+            }
+            assertEquals(12, executor.queueDepth());
+            assertEquals(6, executor.queueDepth("heavy"));
+            // 最后提交的 heavy 运行起初排在第 6，其他用户每提交一次都排到它前面，直到最后
+            assertEquals(List.of(6, 7, 8, 9, 10, 11, 12), positions.get("heavy6"));
+            assertEquals(List.of(2), positions.get("light7"));
+
+            release.countDown();
+            CompletableFuture.allOf(runs.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+            // 不再按提交顺序：light 和 vip 穿插在 heavy 之间，vip 权重为 2，名额是其他用户的两倍
+            assertEquals(List.of("heavy", "light", "vip", "vip", "heavy", "light", "vip", "vip",
+                    "heavy", "heavy", "heavy", "heavy"), order);
+            assertEquals(13, registry.get("agent.runs.queue.wait").timer().count());
+        }
+    }
+
+    @Test
+    void limitsRunsAndQueueOfEachTenant() throws Exception {
+        try (AgentRunExecutor executor = new AgentRunExecutor(4, 100, true, 2, 2, Map.of())) {
+            CountDownLatch release = new CountDownLatch(1);
+            Runnable blocking = () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+            List<CompletableFuture<Void>> runs = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                runs.add(executor.submit("a", blocking, AgentRunExecutor.QueueListener.NONE));
+            }
+            waitUntil(() -> executor.activeRuns("a") == 2);
+            assertEquals(2, executor.queueDepth("a"));
+            assertThrows(RejectedExecutionException.class,
+                    () -> executor.submit("a", blocking, AgentRunExecutor.QueueListener.NONE));
+
+            // 其他用户不受 a 的排队影响，直接运行
+            CompletableFuture<Void> other = executor.submit("b", () -> {
+            }, AgentRunExecutor.QueueListener.NONE);
+            other.get(5, TimeUnit.SECONDS);
+
+            // 取消排队中的运行会把它移出队列
+            runs.get(3).cancel(false);
+            assertEquals(1, executor.queueDepth("a"));
+            assertEquals(1, executor.queueDepth());
+
+            release.countDown();
+            CompletableFuture.allOf(runs.subList(0, 3).toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+            waitUntil(() -> executor.activeRuns() == 0);
+            assertEquals(0, executor.queueDepth());
+        }
+    }
+
+    private static void waitUntil(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not reached");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.xinwei.aiagent.agent.model;
+
+import com.xinwei.aiagent.tools.ToolRegistration;
+import com.xinwei.aiagent.tools.ToolResultCache;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每次请求准备一个 Manus 的开销
+ *
+ * construct：原来的做法，每次 new Manus，重建 ChatClient、ToolCallingManager、聊天选项和工具表；
+ * factory：ManusFactory.create，只分配本次运行的状态。
+ * 工具列表和 ChatModel 在两种方式下都是已有的 bean，不计入。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class AgentSetupBenchmark {
+
+    private ToolCallback[] allTools;
+
+    private ChatModel chatModel;
+
+    private AgentRunExecutor runExecutor;
+
+    private ManusFactory factory;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        allTools = new ToolRegistration().toolSchemas(
+                new ToolResultCache(Duration.ofMinutes(5), Map.of(), Set.of(), 500, 200_000)).toArray();
+        chatModel = prompt -> new ChatResponse(List.of(new Generation(new AssistantMessage("完成"))));
+        runExecutor = new AgentRunExecutor(32, 1000, true);
+        factory = new ManusFactory(allTools, chatModel, runExecutor, AgentContextManager.FULL_HISTORY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        runExecutor.close();
+    }
+
+    @Benchmark
+    public Manus construct() {
+        Manus manus = new Manus(allTools, chatModel);
+        manus.setRunExecutor(runExecutor);
+        return manus;
+    }
+
+    @Benchmark
+    public Manus factory() {
+        return factory.create();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(AgentSetupBenchmark.class.getSimpleName()).build()).run();
+    }
+}
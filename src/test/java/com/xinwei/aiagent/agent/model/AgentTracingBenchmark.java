@@ -0,0 +1,58 @@
+package com.xinwei.aiagent.agent.model;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.chat.messages.AssistantMessage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一步的观测开销：一次 step / think / act 计时加两次工具记录
+ *
+ * tracer=noop 为未开启观测（默认），tracer=micrometer 记录到 SimpleMeterRegistry（不写 trace JSON）。
+ * 两者都远小于一次模型调用（数百毫秒）的耗时。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+public class AgentTracingBenchmark {
+
+    @Param({"noop", "micrometer"})
+    private String tracer;
+
+    private AgentRunTrace trace;
+
+    private final AssistantMessage.ToolCall searchCall =
+            new AssistantMessage.ToolCall("1", "function", "searchWeb", "{\"query\":\"约会地点\"}");
+    private final AssistantMessage.ToolCall scrapeCall =
+            new AssistantMessage.ToolCall("2", "function", "scrapeWebPage", "{\"url\":\"https://example.com\"}");
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AgentTracer agentTracer = "noop".equals(tracer)
+                ? AgentTracer.NOOP
+                : new MicrometerAgentTracer(new SimpleMeterRegistry(), true, null);
+        trace = agentTracer.startRun("Manus", null);
+    }
+
+    @Benchmark
+    public void step() {
+        long stepStart = trace.start();
+        long thinkStart = trace.start();
+        trace.think(1, thinkStart);
+        long actStart = trace.start();
+        trace.tool(1, searchCall, "搜索结果", "success", 1_000_000);
+        trace.tool(1, scrapeCall, "页面内容", "success", 2_000_000);
+        trace.act(1, actStart);
+        trace.step(1, stepStart);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(AgentTracingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,92 @@
+package com.xinwei.aiagent.agent.model;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AgentTracingTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * 两步：第一步并发调用搜索（50 ms）和抓取（100 ms），第二步结束
+     */
+    @Test
+    void recordsRunStepAndToolMetricsAndWritesTrace() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        ChatModel chatModel = prompt -> {
+            List<AssistantMessage.ToolCall> toolCalls = calls.incrementAndGet() == 1
+                    ? List.of(new AssistantMessage.ToolCall("1", "function", "searchWeb", "{\"query\":\"约会地点\"}"),
+                    new AssistantMessage.ToolCall("2", "function", "scrapeWebPage", "{\"url\":\"https://example.com\"}"))
+                    : List.of(new AssistantMessage.ToolCall("3", "function", "doTerminate", "{}"));
+            ChatResponseMetadata metadata = ChatResponseMetadata.builder().usage(new DefaultUsage(1000, 50)).build();
+            return new ChatResponse(List.of(new Generation(new AssistantMessage("", Map.of(), toolCalls))), metadata);
+        };
+        ToolCallback[] tools = {new StubToolCallback("searchWeb", 50, "搜索结果"),
+                new StubToolCallback("scrapeWebPage", 100, "页面内容".repeat(100)),
+                new StubToolCallback("doTerminate", 0, "任务结束")};
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ToolCallAgent agent = new ToolCallAgent(tools);
+        agent.setName("test");
+        agent.setSystemPrompt("你是一个测试智能体");
+        agent.setChatClient(ChatClient.builder(chatModel).build());
+        agent.setTracer(new MicrometerAgentTracer(registry, true, dir));
+
+        agent.run("帮我找约会地点");
+
+        assertEquals(AgentState.FINISHED, agent.getState());
+        assertSame(AgentRunTrace.NOOP, agent.getTrace());
+        assertEquals(1, registry.get("agent.run").tag("state", "FINISHED").timer().count());
+        assertEquals(2, registry.get("agent.step").timer().count());
+        assertEquals(2, registry.get("agent.think").timer().count());
+        assertEquals(2, registry.get("agent.act").timer().count());
+        assertTrue(registry.get("agent.tool").tag("tool", "scrapeWebPage").tag("outcome", "success").timer()
+                .totalTime(TimeUnit.MILLISECONDS) >= 100);
+        assertEquals(400, registry.get("agent.tool.result.size").tag("tool", "scrapeWebPage").summary().totalAmount());
+        assertEquals(2000, registry.get("agent.model.tokens").tag("type", "prompt").summary().totalAmount());
+        assertEquals(100, registry.get("agent.model.tokens").tag("type", "completion").summary().totalAmount());
+
+        Path traceFile;
+        try (Stream<Path> files = Files.walk(dir)) {
+            traceFile = files.filter(path -> path.toString().endsWith(".json")).findFirst().orElseThrow();
+        }
+        JSONObject trace = JSONUtil.parseObj(Files.readString(traceFile));
+        assertEquals("FINISHED", trace.getStr("state"));
+        assertEquals(2, trace.getInt("steps"));
+        JSONArray events = trace.getJSONArray("events");
+        List<String> types = events.stream().map(event -> ((JSONObject) event).getStr("type")).toList();
+        assertEquals(3, types.stream().filter("tool"::equals).count());
+        assertEquals(2, types.stream().filter("usage"::equals).count());
+        assertEquals(2, types.stream().filter("step"::equals).count());
+    }
+
+    @Test
+    void noopTraceDoesNotReadTheClock() {
+        AgentRunTrace trace = AgentTracer.NOOP.startRun("test", null);
+        assertSame(AgentRunTrace.NOOP, trace);
+        assertEquals(0, trace.start());
+    }
+}
@@ -0,0 +1,75 @@
+package com.xinwei.aiagent.agent.model;
+
+import com.xinwei.aiagent.tools.ToolRegistration;
+import com.xinwei.aiagent.tools.ToolResultCache;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeywordToolRouterTest {
+
+    private static final List<ToolCallback> TOOLS = new ToolRegistration().toolSchemas(
+            new ToolResultCache(Duration.ofMinutes(5), Map.of(), Set.of(), 10, 1000)).callbacks();
+
+    private static final Map<String, List<String>> KEYWORDS = Map.of(
+            "searchWeb", List.of("搜索", "查询", "推荐"),
+            "scrapeWebPage", List.of("网页", "链接", "url"),
+            "generatePDF", List.of("pdf", "报告", "整理成"),
+            "writeFile", List.of("保存", "文件"));
+
+    private final KeywordToolRouter router = new KeywordToolRouter(TOOLS, KEYWORDS, Set.of("doTerminate"), 2);
+
+    private static List<String> names(ToolRouter.Selection selection) {
+        return selection.tools().stream().map(tool -> tool.getToolDefinition().name()).toList();
+    }
+
+    @Test
+    void selectsToolsMatchingTheTask() {
+        ToolRouter.Selection selection = router.select(
+                List.of(new UserMessage("帮我搜索上海适合约会的地点，整理成 PDF")), TOOLS);
+
+        assertEquals(Set.of("searchWeb", "generatePDF", "doTerminate"), Set.copyOf(names(selection)));
+        // 原来的顺序不变
+        List<String> all = TOOLS.stream().map(tool -> tool.getToolDefinition().name()).toList();
+        List<String> selected = names(selection);
+        for (int i = 1; i < selected.size(); i++) {
+            assertTrue(all.indexOf(selected.get(i - 1)) < all.indexOf(selected.get(i)));
+        }
+        assertTrue(selection.savedTokens() > 0);
+    }
+
+    @Test
+    void englishGoalMatchesToolDescriptions() {
+        ToolRouter.Selection selection = router.select(
+                List.of(new UserMessage("Download the image at https://example.com/a.png")), TOOLS);
+
+        assertTrue(names(selection).contains("downloadResource"));
+        assertTrue(names(selection).contains("doTerminate"));
+        assertTrue(selection.tools().size() <= 4);
+    }
+
+    @Test
+    void keepsRecentlyUsedToolAndFallsBackToAllTools() {
+        AssistantMessage lastCall = new AssistantMessage("", Map.of(), List.of(
+                new AssistantMessage.ToolCall("1", "function", "executeTerminalCommand", "{\"command\":\"ls\"}")));
+        List<Message> messages = List.of(new UserMessage("帮我搜索上海的咖啡馆"), lastCall,
+                new ToolResponseMessage(List.of(new ToolResponseMessage.ToolResponse("1", "executeTerminalCommand", "ok"))));
+        ToolRouter.Selection selection = router.select(messages, TOOLS);
+        assertTrue(names(selection).contains("searchWeb"));
+        assertTrue(names(selection).contains("executeTerminalCommand"));
+
+        ToolRouter.Selection none = router.select(List.of(new UserMessage("你好")), TOOLS);
+        assertEquals(TOOLS, none.tools());
+        assertEquals(0, none.savedTokens());
+    }
+}
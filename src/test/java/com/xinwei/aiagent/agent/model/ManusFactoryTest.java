@@ -0,0 +1,53 @@
+package com.xinwei.aiagent.agent.model;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ManusFactoryTest {
+
+    @Test
+    void sharesImmutablePartsButNotRunState() {
+        ChatModel chatModel = prompt -> new ChatResponse(List.of(new Generation(new AssistantMessage("完成"))));
+        ToolCallback[] tools = {new StubToolCallback("doTerminate", 0, "任务结束")};
+        try (AgentRunExecutor runExecutor = new AgentRunExecutor(2, 10, true)) {
+            ManusFactory factory = new ManusFactory(tools, chatModel, runExecutor, AgentContextManager.FULL_HISTORY);
+            Manus first = factory.create();
+            Manus second = factory.create();
+
+            assertSame(first.getChatClient(), second.getChatClient());
+            assertSame(first.getChatOptions(), second.getChatOptions());
+            assertSame(first.getToolCallingManager(), second.getToolCallingManager());
+            assertSame(runExecutor, first.getRunExecutor());
+            assertNotSame(first.getMessageList(), second.getMessageList());
+            assertNotSame(first.getToolExecutor(), second.getToolExecutor());
+
+            // 一次运行结束后不影响新创建的智能体
+            first.run("你好");
+            assertEquals(AgentState.FINISHED, first.getState());
+            assertFalse(first.getMessageList().isEmpty());
+            assertEquals(AgentState.IDLE, second.getState());
+            assertTrue(second.getMessageList().isEmpty());
+            assertEquals(AgentState.IDLE, factory.create().getState());
+        }
+    }
+
+    @Test
+    void runExecutorMustBeInjected() {
+        ChatModel chatModel = prompt -> new ChatResponse(List.of(new Generation(new AssistantMessage("完成"))));
+        ToolCallback[] tools = {new StubToolCallback("doTerminate", 0, "任务结束")};
+        assertThrows(NullPointerException.class,
+                () -> new ManusFactory(tools, chatModel, null, AgentContextManager.FULL_HISTORY));
+        // 没有注入执行器的智能体不能流式运行，也不会退回到进程内的默认实例
+        Manus manus = new Manus(tools, chatModel);
+        assertThrows(IllegalStateException.class, () -> manus.runStream("你好"));
+        assertEquals(AgentState.IDLE, manus.getState());
+    }
+}
@@ -11,7 +11,7 @@ import static org.junit.jupiter.api.Assertions.*;
 class ManusTest {
 
     @Resource
-    private Manus Manus;
+    private ManusFactory manusFactory;
 
     @Test
     void run() {
@@ -19,7 +19,7 @@ class ManusTest {
                 我的对象居住在上海静安区，请帮我找到 5 公里内合适的约会地点，  
                 并结合一些网络图片，制定一份详细的约会计划，  
                 并以 PDF 格式输出""";
-        String answer = Manus.run(userPrompt);
+        String answer = manusFactory.create().run(userPrompt);
         Assertions.assertNotNull(answer);
     }
 }
@@ -0,0 +1,57 @@
+package com.xinwei.aiagent.agent.model;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一轮三个工具调用（模拟搜索 100 ms、抓取 200 ms、下载 300 ms）的单步耗时
+ *
+ * concurrency=1 等同于 ToolCallingManager 的顺序执行，耗时约为三者之和（600 ms）；
+ * 并发执行时耗时约为最慢的一个（300 ms）。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 3)
+public class ParallelToolCallBenchmark {
+
+    @Param({"1", "4"})
+    private int concurrency;
+
+    private ParallelToolExecutor executor;
+
+    private final List<AssistantMessage.ToolCall> toolCalls = List.of(
+            new AssistantMessage.ToolCall("1", "function", "searchWeb", "{}"),
+            new AssistantMessage.ToolCall("2", "function", "scrapeWebPage", "{}"),
+            new AssistantMessage.ToolCall("3", "function", "downloadResource", "{}"));
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ToolCallback[] tools = {
+                new StubToolCallback("searchWeb", 100, "search"),
+                new StubToolCallback("scrapeWebPage", 200, "scrape"),
+                new StubToolCallback("downloadResource", 300, "download")
+        };
+        executor = new ParallelToolExecutor(tools, concurrency, Duration.ofSeconds(10), Map.of());
+    }
+
+    @Benchmark
+    public ToolResponseMessage step() {
+        return executor.execute(toolCalls);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(ParallelToolCallBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,98 @@
+package com.xinwei.aiagent.agent.model;
+
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelToolExecutorTest {
+
+    private static AssistantMessage.ToolCall toolCall(String id, String name) {
+        return new AssistantMessage.ToolCall(id, "function", name, "{}");
+    }
+
+    @Test
+    void runsConcurrentlyAndKeepsCallOrder() {
+        StubToolCallback slow = new StubToolCallback("slow", 300, "slow-result");
+        StubToolCallback fast = new StubToolCallback("fast", 100, "fast-result");
+        ParallelToolExecutor executor = new ParallelToolExecutor(new ToolCallback[]{slow, fast}, 4,
+                Duration.ofSeconds(5), Map.of());
+
+        long start = System.nanoTime();
+        ToolResponseMessage message = executor.execute(List.of(
+                toolCall("1", "slow"), toolCall("2", "fast"), toolCall("3", "fast"), toolCall("4", "missing")));
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // 耗时接近最慢的工具，而不是三者之和
+        assertTrue(elapsedMillis < 450, "elapsed " + elapsedMillis);
+        assertEquals(List.of("1", "2", "3", "4"), message.getResponses().stream()
+                .map(ToolResponseMessage.ToolResponse::id).toList());
+        assertEquals(List.of("slow-result", "fast-result", "fast-result", "未找到工具: missing"),
+                message.getResponses().stream().map(ToolResponseMessage.ToolResponse::responseData).toList());
+    }
+
+    @Test
+    void respectsConcurrencyCapAndPerToolTimeout() {
+        StubToolCallback worker = new StubToolCallback("worker", 50, "done");
+        StubToolCallback hang = new StubToolCallback("hang", 10_000, "never");
+        ParallelToolExecutor executor = new ParallelToolExecutor(new ToolCallback[]{worker, hang}, 2,
+                Duration.ofSeconds(5), Map.of("hang", Duration.ofMillis(200)));
+
+        ToolResponseMessage message = executor.execute(List.of(toolCall("1", "worker"), toolCall("2", "worker"),
+                toolCall("3", "worker"), toolCall("4", "worker"), toolCall("5", "hang")));
+
+        assertTrue(worker.maxRunning() <= 2);
+        assertEquals("工具执行超时（200 ms）", message.getResponses().get(4).responseData());
+        assertTrue(message.getResponses().subList(0, 4).stream().allMatch(r -> r.responseData().equals("done")));
+    }
+
+    @Test
+    void actAppendsContextAndDetectsTerminate() {
+        StubToolCallback search = new StubToolCallback("searchWeb", 10, "搜索结果");
+        StubToolCallback terminate = new StubToolCallback("doTerminate", 0, "任务结束");
+        ToolCallAgent agent = new ToolCallAgent(new ToolCallback[]{search, terminate});
+        agent.setState(AgentState.RUNNING);
+        AssistantMessage assistantMessage = new AssistantMessage("", Map.of(),
+                List.of(toolCall("1", "searchWeb"), toolCall("2", "doTerminate")));
+        agent.setToolCallChatResponse(new ChatResponse(List.of(new Generation(assistantMessage))));
+
+        String result = agent.act();
+
+        assertEquals(AgentState.FINISHED, agent.getState());
+        assertTrue(result.contains("搜索结果"));
+        List<Message> messages = agent.getMessageList();
+        assertSame(assistantMessage, messages.get(0));
+        assertEquals(List.of("searchWeb", "doTerminate"), ((ToolResponseMessage) messages.get(1)).getResponses()
+                .stream().map(ToolResponseMessage.ToolResponse::name).toList());
+    }
+
+    @Test
+    void actFallsBackToToolCallingManagerWithoutExecutor() {
+        StubToolCallback search = new StubToolCallback("searchWeb", 10, "搜索结果");
+        StubToolCallback terminate = new StubToolCallback("doTerminate", 0, "任务结束");
+        ToolCallAgent agent = new ToolCallAgent(new ToolCallback[]{search, terminate});
+        agent.setToolExecutor(null);
+        agent.setState(AgentState.RUNNING);
+        AssistantMessage assistantMessage = new AssistantMessage("", Map.of(),
+                List.of(toolCall("1", "searchWeb"), toolCall("2", "doTerminate")));
+        agent.setToolCallChatResponse(new ChatResponse(List.of(new Generation(assistantMessage))));
+
+        String result = agent.act();
+
+        assertEquals(AgentState.FINISHED, agent.getState());
+        assertTrue(result.contains("搜索结果"), result);
+        assertEquals(1, search.calls());
+        // 共享的聊天选项不会被写入工具
+        assertTrue(((DashScopeChatOptions) agent.getChatOptions()).getFunctionCallbacks().isEmpty());
+    }
+}
@@ -0,0 +1,99 @@
+package com.xinwei.aiagent.agent.model;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlanExecuteAgentTest {
+
+    private static final List<String> TOPICS = List.of("date ideas", "restaurants", "gifts");
+
+    private static ToolCallback[] tools(StubToolCallback search, StubToolCallback pdf) {
+        return new ToolCallback[]{search, pdf, new StubToolCallback("doTerminate", 0, "任务结束")};
+    }
+
+    @Test
+    void parsesPlanIntoTopologicalOrder() {
+        List<PlanExecuteAgent.PlanTask> tasks = PlanExecuteAgent.parsePlan("""
+                好的，规划如下：
+                {"tasks":[
+                  {"id":"pdf","task":"整理成 PDF","dependsOn":["a","b"]},
+                  {"id":"a","task":"搜索 A"},
+                  {"id":"b","task":"搜索 B","dependsOn":["a"]}
+                ]}""", 8);
+        assertEquals(List.of("a", "b", "pdf"), tasks.stream().map(PlanExecuteAgent.PlanTask::id).toList());
+
+        assertThrows(IllegalArgumentException.class, () -> PlanExecuteAgent.parsePlan("直接开始搜索吧", 8));
+        assertThrows(IllegalArgumentException.class, () -> PlanExecuteAgent.parsePlan("{\"tasks\":[]}", 8));
+        assertThrows(IllegalArgumentException.class, () -> PlanExecuteAgent.parsePlan(
+                "{\"tasks\":[{\"id\":\"a\",\"task\":\"x\",\"dependsOn\":[\"b\"]},"
+                        + "{\"id\":\"b\",\"task\":\"y\",\"dependsOn\":[\"a\"]}]}", 8));
+        assertThrows(IllegalArgumentException.class, () -> PlanExecuteAgent.parsePlan(
+                "{\"tasks\":[{\"id\":\"a\",\"task\":\"x\",\"dependsOn\":[\"missing\"]}]}", 8));
+        assertThrows(IllegalArgumentException.class, () -> PlanExecuteAgent.parsePlan(
+                "{\"tasks\":[{\"id\":\"a\",\"task\":\"x\"},{\"id\":\"a\",\"task\":\"y\"}]}", 8));
+        assertThrows(IllegalArgumentException.class, () -> PlanExecuteAgent.parsePlan(ScriptedTaskModel.planFor(TOPICS), 3));
+    }
+
+    /**
+     * 搜索三个主题再整理成 PDF：模型调用 100 ms，搜索和生成 PDF 各 200 ms
+     * Manus 串行 5 次模型调用、4 次工具调用；规划模式调用模型 1 + 4×2 次，但三个搜索并发执行
+     */
+    @Test
+    void runsIndependentTasksConcurrentlyAndJoinsResults() {
+        StubToolCallback search = new StubToolCallback("searchWeb", 200, "搜索结果");
+        StubToolCallback pdf = new StubToolCallback("generatePDF", 200, "PDF 已生成");
+        ScriptedTaskModel plannerModel = new ScriptedTaskModel(TOPICS, ScriptedTaskModel.planFor(TOPICS), 100);
+        ScriptedTaskModel manusModel = new ScriptedTaskModel(TOPICS, ScriptedTaskModel.planFor(TOPICS), 100);
+        try (AgentRunExecutor runExecutor = new AgentRunExecutor(2, 10, true)) {
+            PlanExecuteAgent planner = new ManusFactory(tools(search, pdf), plannerModel, runExecutor,
+                    AgentContextManager.FULL_HISTORY).createPlanner();
+            long start = System.nanoTime();
+            String result = planner.run("Search three topics and compile a PDF");
+            long plannerMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertEquals(AgentState.FINISHED, planner.getState());
+            assertEquals(2, planner.getCurrentStep(), result);
+            assertEquals(3, search.maxRunning());
+            assertEquals(3, search.calls());
+            assertEquals(1, pdf.calls());
+            assertEquals(9, plannerModel.calls());
+            assertTrue(result.contains("Done: Compile the findings into a PDF"), result);
+
+            Manus manus = new ManusFactory(tools(new StubToolCallback("searchWeb", 200, "搜索结果"),
+                    new StubToolCallback("generatePDF", 200, "PDF 已生成")), manusModel, runExecutor,
+                    AgentContextManager.FULL_HISTORY).create();
+            start = System.nanoTime();
+            manus.run("Search three topics and compile a PDF");
+            long manusMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertEquals(5, manusModel.calls());
+            // 规划模式约 900 ms（规划 100 + 搜索 400 + PDF 400），Manus 约 1300 ms
+            assertTrue(plannerMillis < manusMillis - 200, "planner " + plannerMillis + " ms, manus " + manusMillis + " ms");
+        }
+    }
+
+    @Test
+    void fallsBackToReActWhenPlanIsInvalid() {
+        StubToolCallback search = new StubToolCallback("searchWeb", 0, "搜索结果");
+        StubToolCallback pdf = new StubToolCallback("generatePDF", 0, "PDF 已生成");
+        ScriptedTaskModel model = new ScriptedTaskModel(TOPICS, "{\"tasks\":[{\"id\":\"a\",\"task\":\"Search\","
+                + "\"dependsOn\":[\"a\"]}]}", 0);
+        try (AgentRunExecutor runExecutor = new AgentRunExecutor(2, 10, true)) {
+            PlanExecuteAgent planner = new ManusFactory(tools(search, pdf), model, runExecutor,
+                    AgentContextManager.FULL_HISTORY).createPlanner();
+
+            String result = planner.run("Search three topics and compile a PDF");
+
+            assertEquals(AgentState.FINISHED, planner.getState());
+            assertTrue(result.contains("规划失败"), result);
+            // 规划 1 次 + ReAct 5 次
+            assertEquals(6, model.calls());
+            assertEquals(3, search.calls());
+            assertEquals(1, pdf.calls());
+        }
+    }
+}
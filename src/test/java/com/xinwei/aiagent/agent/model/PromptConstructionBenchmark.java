@@ -0,0 +1,103 @@
+package com.xinwei.aiagent.agent.model;
+
+import com.xinwei.aiagent.tools.FileOperationTool;
+import com.xinwei.aiagent.tools.PDFGenerationTool;
+import com.xinwei.aiagent.tools.ResourceDownloadTool;
+import com.xinwei.aiagent.tools.TerminalOperationTool;
+import com.xinwei.aiagent.tools.TerminateTool;
+import com.xinwei.aiagent.tools.ToolResultCache;
+import com.xinwei.aiagent.tools.ToolSchemas;
+import com.xinwei.aiagent.tools.WebScrapingTool;
+import com.xinwei.aiagent.tools.WebSearchTool;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.function.FunctionCallback;
+import org.springframework.ai.model.function.FunctionCallingOptions;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.ToolCallbacks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ToolCallAgent 每一步构造带工具的请求的开销（不含网络）
+ *
+ * 模型换成只读取工具定义的假模型：和 DashScopeChatModel 组装请求时一样，逐个读取名称、描述和 JSON Schema。
+ * objects：每一步传入工具对象，由 ChatClient 通过反射重新生成 8 个工具的 Schema；
+ * callbacks：原来的做法，传入启动时生成的工具数组（经结果缓存包装），每一步复制数组、逐层读取定义；
+ * precomputed：传入 ToolSchemas 解析好的不可变列表。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class PromptConstructionBenchmark {
+
+    @Param({"objects", "callbacks", "precomputed"})
+    private String tools;
+
+    private Object[] toolObjects;
+
+    private ToolCallback[] toolCallbacks;
+
+    private List<ToolCallback> precomputed;
+
+    private ChatClient chatClient;
+
+    private ChatOptions chatOptions;
+
+    private final List<Message> messages = List.of(new UserMessage("帮我搜索上海适合约会的地点，整理成 PDF"),
+            new UserMessage("Based on user needs, proactively select the most appropriate tool"));
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        toolObjects = new Object[]{new FileOperationTool(), new WebSearchTool("key"), new WebScrapingTool(),
+                new ResourceDownloadTool(), new TerminalOperationTool(), new PDFGenerationTool(), new TerminateTool()};
+        ToolResultCache cache = new ToolResultCache(Duration.ofMinutes(5), Map.of(), Set.of(), 500, 200_000);
+        toolCallbacks = cache.wrap(ToolCallbacks.from(toolObjects));
+        precomputed = ToolSchemas.of(toolCallbacks).callbacks();
+        ChatModel chatModel = prompt -> {
+            int size = 0;
+            if (prompt.getOptions() instanceof FunctionCallingOptions options) {
+                for (FunctionCallback callback : options.getFunctionCallbacks()) {
+                    size += callback.getName().length() + callback.getDescription().length()
+                            + callback.getInputTypeSchema().length();
+                }
+            }
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(String.valueOf(size)))));
+        };
+        chatClient = ChatClient.builder(chatModel).build();
+        chatOptions = ToolCallAgent.proxyToolCallOptions();
+    }
+
+    @Benchmark
+    public ChatResponse step() {
+        ChatClient.ChatClientRequestSpec request = chatClient.prompt(new Prompt(messages, chatOptions.copy()))
+                .system(Manus.SYSTEM_PROMPT);
+        request = switch (tools) {
+            case "objects" -> request.tools(toolObjects);
+            case "callbacks" -> request.tools(toolCallbacks);
+            default -> request.tools(precomputed);
+        };
+        return request.call().chatResponse();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(PromptConstructionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,105 @@
+package com.xinwei.aiagent.agent.model;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 测试用的模型：按脚本完成“分别搜索几个主题，再整理成 PDF”这类任务，每次调用睡眠固定时间
+ *
+ * 规划提示词：返回给定的规划；子任务提示词：先调用一次工具（整理 PDF 的子任务调用 generatePDF，其余调用 searchWeb），
+ * 看到工具结果后给出回答；其他情况按 ReAct 方式每步调用一个工具：依次搜索各主题、生成 PDF、调用 doTerminate。
+ */
+class ScriptedTaskModel implements ChatModel {
+
+    private static final Pattern SUB_TASK = Pattern.compile("Sub-task: (.+)");
+
+    private final List<String> topics;
+    private final String plan;
+    private final long latencyMillis;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    ScriptedTaskModel(List<String> topics, String plan, long latencyMillis) {
+        this.topics = topics;
+        this.plan = plan;
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * 搜索每个主题各一个子任务，最后一个子任务依赖所有搜索、整理成 PDF
+     */
+    static String planFor(List<String> topics) {
+        StringBuilder plan = new StringBuilder("```json\n{\"tasks\":[");
+        for (int i = 0; i < topics.size(); i++) {
+            plan.append("{\"id\":\"s").append(i).append("\",\"task\":\"Search ").append(topics.get(i))
+                    .append("\",\"dependsOn\":[]},");
+        }
+        plan.append("{\"id\":\"pdf\",\"task\":\"Compile the findings into a PDF\",\"dependsOn\":[");
+        for (int i = 0; i < topics.size(); i++) {
+            plan.append(i > 0 ? "," : "").append("\"s").append(i).append('"');
+        }
+        return plan.append("]}]}\n```").toString();
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        calls.incrementAndGet();
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        }
+        return new ChatResponse(List.of(new Generation(reply(prompt.getInstructions()))));
+    }
+
+    private AssistantMessage reply(List<Message> messages) {
+        if (messages.stream().anyMatch(m -> m instanceof SystemMessage && m.getText().contains("You are a planner"))) {
+            return new AssistantMessage(plan);
+        }
+        Message last = messages.get(messages.size() - 1);
+        long toolResponses = messages.stream().filter(ToolResponseMessage.class::isInstance).count();
+        String subTask = messages.stream()
+                .filter(UserMessage.class::isInstance)
+                .map(m -> SUB_TASK.matcher(m.getText()))
+                .filter(Matcher::find)
+                .map(m -> m.group(1).trim())
+                .findFirst()
+                .orElse(null);
+        if (subTask != null) {
+            if (toolResponses > 0 && !(last instanceof AssistantMessage)) {
+                return new AssistantMessage("Done: " + subTask);
+            }
+            return subTask.contains("PDF") ? toolCall("generatePDF", "{\"fileName\":\"report.pdf\"}")
+                    : toolCall("searchWeb", "{\"query\":\"" + subTask + "\"}");
+        }
+        if (toolResponses < topics.size()) {
+            return toolCall("searchWeb", "{\"query\":\"" + topics.get((int) toolResponses) + "\"}");
+        }
+        if (toolResponses == topics.size()) {
+            return toolCall("generatePDF", "{\"fileName\":\"report.pdf\"}");
+        }
+        return toolCall("doTerminate", "{}");
+    }
+
+    private AssistantMessage toolCall(String name, String arguments) {
+        return new AssistantMessage("", Map.of(), List.of(
+                new AssistantMessage.ToolCall("call-" + calls.get(), "function", name, arguments)));
+    }
+
+    int calls() {
+        return calls.get();
+    }
+}
@@ -0,0 +1,97 @@
+package com.xinwei.aiagent.agent.model;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.tool.ToolCallback;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingThinkTest {
+
+    private static ChatResponse chunk(String text, AssistantMessage.ToolCall... toolCalls) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text, Map.of(), List.of(toolCalls)))));
+    }
+
+    private static AssistantMessage.ToolCall fragment(String id, String name, String arguments) {
+        return new AssistantMessage.ToolCall(id, "function", name, arguments);
+    }
+
+    @Test
+    void assemblesFragmentedToolCalls() {
+        StreamingResponseAssembler assembler = new StreamingResponseAssembler();
+        assertEquals("我先", assembler.accept(chunk("我先")));
+        assertEquals("搜索", assembler.accept(chunk("搜索")));
+        assembler.accept(chunk("", fragment("call-1", "searchWeb", "{\"query\":")));
+        assembler.accept(chunk("", fragment("", "", "\"上海静安\"}")));
+        assembler.accept(chunk("", fragment("call-2", "scrapeWebPage", "")));
+        assembler.accept(chunk("", fragment("call-2", "scrapeWebPage", "{\"url\":\"https://example.com\"}")));
+        assertEquals("", assembler.accept(new ChatResponse(List.of())));
+
+        AssistantMessage message = assembler.toChatResponse().getResult().getOutput();
+        assertEquals("我先搜索", message.getText());
+        assertEquals(List.of(fragment("call-1", "searchWeb", "{\"query\":\"上海静安\"}"),
+                fragment("call-2", "scrapeWebPage", "{\"url\":\"https://example.com\"}")), message.getToolCalls());
+    }
+
+    /**
+     * 模型每 100 ms 输出一个片段，一步共 8 个片段。流式调用时第一个 token 在第一个片段到达时就交给前端，
+     * 而同步调用要等整个响应（约 800 ms）
+     */
+    @Test
+    void forwardsTokensBeforeTheStepCompletes() {
+        AtomicInteger calls = new AtomicInteger();
+        ChatModel chatModel = new ChatModel() {
+            @Override
+            public ChatResponse call(Prompt prompt) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Flux<ChatResponse> stream(Prompt prompt) {
+                List<ChatResponse> chunks = calls.incrementAndGet() == 1
+                        ? List.of(chunk("我"), chunk("先"), chunk("搜索"), chunk("一下"),
+                        chunk("", fragment("call-1", "searchWeb", "{\"query\":")),
+                        chunk("", fragment("", "", "\"约会")), chunk("", fragment("", "", "地点\"}")), chunk("。"))
+                        : List.of(chunk("完成"), chunk("", fragment("call-2", "doTerminate", "{}")));
+                return Flux.fromIterable(chunks).delayElements(Duration.ofMillis(100));
+            }
+        };
+        ToolCallback[] tools = {new StubToolCallback("searchWeb", 0, "结果"), new StubToolCallback("doTerminate", 0, "任务结束")};
+        ToolCallAgent agent = new ToolCallAgent(tools);
+        agent.setName("test");
+        agent.setSystemPrompt("你是一个测试智能体");
+        agent.setChatClient(ChatClient.builder(chatModel).build());
+        List<String> tokens = new ArrayList<>();
+        List<Long> arrivals = new ArrayList<>();
+        long start = System.nanoTime();
+        agent.setTokenConsumer(token -> {
+            tokens.add(token);
+            arrivals.add((System.nanoTime() - start) / 1_000_000);
+        });
+
+        agent.run("帮我找约会地点");
+
+        assertEquals(AgentState.FINISHED, agent.getState());
+        assertEquals(List.of("我", "先", "搜索", "一下", "。", "完成"), tokens);
+        // 第一个 token 在第一个片段到达时就发出，比第一步的最后一个片段早约 700 ms
+        assertTrue(arrivals.get(4) - arrivals.get(0) >= 600,
+                "first token at " + arrivals.get(0) + " ms, last at " + arrivals.get(4) + " ms");
+        Message first = agent.getMessageList().get(1);
+        assertEquals("我先搜索一下。", first.getText());
+        assertEquals(List.of(fragment("call-1", "searchWeb", "{\"query\":\"约会地点\"}")),
+                ((AssistantMessage) first).getToolCalls());
+    }
+}
@@ -0,0 +1,57 @@
+package com.xinwei.aiagent.agent.model;
+
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的工具：睡眠指定时间后返回固定结果，并记录调用次数和同时执行的最大数量
+ */
+class StubToolCallback implements ToolCallback {
+
+    private final ToolDefinition toolDefinition;
+    private final long sleepMillis;
+    private final String result;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    StubToolCallback(String name, long sleepMillis, String result) {
+        this.toolDefinition = ToolDefinition.builder()
+                .name(name)
+                .description("stub tool " + name)
+                .inputSchema("{\"type\":\"object\",\"properties\":{}}")
+                .build();
+        this.sleepMillis = sleepMillis;
+        this.result = result;
+    }
+
+    @Override
+    public ToolDefinition getToolDefinition() {
+        return toolDefinition;
+    }
+
+    @Override
+    public String call(String toolInput) {
+        calls.incrementAndGet();
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(sleepMillis);
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    int maxRunning() {
+        return maxRunning.get();
+    }
+
+    int calls() {
+        return calls.get();
+    }
+}
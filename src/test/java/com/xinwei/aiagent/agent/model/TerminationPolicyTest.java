@@ -0,0 +1,106 @@
+package com.xinwei.aiagent.agent.model;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TerminationPolicyTest {
+
+    private static AssistantMessage.ToolCall call(String id, String name, String arguments) {
+        return new AssistantMessage.ToolCall(id, "function", name, arguments);
+    }
+
+    /**
+     * 按调用次数（从 1 开始）给出模型回复的智能体
+     */
+    private static ToolCallAgent agent(IntFunction<AssistantMessage> replies, AtomicInteger calls,
+                                       TerminationPolicy policy, ToolCallback... tools) {
+        ChatModel chatModel = prompt -> new ChatResponse(List.of(new Generation(replies.apply(calls.incrementAndGet()))));
+        ToolCallAgent agent = new ToolCallAgent(tools);
+        agent.setName("test");
+        agent.setSystemPrompt("你是一个测试智能体");
+        agent.setNextStepPrompt("下一步做什么？");
+        agent.setMaxSteps(10);
+        agent.setChatClient(ChatClient.builder(chatModel).build());
+        agent.setTerminationPolicy(policy);
+        return agent;
+    }
+
+    @Test
+    void finishesAfterConsecutiveStepsWithoutToolCalls() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        TerminationPolicy policy = new TerminationPolicy(2, 3, true);
+        policy.bindTo(registry);
+        AtomicInteger calls = new AtomicInteger();
+        ToolCallAgent agent = agent(call -> new AssistantMessage("推荐去外滩散步。"), calls, policy,
+                new StubToolCallback("doTerminate", 0, "任务结束"));
+
+        agent.run("周末去哪约会？");
+
+        assertEquals(AgentState.FINISHED, agent.getState());
+        assertEquals(2, calls.get());
+        assertEquals(1, registry.get("agent.termination.early").tag("reason", TerminationPolicy.NO_TOOL_CALLS)
+                .counter().count());
+        assertEquals(8, registry.get("agent.termination.saved.steps").summary().totalAmount());
+
+        // 不提前结束时一直调用到最大步数
+        AtomicInteger neverCalls = new AtomicInteger();
+        agent(call -> new AssistantMessage("推荐去外滩散步。"), neverCalls, TerminationPolicy.NEVER,
+                new StubToolCallback("doTerminate", 0, "任务结束")).run("周末去哪约会？");
+        assertEquals(10, neverCalls.get());
+    }
+
+    @Test
+    void abortsRepeatedIdenticalToolCalls() {
+        AtomicInteger calls = new AtomicInteger();
+        StubToolCallback search = new StubToolCallback("searchWeb", 0, "搜索结果");
+        // 参数的键顺序和空白不同，规范化后相同
+        ToolCallAgent agent = agent(call -> new AssistantMessage("我再搜一次", Map.of(), List.of(call("c" + call, "searchWeb",
+                        call % 2 == 0 ? "{\"query\":\"约会\",\"page\":1}" : "{ \"page\": 1, \"query\": \"约会\" }"))),
+                calls, TerminationPolicy.DEFAULT, search, new StubToolCallback("doTerminate", 0, "任务结束"));
+
+        String result = agent.run("周末去哪约会？");
+
+        assertEquals(AgentState.FINISHED, agent.getState());
+        assertEquals(3, calls.get());
+        // 第三次相同调用不再执行
+        assertEquals(2, search.calls());
+        assertTrue(result.contains("Step 3: 思考完成 - 任务结束"), result);
+        // 没有执行的工具调用不写入上下文
+        AssistantMessage last = (AssistantMessage) agent.getMessageList().get(agent.getMessageList().size() - 1);
+        assertTrue(last.getToolCalls().isEmpty());
+    }
+
+    @Test
+    void terminateAlongsideOtherCallsFollowsPolicy() {
+        IntFunction<AssistantMessage> replies = call -> call == 1
+                ? new AssistantMessage("", Map.of(), List.of(call("1", "searchWeb", "{\"query\":\"约会\"}"),
+                call("2", "doTerminate", "{}")))
+                : new AssistantMessage("", Map.of(), List.of(call("3", "doTerminate", "{}")));
+
+        AtomicInteger finishCalls = new AtomicInteger();
+        ToolCallAgent finishing = agent(replies, finishCalls, new TerminationPolicy(2, 3, true),
+                new StubToolCallback("searchWeb", 0, "搜索结果"), new StubToolCallback("doTerminate", 0, "任务结束"));
+        finishing.run("周末去哪约会？");
+        assertEquals(1, finishCalls.get());
+
+        AtomicInteger continueCalls = new AtomicInteger();
+        ToolCallAgent continuing = agent(replies, continueCalls, new TerminationPolicy(2, 3, false),
+                new StubToolCallback("searchWeb", 0, "搜索结果"), new StubToolCallback("doTerminate", 0, "任务结束"));
+        continuing.run("周末去哪约会？");
+        assertEquals(2, continueCalls.get());
+        assertEquals(AgentState.FINISHED, continuing.getState());
+    }
+}
@@ -0,0 +1,137 @@
+package com.xinwei.aiagent.agent.model;
+
+import com.xinwei.aiagent.chatmemory.MessageTokenCounter;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBudgetContextManagerTest {
+
+    private static final String NEXT_STEP_PROMPT = "根据需要选择下一步使用的工具";
+
+    private static final String PAGE = "<div class=\"item\"><a href=\"https://example.com\">约会地点推荐</a></div>\n".repeat(200);
+
+    private static List<Message> toolRound(int step, String result) {
+        AssistantMessage call = new AssistantMessage("", Map.of(), List.of(
+                new AssistantMessage.ToolCall("call-" + step, "function", "scrapeWebPage", "{\"url\":\"https://example.com\"}")));
+        ToolResponseMessage response = new ToolResponseMessage(List.of(
+                new ToolResponseMessage.ToolResponse("call-" + step, "scrapeWebPage", result)));
+        return List.of(call, response);
+    }
+
+    @Test
+    void deduplicatesPromptsAndTruncatesOlderToolResponses() {
+        List<Message> messages = new ArrayList<>();
+        messages.add(new UserMessage("帮我制定约会计划"));
+        for (int step = 1; step <= 3; step++) {
+            messages.add(new UserMessage(NEXT_STEP_PROMPT));
+            messages.addAll(toolRound(step, PAGE));
+        }
+        messages.add(TokenBudgetContextManager.pinned("预算不超过 500 元"));
+        messages.add(new UserMessage(NEXT_STEP_PROMPT));
+
+        List<Message> prepared = new TokenBudgetContextManager(100_000, 100).prepare(messages, NEXT_STEP_PROMPT);
+
+        assertEquals(1, prepared.stream().filter(m -> NEXT_STEP_PROMPT.equals(m.getText())).count());
+        assertSame(messages.get(messages.size() - 1), prepared.get(prepared.size() - 1));
+        List<String> results = prepared.stream()
+                .filter(ToolResponseMessage.class::isInstance)
+                .map(m -> ((ToolResponseMessage) m).getResponses().get(0).responseData())
+                .toList();
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).endsWith("（已截断，原长度 " + PAGE.length() + " 字符）"));
+        assertTrue(results.get(1).length() < 200);
+        // 最近一次工具返回保持完整
+        assertEquals(PAGE, results.get(2));
+        assertTrue(prepared.stream().anyMatch(m -> "预算不超过 500 元".equals(m.getText())));
+    }
+
+    @Test
+    void dropsOldestRoundsButKeepsTaskPinnedAndPairs() {
+        List<Message> messages = new ArrayList<>();
+        messages.add(new UserMessage("帮我制定约会计划"));
+        for (int step = 1; step <= 10; step++) {
+            messages.addAll(toolRound(step, PAGE));
+        }
+        messages.add(new UserMessage(NEXT_STEP_PROMPT));
+
+        List<Message> prepared = new TokenBudgetContextManager(4000, 2000).prepare(messages, NEXT_STEP_PROMPT);
+
+        assertEquals("帮我制定约会计划", prepared.get(0).getText());
+        assertTrue(prepared.size() < messages.size());
+        // 每个工具调用后面都紧跟着它的结果
+        for (int i = 0; i < prepared.size(); i++) {
+            if (prepared.get(i) instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()) {
+                assertInstanceOf(ToolResponseMessage.class, prepared.get(i + 1));
+            }
+            if (prepared.get(i) instanceof ToolResponseMessage) {
+                assertInstanceOf(AssistantMessage.class, prepared.get(i - 1));
+            }
+        }
+        // 最近一轮保留
+        assertEquals("call-10", ((ToolResponseMessage) prepared.get(prepared.size() - 2)).getResponses().get(0).id());
+    }
+
+    /**
+     * 脚本化的 20 步运行：前 19 步每步抓取一个网页，第 20 步结束。对比每一步发送给模型的消息 token 数
+     */
+    @Test
+    void scriptedTwentyStepRunStaysWithinBudget() {
+        List<Integer> full = runScripted(AgentContextManager.FULL_HISTORY);
+        List<Integer> budgeted = runScripted(new TokenBudgetContextManager(8000, 1000));
+
+        System.out.println("step\tfull\tbudgeted");
+        for (int i = 0; i < full.size(); i++) {
+            System.out.println((i + 1) + "\t" + full.get(i) + "\t" + budgeted.get(i));
+        }
+        int fullTotal = full.stream().mapToInt(Integer::intValue).sum();
+        int budgetedTotal = budgeted.stream().mapToInt(Integer::intValue).sum();
+        System.out.println("total\t" + fullTotal + "\t" + budgetedTotal);
+
+        assertEquals(20, full.size());
+        assertEquals(20, budgeted.size());
+        // 完整历史随步数线性增长，裁剪后每一步都在预算内
+        assertTrue(full.get(19) > 8000 * 3);
+        assertTrue(budgeted.stream().allMatch(tokens -> tokens <= 8000));
+        assertTrue(budgetedTotal * 4 < fullTotal);
+    }
+
+    private static List<Integer> runScripted(AgentContextManager contextManager) {
+        List<Integer> promptTokens = new ArrayList<>();
+        ChatModel chatModel = prompt -> {
+            // 只统计消息列表，系统提示词由 ChatClient 追加
+            promptTokens.add(prompt.getInstructions().stream()
+                    .filter(message -> !(message instanceof org.springframework.ai.chat.messages.SystemMessage))
+                    .mapToInt(MessageTokenCounter::count).sum());
+            int step = promptTokens.size();
+            String tool = step < 20 ? "scrapeWebPage" : "doTerminate";
+            return new ChatResponse(List.of(new Generation(new AssistantMessage("第 " + step + " 步", Map.of(),
+                    List.of(new AssistantMessage.ToolCall("call-" + step, "function", tool, "{}"))))));
+        };
+        ToolCallback[] tools = {new StubToolCallback("scrapeWebPage", 0, PAGE), new StubToolCallback("doTerminate", 0, "任务结束")};
+        ToolCallAgent agent = new ToolCallAgent(tools);
+        agent.setName("test");
+        agent.setSystemPrompt("你是一个测试智能体");
+        agent.setNextStepPrompt(NEXT_STEP_PROMPT);
+        agent.setMaxSteps(20);
+        agent.setChatClient(ChatClient.builder(chatModel).build());
+        agent.setContextManager(contextManager);
+        // 脚本每一步都用相同参数调用同一个工具，不让重复调用检测提前结束
+        agent.setTerminationPolicy(TerminationPolicy.NEVER);
+        agent.run("帮我找 5 个约会地点并整理成计划");
+        return promptTokens;
+    }
+}
@@ -0,0 +1,131 @@
+package com.xinwei.aiagent.batch;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.xinwei.aiagent.agent.model.AgentRunExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchJobServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private static ByteArrayInputStream jobFile(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<JSONObject> records(Path output) throws Exception {
+        return Files.readAllLines(output).stream().map(JSONUtil::parseObj).toList();
+    }
+
+    @Test
+    void runsEveryLineWithBoundedParallelismAndWritesJsonl() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        BatchTarget echo = item -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+                if (item.prompt().equals("boom")) {
+                    throw new IllegalStateException("模型调用失败");
+                }
+                return "echo:" + item.prompt() + ":" + item.chatId();
+            } finally {
+                active.decrementAndGet();
+            }
+        };
+        StringBuilder input = new StringBuilder();
+        for (int i = 1; i <= 10; i++) {
+            input.append("prompt ").append(i).append('\n');
+        }
+        input.append("{\"id\":\"q-11\",\"prompt\":\"boom\"}\n\n{\"prompt\":\"x\",\"target\":\"missing\"}\n")
+                .append("{\"id\":\"q-13\",\"prompt\":\"你好\",\"target\":\"love_app\",\"chatId\":\"c1\"}\n");
+
+        try (AgentRunExecutor executor = new AgentRunExecutor(8, 100, true);
+             BatchJobService service = new BatchJobService(dir, executor, "batch", 3, false,
+                     Map.of("manus", echo, "love_app", echo))) {
+            BatchJob job = service.submit(jobFile(input.toString()), "manus");
+            BatchJob.Progress progress = job.completion().get(10, TimeUnit.SECONDS);
+
+            assertEquals(BatchJob.State.COMPLETED, progress.state());
+            assertEquals(13, progress.total());
+            assertEquals(13, progress.completed());
+            assertEquals(11, progress.succeeded());
+            assertEquals(2, progress.failed());
+            assertEquals(0, progress.running());
+            assertTrue(progress.itemsPerMinute() > 0);
+            assertTrue(maxActive.get() <= 3);
+
+            List<JSONObject> records = records(service.output(job.getJobId()).orElseThrow());
+            assertEquals(13, records.size());
+            JSONObject first = records.stream().filter(r -> r.getInt("line") == 1).findFirst().orElseThrow();
+            assertEquals("ok", first.getStr("status"));
+            assertEquals("echo:prompt 1:null", first.getStr("output"));
+            JSONObject failed = records.stream().filter(r -> "q-11".equals(r.getStr("id"))).findFirst().orElseThrow();
+            assertEquals("error", failed.getStr("status"));
+            assertEquals("模型调用失败", failed.getStr("error"));
+            JSONObject unknown = records.stream().filter(r -> r.getInt("line") == 12).findFirst().orElseThrow();
+            assertTrue(unknown.getStr("error").contains("missing"));
+            JSONObject love = records.stream().filter(r -> "q-13".equals(r.getStr("id"))).findFirst().orElseThrow();
+            assertEquals("love_app", love.getStr("target"));
+            assertEquals("echo:你好:c1", love.getStr("output"));
+
+            // 进度在任务结束后仍可以从磁盘查询
+            assertEquals(13, service.progress(job.getJobId()).orElseThrow().completed());
+            assertTrue(service.progress("unknown").isEmpty());
+        }
+    }
+
+    @Test
+    void resumesAfterCrashSkippingRecordedLinesAndTruncatingPartialLine() throws Exception {
+        // 模拟崩溃：第 1、3 行已写完，第 2 行写到一半，状态仍为 RUNNING
+        Path jobDir = dir.resolve("job1");
+        Files.createDirectories(jobDir);
+        Files.writeString(jobDir.resolve(BatchJobService.INPUT_FILE), "a\nb\nc\nd\n");
+        Files.writeString(jobDir.resolve(BatchJobService.JOB_FILE), "{\"target\":\"manus\",\"state\":\"RUNNING\"}");
+        Files.writeString(jobDir.resolve(BatchJobService.OUTPUT_FILE),
+                "{\"line\":1,\"id\":\"1\",\"status\":\"ok\",\"output\":\"A\"}\n"
+                        + "{\"line\":3,\"id\":\"3\",\"status\":\"ok\",\"output\":\"C\"}\n"
+                        + "{\"line\":2,\"id\":\"2\",\"stat");
+        List<String> executed = new CopyOnWriteArrayList<>();
+        BatchTarget upper = item -> {
+            executed.add(item.prompt());
+            return item.prompt().toUpperCase();
+        };
+
+        try (AgentRunExecutor executor = new AgentRunExecutor(4, 100, true);
+             BatchJobService service = new BatchJobService(dir, executor, "batch", 2, false, Map.of("manus", upper))) {
+            BatchJob.Progress before = service.progress("job1").orElseThrow();
+            assertEquals(BatchJob.State.INTERRUPTED, before.state());
+            assertEquals(2, before.completed());
+
+            List<BatchJob> resumed = service.resumeInterrupted();
+            assertEquals(1, resumed.size());
+            BatchJob.Progress progress = resumed.get(0).completion().get(10, TimeUnit.SECONDS);
+
+            assertEquals(BatchJob.State.COMPLETED, progress.state());
+            assertEquals(2, progress.resumed());
+            assertEquals(4, progress.completed());
+            assertEquals(List.of("b", "d"), executed.stream().sorted().toList());
+            List<JSONObject> records = records(jobDir.resolve(BatchJobService.OUTPUT_FILE));
+            assertEquals(4, records.size());
+            assertEquals(List.of(1, 2, 3, 4), records.stream().map(r -> r.getInt("line")).sorted().toList());
+            assertTrue(Files.readString(jobDir.resolve(BatchJobService.JOB_FILE)).contains("COMPLETED"));
+            // 已完成的任务不再续跑
+            assertTrue(service.resumeInterrupted().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.xinwei.aiagent.chatmemory;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachedChatMemoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void hotPathIsServedFromMemory() {
+        FileBasedChatMemory fileMemory = new FileBasedChatMemory(tempDir.toString());
+        try (CachedChatMemory chatMemory = new CachedChatMemory(fileMemory, 10, 20, 60_000, 600_000)) {
+            String chatId = "chat-1";
+            chatMemory.add(chatId, new UserMessage("你好"));
+            chatMemory.add(chatId, new UserMessage("最近睡眠不好"));
+            assertEquals(2, chatMemory.get(chatId, 10).size());
+            // 尚未到写盘时间，磁盘上还没有数据
+            assertTrue(fileMemory.get(chatId, 10).isEmpty());
+            CachedChatMemory.Stats stats = chatMemory.getStats();
+            assertEquals(1, stats.hits());
+            assertEquals(2, stats.pendingMessages());
+
+            // 运行中可以从 MeterRegistry 查看
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            chatMemory.bindTo(registry);
+            chatMemory.get(chatId, 10);
+            assertEquals(2, registry.get("chat.memory.cache.requests").tag("result", "hit").functionCounter().count());
+            assertEquals(2, registry.get("chat.memory.cache.pending.messages").gauge().value());
+            assertEquals(1, registry.get("chat.memory.cache.conversations").gauge().value());
+            assertEquals(0, registry.get("chat.memory.cache.flushes").functionCounter().count());
+        }
+    }
+
+    @Test
+    void writeBehindFlushesWithinMaxStaleness() throws Exception {
+        FileBasedChatMemory fileMemory = new FileBasedChatMemory(tempDir.toString());
+        try (CachedChatMemory chatMemory = new CachedChatMemory(fileMemory, 10, 20, 100, 600_000)) {
+            chatMemory.add("chat-2", new UserMessage("你好"));
+            long deadline = System.currentTimeMillis() + 2000;
+            // 未写盘计数在写入底层存储之后才扣减，等它归零再检查文件，避免与后台写盘竞争
+            while (chatMemory.getStats().pendingMessages() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, fileMemory.get("chat-2", 10).size());
+            assertEquals(0, chatMemory.getStats().pendingMessages());
+        }
+    }
+
+    @Test
+    void evictionAndCloseFlushPendingMessages() {
+        FileBasedChatMemory fileMemory = new FileBasedChatMemory(tempDir.toString());
+        CachedChatMemory chatMemory = new CachedChatMemory(fileMemory, 2, 20, 60_000, 600_000);
+        for (int i = 0; i < 5; i++) {
+            chatMemory.add("chat-" + i, new UserMessage("消息" + i));
+        }
+        assertEquals(3, chatMemory.getStats().evictions());
+        assertEquals("消息0", fileMemory.get("chat-0", 10).get(0).getText());
+        chatMemory.close();
+        for (int i = 0; i < 5; i++) {
+            List<Message> messages = fileMemory.get("chat-" + i, 10);
+            assertEquals(1, messages.size());
+        }
+    }
+
+    @Test
+    void getBeyondWindowReadsThroughToDisk() {
+        FileBasedChatMemory fileMemory = new FileBasedChatMemory(tempDir.toString());
+        try (CachedChatMemory chatMemory = new CachedChatMemory(fileMemory, 10, 3, 60_000, 600_000)) {
+            for (int i = 0; i < 6; i++) {
+                chatMemory.add("chat-3", new UserMessage("消息" + i));
+            }
+            List<Message> messages = chatMemory.get("chat-3", 5);
+            assertEquals(List.of("消息1", "消息2", "消息3", "消息4", "消息5"),
+                    messages.stream().map(Message::getText).toList());
+        }
+    }
+
+    @Test
+    void tokenBudgetServedFromWindowOrReadThrough() {
+        FileBasedChatMemory fileMemory = new FileBasedChatMemory(tempDir.toString());
+        try (CachedChatMemory chatMemory = new CachedChatMemory(fileMemory, 10, 3, 60_000, 600_000)) {
+            List<Message> history = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                history.add(new UserMessage("消息" + i));
+            }
+            chatMemory.add("chat-4", history);
+            int perMessage = MessageTokenCounter.count(history.get(0));
+            // 两条的预算在窗口内就能确定
+            assertEquals(history.subList(4, 6), chatMemory.getWithinTokenBudget("chat-4", perMessage * 2));
+            assertEquals(1, chatMemory.getStats().hits());
+            // 超出窗口的预算需要落盘后读底层存储
+            assertEquals(history, chatMemory.getWithinTokenBudget("chat-4", perMessage * 100));
+            assertEquals(1, chatMemory.getStats().misses());
+        }
+    }
+
+    @Test
+    void janitorSeesCacheHitsAndDropsPendingWritesOfExpiredConversations() {
+        try (FileBasedChatMemory fileMemory = new FileBasedChatMemory(tempDir.toString())) {
+            fileMemory.add("chat-active", new UserMessage("你好"));
+            fileMemory.add("chat-idle", new UserMessage("你好"));
+        }
+        long twoDaysAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2);
+        for (String chatId : List.of("chat-active", "chat-idle")) {
+            for (File file : conversationFiles(chatId)) {
+                assertTrue(file.setLastModified(twoDaysAgo));
+            }
+        }
+        try (FileBasedChatMemory fileMemory = new FileBasedChatMemory(tempDir.toString());
+             CachedChatMemory chatMemory = new CachedChatMemory(fileMemory, 10, 20, 600_000, 600_000)) {
+            // 开启清理之前载入缓存，底层存储没有这两个会话的访问记录
+            assertEquals(1, chatMemory.get("chat-active", 10).size());
+            chatMemory.add("chat-idle", new UserMessage("还在吗"));
+            ChatMemoryJanitor janitor = fileMemory.startJanitor(TimeUnit.DAYS.toMillis(1), TimeUnit.HOURS.toMillis(1), 100);
+            chatMemory.onAccess(fileMemory::touch);
+            janitor.onExpired(conversationId -> chatMemory.discardExpired(conversationId, fileMemory::wasAccessedAfterExpiry));
+            // 只命中缓存的读取也刷新底层存储的访问时间
+            assertEquals(1, chatMemory.get("chat-active", 10).size());
+            assertEquals(1, chatMemory.getStats().hits());
+            while (janitor.getStats().sweeps() == 0) {
+                janitor.tick();
+            }
+            assertEquals(1, janitor.getStats().expiredConversations());
+            // 过期会话未写入的消息被丢弃，关闭缓存时不会重新生成文件
+            assertEquals(0, chatMemory.getStats().pendingMessages());
+            chatMemory.flushAll();
+            assertEquals(0, conversationFiles("chat-idle").length);
+            assertEquals(1, fileMemory.get("chat-active", 10).size());
+        }
+    }
+
+    @Test
+    void failedFlushKeepsMessagesPendingAndRetries() throws Exception {
+        AtomicInteger failures = new AtomicInteger(1);
+        FileBasedChatMemory fileMemory = new FileBasedChatMemory(tempDir.toString()) {
+            @Override
+            public void addWithTokenCounts(String conversationId, List<TokenCountedMessage> messages) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new UncheckedIOException(new IOException("磁盘已满"));
+                }
+                super.addWithTokenCounts(conversationId, messages);
+            }
+        };
+        try (CachedChatMemory chatMemory = new CachedChatMemory(fileMemory, 10, 20, 100, 600_000)) {
+            chatMemory.add("chat-a", new UserMessage("你好"));
+            chatMemory.add("chat-b", new UserMessage("最近睡眠不好"));
+            long deadline = System.currentTimeMillis() + 3000;
+            while (chatMemory.getStats().pendingMessages() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            // 第一次写盘失败的会话在之后的检查中重试，另一个会话不受影响
+            assertTrue(failures.get() < 0);
+            assertEquals(0, chatMemory.getStats().pendingMessages());
+            assertEquals("你好", fileMemory.get("chat-a", 10).get(0).getText());
+            assertEquals("最近睡眠不好", fileMemory.get("chat-b", 10).get(0).getText());
+        }
+    }
+
+    private File[] conversationFiles(String chatId) {
+        String hash = DigestUtil.md5Hex(chatId);
+        File dir = tempDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).toFile();
+        File[] files = dir.listFiles((d, name) -> name.startsWith(chatId + "."));
+        return files == null ? new File[0] : files;
+    }
+}
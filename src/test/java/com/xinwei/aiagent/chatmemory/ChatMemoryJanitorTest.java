@@ -0,0 +1,75 @@
+package com.xinwei.aiagent.chatmemory;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatMemoryJanitorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private File conversationDir(String chatId) {
+        String hash = DigestUtil.md5Hex(chatId);
+        return tempDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).toFile();
+    }
+
+    @Test
+    void expiresIdleConversationsAndReportsReclaimedBytes() {
+        try (FileBasedChatMemory chatMemory = new FileBasedChatMemory(tempDir.toString())) {
+            for (int i = 0; i < 10; i++) {
+                chatMemory.add("chat-" + i, new UserMessage("消息" + i));
+            }
+        }
+        // 前 6 个会话的文件改成两天前写入
+        long twoDaysAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2);
+        long expectedBytes = 0;
+        for (int i = 0; i < 6; i++) {
+            String prefix = "chat-" + i + ".";
+            File[] files = conversationDir("chat-" + i).listFiles((dir, name) -> name.startsWith(prefix));
+            for (File file : files) {
+                expectedBytes += file.length();
+                assertTrue(file.setLastModified(twoDaysAgo));
+            }
+        }
+        try (FileBasedChatMemory chatMemory = new FileBasedChatMemory(tempDir.toString())) {
+            // 由测试手动驱动清理，每次最多检查 2 个会话
+            ChatMemoryJanitor janitor = chatMemory.startJanitor(TimeUnit.DAYS.toMillis(1), TimeUnit.HOURS.toMillis(1), 2);
+            List<String> expired = new ArrayList<>();
+            janitor.onExpired(expired::add);
+            // 文件很旧但刚被读过的会话不会过期
+            assertEquals(1, chatMemory.get("chat-0", 10).size());
+            int ticks = 0;
+            while (janitor.getStats().sweeps() == 0) {
+                janitor.tick();
+                ticks++;
+            }
+            assertTrue(ticks > 1);
+            ChatMemoryJanitor.Stats stats = janitor.getStats();
+            assertEquals(10, stats.scannedConversations());
+            assertEquals(5, stats.expiredConversations());
+            assertEquals(5, expired.size());
+            assertFalse(expired.contains("chat-0"));
+            long chat0Bytes = 0;
+            for (File file : conversationDir("chat-0").listFiles((dir, name) -> name.startsWith("chat-0."))) {
+                chat0Bytes += file.length();
+            }
+            assertEquals(expectedBytes - chat0Bytes, stats.reclaimedBytes());
+            for (int i = 1; i < 6; i++) {
+                assertTrue(chatMemory.get("chat-" + i, 10).isEmpty());
+            }
+            for (int i = 6; i < 10; i++) {
+                assertEquals("消息" + i, chatMemory.get("chat-" + i, 10).get(0).getText());
+            }
+        }
+    }
+}
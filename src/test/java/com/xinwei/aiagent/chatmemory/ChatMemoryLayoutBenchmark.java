@@ -0,0 +1,77 @@
+package com.xinwei.aiagent.chatmemory;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分级目录下会话创建和查找延迟的基准测试
+ *
+ * 预置 1 万、10 万、100 万个会话后分别测量：新建会话（首次 add）和随机查找已有会话（get 最后 10 条）。
+ * 每个 trial 在新的临时目录中预置数据，结束后删除，create 在上一个 trial 中新建的会话不会影响下一个 trial；
+ * 100 万规模的预置需要较长时间。
+ * 运行方式：直接执行 main 方法，或 java -cp ... org.openjdk.jmh.Main ChatMemoryLayoutBenchmark -p conversations=10000
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class ChatMemoryLayoutBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    private int conversations;
+
+    private Path dir;
+
+    private FileBasedChatMemory chatMemory;
+
+    private final AtomicLong created = new AtomicLong();
+
+    private final List<Message> message = List.of(new UserMessage("我最近经常失眠，想了解如何改善睡眠质量"));
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("chat-memory-bench-" + conversations);
+        chatMemory = new FileBasedChatMemory(dir.toString());
+        for (int i = 0; i < conversations; i++) {
+            chatMemory.add("conv-" + i, message);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        chatMemory.close();
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void create() {
+        chatMemory.add("new-" + System.nanoTime() + "-" + created.incrementAndGet(), message);
+    }
+
+    @Benchmark
+    public List<Message> lookup() {
+        return chatMemory.get("conv-" + ThreadLocalRandom.current().nextInt(conversations), 10);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ChatMemoryLayoutBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,105 @@
+package com.xinwei.aiagent.chatmemory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileBasedChatMemory（Kryo）与 MappedChatMemory（紧凑编码 + 内存映射）的对比基准测试
+ *
+ * 预置 1000 个会话、每个 20 条消息，测量单条消息写入吞吐和 get 最后 10 条的读取吞吐；
+ * 每条消息的编码大小在初始化时打印。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class ChatMemoryStoreBenchmark {
+
+    private static final int CONVERSATIONS = 1000;
+
+    @Param({"kryo", "mapped"})
+    private String store;
+
+    private Path dir;
+
+    private ChatMemory chatMemory;
+
+    private final Message userMessage = new UserMessage("我最近经常失眠，晚上很难入睡，早上又很早醒来，想了解如何改善睡眠质量");
+
+    private final Message assistantMessage = new AssistantMessage(
+            "改善睡眠可以从以下几个方面入手：1. 固定作息时间；2. 睡前一小时远离电子屏幕；3. 控制咖啡因摄入；4. 适量运动。",
+            Map.of("model", "qwen-plus"));
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("chat-memory-store-bench");
+        chatMemory = switch (store) {
+            // 两种实现都能让全部会话保持打开
+            case "mapped" -> new MappedChatMemory(dir.toString(), CONVERSATIONS, false);
+            default -> new FileBasedChatMemory(dir.toString(), 256 * 1024, false, CONVERSATIONS * 4);
+        };
+        for (int c = 0; c < CONVERSATIONS; c++) {
+            for (int i = 0; i < 10; i++) {
+                chatMemory.add("conv-" + c, List.of(userMessage, assistantMessage));
+            }
+        }
+        System.out.printf("%n[%s] 编码大小：用户消息 %d 字节，助手消息 %d 字节%n", store,
+                encodedSize(userMessage), encodedSize(assistantMessage));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ((AutoCloseable) chatMemory).close();
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void write() {
+        chatMemory.add("conv-" + ThreadLocalRandom.current().nextInt(CONVERSATIONS), userMessage);
+    }
+
+    @Benchmark
+    public List<Message> read() {
+        return chatMemory.get("conv-" + ThreadLocalRandom.current().nextInt(CONVERSATIONS), 10);
+    }
+
+    private int encodedSize(Message message) {
+        if ("mapped".equals(store)) {
+            return MessageCodec.encode(message).length;
+        }
+        // 与 FileBasedChatMemory 相同的 Kryo 配置
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        Output output = new Output(256, -1);
+        kryo.writeClassAndObject(output, message);
+        return output.toBytes().length;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ChatMemoryStoreBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
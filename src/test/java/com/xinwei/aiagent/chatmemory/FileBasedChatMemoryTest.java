@@ -0,0 +1,289 @@
+package com.xinwei.aiagent.chatmemory;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileBasedChatMemoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final List<FileBasedChatMemory> opened = new ArrayList<>();
+
+    private FileBasedChatMemory track(FileBasedChatMemory chatMemory) {
+        opened.add(chatMemory);
+        return chatMemory;
+    }
+
+    @AfterEach
+    void closeAll() {
+        opened.forEach(FileBasedChatMemory::close);
+    }
+
+    private File conversationFile(String chatId, String suffix) {
+        String hash = DigestUtil.md5Hex(chatId);
+        return tempDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(chatId + suffix).toFile();
+    }
+
+    @Test
+    void addAndGet() {
+        FileBasedChatMemory chatMemory = track(new FileBasedChatMemory(tempDir.toString()));
+        String chatId = "chat-1";
+        chatMemory.add(chatId, List.of(new UserMessage("你好"), new AssistantMessage("你好，我是你的健康顾问")));
+        chatMemory.add(chatId, new UserMessage("如何预防颈椎病"));
+        List<Message> messages = chatMemory.get(chatId, 10);
+        assertEquals(3, messages.size());
+        assertEquals("你好", messages.get(0).getText());
+        assertEquals("如何预防颈椎病", messages.get(2).getText());
+        List<Message> lastTwo = chatMemory.get(chatId, 2);
+        assertEquals(2, lastTwo.size());
+        assertEquals("你好，我是你的健康顾问", lastTwo.get(0).getText());
+    }
+
+    @Test
+    void compactKeepsAllMessages() {
+        // 阈值为 1 字节，每次追加后都会压缩
+        FileBasedChatMemory chatMemory = track(new FileBasedChatMemory(tempDir.toString(), 1, false));
+        String chatId = "chat-2";
+        for (int i = 0; i < 20; i++) {
+            chatMemory.add(chatId, new UserMessage("消息" + i));
+        }
+        List<Message> messages = chatMemory.get(chatId, 100);
+        assertEquals(20, messages.size());
+        assertEquals("消息19", messages.get(19).getText());
+        assertFalse(conversationFile(chatId, ".log").exists());
+        assertTrue(conversationFile(chatId, ".snapshot").exists());
+    }
+
+    @Test
+    void getLastNAcrossSnapshotAndLog() throws Exception {
+        FileBasedChatMemory chatMemory = track(new FileBasedChatMemory(tempDir.toString()));
+        String chatId = "chat-4";
+        for (int i = 0; i < 5; i++) {
+            chatMemory.add(chatId, new UserMessage("快照" + i));
+        }
+        chatMemory.compact(chatId);
+        for (int i = 0; i < 3; i++) {
+            chatMemory.add(chatId, new UserMessage("日志" + i));
+        }
+        List<Message> messages = chatMemory.get(chatId, 5);
+        assertEquals(List.of("快照3", "快照4", "日志0", "日志1", "日志2"),
+                messages.stream().map(Message::getText).toList());
+    }
+
+    @Test
+    void getWithinTokenBudgetAcrossSnapshotAndLog() throws Exception {
+        FileBasedChatMemory chatMemory = track(new FileBasedChatMemory(tempDir.toString()));
+        String chatId = "chat-6";
+        List<Message> history = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            history.add(new UserMessage("第" + i + "条：" + "颈椎保健".repeat(i + 1)));
+        }
+        chatMemory.add(chatId, history.subList(0, 5));
+        chatMemory.compact(chatId);
+        chatMemory.add(chatId, history.subList(5, 8));
+        // 预算恰好容纳最后 5 条，第 6 条差 1 个 token 放不下
+        int budget = history.subList(3, 8).stream().mapToInt(MessageTokenCounter::count).sum();
+        budget += MessageTokenCounter.count(history.get(2)) - 1;
+        assertEquals(history.subList(3, 8), chatMemory.getWithinTokenBudget(chatId, budget));
+        assertEquals(MessageTokenCounter.count(history.get(7)), chatMemory.getWithTokenCounts(chatId, 1).get(0).tokens());
+        // 最后一条消息本身超出预算时不返回任何历史
+        assertTrue(chatMemory.getWithinTokenBudget(chatId, MessageTokenCounter.count(history.get(7)) - 1).isEmpty());
+        // 索引丢失后重建，token 数随之恢复
+        chatMemory.close();
+        conversationFile(chatId, ".snapshot.idx").delete();
+        conversationFile(chatId, ".log.idx").delete();
+        FileBasedChatMemory reopened = track(new FileBasedChatMemory(tempDir.toString()));
+        assertEquals(history.subList(3, 8), reopened.getWithinTokenBudget(chatId, budget));
+    }
+
+    /**
+     * 模拟压缩在新快照落地之后、日志段删除之前崩溃：快照文件头记着已合并的日志段长度，日志段仍在
+     */
+    private void simulateCrashBeforeLogDeleted(String chatId, File savedLog, File savedLogIndex, long coveredLogBytes) throws Exception {
+        Files.copy(savedLog.toPath(), conversationFile(chatId, ".log").toPath());
+        Files.copy(savedLogIndex.toPath(), conversationFile(chatId, ".log.idx").toPath());
+        try (FileChannelPool pool = new FileChannelPool(4)) {
+            new ChatMemorySegment(conversationFile(chatId, ".snapshot"), pool, record -> 0, true)
+                    .setCoveredLogBytes(coveredLogBytes, false);
+        }
+    }
+
+    @Test
+    void crashBetweenSnapshotAndLogDeletionDoesNotDuplicate() throws Exception {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(tempDir.toString());
+        String chatId = "chat-7";
+        chatMemory.add(chatId, List.of(new UserMessage("快照0"), new UserMessage("快照1")));
+        chatMemory.compact(chatId);
+        chatMemory.add(chatId, List.of(new UserMessage("日志0"), new UserMessage("日志1")));
+        // 放在子目录里，避免被当作平铺目录下的会话文件迁移
+        Path savedDir = Files.createDirectories(tempDir.resolve("saved"));
+        File savedLog = savedDir.resolve("chat.log").toFile();
+        File savedLogIndex = savedDir.resolve("chat.log.idx").toFile();
+        Files.copy(conversationFile(chatId, ".log").toPath(), savedLog.toPath());
+        Files.copy(conversationFile(chatId, ".log.idx").toPath(), savedLogIndex.toPath());
+        chatMemory.compact(chatId);
+        chatMemory.close();
+        simulateCrashBeforeLogDeleted(chatId, savedLog, savedLogIndex, savedLog.length());
+
+        FileBasedChatMemory reopened = track(new FileBasedChatMemory(tempDir.toString()));
+        assertEquals(List.of("快照0", "快照1", "日志0", "日志1"),
+                reopened.get(chatId, 10).stream().map(Message::getText).toList());
+        assertFalse(conversationFile(chatId, ".log").exists());
+        reopened.add(chatId, new UserMessage("日志2"));
+        reopened.close();
+        // 恢复之后追加的日志段不受旧文件头影响
+        FileBasedChatMemory again = track(new FileBasedChatMemory(tempDir.toString()));
+        assertEquals(List.of("快照0", "快照1", "日志0", "日志1", "日志2"),
+                again.get(chatId, 10).stream().map(Message::getText).toList());
+    }
+
+    @Test
+    void crashBeforeCoveredLogBytesClearedKeepsNewMessages() throws Exception {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(tempDir.toString());
+        String chatId = "chat-8";
+        chatMemory.add(chatId, List.of(new UserMessage("快照0"), new UserMessage("快照1")));
+        chatMemory.compact(chatId);
+        chatMemory.close();
+        // 日志段已删除、文件头还没清零时崩溃
+        try (FileChannelPool pool = new FileChannelPool(4)) {
+            new ChatMemorySegment(conversationFile(chatId, ".snapshot"), pool, record -> 0, true)
+                    .setCoveredLogBytes(1 << 20, false);
+        }
+        FileBasedChatMemory reopened = new FileBasedChatMemory(tempDir.toString());
+        reopened.add(chatId, new UserMessage("日志0"));
+        reopened.close();
+        FileBasedChatMemory again = track(new FileBasedChatMemory(tempDir.toString()));
+        assertEquals(List.of("快照0", "快照1", "日志0"),
+                again.get(chatId, 10).stream().map(Message::getText).toList());
+    }
+
+    @Test
+    void failedWriteIsReportedToCaller() throws Exception {
+        FileBasedChatMemory chatMemory = track(new FileBasedChatMemory(tempDir.toString()));
+        String chatId = "chat-9";
+        // 会话目录的位置被一个普通文件占用，无法创建段文件
+        File conversationDir = conversationFile(chatId, ".log").getParentFile();
+        Files.createDirectories(conversationDir.getParentFile().toPath());
+        Files.createFile(conversationDir.toPath());
+        assertThrows(UncheckedIOException.class, () -> chatMemory.add(chatId, new UserMessage("你好")));
+    }
+
+    @Test
+    void rebuildIndexAndTruncateTornTail() throws Exception {
+        FileBasedChatMemory chatMemory = track(new FileBasedChatMemory(tempDir.toString()));
+        String chatId = "chat-5";
+        chatMemory.add(chatId, List.of(new UserMessage("第一条"), new UserMessage("第二条")));
+        File logFile = conversationFile(chatId, ".log");
+        // 模拟索引丢失以及写入中途崩溃留下的半条记录
+        chatMemory.close();
+        conversationFile(chatId, ".log.idx").delete();
+        Files.write(logFile.toPath(), new byte[]{0, 0, 0, 100, 1, 2}, StandardOpenOption.APPEND);
+        chatMemory.add(chatId, new UserMessage("第三条"));
+        assertEquals(List.of("第一条", "第二条", "第三条"),
+                chatMemory.get(chatId, 10).stream().map(Message::getText).toList());
+    }
+
+    @Test
+    void concurrentAddsAreNotLostOrCorrupted() throws Exception {
+        // 较小的压缩阈值，让压缩和追加、读取交织在一起
+        FileBasedChatMemory chatMemory = track(new FileBasedChatMemory(tempDir.toString(), 4 * 1024, false, 64));
+        int conversations = 200;
+        int writersPerConversation = 4;
+        int messagesPerWriter = 5;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int c = 0; c < conversations; c++) {
+            for (int w = 0; w < writersPerConversation; w++) {
+                String chatId = "stress-" + c;
+                String writer = "w" + w;
+                tasks.add(() -> {
+                    for (int i = 0; i < messagesPerWriter; i++) {
+                        chatMemory.add(chatId, new UserMessage(writer + "-" + i));
+                        chatMemory.get(chatId, 10);
+                    }
+                    return null;
+                });
+            }
+        }
+        Collections.shuffle(tasks, new Random(42));
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (int c = 0; c < conversations; c++) {
+            List<String> texts = chatMemory.get("stress-" + c, 1000).stream().map(Message::getText).toList();
+            assertEquals(writersPerConversation * messagesPerWriter, texts.size());
+            // 每个写线程自己的消息必须完整且保持顺序
+            for (int w = 0; w < writersPerConversation; w++) {
+                String prefix = "w" + w + "-";
+                List<String> own = texts.stream().filter(text -> text.startsWith(prefix)).toList();
+                assertEquals(IntStream.range(0, messagesPerWriter).mapToObj(i -> prefix + i).toList(), own);
+            }
+        }
+    }
+
+    @Test
+    void migrateFlatLayout() throws Exception {
+        // 旧版：平铺在根目录下、整体序列化的 {conversationId}.kryo
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        for (int c = 0; c < 3; c++) {
+            try (Output output = new Output(new FileOutputStream(new File(tempDir.toFile(), "old-" + c + ".kryo")))) {
+                kryo.writeObject(output, new ArrayList<>(List.of(new UserMessage("旧消息" + c))));
+            }
+        }
+        FileBasedChatMemory chatMemory = track(new FileBasedChatMemory(tempDir.toString()));
+        // 迁移完成前访问的会话当场迁移
+        assertEquals("旧消息0", chatMemory.get("old-0", 10).get(0).getText());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!new File(tempDir.toFile(), ".sharded").exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(new File(tempDir.toFile(), ".sharded").exists());
+        for (int c = 0; c < 3; c++) {
+            assertFalse(new File(tempDir.toFile(), "old-" + c + ".kryo").exists());
+            assertEquals("旧消息" + c, chatMemory.get("old-" + c, 10).get(0).getText());
+        }
+        chatMemory.close();
+    }
+
+    @Test
+    void clear() {
+        FileBasedChatMemory chatMemory = track(new FileBasedChatMemory(tempDir.toString()));
+        String chatId = "chat-3";
+        chatMemory.add(chatId, new UserMessage("你好"));
+        chatMemory.clear(chatId);
+        assertTrue(chatMemory.get(chatId, 10).isEmpty());
+    }
+}
@@ -0,0 +1,188 @@
+package com.xinwei.aiagent.chatmemory;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 使用 H2 的 PostgreSQL 兼容模式
+ */
+class JdbcChatMemoryTest {
+
+    private HikariDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+        dataSource.setMaximumPoolSize(8);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.close();
+    }
+
+    @Test
+    void addGetAndKeysetTokenBudget() {
+        try (JdbcChatMemory chatMemory = new JdbcChatMemory(jdbcTemplate, false, true)) {
+            AssistantMessage toolCall = new AssistantMessage("", Map.of(),
+                    List.of(new AssistantMessage.ToolCall("call-1", "function", "searchWeb", "{\"query\":\"失眠\"}")));
+            ToolResponseMessage toolResponse = new ToolResponseMessage(
+                    List.of(new ToolResponseMessage.ToolResponse("call-1", "searchWeb", "规律作息")));
+            chatMemory.add("chat-1", List.of(new UserMessage("你好"), toolCall, toolResponse));
+            assertEquals(List.of(toolCall, toolResponse), chatMemory.get("chat-1", 2));
+            assertEquals(3, chatMemory.get("chat-1", 10).size());
+
+            // 跨多页的 token 预算：150 条消息，预算恰好容纳最后 100 条
+            List<Message> history = new ArrayList<>();
+            for (int i = 0; i < 150; i++) {
+                history.add(new UserMessage("第" + i + "条消息"));
+            }
+            chatMemory.add("chat-2", history);
+            int budget = history.subList(50, 150).stream().mapToInt(MessageTokenCounter::count).sum();
+            assertEquals(history.subList(50, 150), chatMemory.getWithinTokenBudget("chat-2", budget));
+            // 每次 add 一个事务，150 行由一条多行 INSERT 写入
+            assertEquals(2, chatMemory.getStats().transactions());
+
+            chatMemory.clear("chat-1");
+            assertTrue(chatMemory.get("chat-1", 10).isEmpty());
+            assertEquals(150, chatMemory.get("chat-2", 1000).size());
+        }
+        Integer indexes = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES "
+                + "WHERE UPPER(INDEX_NAME) = 'IDX_CHAT_MEMORY_MESSAGE_CONVERSATION_SEQ'", Integer.class);
+        assertEquals(1, indexes);
+    }
+
+    @Test
+    void groupCommitCoalescesConcurrentAdds() throws Exception {
+        int conversations = 8;
+        int writersPerConversation = 4;
+        int messagesPerWriter = 20;
+        try (JdbcChatMemory chatMemory = new JdbcChatMemory(jdbcTemplate, true, true)) {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int c = 0; c < conversations; c++) {
+                for (int w = 0; w < writersPerConversation; w++) {
+                    String chatId = "group-" + c;
+                    String writer = "w" + w;
+                    tasks.add(() -> {
+                        for (int i = 0; i < messagesPerWriter; i++) {
+                            chatMemory.add(chatId, new UserMessage(writer + "-" + i));
+                        }
+                        return null;
+                    });
+                }
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(conversations * writersPerConversation);
+            try {
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+            for (int c = 0; c < conversations; c++) {
+                List<String> texts = chatMemory.get("group-" + c, 1000).stream().map(Message::getText).toList();
+                assertEquals(writersPerConversation * messagesPerWriter, texts.size());
+                // add 返回时已提交，每个写线程自己的消息保持顺序
+                for (int w = 0; w < writersPerConversation; w++) {
+                    String prefix = "w" + w + "-";
+                    assertEquals(IntStream.range(0, messagesPerWriter).mapToObj(i -> prefix + i).toList(),
+                            texts.stream().filter(text -> text.startsWith(prefix)).toList());
+                }
+            }
+            JdbcChatMemory.Stats stats = chatMemory.getStats();
+            assertEquals(conversations * writersPerConversation * messagesPerWriter, stats.writes());
+            assertTrue(stats.transactions() < stats.writes());
+        }
+    }
+
+    @Test
+    void failedWriteInGroupDoesNotLoseOtherConversations() throws Exception {
+        // 第一次写库时阻塞提交线程，让后面的写入排队进入同一组
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean blockNext = new AtomicBoolean(false);
+        JdbcTemplate blocking = new JdbcTemplate(dataSource) {
+            @Override
+            public <T> T execute(ConnectionCallback<T> action) throws DataAccessException {
+                if (blockNext.compareAndSet(true, false)) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.execute(action);
+            }
+        };
+        String tooLong = "x".repeat(300);
+        try (JdbcChatMemory chatMemory = new JdbcChatMemory(blocking, true, true)) {
+            blockNext.set(true);
+            ExecutorService executor = Executors.newFixedThreadPool(6);
+            try {
+                Future<?> first = executor.submit(() -> chatMemory.add("first", new UserMessage("0")));
+                while (blockNext.get()) {
+                    Thread.sleep(5);
+                }
+                List<Future<?>> good = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    String chatId = "good-" + i;
+                    good.add(executor.submit(() -> chatMemory.add(chatId, new UserMessage("hello"))));
+                }
+                Future<?> bad = executor.submit(() -> chatMemory.add(tooLong, new UserMessage("bad")));
+                // 等所有写入都在排队
+                Thread.sleep(200);
+                release.countDown();
+
+                first.get(5, TimeUnit.SECONDS);
+                for (Future<?> future : good) {
+                    future.get(5, TimeUnit.SECONDS);
+                }
+                Exception failure = assertThrows(Exception.class, () -> bad.get(5, TimeUnit.SECONDS));
+                assertInstanceOf(DataAccessException.class, failure.getCause());
+            } finally {
+                executor.shutdown();
+            }
+            for (int i = 0; i < 4; i++) {
+                assertEquals(List.of(new UserMessage("hello")), chatMemory.get("good-" + i, 10));
+            }
+            assertEquals(List.of(new UserMessage("0")), chatMemory.get("first", 10));
+            assertEquals(5, chatMemory.getStats().writes());
+        }
+    }
+
+    @Test
+    void failedWriteIsReportedToCaller() {
+        try (JdbcChatMemory chatMemory = new JdbcChatMemory(jdbcTemplate, false, true)) {
+            assertThrows(DataAccessException.class,
+                    () -> chatMemory.add("x".repeat(300), new UserMessage("bad")));
+            chatMemory.add("ok", new UserMessage("hello"));
+            assertEquals(1, chatMemory.get("ok", 10).size());
+        }
+    }
+}
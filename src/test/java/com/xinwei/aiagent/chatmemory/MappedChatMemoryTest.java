@@ -0,0 +1,83 @@
+package com.xinwei.aiagent.chatmemory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedChatMemoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void codecRoundTrip() {
+        AssistantMessage assistantMessage = new AssistantMessage("我来帮你搜索", Map.of("model", "qwen-plus", "tokens", 12L),
+                List.of(new AssistantMessage.ToolCall("call-1", "function", "searchWeb", "{\"query\":\"颈椎病\"}")));
+        ToolResponseMessage toolResponseMessage = new ToolResponseMessage(
+                List.of(new ToolResponseMessage.ToolResponse("call-1", "searchWeb", "结果")));
+        for (Message message : List.of(new UserMessage("你好"), assistantMessage, new SystemMessage("系统提示"), toolResponseMessage)) {
+            assertEquals(message, MessageCodec.decode(MessageCodec.encode(message)));
+        }
+    }
+
+    @Test
+    void persistsAcrossReopen() {
+        try (MappedChatMemory chatMemory = new MappedChatMemory(tempDir.toString(), 16, false)) {
+            chatMemory.add("chat-1", List.of(new UserMessage("你好"), new AssistantMessage("你好，我是你的健康顾问")));
+            chatMemory.add("chat-1", new UserMessage("如何预防颈椎病"));
+        }
+        try (MappedChatMemory chatMemory = new MappedChatMemory(tempDir.toString(), 16, false)) {
+            assertEquals(List.of("你好，我是你的健康顾问", "如何预防颈椎病"),
+                    chatMemory.get("chat-1", 2).stream().map(Message::getText).toList());
+            assertEquals(3, chatMemory.get("chat-1", 10).size());
+            assertTrue(chatMemory.get("missing", 10).isEmpty());
+        }
+    }
+
+    @Test
+    void growsMappingAndEvictsConversations() {
+        String longText = "长".repeat(10_000);
+        try (MappedChatMemory chatMemory = new MappedChatMemory(tempDir.toString(), 2, false)) {
+            for (int c = 0; c < 5; c++) {
+                for (int i = 0; i < 10; i++) {
+                    chatMemory.add("chat-" + c, new UserMessage(i + longText));
+                }
+            }
+            for (int c = 0; c < 5; c++) {
+                List<Message> messages = chatMemory.get("chat-" + c, 100);
+                assertEquals(10, messages.size());
+                assertEquals(9 + longText, messages.get(9).getText());
+            }
+            chatMemory.clear("chat-0");
+            assertTrue(chatMemory.get("chat-0", 10).isEmpty());
+        }
+    }
+
+    @Test
+    void tokenBudgetSurvivesReopen() {
+        List<Message> history = List.of(new UserMessage("你好"), new AssistantMessage("你好，我是你的健康顾问"),
+                new UserMessage("最近总是失眠，怎么调整作息"));
+        List<Integer> tokens = history.stream().map(MessageTokenCounter::count).toList();
+        try (MappedChatMemory chatMemory = new MappedChatMemory(tempDir.toString(), 16, false)) {
+            chatMemory.add("chat-budget", history);
+        }
+        // 重新打开后 token 数从记录头恢复，不重新分词
+        try (MappedChatMemory chatMemory = new MappedChatMemory(tempDir.toString(), 16, false)) {
+            assertEquals(history, chatMemory.get("chat-budget", 10));
+            assertEquals(tokens, chatMemory.getWithTokenCounts("chat-budget", 10).stream().map(TokenCountedMessage::tokens).toList());
+            assertEquals(history.subList(1, 3), chatMemory.getWithinTokenBudget("chat-budget", tokens.get(1) + tokens.get(2)));
+            chatMemory.add("chat-budget", new UserMessage("谢谢"));
+            assertEquals(4, chatMemory.get("chat-budget", 10).size());
+        }
+    }
+}
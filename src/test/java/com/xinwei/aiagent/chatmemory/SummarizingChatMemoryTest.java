@@ -0,0 +1,98 @@
+package com.xinwei.aiagent.chatmemory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SummarizingChatMemoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final String TURN = "最近总是失眠，晚上躺下很久才能睡着，白天注意力也不集中";
+
+    @Test
+    void foldsOlderTurnsWithoutBlockingRequests() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> prompts = new CopyOnWriteArrayList<>();
+        // 本地假模型：等待放行后返回固定摘要
+        ChatModel fakeChatModel = prompt -> {
+            prompts.add(prompt.getContents());
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ChatResponse(List.of(new Generation(new AssistantMessage("用户长期失眠，已建议规律作息"))));
+        };
+        int perMessage = MessageTokenCounter.count(new UserMessage(TURN + 0));
+        FileBasedChatMemory fileMemory = new FileBasedChatMemory(tempDir.toString());
+        try (SummarizingChatMemory chatMemory = new SummarizingChatMemory(fileMemory,
+                new ChatModelConversationSummarizer(fakeChatModel), perMessage * 10, perMessage * 4, 1)) {
+            for (int i = 0; i < 12; i++) {
+                chatMemory.add("chat-1", new UserMessage(TURN + i));
+            }
+            // 摘要还在等待模型返回，读写照常进行
+            assertEquals(12, chatMemory.get("chat-1", 100).size());
+            chatMemory.add("chat-1", new UserMessage(TURN + 12));
+            release.countDown();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (chatMemory.getStats().summaries() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, chatMemory.getStats().summaries());
+            List<Message> history = chatMemory.get("chat-1", 100);
+            assertTrue(SummarizingChatMemory.isSummary(history.get(0)));
+            assertTrue(history.get(0).getText().contains("用户长期失眠"));
+            // 摘要期间追加的第 13 条消息没有丢
+            assertEquals(TURN + 12, history.get(history.size() - 1).getText());
+            // 摘要 + 最多 4 条保留的原文 + 检查之后才追加的消息
+            assertTrue(history.size() <= 7);
+            assertTrue(history.stream().noneMatch(message -> message.getText().equals(TURN + 0)));
+            assertTrue(prompts.get(0).contains(TURN + 0));
+        }
+    }
+
+    @Test
+    void discardsSummaryWhenConversationIsClearedMeanwhile() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ChatModel fakeChatModel = prompt -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ChatResponse(List.of(new Generation(new AssistantMessage("摘要"))));
+        };
+        int perMessage = MessageTokenCounter.count(new UserMessage(TURN + 0));
+        FileBasedChatMemory fileMemory = new FileBasedChatMemory(tempDir.toString());
+        try (SummarizingChatMemory chatMemory = new SummarizingChatMemory(fileMemory,
+                new ChatModelConversationSummarizer(fakeChatModel), perMessage * 4, perMessage, 1)) {
+            for (int i = 0; i < 6; i++) {
+                chatMemory.add("chat-2", new UserMessage(TURN + i));
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            chatMemory.clear("chat-2");
+            chatMemory.add("chat-2", new UserMessage("重新开始"));
+            release.countDown();
+            Thread.sleep(200);
+            assertEquals(List.of("重新开始"), chatMemory.get("chat-2", 100).stream().map(Message::getText).toList());
+            assertEquals(0, chatMemory.getStats().summaries());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.xinwei.aiagent.config;
+
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TenantResolverTest {
+
+    private static Cookie issuedCookie(MockHttpServletResponse response) {
+        String header = response.getHeader(HttpHeaders.SET_COOKIE);
+        assertNotNull(header);
+        assertTrue(header.contains("HttpOnly"));
+        String value = header.substring(header.indexOf('=') + 1, header.indexOf(';'));
+        return new Cookie(TenantResolver.COOKIE, value);
+    }
+
+    @Test
+    void issuesSignedCookieAndIgnoresAddressAndClientHeaders() {
+        TenantResolver resolver = new TenantResolver("secret", "", false);
+
+        // 代理之后所有用户地址相同，客户端自带的 X-User-Id 也不被采用
+        MockHttpServletRequest first = new MockHttpServletRequest();
+        first.setRemoteAddr("10.0.0.1");
+        first.addHeader("X-User-Id", "alice");
+        MockHttpServletResponse firstResponse = new MockHttpServletResponse();
+        String alice = resolver.resolve(first, firstResponse);
+        Cookie aliceCookie = issuedCookie(firstResponse);
+
+        MockHttpServletRequest second = new MockHttpServletRequest();
+        second.setRemoteAddr("10.0.0.1");
+        MockHttpServletResponse secondResponse = new MockHttpServletResponse();
+        String bob = resolver.resolve(second, secondResponse);
+        assertNotEquals(alice, bob);
+        assertNotEquals("alice", alice);
+
+        // 带回签发的 Cookie 是同一租户，不再签发
+        MockHttpServletRequest again = new MockHttpServletRequest();
+        again.setCookies(aliceCookie);
+        MockHttpServletResponse againResponse = new MockHttpServletResponse();
+        assertEquals(alice, resolver.resolve(again, againResponse));
+        assertNull(againResponse.getHeader(HttpHeaders.SET_COOKIE));
+
+        // 伪造的租户 ID 或其他密钥签发的 Cookie 无效，重新签发
+        MockHttpServletRequest forged = new MockHttpServletRequest();
+        forged.setCookies(new Cookie(TenantResolver.COOKIE, bob + ".0000"));
+        MockHttpServletResponse forgedResponse = new MockHttpServletResponse();
+        assertNotEquals(bob, resolver.resolve(forged, forgedResponse));
+        assertNotNull(forgedResponse.getHeader(HttpHeaders.SET_COOKIE));
+        MockHttpServletRequest otherKey = new MockHttpServletRequest();
+        otherKey.setCookies(aliceCookie);
+        assertNotEquals(alice, new TenantResolver("other", "", false).resolve(otherKey, new MockHttpServletResponse()));
+    }
+
+    @Test
+    void usesTrustedGatewayHeaderWhenConfigured() {
+        TenantResolver resolver = new TenantResolver("secret", "X-Auth-User", true);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("X-Auth-User", "alice");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertEquals("user:alice", resolver.resolve(request, response));
+        assertNull(response.getHeader(HttpHeaders.SET_COOKIE));
+
+        // 没有网关头时退回 Cookie，跨站部署时 Cookie 带 Secure 和 SameSite=None
+        MockHttpServletResponse cookieResponse = new MockHttpServletResponse();
+        resolver.resolve(new MockHttpServletRequest(), cookieResponse);
+        String header = cookieResponse.getHeader(HttpHeaders.SET_COOKIE);
+        assertTrue(header.contains("Secure") && header.contains("SameSite=None"), header);
+    }
+}
@@ -0,0 +1,151 @@
+package com.xinwei.aiagent.tools;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.ToolCallbacks;
+import org.springframework.ai.tool.definition.ToolDefinition;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ToolResultCacheTest {
+
+    /**
+     * 记录调用次数的工具
+     */
+    private static final class CountingTool implements ToolCallback {
+
+        private final ToolDefinition definition;
+        private final Function<String, String> body;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private CountingTool(String name, Function<String, String> body) {
+            this.definition = ToolDefinition.builder().name(name).description(name)
+                    .inputSchema("{\"type\":\"object\"}").build();
+            this.body = body;
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return definition;
+        }
+
+        @Override
+        public String call(String toolInput) {
+            calls.incrementAndGet();
+            return body.apply(toolInput);
+        }
+    }
+
+    private static ToolResultCache newCache(Duration ttl, int maxEntries) {
+        return new ToolResultCache(ttl, Map.of("scrapeWebPage", Duration.ofMinutes(30)),
+                Set.of("executeTerminalCommand", "writeFile"), maxEntries, 1000);
+    }
+
+    @Test
+    void cachesByNormalizedArgumentsAndSkipsExcludedTools() {
+        CountingTool search = new CountingTool("searchWeb", input -> "结果:" + input);
+        CountingTool terminal = new CountingTool("executeTerminalCommand", input -> "ok");
+        CountingTool scrape = new CountingTool("scrapeWebPage", input -> "Error scraping web page: timeout");
+        ToolResultCache cache = newCache(Duration.ofMinutes(5), 100);
+        ToolCallback[] tools = cache.wrap(new ToolCallback[]{search, terminal, scrape});
+
+        assertSame(terminal, tools[1]);
+        assertEquals("searchWeb", tools[0].getToolDefinition().name());
+
+        String first = tools[0].call("{\"query\":\"上海约会地点\",\"page\":1}");
+        // 键顺序和空白不同的相同参数命中缓存
+        assertEquals(first, tools[0].call(" { \"page\": 1, \"query\": \"上海约会地点 \" } "));
+        tools[0].call("{\"query\":\"北京约会地点\",\"page\":1}");
+        assertEquals(2, search.calls.get());
+
+        tools[1].call("{\"command\":\"ls\"}");
+        tools[1].call("{\"command\":\"ls\"}");
+        assertEquals(2, terminal.calls.get());
+
+        // 错误结果不缓存
+        tools[2].call("{\"url\":\"https://example.com\"}");
+        tools[2].call("{\"url\":\"https://example.com\"}");
+        assertEquals(2, scrape.calls.get());
+
+        ToolResultCache.Stats stats = cache.stats().get("searchWeb");
+        assertEquals(1, stats.hits());
+        assertEquals(2, stats.misses());
+        assertEquals(1.0 / 3, stats.hitRatio(), 1e-9);
+        assertFalse(cache.stats().containsKey("executeTerminalCommand"));
+    }
+
+    @Test
+    void expiresAfterTtlAndEvictsBeyondCapacity() throws InterruptedException {
+        CountingTool search = new CountingTool("searchWeb", input -> "结果:" + input);
+        ToolResultCache cache = newCache(Duration.ofMillis(100), 2);
+        ToolCallback tool = cache.wrap(new ToolCallback[]{search})[0];
+
+        tool.call("{\"query\":\"a\"}");
+        tool.call("{\"query\":\"a\"}");
+        assertEquals(1, search.calls.get());
+        Thread.sleep(150);
+        tool.call("{\"query\":\"a\"}");
+        assertEquals(2, search.calls.get());
+
+        tool.call("{\"query\":\"b\"}");
+        tool.call("{\"query\":\"c\"}");
+        assertTrue(cache.stats().get("searchWeb").size() <= 2);
+    }
+
+    @Test
+    void concurrentIdenticalCallsRunOnce() throws Exception {
+        CountingTool scrape = new CountingTool("scrapeWebPage", input -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "<html>页面</html>";
+        });
+        ToolResultCache cache = newCache(Duration.ofMinutes(5), 100);
+        ToolCallback tool = cache.wrap(new ToolCallback[]{scrape})[0];
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> tool.call("{\"url\":\"https://example.com\"}")));
+            }
+            for (Future<String> future : futures) {
+                assertEquals("<html>页面</html>", future.get());
+            }
+        }
+        assertEquals(1, scrape.calls.get());
+        // 等待进行中调用的请求单独计数，调用结束后才到达的请求才算命中
+        ToolResultCache.Stats stats = cache.stats().get("scrapeWebPage");
+        assertEquals(1, stats.misses());
+        assertEquals(7, stats.hits() + stats.coalesced());
+        assertTrue(stats.coalesced() > 0);
+    }
+
+    @Test
+    void doesNotCacheErrorsOfRealToolCallbacks() {
+        ToolResultCache cache = newCache(Duration.ofMinutes(5), 100);
+        // 真实工具的字符串结果会被序列化为带引号的 JSON 字符串；连接本机未监听的端口必然失败
+        ToolCallback scrape = cache.wrap(ToolCallbacks.from(new WebScrapingTool()))[0];
+        String input = "{\"url\":\"http://127.0.0.1:1/\"}";
+
+        String first = scrape.call(input);
+        assertTrue(first.startsWith("\"Error"), first);
+        scrape.call(input);
+        ToolResultCache.Stats stats = cache.stats().get("scrapeWebPage");
+        assertEquals(2, stats.misses());
+        assertEquals(0, stats.hits());
+        assertEquals(0, stats.size());
+    }
+}
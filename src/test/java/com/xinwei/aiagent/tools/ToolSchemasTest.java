@@ -0,0 +1,72 @@
+package com.xinwei.aiagent.tools;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ToolSchemasTest {
+
+    private static ToolCallback tool(String name, String schema) {
+        ToolDefinition definition = ToolDefinition.builder().name(name).description("tool " + name)
+                .inputSchema(schema).build();
+        return new ToolCallback() {
+            @Override
+            public ToolDefinition getToolDefinition() {
+                return definition;
+            }
+
+            @Override
+            public String call(String toolInput) {
+                return name + ":" + toolInput;
+            }
+        };
+    }
+
+    @Test
+    void resolvesDefinitionsOnceAndDelegatesCalls() {
+        // 原来的工具列表：包装了结果缓存的真实工具
+        ToolCallback[] tools = new ToolRegistration().toolSchemas(
+                new ToolResultCache(Duration.ofMinutes(5), Map.of(), Set.of(), 10, 1000)).toArray();
+        ToolSchemas schemas = ToolSchemas.of(new ToolResultCache(Duration.ofMinutes(5), Map.of(), Set.of(), 10, 1000)
+                .wrap(new ToolCallback[]{tool("searchWeb", "{\"type\":\"object\",\"properties\":{\"query\":{\"type\":\"string\"}}}"),
+                        tool("doTerminate", "{\"type\":\"object\"}")}));
+
+        assertEquals(8, tools.length);
+        List<ToolCallback> callbacks = schemas.callbacks();
+        assertThrows(UnsupportedOperationException.class, () -> callbacks.add(tool("x", "{}")));
+        ToolCallback search = callbacks.get(0);
+        assertSame(search.getToolDefinition(), search.getToolDefinition());
+        assertSame(search.getToolDefinition().inputSchema(), search.getInputTypeSchema());
+        assertEquals("searchWeb:{\"query\":\"约会\"}", search.call("{\"query\":\"约会\"}"));
+        assertSame(search, schemas.toArray()[0]);
+        assertEquals("{\"type\":\"object\"}", schemas.schema("doTerminate"));
+        assertNull(schemas.schema("missing"));
+
+        ByteBuffer json = schemas.definitionsJson();
+        assertTrue(json.isReadOnly());
+        byte[] bytes = new byte[json.remaining()];
+        json.get(bytes);
+        JSONArray definitions = JSONUtil.parseArray(new String(bytes, StandardCharsets.UTF_8));
+        assertEquals(2, definitions.size());
+        assertEquals("searchWeb", definitions.getJSONObject(0).getStr("name"));
+        assertEquals("string", definitions.getJSONObject(0).getByPath("parameters.properties.query.type", String.class));
+    }
+
+    @Test
+    void rejectsDuplicateNamesAndInvalidSchemas() {
+        assertThrows(IllegalStateException.class,
+                () -> ToolSchemas.of(tool("searchWeb", "{}"), tool("searchWeb", "{}")));
+        assertThrows(IllegalStateException.class, () -> ToolSchemas.of(tool("searchWeb", "not json")));
+    }
+}